@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares forward and back propagation through the DL4J activation function
+ * components created by HybridML4JDL4JDefaultDirectedComponentFactory with the
+ * equivalent pure-ML4J components.
+ *
+ * @author Michael Lavelle
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ActivationFunctionComponentBenchmark {
+
+	@Param({ "16", "256", "4096" })
+	private int featureCount;
+
+	@Param({ "1", "32", "256" })
+	private int exampleCount;
+
+	@Param
+	private BenchmarkActivation activation;
+
+	@Param({ BenchmarkSupport.ML4J, BenchmarkSupport.DL4J })
+	private String implementation;
+
+	@Param({ BenchmarkSupport.JBLAS, BenchmarkSupport.ND4J })
+	private String matrixFactoryName;
+
+	private DifferentiableActivationFunctionComponent component;
+	private NeuronsActivationContext trainingContext;
+	private NeuronsActivationContext inferenceContext;
+	private NeuronsActivation input;
+	private DirectedComponentGradient<NeuronsActivation> outputGradient;
+
+	@Setup
+	public void setUp() {
+		MatrixFactory matrixFactory = BenchmarkSupport.createMatrixFactory(matrixFactoryName);
+		Neurons neurons = new Neurons(featureCount, false);
+		component = BenchmarkSupport.createActivationFunctionComponent(implementation, matrixFactory, activation,
+				neurons);
+		trainingContext = new NeuronsActivationContextImpl(matrixFactory, true);
+		inferenceContext = new NeuronsActivationContextImpl(matrixFactory, false);
+		input = BenchmarkSupport.createActivation(matrixFactory, neurons, exampleCount);
+		outputGradient = new DirectedComponentGradientImpl<>(
+				BenchmarkSupport.createActivation(matrixFactory, neurons, exampleCount));
+	}
+
+	@Benchmark
+	public NeuronsActivation forwardPropagateInference() {
+		return component.forwardPropagate(input, inferenceContext).getOutput();
+	}
+
+	@Benchmark
+	public NeuronsActivation forwardPropagateTraining() {
+		return component.forwardPropagate(input, trainingContext).getOutput();
+	}
+
+	@Benchmark
+	public DirectedComponentGradient<NeuronsActivation> forwardAndBackPropagate() {
+		DifferentiableActivationFunctionComponentActivation componentActivation = component
+				.forwardPropagate(input, trainingContext);
+		return componentActivation.backPropagate(outputGradient);
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import org.ml4j.nn.activationfunctions.DefaultLeakyReluActivationFunctionImpl;
+import org.ml4j.nn.activationfunctions.DefaultReluActivationFunctionImpl;
+import org.ml4j.nn.activationfunctions.DefaultSigmoidActivationFunctionImpl;
+import org.ml4j.nn.activationfunctions.DefaultSoftmaxActivationFunctionImpl;
+import org.ml4j.nn.activationfunctions.DefaultTanhActivationFunctionImpl;
+import org.ml4j.nn.activationfunctions.DifferentiableActivationFunction;
+
+/**
+ * The activation functions compared by the benchmarks.
+ *
+ * Each value creates the ML4J activation function, which is used directly for
+ * the pure-ML4J benchmarks and is passed to the hybrid factory to obtain the
+ * DL4J equivalent.
+ *
+ * @author Michael Lavelle
+ */
+public enum BenchmarkActivation {
+
+	RELU, LEAKYRELU, SIGMOID, TANH, SOFTMAX;
+
+	private static final float LEAKY_RELU_ALPHA = 0.01f;
+
+	public DifferentiableActivationFunction createML4JActivationFunction() {
+		switch (this) {
+		case RELU:
+			return new DefaultReluActivationFunctionImpl();
+		case LEAKYRELU:
+			return new DefaultLeakyReluActivationFunctionImpl(LEAKY_RELU_ALPHA);
+		case SIGMOID:
+			return new DefaultSigmoidActivationFunctionImpl();
+		case TANH:
+			return new DefaultTanhActivationFunctionImpl();
+		case SOFTMAX:
+			return new DefaultSoftmaxActivationFunctionImpl();
+		default:
+			throw new IllegalStateException("Unsupported activation:" + this);
+		}
+	}
+}
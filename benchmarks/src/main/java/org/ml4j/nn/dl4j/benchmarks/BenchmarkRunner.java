@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates
+ * are reported alongside throughput and latency, and writes the results as
+ * JSON so that runs can be compared between releases.
+ *
+ * Usage: java [-Dml4j.benchmarks.result=resultFile] -jar target/benchmarks.jar
+ * [JMH options]
+ *
+ * @author Michael Lavelle
+ */
+public class BenchmarkRunner {
+
+	private static final String RESULT_FILE_PROPERTY = "ml4j.benchmarks.result";
+	private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+
+		String resultFile = System.getProperty(RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE);
+
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		ChainedOptionsBuilder optionsBuilder = new OptionsBuilder().parent(commandLineOptions)
+				.addProfiler(GCProfiler.class).resultFormat(ResultFormatType.JSON).result(resultFile);
+		if (commandLineOptions.getIncludes().isEmpty()) {
+			optionsBuilder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		}
+		Options options = optionsBuilder.build();
+
+		new Runner(options).run();
+	}
+}
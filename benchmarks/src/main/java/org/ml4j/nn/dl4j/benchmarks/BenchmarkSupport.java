@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.activationfunctions.DifferentiableActivationFunction;
+import org.ml4j.nn.components.DirectedComponentsContextImpl;
+import org.ml4j.nn.components.activationfunctions.DefaultDifferentiableActivationFunctionComponentImpl;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.dl4j.factories.HybridML4JDL4JDefaultDirectedComponentFactory;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+
+/**
+ * Shared setup for the benchmarks.
+ *
+ * @author Michael Lavelle
+ */
+final class BenchmarkSupport {
+
+	static final String JBLAS = "jblas";
+	static final String ND4J = "nd4j";
+
+	static final String ML4J = "ml4j";
+	static final String DL4J = "dl4j";
+
+	private BenchmarkSupport() {
+	}
+
+	static MatrixFactory createMatrixFactory(String matrixFactoryName) {
+		if (JBLAS.equals(matrixFactoryName)) {
+			return new JBlasRowMajorMatrixFactory();
+		} else if (ND4J.equals(matrixFactoryName)) {
+			return new Nd4jMatrixFactory();
+		} else {
+			throw new IllegalArgumentException("Unknown matrix factory:" + matrixFactoryName);
+		}
+	}
+
+	static DifferentiableActivationFunctionComponent createActivationFunctionComponent(String implementation,
+			MatrixFactory matrixFactory, BenchmarkActivation activation, Neurons neurons) {
+		DifferentiableActivationFunction activationFunction = activation.createML4JActivationFunction();
+		if (ML4J.equals(implementation)) {
+			return new DefaultDifferentiableActivationFunctionComponentImpl(activation.name(), neurons,
+					activationFunction);
+		} else if (DL4J.equals(implementation)) {
+			return new HybridML4JDL4JDefaultDirectedComponentFactory(matrixFactory, null,
+					new DirectedComponentsContextImpl(matrixFactory, true))
+							.createDifferentiableActivationFunctionComponent(activation.name(), neurons,
+									activationFunction);
+		} else {
+			throw new IllegalArgumentException("Unknown implementation:" + implementation);
+		}
+	}
+
+	/**
+	 * Creates a random activation in the default ML4J orientation, where the
+	 * rows of the activation matrix span the feature set.
+	 */
+	static NeuronsActivation createActivation(MatrixFactory matrixFactory, Neurons neurons, int exampleCount) {
+		return new NeuronsActivationImpl(neurons,
+				matrixFactory.createRandn(neurons.getNeuronCountExcludingBias(), exampleCount),
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET);
+	}
+}
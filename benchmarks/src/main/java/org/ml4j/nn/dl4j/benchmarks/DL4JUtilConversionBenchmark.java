@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of converting between ML4J NeuronsActivations and ND4J
+ * INDArrays with DL4JUtil.
+ *
+ * The source activation is always in the default ML4J orientation, so a
+ * targetOrientation of COLUMNS_SPAN_FEATURE_SET measures the transposing
+ * path.
+ *
+ * @author Michael Lavelle
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DL4JUtilConversionBenchmark {
+
+	@Param({ "16", "256", "4096" })
+	private int featureCount;
+
+	@Param({ "1", "32", "256" })
+	private int exampleCount;
+
+	@Param({ "ROWS_SPAN_FEATURE_SET", "COLUMNS_SPAN_FEATURE_SET" })
+	private NeuronsActivationFeatureOrientation targetOrientation;
+
+	@Param({ BenchmarkSupport.JBLAS, BenchmarkSupport.ND4J })
+	private String matrixFactoryName;
+
+	private MatrixFactory matrixFactory;
+	private Neurons neurons;
+	private NeuronsActivation neuronsActivation;
+	private INDArray ndArray;
+
+	@Setup
+	public void setUp() {
+		matrixFactory = BenchmarkSupport.createMatrixFactory(matrixFactoryName);
+		neurons = new Neurons(featureCount, false);
+		neuronsActivation = BenchmarkSupport.createActivation(matrixFactory, neurons, exampleCount);
+		ndArray = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, targetOrientation).dup();
+	}
+
+	@Benchmark
+	public INDArray asNDArray() {
+		return DL4JUtil.asNDArray(matrixFactory, neuronsActivation, targetOrientation);
+	}
+
+	@Benchmark
+	public Matrix fromNDArray() {
+		// The Matrix is created lazily, so request it to measure the conversion
+		return DL4JUtil.fromNDArray(matrixFactory, ndArray, targetOrientation,
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, neurons).getActivations(matrixFactory);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ml4j.nn.dl4j.activationfunctions.BaseML4JActivationFunction;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.primitives.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares ML4J activation functions adapted to DL4J's IActivation interface by
+ * BaseML4JActivationFunction with DL4J's own implementations.
+ *
+ * DL4J activation functions work in-place, so each invocation operates on a
+ * duplicate of the input for both implementations.
+ *
+ * @author Michael Lavelle
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ML4JActivationFunctionBenchmark {
+
+	@Param({ "16", "256", "4096" })
+	private int featureCount;
+
+	@Param({ "1", "32", "256" })
+	private int exampleCount;
+
+	@Param
+	private BenchmarkActivation activation;
+
+	@Param({ BenchmarkSupport.ML4J, BenchmarkSupport.DL4J })
+	private String implementation;
+
+	@Param({ BenchmarkSupport.JBLAS, BenchmarkSupport.ND4J })
+	private String matrixFactoryName;
+
+	private IActivation activationFunction;
+	private INDArray input;
+	private INDArray epsilon;
+
+	@Setup
+	public void setUp() {
+		if (BenchmarkSupport.ML4J.equals(implementation)) {
+			activationFunction = new BaseML4JActivationFunction(activation.name(),
+					BenchmarkSupport.createMatrixFactory(matrixFactoryName),
+					activation.createML4JActivationFunction());
+		} else {
+			activationFunction = Activation.valueOf(activation.name()).getActivationFunction();
+		}
+		input = Nd4j.randn(featureCount, exampleCount);
+		epsilon = Nd4j.randn(featureCount, exampleCount);
+	}
+
+	@Benchmark
+	public INDArray getActivation() {
+		return activationFunction.getActivation(input.dup(), true);
+	}
+
+	@Benchmark
+	public Pair<INDArray, INDArray> backprop() {
+		return activationFunction.backprop(input.dup(), epsilon);
+	}
+}
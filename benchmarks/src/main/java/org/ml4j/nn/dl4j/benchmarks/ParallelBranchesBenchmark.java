@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.DirectedComponentsContextImpl;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.factories.HybridML4JDL4JDefaultDirectedComponentFactory;
+import org.ml4j.nn.dl4j.graphs.DL4JBranchCombination;
+import org.ml4j.nn.dl4j.graphs.DL4JParallelBranchesComponentActivationImpl;
+import org.ml4j.nn.dl4j.graphs.DL4JParallelBranchesComponentImpl;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares sequential and concurrent execution of the independent branches of
+ * a DL4JParallelBranchesComponentImpl, where each branch is a chain of ND4J
+ * backed fully connected axons.
+ *
+ * A branch parallelism of 0 runs the branches sequentially on the benchmark
+ * thread. The speedup of concurrent execution is clearest when ND4J's own BLAS
+ * threading is limited, for example with OMP_NUM_THREADS=1.
+ *
+ * @author Michael Lavelle
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParallelBranchesBenchmark {
+
+	@Param({ "2", "4" })
+	private int branchCount;
+
+	@Param({ "3" })
+	private int branchDepth;
+
+	@Param({ "256", "1024" })
+	private int featureCount;
+
+	@Param({ "64", "256" })
+	private int exampleCount;
+
+	@Param({ "0", "2", "4" })
+	private int branchParallelism;
+
+	private DL4JParallelBranchesComponentImpl component;
+	private DirectedComponentsContext trainingContext;
+	private DirectedComponentsContext inferenceContext;
+	private NeuronsActivation input;
+	private DirectedComponentGradient<NeuronsActivation> outputGradient;
+
+	@Setup
+	public void setUp() {
+		MatrixFactory matrixFactory = BenchmarkSupport.createMatrixFactory(BenchmarkSupport.ND4J);
+		trainingContext = new DirectedComponentsContextImpl(matrixFactory, true);
+		inferenceContext = new DirectedComponentsContextImpl(matrixFactory, false);
+		DL4JComponentConfig config = new DL4JComponentConfig().withFullyConnectedAxonsEnabled(true)
+				.withBranchParallelism(branchParallelism);
+		HybridML4JDL4JDefaultDirectedComponentFactory factory = new HybridML4JDL4JDefaultDirectedComponentFactory(
+				matrixFactory, null, trainingContext, config);
+
+		Neurons neurons = new Neurons(featureCount, true);
+		List<DefaultChainableDirectedComponent<?, ?>> branches = new ArrayList<>();
+		for (int i = 0; i < branchCount; i++) {
+			List<DefaultChainableDirectedComponent<?, ?>> layers = new ArrayList<>();
+			for (int j = 0; j < branchDepth; j++) {
+				layers.add(factory.createFullyConnectedAxonsComponent("branch" + i + "-" + j, neurons, neurons,
+						null, null));
+			}
+			branches.add(factory.createDirectedComponentChain(layers));
+		}
+		component = factory.createParallelBranchesComponent("branches", neurons, neurons, branches,
+				DL4JBranchCombination.ADDITION);
+
+		input = BenchmarkSupport.createActivation(matrixFactory, neurons, exampleCount);
+		outputGradient = new DirectedComponentGradientImpl<>(
+				BenchmarkSupport.createActivation(matrixFactory, neurons, exampleCount));
+	}
+
+	@Benchmark
+	public NeuronsActivation forwardPropagateInference() {
+		return component.forwardPropagate(input, inferenceContext).getOutput();
+	}
+
+	@Benchmark
+	public DirectedComponentGradient<NeuronsActivation> forwardAndBackPropagate() {
+		DL4JParallelBranchesComponentActivationImpl componentActivation = component.forwardPropagate(input,
+				trainingContext);
+		return componentActivation.backPropagate(outputGradient);
+	}
+}
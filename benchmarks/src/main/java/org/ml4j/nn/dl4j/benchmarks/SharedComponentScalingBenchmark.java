@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the inference throughput of a single DL4J activation function
+ * component, shared by all benchmark threads, scales with the number of
+ * threads.
+ *
+ * Each thread propagates its own input. As the component shares no mutable
+ * state between threads, the aggregate throughput reported for each thread
+ * count should rise close to linearly up to the number of physical cores.
+ * Scaling is clearest when ND4J's own BLAS threading is limited, for example
+ * with OMP_NUM_THREADS=1.
+ *
+ * @author Michael Lavelle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SharedComponentScalingBenchmark {
+
+	@Param({ "256", "4096" })
+	private int featureCount;
+
+	@Param({ "32", "256" })
+	private int exampleCount;
+
+	@Param({ "RELU", "SOFTMAX" })
+	private BenchmarkActivation activation;
+
+	private MatrixFactory matrixFactory;
+	private Neurons neurons;
+	private DifferentiableActivationFunctionComponent component;
+	private NeuronsActivationContext inferenceContext;
+
+	/**
+	 * The input propagated by a single benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadInput {
+
+		private NeuronsActivation input;
+
+		@Setup
+		public void setUp(SharedComponentScalingBenchmark benchmark) {
+			input = BenchmarkSupport.createActivation(benchmark.matrixFactory, benchmark.neurons,
+					benchmark.exampleCount);
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		matrixFactory = BenchmarkSupport.createMatrixFactory(BenchmarkSupport.ND4J);
+		neurons = new Neurons(featureCount, false);
+		component = BenchmarkSupport.createActivationFunctionComponent(BenchmarkSupport.DL4J, matrixFactory,
+				activation, neurons);
+		inferenceContext = new NeuronsActivationContextImpl(matrixFactory, false);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public NeuronsActivation forwardPropagateInference1Thread(ThreadInput threadInput) {
+		return forwardPropagateInference(threadInput);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public NeuronsActivation forwardPropagateInference2Threads(ThreadInput threadInput) {
+		return forwardPropagateInference(threadInput);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public NeuronsActivation forwardPropagateInference4Threads(ThreadInput threadInput) {
+		return forwardPropagateInference(threadInput);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public NeuronsActivation forwardPropagateInference8Threads(ThreadInput threadInput) {
+		return forwardPropagateInference(threadInput);
+	}
+
+	private NeuronsActivation forwardPropagateInference(ThreadInput threadInput) {
+		return component.forwardPropagate(threadInput.input, inferenceContext).getOutput();
+	}
+}
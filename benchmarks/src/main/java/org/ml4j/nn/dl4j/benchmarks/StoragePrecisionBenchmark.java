@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.DirectedComponentsContextImpl;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.DL4JReducedPrecision;
+import org.ml4j.nn.dl4j.DL4JStoragePrecision;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JReducedPrecisionArray;
+import org.ml4j.nn.dl4j.factories.HybridML4JDL4JDefaultDirectedComponentFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the reduced storage precisions of the state retained by DL4J
+ * activation function components with FP32 storage.
+ *
+ * retainAndRestore measures storing and restoring the retained input on its
+ * own, which for FP32 is a copy, and forwardAndBackPropagate measures the
+ * effect on a training step through a component.
+ *
+ * @author Michael Lavelle
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StoragePrecisionBenchmark {
+
+	@Param({ "256", "4096" })
+	private int featureCount;
+
+	@Param({ "32", "256" })
+	private int exampleCount;
+
+	@Param({ "SIGMOID", "SOFTMAX" })
+	private BenchmarkActivation activation;
+
+	@Param
+	private DL4JStoragePrecision storagePrecision;
+
+	private Optional<DL4JReducedPrecision> reducedPrecision;
+	private INDArray retained;
+	private DifferentiableActivationFunctionComponent component;
+	private NeuronsActivationContext trainingContext;
+	private NeuronsActivation input;
+	private DirectedComponentGradient<NeuronsActivation> outputGradient;
+
+	@Setup
+	public void setUp() {
+		MatrixFactory matrixFactory = BenchmarkSupport.createMatrixFactory(BenchmarkSupport.ND4J);
+		Neurons neurons = new Neurons(featureCount, false);
+		reducedPrecision = storagePrecision.getReducedPrecision();
+		retained = Nd4j.randn(exampleCount, featureCount);
+		component = new HybridML4JDL4JDefaultDirectedComponentFactory(matrixFactory, null,
+				new DirectedComponentsContextImpl(matrixFactory, true),
+				new DL4JComponentConfig().withStoragePrecision(storagePrecision))
+						.createDifferentiableActivationFunctionComponent(activation.name(), neurons,
+								activation.createML4JActivationFunction());
+		trainingContext = new NeuronsActivationContextImpl(matrixFactory, true);
+		input = BenchmarkSupport.createActivation(matrixFactory, neurons, exampleCount);
+		outputGradient = new DirectedComponentGradientImpl<>(
+				BenchmarkSupport.createActivation(matrixFactory, neurons, exampleCount));
+	}
+
+	@Benchmark
+	public INDArray retainAndRestore() {
+		return reducedPrecision.isPresent()
+				? DL4JReducedPrecisionArray.encode(retained, reducedPrecision.get()).decode()
+				: retained.dup();
+	}
+
+	@Benchmark
+	public DirectedComponentGradient<NeuronsActivation> forwardAndBackPropagate() {
+		DifferentiableActivationFunctionComponentActivation componentActivation = component
+				.forwardPropagate(input, trainingContext);
+		return componentActivation.backPropagate(outputGradient);
+	}
+}
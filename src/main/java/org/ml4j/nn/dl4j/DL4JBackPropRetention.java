@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j;
+
+/**
+ * The state retained by DL4J activation function component activations
+ * between forward and back propagation.
+ *
+ * @author Michael Lavelle
+ */
+public enum DL4JBackPropRetention {
+
+	/**
+	 * Retain the input INDArray, as passed to the DL4J activation function.
+	 */
+	INPUT,
+
+	/**
+	 * Retain only what the back propagation of the activation function needs - a
+	 * sign bitmask for ReLU and leaky ReLU, and a reference to the output, from
+	 * which the derivative is computed on back propagation, for sigmoid and tanh.
+	 * Other activation functions retain their input.
+	 */
+	MINIMAL,
+
+	/**
+	 * Retain no INDArray of the component's own - only a reference to the input
+	 * activation, which the caller holds anyway - and recover the input from it on
+	 * back propagation, converting it again if it is not carried natively by
+	 * ND4J. This saves memory over INPUT only where the input is converted from an
+	 * ML4J Matrix, as an ND4J-native input is referenced rather than copied under
+	 * INPUT too.
+	 */
+	RECOMPUTE
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j;
+
+import java.io.Serializable;
+
+/**
+ * Immutable configuration of the opt-in parallel mode of DL4J activation
+ * function components, in which large mini-batches are split along the example
+ * dimension into shards which are processed on a fork-join pool.
+ *
+ * Sharding is enabled by forward propagating with a
+ * DL4JDirectedComponentsContext, or a DL4JNeuronsActivationContext, which
+ * carries this configuration.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JBatchShardingConfig implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private int shardSize;
+	private int parallelism;
+
+	/**
+	 * Creates a configuration which sizes shards to fit in cache, and which runs
+	 * on the common fork-join pool.
+	 */
+	public DL4JBatchShardingConfig() {
+		this(0, 0);
+	}
+
+	/**
+	 * @param shardSize   The number of examples per shard, or 0 to size each
+	 *                    shard so that it fits in a per-core cache.
+	 * @param parallelism The parallelism of the fork-join pool, or 0 to use the
+	 *                    common fork-join pool.
+	 */
+	public DL4JBatchShardingConfig(int shardSize, int parallelism) {
+		if (shardSize < 0 || parallelism < 0) {
+			throw new IllegalArgumentException(
+					"Shard size:" + shardSize + " and parallelism:" + parallelism + " must not be negative");
+		}
+		this.shardSize = shardSize;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return The number of examples per shard, or 0 if shards are sized to fit
+	 *         in cache.
+	 */
+	public int getShardSize() {
+		return shardSize;
+	}
+
+	/**
+	 * @return The parallelism of the fork-join pool, or 0 if the common
+	 *         fork-join pool is used.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param shardSize The number of examples per shard, or 0 to size shards to
+	 *                  fit in cache.
+	 * @return A copy of this configuration with the shard size applied.
+	 */
+	public DL4JBatchShardingConfig withShardSize(int shardSize) {
+		return new DL4JBatchShardingConfig(shardSize, parallelism);
+	}
+
+	/**
+	 * @param parallelism The parallelism of the fork-join pool, or 0 to use the
+	 *                    common fork-join pool.
+	 * @return A copy of this configuration with the parallelism applied.
+	 */
+	public DL4JBatchShardingConfig withParallelism(int parallelism) {
+		return new DL4JBatchShardingConfig(shardSize, parallelism);
+	}
+
+	@Override
+	public String toString() {
+		return "DL4JBatchShardingConfig [shardSize=" + shardSize + ", parallelism=" + parallelism + "]";
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j;
+
+import java.io.Serializable;
+
+/**
+ * Immutable configuration shared by the DL4J-backed components created by
+ * HybridML4JDL4JDefaultDirectedComponentFactory.
+ *
+ * The default configuration reproduces the behaviour of the components before
+ * any of the optional modes were introduced.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JComponentConfig implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private boolean workspacesEnabled;
+	private boolean fullyConnectedAxonsEnabled;
+	private boolean convolutionalAxonsEnabled;
+	private boolean batchNormEnabled;
+	private boolean activationFusionEnabled;
+	private DL4JBackPropRetention backPropRetention;
+	private boolean inPlaceInferenceEnabled;
+	private DL4JStoragePrecision storagePrecision;
+	private int truncatedBpttLength;
+	private int branchParallelism;
+
+	public DL4JComponentConfig() {
+		this.workspacesEnabled = false;
+		this.fullyConnectedAxonsEnabled = false;
+		this.convolutionalAxonsEnabled = false;
+		this.batchNormEnabled = false;
+		this.activationFusionEnabled = false;
+		this.backPropRetention = DL4JBackPropRetention.INPUT;
+		this.inPlaceInferenceEnabled = false;
+		this.storagePrecision = DL4JStoragePrecision.FP32;
+		this.truncatedBpttLength = 0;
+		this.branchParallelism = 0;
+	}
+
+	private DL4JComponentConfig(DL4JComponentConfig other) {
+		this.workspacesEnabled = other.workspacesEnabled;
+		this.fullyConnectedAxonsEnabled = other.fullyConnectedAxonsEnabled;
+		this.convolutionalAxonsEnabled = other.convolutionalAxonsEnabled;
+		this.batchNormEnabled = other.batchNormEnabled;
+		this.activationFusionEnabled = other.activationFusionEnabled;
+		this.backPropRetention = other.backPropRetention;
+		this.inPlaceInferenceEnabled = other.inPlaceInferenceEnabled;
+		this.storagePrecision = other.storagePrecision;
+		this.truncatedBpttLength = other.truncatedBpttLength;
+		this.branchParallelism = other.branchParallelism;
+	}
+
+	/**
+	 * @return Whether components perform forward and back propagation inside
+	 *         ND4J workspaces keyed per component.
+	 */
+	public boolean isWorkspacesEnabled() {
+		return workspacesEnabled;
+	}
+
+	/**
+	 * Workspaces allow scratch memory to be recycled between training
+	 * iterations, rather than allocated afresh on each iteration. Arrays which
+	 * outlive a propagation - outputs, and arrays retained by a component
+	 * activation for back propagation - are allocated outside of the
+	 * workspaces, so an activation may be back propagated on any thread, after
+	 * the component has been forward propagated again.
+	 *
+	 * @param workspacesEnabled Whether to enable workspaces.
+	 * @return A copy of this configuration with the workspace mode applied.
+	 */
+	public DL4JComponentConfig withWorkspacesEnabled(boolean workspacesEnabled) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.workspacesEnabled = workspacesEnabled;
+		return config;
+	}
+
+	/**
+	 * @return Whether fully connected axons components are backed by ND4J,
+	 *         rather than created by ML4J.
+	 */
+	public boolean isFullyConnectedAxonsEnabled() {
+		return fullyConnectedAxonsEnabled;
+	}
+
+	/**
+	 * @param fullyConnectedAxonsEnabled Whether fully connected axons components
+	 *                                   should be backed by ND4J.
+	 * @return A copy of this configuration with the fully connected axons mode
+	 *         applied.
+	 */
+	public DL4JComponentConfig withFullyConnectedAxonsEnabled(boolean fullyConnectedAxonsEnabled) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.fullyConnectedAxonsEnabled = fullyConnectedAxonsEnabled;
+		return config;
+	}
+
+	/**
+	 * @return Whether convolutional and pooling axons components are backed by
+	 *         ND4J, rather than created by ML4J.
+	 */
+	public boolean isConvolutionalAxonsEnabled() {
+		return convolutionalAxonsEnabled;
+	}
+
+	/**
+	 * @param convolutionalAxonsEnabled Whether convolutional and pooling axons
+	 *                                  components should be backed by ND4J.
+	 * @return A copy of this configuration with the convolutional axons mode
+	 *         applied.
+	 */
+	public DL4JComponentConfig withConvolutionalAxonsEnabled(boolean convolutionalAxonsEnabled) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.convolutionalAxonsEnabled = convolutionalAxonsEnabled;
+		return config;
+	}
+
+	/**
+	 * @return Whether batch normalisation axons components are backed by ND4J,
+	 *         rather than created by ML4J.
+	 */
+	public boolean isBatchNormEnabled() {
+		return batchNormEnabled;
+	}
+
+	/**
+	 * @param batchNormEnabled Whether batch normalisation axons components
+	 *                         should be backed by ND4J.
+	 * @return A copy of this configuration with the batch normalisation mode
+	 *         applied.
+	 */
+	public DL4JComponentConfig withBatchNormEnabled(boolean batchNormEnabled) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.batchNormEnabled = batchNormEnabled;
+		return config;
+	}
+
+	/**
+	 * @return Whether runs of consecutive element-wise DL4J activation function
+	 *         components are fused into a single component when component chains
+	 *         are created.
+	 */
+	public boolean isActivationFusionEnabled() {
+		return activationFusionEnabled;
+	}
+
+	/**
+	 * @param activationFusionEnabled Whether to fuse runs of consecutive
+	 *                                element-wise DL4J activation function
+	 *                                components.
+	 * @return A copy of this configuration with the activation fusion mode
+	 *         applied.
+	 */
+	public DL4JComponentConfig withActivationFusionEnabled(boolean activationFusionEnabled) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.activationFusionEnabled = activationFusionEnabled;
+		return config;
+	}
+
+	/**
+	 * @return The state retained by activation function component activations
+	 *         for back propagation.
+	 */
+	public DL4JBackPropRetention getBackPropRetention() {
+		return backPropRetention;
+	}
+
+	/**
+	 * @param backPropRetention The state retained by activation function
+	 *                          component activations for back propagation.
+	 * @return A copy of this configuration with the retention mode applied.
+	 */
+	public DL4JComponentConfig withBackPropRetention(DL4JBackPropRetention backPropRetention) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.backPropRetention = backPropRetention;
+		return config;
+	}
+
+	/**
+	 * @return Whether activation function and batch normalisation components,
+	 *         outside of a training context, apply the activation function or
+	 *         normalisation in-place on the buffer of their input.
+	 */
+	public boolean isInPlaceInferenceEnabled() {
+		return inPlaceInferenceEnabled;
+	}
+
+	/**
+	 * In-place inference avoids allocating an output array for each activation
+	 * function or batch normalisation component outside of a training context,
+	 * so that only one buffer is live per layer. Where the input activation is carried
+	 * natively as an INDArray, its buffer is overwritten by the output, so this
+	 * mode should only be enabled when callers do not read an input activation
+	 * after forward propagating it - as is the case for a component chain.
+	 *
+	 * @param inPlaceInferenceEnabled Whether to enable in-place inference.
+	 * @return A copy of this configuration with the in-place inference mode
+	 *         applied.
+	 */
+	public DL4JComponentConfig withInPlaceInferenceEnabled(boolean inPlaceInferenceEnabled) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.inPlaceInferenceEnabled = inPlaceInferenceEnabled;
+		return config;
+	}
+
+	/**
+	 * @return The precision in which activation function component activations
+	 *         store the input they retain for back propagation.
+	 */
+	public DL4JStoragePrecision getStoragePrecision() {
+		return storagePrecision;
+	}
+
+	/**
+	 * A reduced storage precision halves the memory retained between forward
+	 * and back propagation by activation function components which retain their
+	 * input, at the cost of rounding the input used to compute the activation
+	 * gradient. Forward and back propagation are still computed in FP32.
+	 *
+	 * @param storagePrecision The precision in which activation function
+	 *                         component activations store their retained input.
+	 * @return A copy of this configuration with the storage precision applied.
+	 */
+	public DL4JComponentConfig withStoragePrecision(DL4JStoragePrecision storagePrecision) {
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.storagePrecision = storagePrecision;
+		return config;
+	}
+
+	/**
+	 * @return The number of timesteps in each segment of truncated back
+	 *         propagation through time for recurrent components, or 0 if back
+	 *         propagation is through the whole sequence.
+	 */
+	public int getTruncatedBpttLength() {
+		return truncatedBpttLength;
+	}
+
+	/**
+	 * Truncated back propagation through time splits each sequence into
+	 * consecutive segments of the given length, and does not propagate
+	 * gradients from one segment into the state entering it, bounding the cost
+	 * of back propagating long sequences. Forward propagation is unaffected.
+	 *
+	 * @param truncatedBpttLength The number of timesteps in each segment, or 0
+	 *                            to back propagate through whole sequences.
+	 * @return A copy of this configuration with the truncation applied.
+	 */
+	public DL4JComponentConfig withTruncatedBpttLength(int truncatedBpttLength) {
+		if (truncatedBpttLength < 0) {
+			throw new IllegalArgumentException("Truncated BPTT length must not be negative:" + truncatedBpttLength);
+		}
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.truncatedBpttLength = truncatedBpttLength;
+		return config;
+	}
+
+	/**
+	 * @return The number of threads on which the branches of parallel branches
+	 *         components are run concurrently, or 0 if branches are run
+	 *         sequentially on the calling thread.
+	 */
+	public int getBranchParallelism() {
+		return branchParallelism;
+	}
+
+	/**
+	 * Independent branches spend most of their time in ND4J native operations,
+	 * so running them concurrently can reduce latency on multi-core hosts.
+	 * Results are combined in branch order, so are identical to sequential
+	 * execution.
+	 *
+	 * @param branchParallelism The number of threads of the fork-join pool on
+	 *                          which branches are run, or 0 to run branches
+	 *                          sequentially.
+	 * @return A copy of this configuration with the branch parallelism applied.
+	 */
+	public DL4JComponentConfig withBranchParallelism(int branchParallelism) {
+		if (branchParallelism < 0) {
+			throw new IllegalArgumentException("Branch parallelism must not be negative:" + branchParallelism);
+		}
+		DL4JComponentConfig config = new DL4JComponentConfig(this);
+		config.branchParallelism = branchParallelism;
+		return config;
+	}
+
+	@Override
+	public String toString() {
+		return "DL4JComponentConfig [workspacesEnabled=" + workspacesEnabled + ", fullyConnectedAxonsEnabled="
+				+ fullyConnectedAxonsEnabled + ", convolutionalAxonsEnabled=" + convolutionalAxonsEnabled
+				+ ", batchNormEnabled=" + batchNormEnabled + ", activationFusionEnabled=" + activationFusionEnabled
+				+ ", backPropRetention=" + backPropRetention + ", inPlaceInferenceEnabled=" + inPlaceInferenceEnabled
+				+ ", storagePrecision=" + storagePrecision + ", truncatedBpttLength=" + truncatedBpttLength
+				+ ", branchParallelism=" + branchParallelism + "]";
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentsContextImpl;
+
+/**
+ * A DirectedComponentsContext which additionally carries the configuration of
+ * the parallel mode of DL4J activation function components.
+ *
+ * DL4J components create DL4JNeuronsActivationContexts from this context, so
+ * that the configuration reaches their forward and back propagation.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JDirectedComponentsContext extends DirectedComponentsContextImpl {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private DL4JBatchShardingConfig batchShardingConfig;
+
+	/**
+	 * @param matrixFactory       The matrix factory.
+	 * @param isTrainingContext   Whether this is a training context.
+	 * @param batchShardingConfig The batch sharding configuration, or null to
+	 *                            process each batch as a single array.
+	 */
+	public DL4JDirectedComponentsContext(MatrixFactory matrixFactory, boolean isTrainingContext,
+			DL4JBatchShardingConfig batchShardingConfig) {
+		super(matrixFactory, isTrainingContext);
+		this.batchShardingConfig = batchShardingConfig;
+	}
+
+	/**
+	 * @return The batch sharding configuration, or null if batches are processed
+	 *         as a single array.
+	 */
+	public DL4JBatchShardingConfig getBatchShardingConfig() {
+		return batchShardingConfig;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A reduced precision in which FP32 values are stored as 16 bits each.
+ *
+ * Values are rounded to the nearest representable value, with ties to even,
+ * when encoded, and decoding widens them back to FP32 exactly.
+ *
+ * @author Michael Lavelle
+ */
+public enum DL4JReducedPrecision {
+
+	/**
+	 * IEEE 754 half precision - 11 significant bits with a range of about 6e-8 to
+	 * 65504. Values beyond the range overflow to infinity or underflow to zero.
+	 */
+	FP16 {
+
+		@Override
+		public short encode(float value) {
+			int bits = Float.floatToRawIntBits(value);
+			int sign = (bits >>> 16) & 0x8000;
+			int magnitude = bits & 0x7fffffff;
+			if (magnitude > 0x7f800000) {
+				return (short) (sign | 0x7e00);
+			}
+			if (magnitude >= 0x477ff000) {
+				// 65520 and above round to infinity
+				return (short) (sign | 0x7c00);
+			}
+			if (magnitude >= 0x38800000) {
+				// Normal, rebiasing the exponent from 127 to 15
+				int rounded = magnitude + 0xfff + ((magnitude >>> 13) & 1);
+				return (short) (sign | ((rounded - 0x38000000) >>> 13));
+			}
+			if (magnitude < 0x33000000) {
+				return (short) sign;
+			}
+			// Subnormal, in units of 2^-24
+			int shift = 126 - (magnitude >>> 23);
+			int significand = (magnitude & 0x7fffff) | 0x800000;
+			int half = significand >>> shift;
+			int remainder = significand & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+
+		@Override
+		public float decode(short bits) {
+			int sign = (bits & 0x8000) << 16;
+			int exponent = (bits >>> 10) & 0x1f;
+			int significand = bits & 0x3ff;
+			if (exponent == 0x1f) {
+				return Float.intBitsToFloat(sign | 0x7f800000 | (significand << 13));
+			}
+			if (exponent == 0) {
+				float subnormal = significand * 0x1p-24f;
+				return sign == 0 ? subnormal : -subnormal;
+			}
+			return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (significand << 13));
+		}
+	},
+
+	/**
+	 * Brain floating point - 8 significant bits with the exponent range of FP32,
+	 * so values of any practical magnitude are representable, at a lower
+	 * precision than FP16.
+	 */
+	BF16 {
+
+		@Override
+		public short encode(float value) {
+			int bits = Float.floatToRawIntBits(value);
+			if ((bits & 0x7fffffff) > 0x7f800000) {
+				return (short) ((bits >>> 16) | 0x40);
+			}
+			return (short) ((bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16);
+		}
+
+		@Override
+		public float decode(short bits) {
+			return Float.intBitsToFloat(bits << 16);
+		}
+	};
+
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * @param value The FP32 value.
+	 * @return The bits of the nearest value at this precision.
+	 */
+	public abstract short encode(float value);
+
+	/**
+	 * @param bits The bits of a value at this precision.
+	 * @return The value as FP32, which is exact.
+	 */
+	public abstract float decode(short bits);
+
+	/**
+	 * Encodes the remaining values into the bits buffer, transferring them in
+	 * bulk chunks rather than element by element.
+	 *
+	 * @param values The FP32 values, which are consumed.
+	 * @param bits   The buffer the encoded bits are written to, which must have at
+	 *               least as many elements remaining as there are values.
+	 */
+	public void encode(FloatBuffer values, ShortBuffer bits) {
+		float[] valueChunk = new float[Math.min(values.remaining(), CHUNK_SIZE)];
+		short[] bitsChunk = new short[valueChunk.length];
+		while (values.hasRemaining()) {
+			int count = Math.min(valueChunk.length, values.remaining());
+			values.get(valueChunk, 0, count);
+			for (int i = 0; i < count; i++) {
+				bitsChunk[i] = encode(valueChunk[i]);
+			}
+			bits.put(bitsChunk, 0, count);
+		}
+	}
+
+	/**
+	 * Decodes the remaining bits into the values buffer, transferring them in
+	 * bulk chunks rather than element by element.
+	 *
+	 * @param bits   The bits of values at this precision, which are consumed.
+	 * @param values The buffer the FP32 values are written to, which must have at
+	 *               least as many elements remaining as there are bits.
+	 */
+	public void decode(ShortBuffer bits, FloatBuffer values) {
+		short[] bitsChunk = new short[Math.min(bits.remaining(), CHUNK_SIZE)];
+		float[] valueChunk = new float[bitsChunk.length];
+		while (bits.hasRemaining()) {
+			int count = Math.min(bitsChunk.length, bits.remaining());
+			bits.get(bitsChunk, 0, count);
+			for (int i = 0; i < count; i++) {
+				valueChunk[i] = decode(bitsChunk[i]);
+			}
+			values.put(valueChunk, 0, count);
+		}
+	}
+}
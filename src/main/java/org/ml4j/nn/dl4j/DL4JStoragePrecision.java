@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j;
+
+import java.util.Optional;
+
+/**
+ * The precision in which DL4J activation function component activations store
+ * the state they retain between forward and back propagation.
+ *
+ * Reduced precisions halve the memory held by the retained state, and the
+ * memory bandwidth of writing and reading it. Values are rounded to the
+ * nearest representable value, with ties to even, on storage, and widened back
+ * to FP32 for computation.
+ *
+ * @author Michael Lavelle
+ */
+public enum DL4JStoragePrecision {
+
+	/**
+	 * Retain state at the full precision of the INDArrays it is computed with.
+	 */
+	FP32(null),
+
+	/**
+	 * Retain state as IEEE 754 half precision values.
+	 */
+	FP16(DL4JReducedPrecision.FP16),
+
+	/**
+	 * Retain state as brain floating point values.
+	 */
+	BF16(DL4JReducedPrecision.BF16);
+
+	private DL4JReducedPrecision reducedPrecision;
+
+	private DL4JStoragePrecision(DL4JReducedPrecision reducedPrecision) {
+		this.reducedPrecision = reducedPrecision;
+	}
+
+	/**
+	 * @return The reduced precision in which state is stored, or empty if state
+	 *         is stored at full precision.
+	 */
+	public Optional<DL4JReducedPrecision> getReducedPrecision() {
+		return Optional.ofNullable(reducedPrecision);
+	}
+}
@@ -11,7 +11,10 @@ public class ActivationML4JReLU extends BaseML4JActivationFunction {
 	private static final long serialVersionUID = 1L;
 
 	public ActivationML4JReLU(String name, MatrixFactory matrixFactory) {
-		// TODO Could default to Nd4jMatrixFactory
 		super(name, matrixFactory, new DefaultReluActivationFunctionImpl());
 	}
+
+	public ActivationML4JReLU(String name) {
+		super(name, new DefaultReluActivationFunctionImpl());
+	}
 }
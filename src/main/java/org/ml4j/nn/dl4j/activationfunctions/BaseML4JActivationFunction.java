@@ -13,30 +13,48 @@
  */
 package org.ml4j.nn.dl4j.activationfunctions;
 
-import org.ml4j.Matrix;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.ml4j.MatrixFactory;
 import org.ml4j.nn.activationfunctions.DefaultDifferentiableActivationFunctionActivationImpl;
 import org.ml4j.nn.activationfunctions.DifferentiableActivationFunction;
 import org.ml4j.nn.activationfunctions.DifferentiableActivationFunctionActivation;
-import org.ml4j.nn.components.DirectedComponentGradient;
-import org.ml4j.nn.components.DirectedComponentGradientImpl;
-import org.ml4j.nn.components.activationfunctions.DefaultDifferentiableActivationFunctionComponentActivationImpl;
-import org.ml4j.nn.components.activationfunctions.DefaultDifferentiableActivationFunctionComponentImpl;
-import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
-import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentAdapter;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
 import org.ml4j.nn.neurons.Neurons;
-import org.ml4j.nn.neurons.Neurons3D;
 import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
 import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
 import org.ml4j.nn.neurons.NeuronsActivationImpl;
 import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
-import org.ml4j.nn.neurons.format.features.DimensionScope;
 import org.nd4j.linalg.activations.BaseActivationFunction;
 import org.nd4j.linalg.activations.IActivation;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.primitives.Pair;
 
+/**
+ * Adapter to wrap a ML4J DifferentiableActivationFunction so that it conforms
+ * to DL4J's IActivation interface.
+ * 
+ * The adapter calls the ML4J activation function directly, rather than through
+ * a per-call component graph. The Neurons for each feature count and the
+ * training and non-training contexts are cached. Results are written into the
+ * INDArray passed in by DL4J, in place, as DL4J's own activation functions do.
+ * With the default Nd4jMatrixFactory the INDArrays are wrapped rather than
+ * copied, so the matrices ML4J allocates come from any ND4J workspace DL4J has
+ * active, and are recycled with it.
+ * 
+ * The adapter is not allocation-free. ML4J's activation functions take no
+ * target and allocate their result, which is then copied into the INDArray
+ * passed in, and each call allocates the small ML4J activation and matrix
+ * wrappers around the INDArrays.
+ * 
+ * The cached Neurons and contexts are immutable and published safely, so a
+ * single instance may be used by many threads concurrently.
+ * 
+ * @author Michael Lavelle
+ */
 public class BaseML4JActivationFunction extends BaseActivationFunction implements IActivation {
 
 	/**
@@ -44,79 +62,99 @@ public class BaseML4JActivationFunction extends BaseActivationFunction implement
 	 */
 	private static final long serialVersionUID = 1L;
 
+	private static final NeuronsActivationFeatureOrientation ROWS_SPAN_FEATURE_SET = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
 	private DifferentiableActivationFunction ml4jActivationFunction;
 	private MatrixFactory matrixFactory;
 	private String name;
 
+	private transient volatile NeuronsActivationContext trainingContext;
+	private transient volatile NeuronsActivationContext nonTrainingContext;
+	private transient volatile Map<Integer, Neurons> neuronsByFeatureCount;
+
 	public BaseML4JActivationFunction(String name, MatrixFactory matrixFactory,
 			DifferentiableActivationFunction ml4jActivationFunction) {
 		this.ml4jActivationFunction = ml4jActivationFunction;
-		// TODO Could default to Nd4jMatrixFactory
 		this.matrixFactory = matrixFactory;
 		this.name = name;
 	}
 
-	@Override
-	public Pair<INDArray, INDArray> backprop(INDArray in, INDArray eps) {
-
-		NeuronsActivation inputNeuronsActivation = fromNDArray(in, DimensionScope.INPUT);
-		NeuronsActivation gradientNeuronsActivation = fromNDArray(eps, DimensionScope.OUTPUT);
+	/**
+	 * Creates an activation function using an Nd4jMatrixFactory, so that the
+	 * INDArrays passed in by DL4J are wrapped rather than copied.
+	 * 
+	 * @param name                   The name of the activation function.
+	 * @param ml4jActivationFunction The ML4J activation function to adapt.
+	 */
+	public BaseML4JActivationFunction(String name, DifferentiableActivationFunction ml4jActivationFunction) {
+		this(name, new Nd4jMatrixFactory(), ml4jActivationFunction);
+	}
 
-		Neurons neurons = inputNeuronsActivation.getNeurons();
+	public String getName() {
+		return name;
+	}
 
-		DifferentiableActivationFunctionComponentAdapter ml4jActivationFunctionComponent = new DefaultDifferentiableActivationFunctionComponentImpl(
-				name, neurons, ml4jActivationFunction);
+	@Override
+	public Pair<INDArray, INDArray> backprop(INDArray in, INDArray eps) {
 
 		// No output available, or needed, so set null.
 		DifferentiableActivationFunctionActivation activationFunctionActivation = new DefaultDifferentiableActivationFunctionActivationImpl(
-				ml4jActivationFunction, inputNeuronsActivation, null);
-
-		DifferentiableActivationFunctionComponentActivation activationFunctionComponentActivation = new DefaultDifferentiableActivationFunctionComponentActivationImpl(
-				ml4jActivationFunctionComponent, activationFunctionActivation,
-				new NeuronsActivationContextImpl(matrixFactory, true));
-
-		DirectedComponentGradient<NeuronsActivation> inputGradient = new DirectedComponentGradientImpl<>(
-				gradientNeuronsActivation);
+				ml4jActivationFunction, fromNDArray(in), null);
 
-		DirectedComponentGradient<NeuronsActivation> outputGradient = activationFunctionComponentActivation
-				.backPropagate(inputGradient);
+		NeuronsActivation activationGradient = ml4jActivationFunction
+				.activationGradient(activationFunctionActivation, getContext(true));
 
-		return new Pair<>(asNDArray(matrixFactory, outputGradient.getOutput()), null);
+		// dL/dz = dL/da * da/dz, written into the input as DL4J expects
+		return new Pair<>(in.assign(asNDArray(activationGradient)).muli(eps), null);
 	}
 
 	@Override
 	public INDArray getActivation(INDArray input, boolean training) {
 
-		DifferentiableActivationFunctionActivation activation = ml4jActivationFunction
-				.activate(fromNDArray(matrixFactory, input, NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET,
-						null, DimensionScope.OUTPUT, false), new NeuronsActivationContextImpl(matrixFactory, training));
+		DifferentiableActivationFunctionActivation activation = ml4jActivationFunction.activate(fromNDArray(input),
+				getContext(training));
 
-		return asNDArray(matrixFactory, activation.getOutput());
+		return input.assign(asNDArray(activation.getOutput()));
 	}
 
-	private NeuronsActivation fromNDArray(INDArray ndArray, DimensionScope dimensionScope) {
-		int rows = ndArray.rows();
-		Neurons neurons = new Neurons(rows, false);
-		return fromNDArray(matrixFactory, ndArray, NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, neurons,
-				dimensionScope, false);
+	private NeuronsActivationContext getContext(boolean training) {
+		// Read once, so that a context created by a concurrent thread is either
+		// seen fully constructed or replaced by an equivalent one
+		if (training) {
+			NeuronsActivationContext cachedContext = trainingContext;
+			if (cachedContext == null) {
+				cachedContext = new NeuronsActivationContextImpl(matrixFactory, true);
+				trainingContext = cachedContext;
+			}
+			return cachedContext;
+		} else {
+			NeuronsActivationContext cachedContext = nonTrainingContext;
+			if (cachedContext == null) {
+				cachedContext = new NeuronsActivationContextImpl(matrixFactory, false);
+				nonTrainingContext = cachedContext;
+			}
+			return cachedContext;
+		}
 	}
 
-	private NeuronsActivation fromNDArray(MatrixFactory matrixFactory, INDArray ndArray,
-			NeuronsActivationFormat<?> format, Neurons neurons, DimensionScope dimensionScope, boolean imageActivation) {
-		float[] rowsByRowsArray = ndArray.data().getFloatsAt(ndArray.offset(), ndArray.length());
-		NeuronsActivation neuronsActivation = new NeuronsActivationImpl(neurons,
-				matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray),
-				format);
-		if (imageActivation) {
-			return neuronsActivation.asImageNeuronsActivation((Neurons3D) neurons, dimensionScope);
-		} else {
-			return neuronsActivation;
+	private Neurons getNeurons(int featureCount) {
+		Map<Integer, Neurons> cachedNeurons = neuronsByFeatureCount;
+		if (cachedNeurons == null) {
+			cachedNeurons = new ConcurrentHashMap<>();
+			neuronsByFeatureCount = cachedNeurons;
 		}
+		return cachedNeurons.computeIfAbsent(featureCount, count -> new Neurons(count, false));
+	}
+
+	private NeuronsActivation fromNDArray(INDArray ndArray) {
+		return new NeuronsActivationImpl(getNeurons(ndArray.rows()),
+				DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, ndArray, ROWS_SPAN_FEATURE_SET,
+						ROWS_SPAN_FEATURE_SET),
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET);
 	}
 
-	private INDArray asNDArray(MatrixFactory matrixFactory, NeuronsActivation neuronsActivation) {
-		Matrix matrix = neuronsActivation.getActivations(matrixFactory);
-		return Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getRows(), matrix.getColumns() });
+	private INDArray asNDArray(NeuronsActivation neuronsActivation) {
+		return DL4JUtil.asNDArray(matrixFactory, neuronsActivation, ROWS_SPAN_FEATURE_SET);
 	}
 
 }
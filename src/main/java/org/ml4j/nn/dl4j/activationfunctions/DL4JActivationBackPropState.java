@@ -0,0 +1,383 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.nio.FloatBuffer;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.DL4JBackPropRetention;
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.dl4j.DL4JReducedPrecision;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationTanH;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.primitives.Pair;
+
+/**
+ * The state retained by a DL4JDifferentiableActivationFunctionComponentActivationImpl
+ * between forward and back propagation, as determined by the configured
+ * DL4JBackPropRetention and DL4JStoragePrecision.
+ *
+ * @author Michael Lavelle
+ */
+public abstract class DL4JActivationBackPropState {
+
+	/**
+	 * @param outputGradient The gradient with respect to the activation output,
+	 *                       in the orientation of the DL4J activation.
+	 * @return The gradient with respect to the activation input, allocated
+	 *         outside of any workspace.
+	 */
+	public abstract INDArray backPropagate(INDArray outputGradient);
+
+	/**
+	 * Releases the retained state.
+	 */
+	public abstract void release();
+
+	/**
+	 * @param retention          The retention mode.
+	 * @param activationFunction The DL4J activation function.
+	 * @return Whether the retention mode retains less than the input for the
+	 *         activation function, in which case the input need not be preserved
+	 *         by forward propagation.
+	 */
+	public static boolean isMinimal(DL4JBackPropRetention retention, IActivation activationFunction) {
+		return retention == DL4JBackPropRetention.MINIMAL && (activationFunction instanceof ActivationReLU
+				|| activationFunction instanceof ActivationLReLU || activationFunction instanceof ActivationSigmoid
+				|| activationFunction instanceof ActivationTanH);
+	}
+
+	/**
+	 * @param retention          The retention mode.
+	 * @param activationFunction The DL4J activation function.
+	 * @param matrixFactory      The matrix factory.
+	 * @param inputActivation    The input activation.
+	 * @param inputNDArray       The input as passed to the activation function,
+	 *                           before it was applied.
+	 * @param inputShared        Whether the input INDArray is shared with the
+	 *                           caller.
+	 * @param outputNDArray      The output of the activation function.
+	 * @param orientation        The orientation of the DL4J activation.
+	 * @param workspaces         The workspaces of the component.
+	 * @param batchShardingConfig The batch sharding configuration with which
+	 *                           back propagation from the input is parallelised,
+	 *                           or null.
+	 * @return The state to retain.
+	 */
+	public static DL4JActivationBackPropState create(DL4JBackPropRetention retention, IActivation activationFunction,
+			MatrixFactory matrixFactory, NeuronsActivation inputActivation, INDArray inputNDArray, boolean inputShared,
+			INDArray outputNDArray, NeuronsActivationFeatureOrientation orientation,
+			DL4JComponentWorkspaces workspaces, DL4JBatchShardingConfig batchShardingConfig) {
+		if (isMinimal(retention, activationFunction)) {
+			if (activationFunction instanceof ActivationReLU) {
+				return new SignMaskState(outputNDArray, 0f);
+			} else if (activationFunction instanceof ActivationLReLU) {
+				return new SignMaskState(outputNDArray, (float) ((ActivationLReLU) activationFunction).getAlpha());
+			} else {
+				return new OutputDerivativeState(outputNDArray, activationFunction instanceof ActivationSigmoid);
+			}
+		} else if (retention == DL4JBackPropRetention.RECOMPUTE) {
+			return new RecomputedInputState(activationFunction, matrixFactory, inputActivation, orientation,
+					workspaces, batchShardingConfig);
+		} else {
+			return new RetainedInputState(activationFunction, inputNDArray, inputShared, orientation, workspaces,
+					batchShardingConfig);
+		}
+	}
+
+	/**
+	 * Retains the input at a reduced precision. As the input is encoded into
+	 * separate storage, it must be created before the activation function is
+	 * applied in-place on the input, but the input need not otherwise be
+	 * preserved by forward propagation.
+	 *
+	 * @param activationFunction  The DL4J activation function.
+	 * @param inputNDArray        The input as passed to the activation function,
+	 *                            before it is applied.
+	 * @param precision           The reduced precision.
+	 * @param orientation         The orientation of the DL4J activation.
+	 * @param batchShardingConfig The batch sharding configuration with which
+	 *                            back propagation from the input is
+	 *                            parallelised, or null.
+	 * @return The state to retain.
+	 */
+	public static DL4JActivationBackPropState createReducedPrecisionInput(IActivation activationFunction,
+			INDArray inputNDArray, DL4JReducedPrecision precision, NeuronsActivationFeatureOrientation orientation,
+			DL4JBatchShardingConfig batchShardingConfig) {
+		return new ReducedPrecisionInputState(activationFunction,
+				DL4JReducedPrecisionArray.encode(inputNDArray, precision), orientation, batchShardingConfig);
+	}
+
+	private static INDArray backPropagateFromInput(IActivation activationFunction, INDArray input,
+			INDArray outputGradient) {
+		Pair<INDArray, INDArray> backProp = activationFunction.backprop(input, outputGradient);
+		if (backProp.getSecond() != null) {
+			throw new IllegalStateException("Activation gradient for activation functions with weights not supported");
+		}
+		return backProp.getFirst().detach();
+	}
+
+	/**
+	 * Back propagates from an input which may be shared with the caller,
+	 * sharding the mini-batch where the configuration requires it. Sharding
+	 * copies each shard of the input before DL4J back propagates in-place on it,
+	 * so the input itself is never modified.
+	 */
+	private static INDArray backPropagateFromInput(IActivation activationFunction, INDArray input,
+			boolean inputShared, INDArray outputGradient, NeuronsActivationFeatureOrientation orientation,
+			DL4JComponentWorkspaces workspaces, DL4JBatchShardingConfig batchShardingConfig) {
+		if (DL4JBatchSharding.isSharded(input, orientation, batchShardingConfig)) {
+			return DL4JBatchSharding.map(input, outputGradient, orientation, batchShardingConfig,
+					(inputShard, outputGradientShard) -> backPropagateFromInput(activationFunction, inputShard,
+							outputGradientShard));
+		}
+		return backPropagateFromInput(activationFunction, prepareBackPropInput(input, inputShared, workspaces),
+				outputGradient);
+	}
+
+	/**
+	 * Duplicates an input which DL4J will back propagate in-place on, to avoid
+	 * writing into a buffer shared with the caller, and to avoid writing the
+	 * input gradient, which is carried natively by the gradient activation, into
+	 * memory recycled with a workspace.
+	 */
+	private static INDArray prepareBackPropInput(INDArray input, boolean inputShared,
+			DL4JComponentWorkspaces workspaces) {
+		if (workspaces.isEnabled()) {
+			return DL4JComponentWorkspaces.dupOutOfWorkspaces(input);
+		} else if (inputShared) {
+			return input.dup(input.ordering());
+		} else {
+			return input;
+		}
+	}
+
+	private static class RetainedInputState extends DL4JActivationBackPropState {
+
+		private IActivation activationFunction;
+		private INDArray inputNDArray;
+		private boolean inputShared;
+		private NeuronsActivationFeatureOrientation orientation;
+		private DL4JComponentWorkspaces workspaces;
+		private DL4JBatchShardingConfig batchShardingConfig;
+
+		RetainedInputState(IActivation activationFunction, INDArray inputNDArray, boolean inputShared,
+				NeuronsActivationFeatureOrientation orientation, DL4JComponentWorkspaces workspaces,
+				DL4JBatchShardingConfig batchShardingConfig) {
+			this.activationFunction = activationFunction;
+			this.inputNDArray = inputNDArray;
+			this.inputShared = inputShared;
+			this.orientation = orientation;
+			this.workspaces = workspaces;
+			this.batchShardingConfig = batchShardingConfig;
+		}
+
+		@Override
+		public INDArray backPropagate(INDArray outputGradient) {
+			return backPropagateFromInput(activationFunction, inputNDArray, inputShared, outputGradient, orientation,
+					workspaces, batchShardingConfig);
+		}
+
+		@Override
+		public void release() {
+			inputNDArray = null;
+		}
+	}
+
+	/**
+	 * Holds only the input activation, which the caller holds anyway, rather than
+	 * an INDArray of its own, and converts it again on back propagation. This
+	 * saves memory only where the input is not carried natively by ND4J - the
+	 * converted input is then neither preserved nor retained. An ND4J-native
+	 * input is referenced, not copied, under INPUT retention too.
+	 */
+	private static class RecomputedInputState extends DL4JActivationBackPropState {
+
+		private IActivation activationFunction;
+		private MatrixFactory matrixFactory;
+		private NeuronsActivation inputActivation;
+		private NeuronsActivationFeatureOrientation orientation;
+		private DL4JComponentWorkspaces workspaces;
+		private DL4JBatchShardingConfig batchShardingConfig;
+
+		RecomputedInputState(IActivation activationFunction, MatrixFactory matrixFactory,
+				NeuronsActivation inputActivation, NeuronsActivationFeatureOrientation orientation,
+				DL4JComponentWorkspaces workspaces, DL4JBatchShardingConfig batchShardingConfig) {
+			this.activationFunction = activationFunction;
+			this.matrixFactory = matrixFactory;
+			this.inputActivation = inputActivation;
+			this.orientation = orientation;
+			this.workspaces = workspaces;
+			this.batchShardingConfig = batchShardingConfig;
+		}
+
+		@Override
+		public INDArray backPropagate(INDArray outputGradient) {
+			INDArray input = DL4JUtil.asNDArray(matrixFactory, inputActivation, orientation);
+			return backPropagateFromInput(activationFunction, input,
+					DL4JUtil.isNDArrayBacked(matrixFactory, inputActivation), outputGradient, orientation, workspaces,
+					batchShardingConfig);
+		}
+
+		@Override
+		public void release() {
+			inputActivation = null;
+		}
+	}
+
+	/**
+	 * Retains the input at a reduced precision, widening it to FP32 for back
+	 * propagation. The widened input is not shared, so DL4J back propagates
+	 * in-place on it.
+	 */
+	private static class ReducedPrecisionInputState extends DL4JActivationBackPropState {
+
+		private IActivation activationFunction;
+		private DL4JReducedPrecisionArray input;
+		private NeuronsActivationFeatureOrientation orientation;
+		private DL4JBatchShardingConfig batchShardingConfig;
+
+		ReducedPrecisionInputState(IActivation activationFunction, DL4JReducedPrecisionArray input,
+				NeuronsActivationFeatureOrientation orientation, DL4JBatchShardingConfig batchShardingConfig) {
+			this.activationFunction = activationFunction;
+			this.input = input;
+			this.orientation = orientation;
+			this.batchShardingConfig = batchShardingConfig;
+		}
+
+		@Override
+		public INDArray backPropagate(INDArray outputGradient) {
+			INDArray widenedInput = input.decode();
+			if (DL4JBatchSharding.isSharded(widenedInput, orientation, batchShardingConfig)) {
+				return DL4JBatchSharding.map(widenedInput, outputGradient, orientation, batchShardingConfig,
+						(inputShard, outputGradientShard) -> backPropagateFromInput(activationFunction, inputShard,
+								outputGradientShard));
+			}
+			return backPropagateFromInput(activationFunction, widenedInput, outputGradient);
+		}
+
+		@Override
+		public void release() {
+			input = null;
+		}
+	}
+
+	/**
+	 * For ReLU and leaky ReLU, the derivative depends only on the sign of the
+	 * input, which matches the sign of the output, so one bit per element is
+	 * retained. The mask is packed and applied in chunks, transferred in bulk
+	 * between the native buffers and primitive arrays.
+	 */
+	private static class SignMaskState extends DL4JActivationBackPropState {
+
+		private static final int CHUNK_SIZE = 8192;
+
+		private long[] positiveMask;
+		private int[] shape;
+		private char ordering;
+		private float negativeSlope;
+
+		SignMaskState(INDArray output, float negativeSlope) {
+			INDArray source = output.isView() ? output.dup(output.ordering()) : output;
+			this.shape = source.shape();
+			this.ordering = source.ordering();
+			this.negativeSlope = negativeSlope;
+			int length = (int) source.length();
+			this.positiveMask = new long[(length + 63) >>> 6];
+			FloatBuffer values = source.data().asNioFloat();
+			values.position((int) source.offset());
+			float[] chunk = new float[Math.min(length, CHUNK_SIZE)];
+			for (int start = 0; start < length; start += chunk.length) {
+				int count = Math.min(chunk.length, length - start);
+				values.get(chunk, 0, count);
+				for (int j = 0; j < count; j++) {
+					if (chunk[j] > 0) {
+						int i = start + j;
+						positiveMask[i >>> 6] |= 1L << i;
+					}
+				}
+			}
+		}
+
+		@Override
+		public INDArray backPropagate(INDArray outputGradient) {
+			INDArray inputGradient;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				inputGradient = Nd4j.createUninitialized(shape, ordering).assign(outputGradient);
+			}
+			int length = (int) inputGradient.length();
+			FloatBuffer values = inputGradient.data().asNioFloat();
+			float[] chunk = new float[Math.min(length, CHUNK_SIZE)];
+			for (int start = 0; start < length; start += chunk.length) {
+				int count = Math.min(chunk.length, length - start);
+				values.position(start);
+				values.get(chunk, 0, count);
+				for (int j = 0; j < count; j++) {
+					int i = start + j;
+					if ((positiveMask[i >>> 6] & (1L << i)) == 0) {
+						chunk[j] *= negativeSlope;
+					}
+				}
+				values.position(start);
+				values.put(chunk, 0, count);
+			}
+			return inputGradient;
+		}
+
+		@Override
+		public void release() {
+			positiveMask = null;
+		}
+	}
+
+	/**
+	 * For sigmoid and tanh, the derivative is a function of the output. The
+	 * output is only modified in-place under in-place inference, which creates
+	 * no back propagation state, so it is retained by reference and the
+	 * derivative is computed from it during back propagation.
+	 */
+	private static class OutputDerivativeState extends DL4JActivationBackPropState {
+
+		private INDArray output;
+		private boolean sigmoid;
+
+		OutputDerivativeState(INDArray output, boolean sigmoid) {
+			this.output = output;
+			this.sigmoid = sigmoid;
+		}
+
+		@Override
+		public INDArray backPropagate(INDArray outputGradient) {
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				// sigmoid: y * (1 - y), tanh: 1 - y^2
+				INDArray inputGradient = sigmoid ? output.rsub(1).muli(output) : output.mul(output).rsubi(1);
+				return inputGradient.muli(outputGradient);
+			}
+		}
+
+		@Override
+		public void release() {
+			output = null;
+		}
+	}
+}
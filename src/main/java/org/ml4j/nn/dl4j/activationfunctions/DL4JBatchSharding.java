@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.UnaryOperator;
+
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Utilities for splitting a mini-batch along the example dimension into
+ * shards, processing the shards on a fork-join pool, and reassembling the
+ * results.
+ *
+ * Each shard holds whole examples, so functions which operate per example,
+ * such as softmax, give the same result as when applied to the whole batch.
+ * Each shard is copied into a contiguous array before the function is applied,
+ * so functions may operate in-place on the shard, and the result of each shard
+ * is written into its slice of a single output array allocated outside of any
+ * workspace - the worker threads never see the workspaces of the caller.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JBatchSharding {
+
+	/**
+	 * Target size of a shard when the shard size is not configured, chosen so
+	 * that a shard and its result fit in a typical per-core L2 cache.
+	 */
+	private static final int DEFAULT_SHARD_BYTES = 128 * 1024;
+
+	private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+	private DL4JBatchSharding() {
+	}
+
+	/**
+	 * @param ndArray     The mini-batch.
+	 * @param orientation The feature orientation of the mini-batch.
+	 * @param config      The batch sharding configuration, or null.
+	 * @return Whether the mini-batch spans more than one shard under the
+	 *         configuration.
+	 */
+	public static boolean isSharded(INDArray ndArray, NeuronsActivationFeatureOrientation orientation,
+			DL4JBatchShardingConfig config) {
+		return config != null && getExampleCount(ndArray, orientation) > getShardSize(ndArray, orientation, config);
+	}
+
+	/**
+	 * @param input       The mini-batch.
+	 * @param orientation The feature orientation of the mini-batch.
+	 * @param config      The batch sharding configuration.
+	 * @param function    The function to apply to each shard, which may modify
+	 *                    the shard in-place.
+	 * @return The result of the function, reassembled into an array of the same
+	 *         shape as the input. The input is not modified.
+	 */
+	public static INDArray map(INDArray input, NeuronsActivationFeatureOrientation orientation,
+			DL4JBatchShardingConfig config, UnaryOperator<INDArray> function) {
+		return map(input, null, orientation, config, (first, second) -> function.apply(first));
+	}
+
+	/**
+	 * @param first       The mini-batch to shard.
+	 * @param second      A mini-batch of the same shape, sharded alongside the
+	 *                    first, or null.
+	 * @param orientation The feature orientation of the mini-batches.
+	 * @param config      The batch sharding configuration.
+	 * @param function    The function to apply to each pair of shards, which may
+	 *                    modify the shard of the first mini-batch in-place, but
+	 *                    not the shard of the second.
+	 * @return The result of the function, reassembled into an array of the same
+	 *         shape as the first mini-batch. Neither mini-batch is modified.
+	 */
+	public static INDArray map(INDArray first, INDArray second, NeuronsActivationFeatureOrientation orientation,
+			DL4JBatchShardingConfig config, BinaryOperator<INDArray> function) {
+		boolean rowsSpanFeatureSet = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+		// Order the output so that the examples of each shard are contiguous
+		char order = rowsSpanFeatureSet ? 'f' : 'c';
+		int exampleCount = getExampleCount(first, orientation);
+		int shardSize = getShardSize(first, orientation, config);
+		int shardCount = (exampleCount + shardSize - 1) / shardSize;
+		INDArray output;
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			output = Nd4j.createUninitialized(first.shape(), order);
+		}
+		forEachShard(shardCount, config, shard -> {
+			int start = shard * shardSize;
+			int end = Math.min(start + shardSize, exampleCount);
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				INDArray firstShard = getShard(first, rowsSpanFeatureSet, start, end).dup(order);
+				INDArray secondShard = second == null ? null : getShard(second, rowsSpanFeatureSet, start, end);
+				getShard(output, rowsSpanFeatureSet, start, end).assign(function.apply(firstShard, secondShard));
+			}
+		});
+		return output;
+	}
+
+	/**
+	 * @param ndArray     The mini-batch, which is overwritten with the result.
+	 * @param orientation The feature orientation of the mini-batch.
+	 * @param config      The batch sharding configuration.
+	 * @param function    The function to apply to each shard, which may modify
+	 *                    the shard in-place.
+	 * @return The mini-batch, holding the result of the function.
+	 */
+	public static INDArray mapInPlace(INDArray ndArray, NeuronsActivationFeatureOrientation orientation,
+			DL4JBatchShardingConfig config, UnaryOperator<INDArray> function) {
+		boolean rowsSpanFeatureSet = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+		int exampleCount = getExampleCount(ndArray, orientation);
+		int shardSize = getShardSize(ndArray, orientation, config);
+		int shardCount = (exampleCount + shardSize - 1) / shardSize;
+		forEachShard(shardCount, config, shard -> {
+			int start = shard * shardSize;
+			INDArray view = getShard(ndArray, rowsSpanFeatureSet, start, Math.min(start + shardSize, exampleCount));
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				INDArray result = function.apply(view);
+				if (result != view) {
+					view.assign(result);
+				}
+			}
+		});
+		return ndArray;
+	}
+
+	/**
+	 * Runs a task for each shard index on the fork-join pool of the
+	 * configuration, returning once all tasks have completed.
+	 *
+	 * @param shardCount The number of shards.
+	 * @param config     The batch sharding configuration.
+	 * @param task       The task to run for each shard index.
+	 */
+	public static void forEachShard(int shardCount, DL4JBatchShardingConfig config, IntConsumer task) {
+		if (shardCount == 1) {
+			task.accept(0);
+		} else if (shardCount > 1) {
+			getPool(config).invoke(new ShardAction(0, shardCount, task));
+		}
+	}
+
+	private static INDArray getShard(INDArray ndArray, boolean rowsSpanFeatureSet, int start, int end) {
+		return rowsSpanFeatureSet ? ndArray.get(NDArrayIndex.all(), NDArrayIndex.interval(start, end))
+				: ndArray.get(NDArrayIndex.interval(start, end), NDArrayIndex.all());
+	}
+
+	private static int getExampleCount(INDArray ndArray, NeuronsActivationFeatureOrientation orientation) {
+		return orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET ? ndArray.columns()
+				: ndArray.rows();
+	}
+
+	private static int getShardSize(INDArray ndArray, NeuronsActivationFeatureOrientation orientation,
+			DL4JBatchShardingConfig config) {
+		if (config.getShardSize() > 0) {
+			return config.getShardSize();
+		}
+		int featureCount = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET ? ndArray.rows()
+				: ndArray.columns();
+		return Math.max(1, DEFAULT_SHARD_BYTES / (Float.BYTES * Math.max(1, featureCount)));
+	}
+
+	private static ForkJoinPool getPool(DL4JBatchShardingConfig config) {
+		return config.getParallelism() == 0 ? ForkJoinPool.commonPool()
+				: POOLS.computeIfAbsent(config.getParallelism(), ForkJoinPool::new);
+	}
+
+	/**
+	 * Splits a range of shard indexes in half until a single shard remains, so
+	 * that idle workers can steal the larger halves.
+	 */
+	private static class ShardAction extends RecursiveAction {
+
+		/**
+		 * Default serialization id.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+		private final int end;
+		private final transient IntConsumer task;
+
+		ShardAction(int start, int end, IntConsumer task) {
+			this.start = start;
+			this.end = end;
+			this.task = task;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				task.accept(start);
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new ShardAction(start, middle, task), new ShardAction(middle, end, task));
+			}
+		}
+	}
+}
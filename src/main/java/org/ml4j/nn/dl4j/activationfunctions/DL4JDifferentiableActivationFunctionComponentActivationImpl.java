@@ -24,11 +24,16 @@ import org.ml4j.nn.components.DirectedComponentGradientImpl;
 import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
 import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
 import org.ml4j.nn.costfunctions.CostFunctionGradient;
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.dl4j.costfunctions.DL4JCostFunctionGradient;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons;
 import org.ml4j.nn.neurons.NeuronsActivation;
 import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
-import org.nd4j.linalg.activations.IActivation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.primitives.Pair;
 
 /**
  * Adapter to wrap a DL4J IActivation instance and the activation output, so
@@ -44,45 +49,87 @@ import org.nd4j.linalg.primitives.Pair;
 public class DL4JDifferentiableActivationFunctionComponentActivationImpl
 		implements DifferentiableActivationFunctionComponentActivation {
 
-	private NeuronsActivation inputActivation;
-	private INDArray inputNDArray;
+	private NeuronsActivationFormat<?> inputFormat;
+	private Neurons inputNeurons;
+	private DL4JActivationBackPropState backPropState;
 	private NeuronsActivation outputActivation;
-	private IActivation dl4jActivationFunction;
 	private MatrixFactory matrixFactory;
 	private ActivationFunctionType activationFunctionType;
-	NeuronsActivationFeatureOrientation dl4jFeatureOrientation;
+	private NeuronsActivationFeatureOrientation dl4jFeatureOrientation;
+	private DL4JComponentWorkspaces workspaces;
+	private DL4JBatchShardingConfig batchShardingConfig;
 
+	/**
+	 * @param matrixFactory          The matrix factory.
+	 * @param activationFunctionType The activation function type.
+	 * @param inputFormat            The format of the input activation.
+	 * @param inputNeurons           The input neurons.
+	 * @param backPropState          The state retained for back propagation, or
+	 *                               null outside of a training context.
+	 * @param outputActivation       The output activation.
+	 * @param dl4jFeatureOrientation The orientation of the DL4J activation.
+	 * @param workspaces             The workspaces of the component.
+	 * @param batchShardingConfig    The batch sharding configuration, or null.
+	 */
 	public DL4JDifferentiableActivationFunctionComponentActivationImpl(MatrixFactory matrixFactory,
-			IActivation dl4jActivationFunction, ActivationFunctionType activationFunctionType,
-			NeuronsActivation inputActivation, INDArray inputNDArray, NeuronsActivation outputActivation,
-			NeuronsActivationFeatureOrientation dl4jFeatureOrientation) {
-		this.inputActivation = inputActivation;
-		this.inputNDArray = inputNDArray;
-		this.outputActivation = outputActivation;
-		this.dl4jActivationFunction = dl4jActivationFunction;
-		this.activationFunctionType = activationFunctionType;
+			ActivationFunctionType activationFunctionType, NeuronsActivationFormat<?> inputFormat,
+			Neurons inputNeurons, DL4JActivationBackPropState backPropState, NeuronsActivation outputActivation,
+			NeuronsActivationFeatureOrientation dl4jFeatureOrientation, DL4JComponentWorkspaces workspaces,
+			DL4JBatchShardingConfig batchShardingConfig) {
 		this.matrixFactory = matrixFactory;
+		this.activationFunctionType = activationFunctionType;
+		this.inputFormat = inputFormat;
+		this.inputNeurons = inputNeurons;
+		this.backPropState = backPropState;
+		this.outputActivation = outputActivation;
+		this.dl4jFeatureOrientation = dl4jFeatureOrientation;
+		this.workspaces = workspaces;
+		this.batchShardingConfig = batchShardingConfig;
+		DL4JInstrumentation.recordRetained(backPropState);
 	}
 
 	@Override
 	public DirectedComponentGradient<NeuronsActivation> backPropagate(
 			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(workspaces.getComponentName(), startNanos);
+		return inputGradient;
+	}
 
-		INDArray gradientActivations = DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), dl4jFeatureOrientation);
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
 
-		Pair<INDArray, INDArray> backProp = dl4jActivationFunction.backprop(inputNDArray, gradientActivations);
-		if (backProp.getSecond() != null) {
-			throw new IllegalStateException("Activation gradient for activation functions with weights not supported");
+		if (backPropState == null) {
+			throw new IllegalStateException(
+					"Activation has been closed, or was not created in a training context, so cannot be back propagated");
 		}
-		INDArray backPropFirst = backProp.getFirst();
 
-		NeuronsActivation outputGradient = DL4JUtil.fromNDArray(matrixFactory, backPropFirst, dl4jFeatureOrientation,
-				inputActivation.getFormat(), inputActivation.getNeurons());
-		return new DirectedComponentGradientImpl<>(gradient.getTotalTrainableAxonsGradients(), outputGradient);
+		try (MemoryWorkspace workspace = workspaces.activateBackPropagationWorkspace()) {
+
+			INDArray gradientActivations = DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(),
+					dl4jFeatureOrientation);
+
+			INDArray inputGradient = backPropState.backPropagate(gradientActivations);
+
+			NeuronsActivation outputGradient = DL4JUtil.fromNDArray(matrixFactory, inputGradient,
+					dl4jFeatureOrientation, inputFormat, inputNeurons, batchShardingConfig);
+			return new DirectedComponentGradientImpl<>(gradient.getTotalTrainableAxonsGradients(), outputGradient);
+		}
 	}
 
 	@Override
 	public DirectedComponentGradient<NeuronsActivation> backPropagate(CostFunctionGradient da) {
+		if (da instanceof DL4JCostFunctionGradient) {
+			// The fused gradient of a paired DL4J cost function is computed directly
+			// from the INDArray carried by this activation's output, so the retained
+			// state is not needed
+			long startNanos = DL4JInstrumentation.startTimer();
+			DirectedComponentGradient<NeuronsActivation> inputGradient = ((DL4JCostFunctionGradient) da)
+					.backPropagateThroughFinalActivationFunction(activationFunctionType, outputActivation);
+			DL4JInstrumentation.recordBackPropagation(workspaces.getComponentName(), startNanos);
+			return inputGradient;
+		}
 		return da.backPropagateThroughFinalActivationFunction(activationFunctionType);
 	}
 
@@ -93,7 +140,14 @@ public class DL4JDifferentiableActivationFunctionComponentActivationImpl
 
 	@Override
 	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
-		// TODO
+		// The retained state is only needed for back propagation, so can be released
+		// once back propagation completes
+		if (completedLifeCycleStage == DirectedComponentActivationLifecycle.BACK_PROPAGATION
+				&& backPropState != null) {
+			backPropState.release();
+			DL4JInstrumentation.recordReleased(backPropState);
+			backPropState = null;
+		}
 	}
 
 	@Override
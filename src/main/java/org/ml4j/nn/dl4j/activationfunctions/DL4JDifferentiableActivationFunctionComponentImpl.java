@@ -18,7 +18,9 @@ import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
 
+import org.ml4j.MatrixFactory;
 import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.components.DirectedComponentsContext;
 import org.ml4j.nn.components.NeuralComponentBaseType;
 import org.ml4j.nn.components.NeuralComponentType;
 import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
@@ -26,6 +28,13 @@ import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFuncti
 import org.ml4j.nn.components.activationfunctions.base.DifferentiableActivationFunctionComponentBase;
 import org.ml4j.nn.components.factories.DirectedComponentFactory;
 import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.DL4JBackPropRetention;
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.DL4JReducedPrecision;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.neurons.DL4JNeuronsActivationContext;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
 import org.ml4j.nn.neurons.Neurons;
 import org.ml4j.nn.neurons.NeuronsActivation;
 import org.ml4j.nn.neurons.NeuronsActivationContext;
@@ -34,7 +43,9 @@ import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
 import org.ml4j.nn.neurons.format.features.Dimension;
 import org.ml4j.nn.neurons.format.features.FlatFeaturesFormat;
 import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +56,25 @@ import org.slf4j.LoggerFactory;
  * Allows DL4J-specific activation functions to be used with a ML4J component
  * graph or network.
  * 
+ * When forward propagated with a DL4JNeuronsActivationContext carrying a
+ * DL4JBatchShardingConfig, large mini-batches are split along the example
+ * dimension into shards which are activated, and later back propagated, on a
+ * fork-join pool.
+ * 
+ * Outside of a training context, where in-place inference is enabled, the
+ * activation function is applied in-place on the input buffer, and a
+ * lightweight activation holding only the output is returned.
+ * 
+ * A single instance may be forward propagated by many threads concurrently.
+ * No mutable state is shared on the propagation path: the ND4J workspaces of
+ * the component are per thread, so each thread recycles its own scratch
+ * buffers, and the state an activation retains for back propagation is never
+ * allocated in a workspace. A DL4J activation function which is not known to
+ * be stateless is copied for each training activation, and for each thread
+ * otherwise. Each activation retains the activation function instance it was
+ * created with, so may be back propagated on any thread, while other
+ * activations are in flight.
+ * 
  * @author Michael Lavelle
  *
  */
@@ -59,22 +89,41 @@ public class DL4JDifferentiableActivationFunctionComponentImpl extends Different
 	 */
 	private static final long serialVersionUID = 1L;
 
-	private IActivation dl4jActivationFunction;
+	private DL4JPerThreadActivation dl4jActivationFunctions;
 	private ActivationFunctionType activationFunctionType;
 	private NeuronsActivationFeatureOrientation dl4jRequiredActivationOrientation;
+	private DL4JComponentConfig config;
+	private DL4JComponentWorkspaces workspaces;
 
 	public DL4JDifferentiableActivationFunctionComponentImpl(String name,Neurons neurons, IActivation dl4jActivationFunction,
 			ActivationFunctionType activationFunctionType,
 			NeuronsActivationFeatureOrientation dl4jRequiredActivationOrientation) {
+		this(name, neurons, dl4jActivationFunction, activationFunctionType, dl4jRequiredActivationOrientation,
+				new DL4JComponentConfig());
+	}
+
+	public DL4JDifferentiableActivationFunctionComponentImpl(String name, Neurons neurons,
+			IActivation dl4jActivationFunction, ActivationFunctionType activationFunctionType,
+			NeuronsActivationFeatureOrientation dl4jRequiredActivationOrientation, DL4JComponentConfig config) {
 		super(name, neurons, activationFunctionType);
-		this.dl4jActivationFunction = dl4jActivationFunction;
+		this.dl4jActivationFunctions = new DL4JPerThreadActivation(dl4jActivationFunction);
 		this.activationFunctionType = activationFunctionType;
 		this.dl4jRequiredActivationOrientation = dl4jRequiredActivationOrientation;
+		this.config = config;
+		this.workspaces = new DL4JComponentWorkspaces(name, config.isWorkspacesEnabled());
 	}
 
 	@Override
 	public DifferentiableActivationFunctionComponentActivation forwardPropagate(NeuronsActivation neuronsActivation,
 			NeuronsActivationContext context) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DifferentiableActivationFunctionComponentActivation activation = doForwardPropagate(neuronsActivation, context);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DifferentiableActivationFunctionComponentActivation doForwardPropagate(NeuronsActivation neuronsActivation,
+			NeuronsActivationContext context) {
 		
 		if (!isSupported(neuronsActivation.getFormat())) {
 			throw new IllegalArgumentException("Input neurons activation format of:"
@@ -82,21 +131,148 @@ public class DL4JDifferentiableActivationFunctionComponentImpl extends Different
 		}
 		if (optimisedFor().isPresent() && !optimisedFor().get().equals(neuronsActivation.getFormat())) {
 			LOGGER.warn("Not using optimised input format");
+			DL4JInstrumentation.recordUnoptimisedInputFormat(name);
 		}
 
 		NeuronsActivationFeatureOrientation dl4jActivationOrientation = dl4jRequiredActivationOrientation == null
 				? neuronsActivation.getFeatureOrientation()
 				: dl4jRequiredActivationOrientation;
 
-		INDArray inputNDArray = DL4JUtil.asNDArray(context.getMatrixFactory(), neuronsActivation,
-				dl4jActivationOrientation);
-		INDArray outputNDArray = dl4jActivationFunction.getActivation(inputNDArray, context.isTrainingContext());
-		NeuronsActivation outputActivation = DL4JUtil.fromNDArray(context.getMatrixFactory(), outputNDArray,
-				dl4jActivationOrientation, neuronsActivation.getFormat(), neurons);
+		MatrixFactory matrixFactory = context.getMatrixFactory();
+		IActivation dl4jActivationFunction = dl4jActivationFunctions.get(context.isTrainingContext());
+		// The shards of a training activation would share the state of its
+		// activation function, so a stateful function is applied unsharded
+		DL4JBatchShardingConfig batchShardingConfig = context.isTrainingContext()
+				&& dl4jActivationFunctions.isStateful() ? null
+						: DL4JNeuronsActivationContext.getBatchShardingConfig(context);
+
+		if (!context.isTrainingContext() && config.isInPlaceInferenceEnabled()) {
+			return forwardPropagateInPlace(neuronsActivation, dl4jActivationFunction, dl4jActivationOrientation,
+					matrixFactory, batchShardingConfig);
+		}
+
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+
+			boolean inputShared = DL4JUtil.isNDArrayBacked(matrixFactory, neuronsActivation);
+			DL4JBackPropRetention retention = config.getBackPropRetention();
+			boolean inputRetained = context.isTrainingContext() && retention != DL4JBackPropRetention.RECOMPUTE
+					&& !DL4JActivationBackPropState.isMinimal(retention, dl4jActivationFunction);
+			// A reduced precision input is encoded into separate storage before the
+			// activation function is applied, so need not be preserved
+			Optional<DL4JReducedPrecision> reducedPrecision = config.getStoragePrecision().getReducedPrecision();
+			boolean inputPreserved = inputRetained && !reducedPrecision.isPresent();
+
+			// An input converted from an ML4J Matrix is retained by reference for back
+			// propagation, so must not be allocated in the cyclic workspace
+			INDArray inputNDArray;
+			try (MemoryWorkspace retained = DL4JComponentWorkspaces
+					.scopeOutOfWorkspacesIfRetained(inputPreserved && !inputShared)) {
+				inputNDArray = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, dl4jActivationOrientation);
+			}
+			DL4JActivationBackPropState reducedPrecisionState = null;
+			if (inputRetained && reducedPrecision.isPresent()) {
+				reducedPrecisionState = DL4JActivationBackPropState.createReducedPrecisionInput(
+						dl4jActivationFunction, inputNDArray, reducedPrecision.get(), dl4jActivationOrientation,
+						batchShardingConfig);
+			}
+
+			INDArray outputNDArray;
+			if (DL4JBatchSharding.isSharded(inputNDArray, dl4jActivationOrientation, batchShardingConfig)) {
+				// Each shard is copied before the activation is applied in-place, so the
+				// input is preserved without a further copy
+				outputNDArray = DL4JBatchSharding.map(inputNDArray, dl4jActivationOrientation, batchShardingConfig,
+						shard -> dl4jActivationFunction.getActivation(shard, context.isTrainingContext()));
+			} else {
+				// DL4J activation functions apply in-place, so duplicate the input if it is
+				// shared with the caller, or if it needs to be preserved for back
+				// propagation. The output is carried natively by the output activation, so
+				// must not be recycled with this workspace
+				INDArray activationInput = inputNDArray;
+				if (inputShared || inputPreserved) {
+					activationInput = workspaces.isEnabled() ? DL4JComponentWorkspaces.dupOutOfWorkspaces(inputNDArray)
+							: inputNDArray.dup(inputNDArray.ordering());
+				}
+				outputNDArray = dl4jActivationFunction.getActivation(activationInput, context.isTrainingContext())
+						.detach();
+			}
+			NeuronsActivation outputActivation = DL4JUtil.fromNDArray(matrixFactory, outputNDArray,
+					dl4jActivationOrientation, neuronsActivation.getFormat(), neurons, batchShardingConfig);
+
+			DL4JActivationBackPropState backPropState = reducedPrecisionState;
+			if (backPropState == null && context.isTrainingContext()) {
+				backPropState = DL4JActivationBackPropState.create(retention, dl4jActivationFunction, matrixFactory,
+						neuronsActivation, inputNDArray, inputShared, outputNDArray, dl4jActivationOrientation,
+						workspaces, batchShardingConfig);
+			}
+
+			return new DL4JDifferentiableActivationFunctionComponentActivationImpl(matrixFactory,
+					activationFunctionType, neuronsActivation.getFormat(), neuronsActivation.getNeurons(),
+					backPropState, outputActivation, dl4jActivationOrientation, workspaces, batchShardingConfig);
+		}
+	}
+
+	private DifferentiableActivationFunctionComponentActivation forwardPropagateInPlace(
+			NeuronsActivation neuronsActivation, IActivation dl4jActivationFunction,
+			NeuronsActivationFeatureOrientation dl4jActivationOrientation, MatrixFactory matrixFactory,
+			DL4JBatchShardingConfig batchShardingConfig) {
+
+		// The single buffer of this layer is either the INDArray carried by the input
+		// activation, or the one copy made when converting from an ML4J Matrix. It is
+		// carried natively by the output activation, so is not allocated in a
+		// workspace
+		INDArray ndArray;
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			ndArray = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, dl4jActivationOrientation);
+			if (DL4JBatchSharding.isSharded(ndArray, dl4jActivationOrientation, batchShardingConfig)) {
+				DL4JBatchSharding.mapInPlace(ndArray, dl4jActivationOrientation, batchShardingConfig,
+						shard -> dl4jActivationFunction.getActivation(shard, false));
+			} else {
+				INDArray output = dl4jActivationFunction.getActivation(ndArray, false);
+				if (output != ndArray) {
+					ndArray.assign(output);
+				}
+			}
+		}
+		DL4JUtil.onModifiedInPlace(neuronsActivation);
+
+		return new DL4JInferenceActivationFunctionComponentActivationImpl(DL4JUtil.fromNDArray(matrixFactory,
+				ndArray, dl4jActivationOrientation, neuronsActivation.getFormat(), neurons, batchShardingConfig));
+	}
+
+	@Override
+	public NeuronsActivationContext getContext(DirectedComponentsContext directedComponentsContext) {
+		return DL4JNeuronsActivationContext.fromDirectedComponentsContext(directedComponentsContext);
+	}
+
+	/**
+	 * @return The DL4J activation function this component was created with -
+	 *         threads propagating through this component may use their own
+	 *         copies of it.
+	 */
+	public IActivation getDL4JActivationFunction() {
+		return dl4jActivationFunctions.getShared();
+	}
 
-		return new DL4JDifferentiableActivationFunctionComponentActivationImpl(context.getMatrixFactory(),
-				dl4jActivationFunction, activationFunctionType, neuronsActivation, inputNDArray, outputActivation,
-				dl4jActivationOrientation);
+	/**
+	 * @return The ND4J workspaces of this component.
+	 */
+	public DL4JComponentWorkspaces getWorkspaces() {
+		return workspaces;
+	}
+
+	/**
+	 * @return The ML4J activation function type.
+	 */
+	public ActivationFunctionType getActivationFunctionType() {
+		return activationFunctionType;
+	}
+
+	/**
+	 * @return The feature orientation required by the DL4J activation function,
+	 *         or null if any orientation is accepted.
+	 */
+	public NeuronsActivationFeatureOrientation getDL4JRequiredActivationOrientation() {
+		return dl4jRequiredActivationOrientation;
 	}
 
 	@Override
@@ -107,8 +283,8 @@ public class DL4JDifferentiableActivationFunctionComponentImpl extends Different
 
 	@Override
 	public DifferentiableActivationFunctionComponent dup(DirectedComponentFactory directedComponentFactory) {
-		return new DL4JDifferentiableActivationFunctionComponentImpl(name, this.getInputNeurons(), dl4jActivationFunction,
-				activationFunctionType, dl4jRequiredActivationOrientation);
+		return new DL4JDifferentiableActivationFunctionComponentImpl(name, this.getInputNeurons(),
+				dl4jActivationFunctions.getShared(), activationFunctionType, dl4jRequiredActivationOrientation, config);
 	}
 	
 	@Override
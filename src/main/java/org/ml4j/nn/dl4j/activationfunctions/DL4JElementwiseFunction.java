@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.io.Serializable;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * An activation function applied independently to each element of an
+ * activation, whose derivative can be computed from its output, so that
+ * consecutive element-wise stages can be fused - applied in turn to a single
+ * buffer with native ND4J operations, retaining only the product of their
+ * derivatives.
+ *
+ * @author Michael Lavelle
+ */
+public interface DL4JElementwiseFunction extends Serializable {
+
+	/**
+	 * @param x The input, which is overwritten with the output.
+	 */
+	void applyi(INDArray x);
+
+	/**
+	 * @param y The output, as produced by applyi.
+	 * @return The derivative of the function at each element, as a new array
+	 *         allocated in the current workspace if any, or null if the
+	 *         derivative is one everywhere.
+	 */
+	INDArray derivative(INDArray y);
+}
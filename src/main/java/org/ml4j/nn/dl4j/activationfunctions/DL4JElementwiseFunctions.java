@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.util.Optional;
+
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationTanH;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * Element-wise equivalents of the DL4J activation functions which apply to
+ * each element independently, implemented with native ND4J transforms.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JElementwiseFunctions {
+
+	private DL4JElementwiseFunctions() {
+	}
+
+	/**
+	 * @param activationFunction The DL4J activation function.
+	 * @return The element-wise equivalent of the activation function, or empty
+	 *         if the activation function is not element-wise or is not
+	 *         supported.
+	 */
+	public static Optional<DL4JElementwiseFunction> forActivation(IActivation activationFunction) {
+		if (activationFunction instanceof ActivationIdentity) {
+			return Optional.of(StandardFunction.IDENTITY);
+		} else if (activationFunction instanceof ActivationReLU) {
+			return Optional.of(StandardFunction.RELU);
+		} else if (activationFunction instanceof ActivationLReLU) {
+			return Optional.of(new LeakyReLU(((ActivationLReLU) activationFunction).getAlpha()));
+		} else if (activationFunction instanceof ActivationSigmoid) {
+			return Optional.of(StandardFunction.SIGMOID);
+		} else if (activationFunction instanceof ActivationTanH) {
+			return Optional.of(StandardFunction.TANH);
+		} else {
+			return Optional.empty();
+		}
+	}
+
+	private enum StandardFunction implements DL4JElementwiseFunction {
+
+		IDENTITY {
+			@Override
+			public void applyi(INDArray x) {
+				// No-op
+			}
+
+			@Override
+			public INDArray derivative(INDArray y) {
+				return null;
+			}
+		},
+		RELU {
+			@Override
+			public void applyi(INDArray x) {
+				Transforms.relu(x, false);
+			}
+
+			@Override
+			public INDArray derivative(INDArray y) {
+				// The output is positive exactly where the input is
+				return y.gt(0);
+			}
+		},
+		SIGMOID {
+			@Override
+			public void applyi(INDArray x) {
+				Transforms.sigmoid(x, false);
+			}
+
+			@Override
+			public INDArray derivative(INDArray y) {
+				return y.rsub(1).muli(y);
+			}
+		},
+		TANH {
+			@Override
+			public void applyi(INDArray x) {
+				Transforms.tanh(x, false);
+			}
+
+			@Override
+			public INDArray derivative(INDArray y) {
+				return y.mul(y).rsubi(1);
+			}
+		}
+	}
+
+	private static class LeakyReLU implements DL4JElementwiseFunction {
+
+		/**
+		 * Default serialization id.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		private double alpha;
+
+		LeakyReLU(double alpha) {
+			this.alpha = alpha;
+		}
+
+		@Override
+		public void applyi(INDArray x) {
+			Transforms.leakyRelu(x, alpha, false);
+		}
+
+		@Override
+		public INDArray derivative(INDArray y) {
+			// The output is positive exactly where the input is, for positive alpha
+			return y.gt(0).muli(1 - alpha).addi(alpha);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Activation of a DL4JFusedActivationChainComponentImpl, retaining only the
+ * product of the derivatives of the fused stages - at full or reduced
+ * precision - or, under RECOMPUTE retention, recomputing it from the input
+ * activation.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JFusedActivationChainComponentActivationImpl implements DefaultChainableDirectedComponentActivation {
+
+	private DL4JFusedActivationChainComponentImpl component;
+	private MatrixFactory matrixFactory;
+	private NeuronsActivation inputActivation;
+	private INDArray derivatives;
+	private DL4JReducedPrecisionArray reducedPrecisionDerivatives;
+	private boolean derivativesRecomputed;
+	private NeuronsActivation outputActivation;
+	private NeuronsActivationFeatureOrientation orientation;
+
+	public DL4JFusedActivationChainComponentActivationImpl(DL4JFusedActivationChainComponentImpl component,
+			MatrixFactory matrixFactory, NeuronsActivation inputActivation, INDArray derivatives,
+			DL4JReducedPrecisionArray reducedPrecisionDerivatives, boolean derivativesRecomputed,
+			NeuronsActivation outputActivation, NeuronsActivationFeatureOrientation orientation) {
+		this.component = component;
+		this.matrixFactory = matrixFactory;
+		this.inputActivation = inputActivation;
+		this.derivatives = derivatives;
+		DL4JInstrumentation.recordRetained(derivatives);
+		this.reducedPrecisionDerivatives = reducedPrecisionDerivatives;
+		DL4JInstrumentation.recordRetained(reducedPrecisionDerivatives);
+		this.derivativesRecomputed = derivativesRecomputed;
+		this.outputActivation = outputActivation;
+		this.orientation = orientation;
+	}
+
+	public DL4JFusedActivationChainComponentImpl getComponent() {
+		return component;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(component.getName(), startNanos);
+		return inputGradient;
+	}
+
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+
+		if (derivatives == null && reducedPrecisionDerivatives == null && !derivativesRecomputed) {
+			throw new IllegalStateException(
+					"Activation has been closed, or was not created in a training context, so cannot be back propagated");
+		}
+
+		INDArray outputGradient = DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), orientation);
+
+		INDArray inputGradient;
+		if (derivatives != null) {
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				inputGradient = outputGradient.mul(derivatives);
+			}
+		} else {
+			// The decoded or recomputed derivatives are a new array outside of any
+			// workspace, so the input gradient is written into it
+			INDArray decodedDerivatives = reducedPrecisionDerivatives != null ? reducedPrecisionDerivatives.decode()
+					: component.recomputeDerivatives(matrixFactory, inputActivation, orientation);
+			inputGradient = decodedDerivatives.muli(outputGradient);
+		}
+
+		NeuronsActivation inputGradientActivation = DL4JUtil.fromNDArray(matrixFactory, inputGradient, orientation,
+				inputActivation.getFormat(), inputActivation.getNeurons());
+		return new DirectedComponentGradientImpl<>(gradient.getTotalTrainableAxonsGradients(),
+				inputGradientActivation);
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		if (completedLifeCycleStage == DirectedComponentActivationLifecycle.BACK_PROPAGATION) {
+			DL4JInstrumentation.recordReleased(derivatives);
+			derivatives = null;
+			DL4JInstrumentation.recordReleased(reducedPrecisionDerivatives);
+			reducedPrecisionDerivatives = null;
+			derivativesRecomputed = false;
+		}
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
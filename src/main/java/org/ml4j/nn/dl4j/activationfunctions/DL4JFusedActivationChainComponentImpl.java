@@ -0,0 +1,313 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.NeuralComponentBaseType;
+import org.ml4j.nn.components.NeuralComponentType;
+import org.ml4j.nn.components.factories.DirectedComponentFactory;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.DL4JBackPropRetention;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.DL4JReducedPrecision;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * A component which substitutes for a run of consecutive element-wise DL4J
+ * activation function components, applying all of them in turn to a single
+ * output buffer with native ND4J transforms.
+ *
+ * When training, the product of the derivatives of each stage is accumulated
+ * as the stages are applied, computed from each stage's output, so back
+ * propagation is a single element-wise multiplication. The derivative of each
+ * stage is a temporary allocated in this component's forward propagation
+ * workspace, when workspaces are enabled.
+ *
+ * The component honours the configuration of the components it substitutes
+ * for. Under INPUT and MINIMAL retention, the product of the derivatives is
+ * retained, which is the size of the input, and is stored at any reduced
+ * storage precision. Under RECOMPUTE retention, only the input activation is
+ * held, and the product is recomputed from it on back propagation. Outside of
+ * a training context, where in-place inference is enabled, the stages are
+ * applied in-place on the input buffer.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JFusedActivationChainComponentImpl
+		implements DefaultChainableDirectedComponent<DL4JFusedActivationChainComponentActivationImpl, NeuronsActivationContext> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The sub type id of the component type of fused activation chains.
+	 */
+	public static final String FUSED_ACTIVATION_CHAIN_TYPE_ID = "DL4J_FUSED_ACTIVATION_CHAIN";
+
+	private String name;
+	private Neurons neurons;
+	private List<DL4JDifferentiableActivationFunctionComponentImpl> fusedComponents;
+	private DL4JElementwiseFunction[] functions;
+	private DL4JComponentConfig config;
+	private DL4JComponentWorkspaces workspaces;
+
+	public DL4JFusedActivationChainComponentImpl(String name, Neurons neurons,
+			List<DL4JDifferentiableActivationFunctionComponentImpl> fusedComponents, DL4JComponentConfig config) {
+		this.name = name;
+		this.neurons = neurons;
+		this.fusedComponents = new ArrayList<>(fusedComponents);
+		this.functions = new DL4JElementwiseFunction[fusedComponents.size()];
+		for (int i = 0; i < functions.length; i++) {
+			DL4JDifferentiableActivationFunctionComponentImpl component = fusedComponents.get(i);
+			functions[i] = DL4JElementwiseFunctions.forActivation(component.getDL4JActivationFunction())
+					.orElseThrow(() -> new IllegalArgumentException(
+							"Activation function component:" + component.getName() + " is not element-wise"));
+		}
+		this.config = config;
+		this.workspaces = new DL4JComponentWorkspaces(name, config.isWorkspacesEnabled());
+	}
+
+	/**
+	 * @param component The component.
+	 * @return Whether the component can be included in a fused activation chain.
+	 */
+	public static boolean isFusable(DefaultChainableDirectedComponent<?, ?> component) {
+		return component instanceof DL4JDifferentiableActivationFunctionComponentImpl
+				&& DL4JElementwiseFunctions.forActivation(
+						((DL4JDifferentiableActivationFunctionComponentImpl) component).getDL4JActivationFunction())
+						.isPresent();
+	}
+
+	/**
+	 * @return The activation function components this component substitutes for,
+	 *         in order.
+	 */
+	public List<DL4JDifferentiableActivationFunctionComponentImpl> getFusedComponents() {
+		return fusedComponents;
+	}
+
+	@Override
+	public DL4JFusedActivationChainComponentActivationImpl forwardPropagate(NeuronsActivation neuronsActivation,
+			NeuronsActivationContext context) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DL4JFusedActivationChainComponentActivationImpl activation = doForwardPropagate(neuronsActivation, context);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DL4JFusedActivationChainComponentActivationImpl doForwardPropagate(NeuronsActivation neuronsActivation,
+			NeuronsActivationContext context) {
+
+		MatrixFactory matrixFactory = context.getMatrixFactory();
+		NeuronsActivationFeatureOrientation orientation = neuronsActivation.getFeatureOrientation();
+		boolean trainingContext = context.isTrainingContext();
+
+		if (!trainingContext && config.isInPlaceInferenceEnabled()) {
+			return forwardPropagateInPlace(neuronsActivation, matrixFactory, orientation);
+		}
+
+		boolean derivativesRetained = trainingContext
+				&& config.getBackPropRetention() != DL4JBackPropRetention.RECOMPUTE;
+		Optional<DL4JReducedPrecision> reducedPrecision = config.getStoragePrecision().getReducedPrecision();
+
+		INDArray output;
+		INDArray derivatives = null;
+		DL4JReducedPrecisionArray reducedPrecisionDerivatives = null;
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+
+			// The output is carried beyond this call, so is allocated outside of any
+			// workspace. An input converted from an ML4J Matrix is already a copy of
+			// its own, so becomes the output without a further copy
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				INDArray input = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, orientation);
+				output = DL4JUtil.isNDArrayBacked(matrixFactory, neuronsActivation) ? input.dup(input.ordering())
+						: input;
+			}
+			// The derivatives are only scratch memory if they are encoded at a reduced
+			// precision
+			if (derivativesRetained) {
+				try (MemoryWorkspace retained = DL4JComponentWorkspaces
+						.scopeOutOfWorkspacesIfRetained(!reducedPrecision.isPresent())) {
+					derivatives = Nd4j.createUninitialized(output.shape(), output.ordering());
+				}
+			}
+			apply(output, derivatives);
+			if (derivatives != null && reducedPrecision.isPresent()) {
+				reducedPrecisionDerivatives = DL4JReducedPrecisionArray.encode(derivatives, reducedPrecision.get());
+				derivatives = null;
+			}
+		}
+
+		NeuronsActivation outputActivation = DL4JUtil.fromNDArray(matrixFactory, output, orientation,
+				neuronsActivation.getFormat(), neurons);
+
+		return new DL4JFusedActivationChainComponentActivationImpl(this, matrixFactory, neuronsActivation,
+				derivatives, reducedPrecisionDerivatives, trainingContext && !derivativesRetained, outputActivation,
+				orientation);
+	}
+
+	private DL4JFusedActivationChainComponentActivationImpl forwardPropagateInPlace(
+			NeuronsActivation neuronsActivation, MatrixFactory matrixFactory,
+			NeuronsActivationFeatureOrientation orientation) {
+
+		// The single buffer of this chain is either the INDArray carried by the input
+		// activation, or the one copy made when converting from an ML4J Matrix. It is
+		// carried natively by the output activation, so is not allocated in a
+		// workspace
+		INDArray ndArray;
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			ndArray = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, orientation);
+			apply(ndArray, null);
+		}
+		DL4JUtil.onModifiedInPlace(neuronsActivation);
+
+		NeuronsActivation outputActivation = DL4JUtil.fromNDArray(matrixFactory, ndArray, orientation,
+				neuronsActivation.getFormat(), neurons);
+
+		return new DL4JFusedActivationChainComponentActivationImpl(this, matrixFactory, neuronsActivation, null,
+				null, false, outputActivation, orientation);
+	}
+
+	/**
+	 * Recomputes the product of the derivatives of the stages from the input
+	 * activation, for back propagation under RECOMPUTE retention.
+	 *
+	 * @param matrixFactory   The matrix factory.
+	 * @param inputActivation The input activation.
+	 * @param orientation     The orientation of the input.
+	 * @return The product of the derivatives, allocated outside of any workspace.
+	 */
+	INDArray recomputeDerivatives(MatrixFactory matrixFactory, NeuronsActivation inputActivation,
+			NeuronsActivationFeatureOrientation orientation) {
+		try (MemoryWorkspace workspace = workspaces.activateBackPropagationWorkspace()) {
+			// The stages are reapplied to scratch memory, never to a buffer shared with
+			// the caller
+			INDArray input = DL4JUtil.asNDArray(matrixFactory, inputActivation, orientation);
+			INDArray output = DL4JUtil.isNDArrayBacked(matrixFactory, inputActivation)
+					? input.dup(input.ordering())
+					: input;
+			INDArray derivatives;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				derivatives = Nd4j.createUninitialized(output.shape(), output.ordering());
+			}
+			apply(output, derivatives);
+			return derivatives;
+		}
+	}
+
+	/**
+	 * Applies each stage in turn to the output in place, multiplying the
+	 * derivatives, if not null, by the derivative of each stage.
+	 */
+	private void apply(INDArray output, INDArray derivatives) {
+		boolean derivativesInitialised = false;
+		for (DL4JElementwiseFunction function : functions) {
+			function.applyi(output);
+			if (derivatives != null) {
+				INDArray derivative = function.derivative(output);
+				if (derivative != null) {
+					if (derivativesInitialised) {
+						derivatives.muli(derivative);
+					} else {
+						derivatives.assign(derivative);
+						derivativesInitialised = true;
+					}
+				}
+			}
+		}
+		if (derivatives != null && !derivativesInitialised) {
+			derivatives.assign(1);
+		}
+	}
+
+	/**
+	 * @return The ND4J workspaces of this component.
+	 */
+	public DL4JComponentWorkspaces getWorkspaces() {
+		return workspaces;
+	}
+
+	@Override
+	public NeuronsActivationContext getContext(DirectedComponentsContext directedComponentsContext) {
+		return new NeuronsActivationContextImpl(directedComponentsContext.getMatrixFactory(),
+				directedComponentsContext.isTrainingContext());
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Neurons getInputNeurons() {
+		return neurons;
+	}
+
+	@Override
+	public Neurons getOutputNeurons() {
+		return neurons;
+	}
+
+	@Override
+	public NeuralComponentType getComponentType() {
+		return NeuralComponentType.createSubType(NeuralComponentBaseType.ACTIVATION_FUNCTION,
+				FUSED_ACTIVATION_CHAIN_TYPE_ID);
+	}
+
+	@Override
+	public DL4JFusedActivationChainComponentImpl dup(DirectedComponentFactory directedComponentFactory) {
+		return new DL4JFusedActivationChainComponentImpl(name, neurons, fusedComponents, config);
+	}
+
+	@Override
+	public List<DefaultChainableDirectedComponent<?, ?>> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public Set<DefaultChainableDirectedComponent<?, ?>> flatten() {
+		Set<DefaultChainableDirectedComponent<?, ?>> allComponentsIncludingThis = new HashSet<>(Arrays.asList(this));
+		return allComponentsIncludingThis;
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return true;
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return Optional.empty();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.costfunctions.CostFunctionGradient;
+import org.ml4j.nn.neurons.NeuronsActivation;
+
+/**
+ * The activation of a DL4J activation function component outside of a
+ * training context, when in-place inference is enabled.
+ *
+ * Holds only the output activation - no input, state or workspaces are
+ * retained, so the only memory held per activation layer is the single buffer
+ * in which the activation function was applied.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JInferenceActivationFunctionComponentActivationImpl
+		implements DifferentiableActivationFunctionComponentActivation {
+
+	private NeuronsActivation outputActivation;
+
+	/**
+	 * @param outputActivation The output activation.
+	 */
+	public DL4JInferenceActivationFunctionComponentActivationImpl(NeuronsActivation outputActivation) {
+		this.outputActivation = outputActivation;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		throw new IllegalStateException(
+				"Activation was not created in a training context, so cannot be back propagated");
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(CostFunctionGradient da) {
+		throw new IllegalStateException(
+				"Activation was not created in a training context, so cannot be back propagated");
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		// No state is retained
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
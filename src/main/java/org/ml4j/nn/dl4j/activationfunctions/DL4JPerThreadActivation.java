@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationCube;
+import org.nd4j.linalg.activations.impl.ActivationELU;
+import org.nd4j.linalg.activations.impl.ActivationHardSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationHardTanH;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.activations.impl.ActivationRationalTanh;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.activations.impl.ActivationRectifiedTanh;
+import org.nd4j.linalg.activations.impl.ActivationSELU;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationSoftPlus;
+import org.nd4j.linalg.activations.impl.ActivationSoftSign;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.activations.impl.ActivationTanH;
+
+/**
+ * Provides the DL4J activation function of a component to each thread and
+ * each training activation which propagates through it.
+ *
+ * DL4J's IActivation implementations make no thread-safety guarantees, and
+ * some hold state between getActivation and backprop - ActivationRReLU, for
+ * example, retains the random slopes it sampled in a training context. The
+ * DL4J activation functions known to hold no such state, and the ML4J
+ * adapters extending BaseML4JActivationFunction, are shared by all threads.
+ * Any other activation function is copied, by deserializing a form serialized
+ * once when this instance is created. A training activation is given its own
+ * copy, which it retains for back propagation, so that neither another
+ * activation in flight on the same thread nor a forward propagation on another
+ * thread can overwrite its state. Outside of a training context no state is
+ * retained, so each thread reuses a single copy.
+ *
+ * @author Michael Lavelle
+ */
+final class DL4JPerThreadActivation implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private static final Set<Class<?>> STATELESS_ACTIVATION_FUNCTIONS = new HashSet<>(Arrays.asList(
+			ActivationCube.class, ActivationELU.class, ActivationHardSigmoid.class, ActivationHardTanH.class,
+			ActivationIdentity.class, ActivationLReLU.class, ActivationRationalTanh.class, ActivationReLU.class,
+			ActivationRectifiedTanh.class, ActivationSELU.class, ActivationSigmoid.class, ActivationSoftmax.class,
+			ActivationSoftPlus.class, ActivationSoftSign.class, ActivationTanH.class));
+
+	private final IActivation activationFunction;
+	private final transient byte[] serializedActivationFunction;
+	private final transient ThreadLocal<IActivation> perThreadActivationFunction;
+
+	DL4JPerThreadActivation(IActivation activationFunction) {
+		this.activationFunction = activationFunction;
+		if (isStateless(activationFunction)) {
+			this.serializedActivationFunction = null;
+			this.perThreadActivationFunction = null;
+		} else {
+			this.serializedActivationFunction = serialize(activationFunction);
+			this.perThreadActivationFunction = ThreadLocal.withInitial(this::copy);
+		}
+	}
+
+	/**
+	 * @param activationFunction The DL4J activation function.
+	 * @return Whether the activation function holds no state between calls, so
+	 *         can be shared by concurrent threads.
+	 */
+	static boolean isStateless(IActivation activationFunction) {
+		return activationFunction instanceof BaseML4JActivationFunction
+				|| STATELESS_ACTIVATION_FUNCTIONS.contains(activationFunction.getClass());
+	}
+
+	/**
+	 * @return The activation function this instance was created with.
+	 */
+	IActivation getShared() {
+		return activationFunction;
+	}
+
+	/**
+	 * @param trainingContext Whether the activation function is to be used in a
+	 *                        training context.
+	 * @return The activation function to be used for both forward and back
+	 *         propagation of a single activation. An activation function which
+	 *         is not known to be stateless is copied for each call in a training
+	 *         context, and once for each calling thread otherwise.
+	 */
+	IActivation get(boolean trainingContext) {
+		if (perThreadActivationFunction == null) {
+			return activationFunction;
+		}
+		return trainingContext ? copy() : perThreadActivationFunction.get();
+	}
+
+	/**
+	 * @return Whether the activation function is not known to be stateless, so
+	 *         may hold state between forward and back propagation and must not
+	 *         be shared by concurrent shards of a single activation.
+	 */
+	boolean isStateful() {
+		return perThreadActivationFunction != null;
+	}
+
+	private IActivation copy() {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedActivationFunction))) {
+			return (IActivation) in.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException("Unable to copy activation function:" + activationFunction, e);
+		}
+	}
+
+	private static byte[] serialize(IActivation activationFunction) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(activationFunction);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to serialize activation function:" + activationFunction, e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private Object readResolve() {
+		return new DL4JPerThreadActivation(activationFunction);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import org.ml4j.nn.dl4j.DL4JReducedPrecision;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * An INDArray stored at a reduced precision, as 16 bits per element.
+ *
+ * ND4J arrays share a single global data type, so the reduced precision
+ * elements are held on the heap, and widened into an FP32 INDArray when the
+ * array is decoded. Elements are transferred to and from the INDArray's data
+ * buffer in bulk, through NIO views of the buffer.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JReducedPrecisionArray {
+
+	private short[] elements;
+	private int[] shape;
+	private char ordering;
+	private DL4JReducedPrecision precision;
+
+	private DL4JReducedPrecisionArray(short[] elements, int[] shape, char ordering, DL4JReducedPrecision precision) {
+		this.elements = elements;
+		this.shape = shape;
+		this.ordering = ordering;
+		this.precision = precision;
+	}
+
+	/**
+	 * @param array     The array to encode, which is not modified.
+	 * @param precision The reduced precision.
+	 * @return The array at the reduced precision.
+	 */
+	public static DL4JReducedPrecisionArray encode(INDArray array, DL4JReducedPrecision precision) {
+		INDArray source = array.isView() ? array.dup(array.ordering()) : array;
+		int length = (int) source.length();
+		FloatBuffer values = source.data().asNioFloat();
+		values.position((int) source.offset());
+		values.limit((int) source.offset() + length);
+		short[] elements = new short[length];
+		precision.encode(values, ShortBuffer.wrap(elements));
+		return new DL4JReducedPrecisionArray(elements, source.shape(), source.ordering(), precision);
+	}
+
+	/**
+	 * @return The array widened to FP32, allocated outside of any workspace.
+	 */
+	public INDArray decode() {
+		INDArray array;
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			array = Nd4j.createUninitialized(shape, ordering);
+		}
+		precision.decode(ShortBuffer.wrap(elements), array.data().asNioFloat());
+		return array;
+	}
+
+	/**
+	 * @return The precision of the stored elements.
+	 */
+	public DL4JReducedPrecision getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return The number of bytes used by the stored elements.
+	 */
+	public long getSizeInBytes() {
+		return elements.length * 2L;
+	}
+}
@@ -13,13 +13,24 @@
  */
 package org.ml4j.nn.dl4j.activationfunctions;
 
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
 import org.ml4j.Matrix;
 import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrix;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.neurons.DL4JNeuronsActivation;
 import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
 import org.ml4j.nn.neurons.NeuronsActivation;
 import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
 import org.ml4j.nn.neurons.NeuronsActivationImpl;
 import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -27,79 +38,244 @@ import org.nd4j.linalg.factory.Nd4j;
  * Utilities for mapping between ML4J NeuronsActivation and Matrix instances and
  * ND4J's INDArrays.
  * 
+ * Where a Matrix is already backed by an INDArray (an Nd4jMatrix), or where the
+ * target MatrixFactory is an Nd4jMatrixFactory, the underlying buffer is passed
+ * through without copying. Otherwise the data is copied once into the target
+ * representation.
+ * 
+ * NeuronsActivations created from INDArrays are DL4JNeuronsActivations, which
+ * carry the INDArray natively and are unwrapped without copying, so a Matrix is
+ * only created if a non-DL4J consumer requests one.
+ * 
+ * Where the source and target orientations differ, the target layout is
+ * produced directly - either as a transposed view, an 'f' ordered array, or a
+ * cache-blocked transpose into the target array - rather than by materialising
+ * an intermediate matrix and transposing it. Where a DL4JBatchShardingConfig
+ * is supplied, the blocks of the transpose are distributed across its
+ * fork-join pool.
+ * 
+ * Where instrumentation is enabled, the bytes copied and the transposing
+ * copies made are recorded against the public operation which made them.
+ * 
  * @author Michael Lavelle
  */
 public class DL4JUtil {
 
-	private static float[] getData(INDArray ndArray) {
-		return ndArray.data().asFloat();
+	/**
+	 * Square block size used when transposing, chosen so that a source and a
+	 * target block of floats fit comfortably in L1 cache together.
+	 */
+	private static final int TRANSPOSE_BLOCK_SIZE = 64;
+
+	private static boolean isContiguous(INDArray ndArray, char order) {
+		return !ndArray.isView() && ndArray.ordering() == order
+				&& Arrays.equals(ndArray.stride(), Nd4j.getStrides(ndArray.shape(), order));
+	}
+
+	/**
+	 * Obtain the row-by-row data of the array, or of its transpose, in a single
+	 * pass over the data.
+	 * 
+	 * A contiguous 'c' ordered array holds the row-by-row data of the matrix,
+	 * while a contiguous 'f' ordered array holds the row-by-row data of the
+	 * transposed matrix, so where the required layout matches the layout in
+	 * memory the buffer is copied directly. Otherwise the buffer is transposed
+	 * block by block straight into the target array.
+	 */
+	private static float[] getData(INDArray ndArray, boolean transpose, DL4JBatchShardingConfig batchShardingConfig,
+			String operation) {
+		char rowByRowOrder = transpose ? 'f' : 'c';
+		char transposedOrder = transpose ? 'c' : 'f';
+		if (isContiguous(ndArray, rowByRowOrder)) {
+			DL4JInstrumentation.recordCopy(operation, ndArray.length(), false);
+			return ndArray.data().asFloat();
+		} else if (isContiguous(ndArray, transposedOrder) && ndArray.data().dataType() == DataBuffer.Type.FLOAT) {
+			// The buffer holds the row-by-row data of the matrix we need to transpose.
+			int sourceRows = transposedOrder == 'c' ? ndArray.rows() : ndArray.columns();
+			int sourceColumns = transposedOrder == 'c' ? ndArray.columns() : ndArray.rows();
+			DL4JInstrumentation.recordCopy(operation, ndArray.length(), true);
+			return transpose(ndArray.data().asNioFloat(), sourceRows, sourceColumns, batchShardingConfig);
+		} else {
+			// Strided view - let ND4J lay out the data in the required order, which
+			// copies twice.
+			DL4JInstrumentation.recordCopy(operation, 2 * ndArray.length(), transpose);
+			return ndArray.dup(rowByRowOrder).data().asFloat();
+		}
+	}
+
+	private static float[] transpose(FloatBuffer source, int sourceRows, int sourceColumns,
+			DL4JBatchShardingConfig batchShardingConfig) {
+		float[] target = new float[sourceRows * sourceColumns];
+		int rowBlockCount = (sourceRows + TRANSPOSE_BLOCK_SIZE - 1) / TRANSPOSE_BLOCK_SIZE;
+		if (batchShardingConfig == null) {
+			for (int rowBlockIndex = 0; rowBlockIndex < rowBlockCount; rowBlockIndex++) {
+				transposeRowBlock(source, target, sourceRows, sourceColumns, rowBlockIndex);
+			}
+		} else {
+			// Each row block writes a disjoint set of target elements, and absolute
+			// reads do not modify the state of the source buffer
+			DL4JBatchSharding.forEachShard(rowBlockCount, batchShardingConfig,
+					rowBlockIndex -> transposeRowBlock(source, target, sourceRows, sourceColumns, rowBlockIndex));
+		}
+		return target;
+	}
+
+	private static void transposeRowBlock(FloatBuffer source, float[] target, int sourceRows, int sourceColumns,
+			int rowBlockIndex) {
+		int rowBlock = rowBlockIndex * TRANSPOSE_BLOCK_SIZE;
+		int rowBlockEnd = Math.min(rowBlock + TRANSPOSE_BLOCK_SIZE, sourceRows);
+		for (int columnBlock = 0; columnBlock < sourceColumns; columnBlock += TRANSPOSE_BLOCK_SIZE) {
+			int columnBlockEnd = Math.min(columnBlock + TRANSPOSE_BLOCK_SIZE, sourceColumns);
+			for (int row = rowBlock; row < rowBlockEnd; row++) {
+				int sourceOffset = row * sourceColumns;
+				for (int column = columnBlock; column < columnBlockEnd; column++) {
+					target[column * sourceRows + row] = source.get(sourceOffset + column);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param matrix The matrix.
+	 * @return Whether the matrix is backed directly by an INDArray, so that
+	 *         conversion to an INDArray will not copy.
+	 */
+	public static boolean isNDArrayBacked(Matrix matrix) {
+		return matrix instanceof Nd4jMatrix;
+	}
+
+	/**
+	 * @param matrixFactory The matrix factory.
+	 * @return Whether matrices created from INDArrays by the matrix factory wrap
+	 *         the INDArray, so that the INDArray escapes into ML4J.
+	 */
+	public static boolean isNDArrayBacked(MatrixFactory matrixFactory) {
+		return matrixFactory instanceof Nd4jMatrixFactory;
+	}
+
+	/**
+	 * @param matrixFactory     The matrix factory.
+	 * @param neuronsActivation The neurons activation.
+	 * @return Whether the activations are backed directly by an INDArray, so
+	 *         that conversion to an INDArray will not copy and the INDArray is
+	 *         shared with the caller.
+	 */
+	public static boolean isNDArrayBacked(MatrixFactory matrixFactory, NeuronsActivation neuronsActivation) {
+		return neuronsActivation instanceof DL4JNeuronsActivation
+				|| isNDArrayBacked(neuronsActivation.getActivations(matrixFactory));
+	}
+
+	/**
+	 * To be called after the INDArray backing a neurons activation has been
+	 * modified in place, so that any ML4J Matrix copy cached by the activation
+	 * is discarded rather than read stale.
+	 *
+	 * @param neuronsActivation The neurons activation which was modified.
+	 */
+	public static void onModifiedInPlace(NeuronsActivation neuronsActivation) {
+		if (neuronsActivation instanceof DL4JNeuronsActivation) {
+			((DL4JNeuronsActivation) neuronsActivation).invalidateMaterialisedActivations();
+		}
+	}
+
+	private static Matrix toMatrix(MatrixFactory matrixFactory, INDArray ndArray, boolean transpose,
+			DL4JBatchShardingConfig batchShardingConfig, String operation) {
+		if (matrixFactory instanceof Nd4jMatrixFactory) {
+			return new Nd4jMatrix(transpose ? ndArray.transpose() : ndArray);
+		}
+		return transpose
+				? matrixFactory.createMatrixFromRowsByRowsArray(ndArray.columns(), ndArray.rows(),
+						getData(ndArray, true, batchShardingConfig, operation))
+				: matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(),
+						getData(ndArray, false, batchShardingConfig, operation));
+	}
+
+	private static INDArray toNDArray(Matrix matrix, boolean transpose, String operation) {
+		if (matrix instanceof Nd4jMatrix) {
+			INDArray ndArray = ((Nd4jMatrix) matrix).getNDArray();
+			return transpose ? ndArray.transpose() : ndArray;
+		}
+		// The row-by-row data of a matrix is the column-by-column data of its
+		// transpose, so the transpose can be created as an 'f' ordered array
+		// without rearranging the data.
+		DL4JInstrumentation.recordCopy(operation, (long) matrix.getRows() * matrix.getColumns(), false);
+		return transpose
+				? Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getColumns(), matrix.getRows() }, 'f')
+				: Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getRows(), matrix.getColumns() }, 'c');
 	}
 
 	public static NeuronsActivation fromNDArray(MatrixFactory matrixFactory, INDArray ndArray,
 			NeuronsActivationFeatureOrientation sourceOrientation,
 			NeuronsActivationFormat<?> targetFormat, Neurons neurons) {
 
-		float[] rowsByRowsArray = getData(ndArray);
+		return new DL4JNeuronsActivation(neurons, ndArray, sourceOrientation, targetFormat);
+	}
 
-		Matrix matrix = sourceOrientation.equals(targetFormat.getFeatureOrientation())
-				? matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray)
-				: matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray)
-						.transpose();
+	/**
+	 * As fromNDArray, but where the activation is later materialised as an ML4J
+	 * Matrix, any transpose is distributed across the fork-join pool of the batch
+	 * sharding configuration.
+	 */
+	public static NeuronsActivation fromNDArray(MatrixFactory matrixFactory, INDArray ndArray,
+			NeuronsActivationFeatureOrientation sourceOrientation, NeuronsActivationFormat<?> targetFormat,
+			Neurons neurons, DL4JBatchShardingConfig batchShardingConfig) {
 
-		return new NeuronsActivationImpl(neurons, matrix, targetFormat);
+		return new DL4JNeuronsActivation(neurons, ndArray, sourceOrientation, targetFormat, batchShardingConfig);
+	}
 
+	/**
+	 * Creates an image activation, with the rows spanning the feature set, from
+	 * an INDArray.
+	 * 
+	 * ML4J image activations own their Matrix, so unlike fromNDArray the Matrix
+	 * is created eagerly - by wrapping for an Nd4jMatrixFactory, or by a single
+	 * copy otherwise.
+	 */
+	public static NeuronsActivation fromNDArrayToImageActivation(MatrixFactory matrixFactory, INDArray ndArray,
+			NeuronsActivationFeatureOrientation sourceOrientation, Neurons3D neurons, DimensionScope dimensionScope) {
+		Matrix matrix = toMatrix(matrixFactory, ndArray,
+				sourceOrientation != NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET, null,
+				"fromNDArrayToImageActivation");
+		return new NeuronsActivationImpl(neurons, matrix, NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET)
+				.asImageNeuronsActivation(neurons, dimensionScope);
 	}
 
 	public static Matrix fromNDArrayToActivationMatrix(MatrixFactory matrixFactory, INDArray ndArray,
 			NeuronsActivationFeatureOrientation sourceOrientation,
 			NeuronsActivationFeatureOrientation targetOrientation) {
-		float[] rowsByRowsArray = getData(ndArray);
-
-		Matrix matrix = sourceOrientation.equals(targetOrientation)
-				? matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray)
-				: matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray)
-						.transpose();
+		return fromNDArrayToActivationMatrix(matrixFactory, ndArray, sourceOrientation, targetOrientation, null);
+	}
 
-		return matrix;
+	public static Matrix fromNDArrayToActivationMatrix(MatrixFactory matrixFactory, INDArray ndArray,
+			NeuronsActivationFeatureOrientation sourceOrientation,
+			NeuronsActivationFeatureOrientation targetOrientation, DL4JBatchShardingConfig batchShardingConfig) {
+		return toMatrix(matrixFactory, ndArray, !sourceOrientation.equals(targetOrientation), batchShardingConfig,
+				"fromNDArrayToActivationMatrix");
 	}
 
 	public static INDArray asNDArray(MatrixFactory matrixFactory, NeuronsActivation neuronsActivation,
 			NeuronsActivationFeatureOrientation targetOrientation) {
-		Matrix matrix = targetOrientation == neuronsActivation.getFeatureOrientation()
-				? neuronsActivation.getActivations(matrixFactory)
-				: neuronsActivation.getActivations(matrixFactory).transpose();
-		return Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getRows(), matrix.getColumns() });
+		if (neuronsActivation instanceof DL4JNeuronsActivation) {
+			return ((DL4JNeuronsActivation) neuronsActivation).getNDArray(targetOrientation);
+		}
+		return toNDArray(neuronsActivation.getActivations(matrixFactory),
+				targetOrientation != neuronsActivation.getFeatureOrientation(), "asNDArray");
 	}
 
 	public static INDArray asNDArrayForWeights(MatrixFactory matrixFactory, Matrix matrix, boolean transpose) {
-		matrix = transpose ? matrix.transpose() : matrix;
-		return Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getRows(), matrix.getColumns() });
+		return toNDArray(matrix, transpose, "asNDArrayForWeights");
 	}
 
 	public static INDArray asNDArrayForBias(MatrixFactory matrixFactory, Matrix matrix, boolean transpose) {
-		matrix = transpose ? matrix.transpose() : matrix;
-		return Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getRows(), matrix.getColumns() });
+		return toNDArray(matrix, transpose, "asNDArrayForBias");
 	}
 
 	public static Matrix fromNDArrayToBiasMatrix(MatrixFactory matrixFactory, INDArray ndArray, boolean transpose) {
-		float[] rowsByRowsArray = getData(ndArray);
-		if (transpose) {
-			return matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray)
-					.transpose();
-		} else {
-			return matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray);
-
-		}
+		return toMatrix(matrixFactory, ndArray, transpose, null, "fromNDArrayToBiasMatrix");
 	}
 
 	public static Matrix fromNDArrayToWeightsMatrix(MatrixFactory matrixFactory, INDArray ndArray, boolean transpose) {
-		float[] rowsByRowsArray = getData(ndArray);
-		if (transpose) {
-			return matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray)
-					.transpose();
-		} else {
-			return matrixFactory.createMatrixFromRowsByRowsArray(ndArray.rows(), ndArray.columns(), rowsByRowsArray);
-		}
+		return toMatrix(matrixFactory, ndArray, transpose, null, "fromNDArrayToWeightsMatrix");
 	}
 
 }
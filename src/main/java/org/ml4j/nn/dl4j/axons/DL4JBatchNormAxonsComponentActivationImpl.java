@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.axons.AxonsGradientImpl;
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.axons.DirectedAxonsComponentActivation;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Activation of a DL4JBatchNormAxonsComponentImpl, retaining the normalised
+ * input and the per-channel standard deviations of the mini-batch, from which
+ * the gradients with respect to the input, gamma and beta are computed on back
+ * propagation.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JBatchNormAxonsComponentActivationImpl implements DirectedAxonsComponentActivation {
+
+	private DL4JBatchNormAxonsComponentImpl axonsComponent;
+	private MatrixFactory matrixFactory;
+	private NeuronsActivationFormat<?> inputFormat;
+	private INDArray normalised;
+	private INDArray standardDeviations;
+	private NeuronsActivation outputActivation;
+	private AxonsContext axonsContext;
+	private DL4JComponentWorkspaces workspaces;
+
+	public DL4JBatchNormAxonsComponentActivationImpl(DL4JBatchNormAxonsComponentImpl axonsComponent,
+			MatrixFactory matrixFactory, NeuronsActivationFormat<?> inputFormat, INDArray normalised,
+			INDArray standardDeviations, NeuronsActivation outputActivation, AxonsContext axonsContext,
+			DL4JComponentWorkspaces workspaces) {
+		this.axonsComponent = axonsComponent;
+		this.matrixFactory = matrixFactory;
+		this.inputFormat = inputFormat;
+		this.normalised = normalised;
+		DL4JInstrumentation.recordRetained(normalised);
+		this.standardDeviations = standardDeviations;
+		this.outputActivation = outputActivation;
+		this.axonsContext = axonsContext;
+		this.workspaces = workspaces;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(axonsComponent.getName(), startNanos);
+		return inputGradient;
+	}
+
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+
+		if (normalised == null) {
+			throw new IllegalStateException(
+					"Activation has been closed, or was not created in a training context, so cannot be back propagated");
+		}
+
+		DL4JBatchNormAxonsImpl axons = axonsComponent.getAxons();
+		int channels = axons.getChannelCount();
+		INDArray gamma = axons.getConnectionWeightsNDArray();
+
+		try (MemoryWorkspace workspace = workspaces.activateBackPropagationWorkspace()) {
+
+			INDArray rowsSpanFeatures = DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(),
+					NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET);
+			int features = rowsSpanFeatures.rows();
+			int examples = rowsSpanFeatures.columns();
+			INDArray outputGradient = rowsSpanFeatures.reshape('c', channels, normalised.columns());
+
+			INDArray betaGradient;
+			INDArray gammaGradient;
+			INDArray inputGradient;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				betaGradient = outputGradient.sum(1).reshape(channels, 1);
+				gammaGradient = outputGradient.mul(normalised).sum(1).reshape(channels, 1);
+
+				// dx = (dxHat - mean(dxHat) - xHat * mean(dxHat * xHat)) / std, where
+				// dxHat = gamma * dy, so both means follow from the beta and gamma
+				// gradients without further passes
+				double batchSize = normalised.columns();
+				INDArray meanNormalisedGradient = betaGradient.mul(gamma).divi(batchSize);
+				INDArray meanProduct = gammaGradient.mul(gamma).divi(batchSize);
+				inputGradient = outputGradient.mulColumnVector(gamma).subiColumnVector(meanNormalisedGradient)
+						.subi(normalised.mulColumnVector(meanProduct)).diviColumnVector(standardDeviations);
+			}
+
+			List<Supplier<AxonsGradient>> axonsGradients = new ArrayList<>();
+			axonsGradients.addAll(gradient.getTotalTrainableAxonsGradients());
+
+			if (axons.isTrainable(axonsContext)) {
+				AxonsGradient axonsGradient = new AxonsGradientImpl(axons,
+						DL4JUtil.fromNDArrayToWeightsMatrix(matrixFactory, gammaGradient, false),
+						DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory, betaGradient, false));
+				axonsGradients.add(() -> axonsGradient);
+			}
+
+			NeuronsActivation inputGradientActivation = DL4JBatchNormAxonsComponentImpl.toActivation(matrixFactory,
+					inputGradient.reshape('c', features, examples), axons.getLeftNeurons(), inputFormat,
+					DimensionScope.INPUT);
+
+			return new DirectedComponentGradientImpl<>(axonsGradients, inputGradientActivation);
+		}
+	}
+
+	@Override
+	public DL4JBatchNormAxonsComponentImpl getAxonsComponent() {
+		return axonsComponent;
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		// The normalised input and standard deviations are only needed for back
+		// propagation
+		if (completedLifeCycleStage == DirectedComponentActivationLifecycle.BACK_PROPAGATION) {
+			DL4JInstrumentation.recordReleased(normalised);
+			normalised = null;
+			standardDeviations = null;
+		}
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
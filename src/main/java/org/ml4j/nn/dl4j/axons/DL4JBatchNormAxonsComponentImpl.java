@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.Optional;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.components.factories.DirectedComponentFactory;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * Batch normalisation axons component backed by ND4J's native reductions and
+ * broadcast operations.
+ *
+ * The activation is viewed with the rows spanning the feature set, which for
+ * both flat and image neurons in ML4J's layout is reshaped without copying to
+ * [channels, spatialSize * examples], so that each channel is a row. In a
+ * training context the rows are normalised with the statistics of the
+ * mini-batch, which are folded into the running statistics of the axons.
+ * Otherwise the running statistics, gamma and beta are folded into a single
+ * per-channel scale and shift, applied in-place on the input buffer where
+ * in-place inference is enabled.
+ *
+ * Forward propagation in a training context updates the running statistics
+ * in-place, so must not run concurrently on one instance - inference reads
+ * only, and may.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JBatchNormAxonsComponentImpl
+		extends DL4JDirectedAxonsComponentBase<Neurons, Neurons, DL4JBatchNormAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public DL4JBatchNormAxonsComponentImpl(String name, DL4JBatchNormAxonsImpl axons, DL4JComponentConfig config) {
+		super(name, axons, config);
+	}
+
+	@Override
+	public DL4JBatchNormAxonsComponentActivationImpl forwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DL4JBatchNormAxonsComponentActivationImpl activation = doForwardPropagate(neuronsActivation, axonsContext);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DL4JBatchNormAxonsComponentActivationImpl doForwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+
+		MatrixFactory matrixFactory = axonsContext.getMatrixFactory();
+		int channels = axons.getChannelCount();
+
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+
+			INDArray input = DL4JUtil.asNDArray(matrixFactory, neuronsActivation,
+					NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET);
+			int features = input.rows();
+			int examples = input.columns();
+
+			// The normalised input and standard deviations are retained for back
+			// propagation, and the output is wrapped or copied into ML4J, so all are
+			// allocated outside of the workspace
+			INDArray channelRows;
+			INDArray output;
+			INDArray normalised = null;
+			INDArray standardDeviations = null;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				channelRows = input.reshape('c', channels, (int) (input.length() / channels));
+				if (axonsContext.isTrainingContext()) {
+					INDArray means = channelRows.mean(1).reshape(channels, 1);
+					INDArray variances = channelRows.var(false, 1).reshape(channels, 1);
+					standardDeviations = Transforms.sqrt(variances.add(axons.getEpsilon()), false);
+					normalised = channelRows.subColumnVector(means).diviColumnVector(standardDeviations);
+					output = normalised.mulColumnVector(axons.getConnectionWeightsNDArray())
+							.addiColumnVector(axons.getLeftToRightBiasesNDArray());
+					axons.updateRunningStatistics(means, variances);
+				} else {
+					INDArray[] scaleAndShift = axons.getInferenceScaleAndShift();
+					// A native input buffer, or the copy made by reshaping it, can be
+					// overwritten in-place
+					output = config.isInPlaceInferenceEnabled()
+							&& DL4JUtil.isNDArrayBacked(matrixFactory, neuronsActivation)
+									? channelRows.muliColumnVector(scaleAndShift[0])
+									: channelRows.mulColumnVector(scaleAndShift[0]);
+					output.addiColumnVector(scaleAndShift[1]);
+					if (config.isInPlaceInferenceEnabled()) {
+						DL4JUtil.onModifiedInPlace(neuronsActivation);
+					}
+				}
+			}
+
+			// [channels, spatialSize * examples] in 'c' order is [features, examples]
+			NeuronsActivation outputActivation = toActivation(matrixFactory, output.reshape('c', features, examples),
+					axons.getRightNeurons(), flatFormat(NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET),
+					DimensionScope.OUTPUT);
+
+			return new DL4JBatchNormAxonsComponentActivationImpl(this, matrixFactory, neuronsActivation.getFormat(),
+					normalised, standardDeviations, outputActivation, axonsContext, workspaces);
+		}
+	}
+
+	/**
+	 * @param matrixFactory     The matrix factory.
+	 * @param rowsSpanFeatures  The [features, examples] activations.
+	 * @param neurons           The neurons.
+	 * @param format            The format of flat activations.
+	 * @param dimensionScope    The dimension scope of image activations.
+	 * @return The activation, as an image activation for image neurons.
+	 */
+	static NeuronsActivation toActivation(MatrixFactory matrixFactory, INDArray rowsSpanFeatures, Neurons neurons,
+			NeuronsActivationFormat<?> format, DimensionScope dimensionScope) {
+		if (neurons instanceof Neurons3D) {
+			return DL4JUtil.fromNDArrayToImageActivation(matrixFactory, rowsSpanFeatures,
+					NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET, (Neurons3D) neurons, dimensionScope);
+		}
+		return DL4JUtil.fromNDArray(matrixFactory, rowsSpanFeatures,
+				NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET, format, neurons);
+	}
+
+	@Override
+	public DL4JBatchNormAxonsComponentImpl dup(DirectedComponentFactory directedComponentFactory) {
+		return new DL4JBatchNormAxonsComponentImpl(name, axons.dup(), config);
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return true;
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return Optional.of(flatFormat(NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET));
+	}
+}
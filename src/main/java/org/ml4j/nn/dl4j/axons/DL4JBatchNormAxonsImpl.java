@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * Batch normalisation axons whose scale (gamma), shift (beta) and running
+ * statistics are held resident as ND4J INDArrays.
+ *
+ * Each channel is normalised independently - each neuron of flat neurons, or
+ * each depth slice of image neurons. The trainable gamma and beta are the
+ * connection weights and left to right biases of these axons, with shape
+ * [channels, 1], so that they are adjusted by ML4J trainers in the same way as
+ * the parameters of other axons. The running mean and variance, also of shape
+ * [channels, 1], are updated in-place by forward propagation in a training
+ * context, and are used in place of the mini-batch statistics otherwise.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JBatchNormAxonsImpl extends DL4JTrainableAxonsBase<Neurons, Neurons, DL4JBatchNormAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The default decay of the running statistics, as used by DL4J.
+	 */
+	public static final double DEFAULT_DECAY = 0.9;
+
+	/**
+	 * The default epsilon added to variances, as used by DL4J.
+	 */
+	public static final double DEFAULT_EPSILON = 1e-5;
+
+	private INDArray runningMean;
+	private INDArray runningVariance;
+	private double decay;
+	private double epsilon;
+
+	public DL4JBatchNormAxonsImpl(MatrixFactory matrixFactory, Neurons neurons, Matrix gamma, Matrix beta,
+			Matrix runningMean, Matrix runningVariance) {
+		this(matrixFactory, neurons, asNDArray(matrixFactory, gamma, neurons, 1),
+				asNDArray(matrixFactory, beta, neurons, 0), asNDArray(matrixFactory, runningMean, neurons, 0),
+				asNDArray(matrixFactory, runningVariance, neurons, 1), DEFAULT_DECAY, DEFAULT_EPSILON);
+	}
+
+	public DL4JBatchNormAxonsImpl(MatrixFactory matrixFactory, Neurons neurons, INDArray gamma, INDArray beta,
+			INDArray runningMean, INDArray runningVariance, double decay, double epsilon) {
+		super(matrixFactory, neurons, neurons, gamma, beta);
+		this.runningMean = runningMean;
+		this.runningVariance = runningVariance;
+		this.decay = decay;
+		this.epsilon = epsilon;
+		int channels = getChannelCount(neurons);
+		for (INDArray parameter : new INDArray[] { gamma, beta, runningMean, runningVariance }) {
+			if (parameter.rows() != channels || parameter.columns() != 1) {
+				throw new IllegalArgumentException("Batch norm parameter of shape [" + parameter.rows() + ","
+						+ parameter.columns() + "] does not match channel count:" + channels);
+			}
+		}
+	}
+
+	/**
+	 * @param neurons The neurons.
+	 * @return The number of independently normalised channels - the depth of
+	 *         image neurons, or the neuron count of flat neurons.
+	 */
+	public static int getChannelCount(Neurons neurons) {
+		return neurons instanceof Neurons3D ? ((Neurons3D) neurons).getDepth()
+				: neurons.getNeuronCountExcludingBias();
+	}
+
+	private static INDArray asNDArray(MatrixFactory matrixFactory, Matrix matrix, Neurons neurons,
+			float defaultValue) {
+		return matrix == null ? Nd4j.valueArrayOf(getChannelCount(neurons), 1, defaultValue)
+				: DL4JUtil.asNDArrayForBias(matrixFactory, matrix, false);
+	}
+
+	/**
+	 * @return The number of independently normalised channels.
+	 */
+	public int getChannelCount() {
+		return getChannelCount(leftNeurons);
+	}
+
+	/**
+	 * @return The resident running mean - no copy is made.
+	 */
+	public INDArray getRunningMeanNDArray() {
+		return runningMean;
+	}
+
+	/**
+	 * @return The resident running variance - no copy is made.
+	 */
+	public INDArray getRunningVarianceNDArray() {
+		return runningVariance;
+	}
+
+	public double getDecay() {
+		return decay;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	/**
+	 * Folds the running statistics, gamma and beta into a single per-channel
+	 * scale and shift, so that normalisation outside of a training context is
+	 * output = input * scale + shift.
+	 *
+	 * @return The [channels, 1] scale and shift, allocated outside of any
+	 *         workspace.
+	 */
+	public INDArray[] getInferenceScaleAndShift() {
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			INDArray scale = Transforms.sqrt(runningVariance.add(epsilon), false).rdivi(connectionWeights);
+			INDArray shift = leftToRightBiases.sub(runningMean.mul(scale));
+			return new INDArray[] { scale, shift };
+		}
+	}
+
+	/**
+	 * Updates the running statistics with the statistics of a mini-batch.
+	 *
+	 * @param batchMean     The [channels, 1] mean of the mini-batch.
+	 * @param batchVariance The [channels, 1] variance of the mini-batch.
+	 */
+	void updateRunningStatistics(INDArray batchMean, INDArray batchVariance) {
+		runningMean.muli(decay).addi(batchMean.mul(1 - decay));
+		runningVariance.muli(decay).addi(batchVariance.mul(1 - decay));
+	}
+
+	@Override
+	public DL4JBatchNormAxonsImpl dup() {
+		return new DL4JBatchNormAxonsImpl(matrixFactory, leftNeurons, connectionWeights.dup(),
+				leftToRightBiases.dup(), runningMean.dup(), runningVariance.dup(), decay, epsilon);
+	}
+}
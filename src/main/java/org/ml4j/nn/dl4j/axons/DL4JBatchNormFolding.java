@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Folds batch normalisation components into the ND4J backed fully connected or
+ * convolutional axons components preceding them, for inference.
+ *
+ * Outside of a training context, batch normalisation is a per-channel scale
+ * and shift, and each row of the connection weights of the preceding axons
+ * produces one channel. Scaling the rows of the weights and the biases, and
+ * adding the shift to the biases, therefore yields axons whose output is
+ * already normalised, so that batch normalisation costs nothing at inference
+ * time.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JBatchNormFolding {
+
+	private DL4JBatchNormFolding() {
+	}
+
+	/**
+	 * @param components The sequential components, which are not modified.
+	 * @return The components with each batch normalisation component which
+	 *         follows ND4J backed fully connected or convolutional axons folded
+	 *         into new axons, with copies of the weights. Other batch
+	 *         normalisation components are retained, and apply a single scale
+	 *         and shift outside of a training context. The folded components
+	 *         must only be used for inference, as the running statistics are
+	 *         fixed into the weights.
+	 */
+	public static List<DefaultChainableDirectedComponent<?, ?>> foldForInference(
+			List<DefaultChainableDirectedComponent<?, ?>> components) {
+		List<DefaultChainableDirectedComponent<?, ?>> folded = new ArrayList<>();
+		for (DefaultChainableDirectedComponent<?, ?> component : components) {
+			DefaultChainableDirectedComponent<?, ?> previous = folded.isEmpty() ? null
+					: folded.get(folded.size() - 1);
+			if (component instanceof DL4JBatchNormAxonsComponentImpl && isFoldable(previous)) {
+				folded.set(folded.size() - 1, fold(previous, (DL4JBatchNormAxonsComponentImpl) component));
+			} else {
+				folded.add(component);
+			}
+		}
+		return folded;
+	}
+
+	private static boolean isFoldable(DefaultChainableDirectedComponent<?, ?> component) {
+		return component instanceof DL4JFullyConnectedAxonsComponentImpl
+				|| component instanceof DL4JConvolutionalAxonsComponentImpl;
+	}
+
+	private static DefaultChainableDirectedComponent<?, ?> fold(DefaultChainableDirectedComponent<?, ?> previous,
+			DL4JBatchNormAxonsComponentImpl batchNorm) {
+		String name = previous.getName() + "+" + batchNorm.getName();
+		INDArray[] scaleAndShift = batchNorm.getAxons().getInferenceScaleAndShift();
+		if (previous instanceof DL4JFullyConnectedAxonsComponentImpl) {
+			DL4JFullyConnectedAxonsComponentImpl fullyConnected = (DL4JFullyConnectedAxonsComponentImpl) previous;
+			DL4JFullyConnectedAxonsImpl axons = fullyConnected.getAxons();
+			return new DL4JFullyConnectedAxonsComponentImpl(name,
+					new DL4JFullyConnectedAxonsImpl(axons.matrixFactory, axons.getLeftNeurons(),
+							axons.getRightNeurons(), scaleRows(axons.getConnectionWeightsNDArray(), scaleAndShift),
+							foldBiases(axons.getLeftToRightBiasesNDArray(), scaleAndShift)),
+					fullyConnected.config);
+		}
+		DL4JConvolutionalAxonsComponentImpl convolutional = (DL4JConvolutionalAxonsComponentImpl) previous;
+		DL4JConvolutionalAxonsImpl axons = convolutional.getAxons();
+		return new DL4JConvolutionalAxonsComponentImpl(name,
+				new DL4JConvolutionalAxonsImpl(axons.matrixFactory, axons.getGeometry(),
+						scaleRows(axons.getConnectionWeightsNDArray(), scaleAndShift),
+						foldBiases(axons.getLeftToRightBiasesNDArray(), scaleAndShift)),
+				convolutional.config);
+	}
+
+	private static INDArray scaleRows(INDArray connectionWeights, INDArray[] scaleAndShift) {
+		if (connectionWeights.rows() != scaleAndShift[0].rows()) {
+			throw new IllegalArgumentException("Connection weights with " + connectionWeights.rows()
+					+ " rows cannot be folded with batch normalisation of " + scaleAndShift[0].rows() + " channels");
+		}
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			return connectionWeights.mulColumnVector(scaleAndShift[0]);
+		}
+	}
+
+	private static INDArray foldBiases(INDArray biases, INDArray[] scaleAndShift) {
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			return biases == null ? scaleAndShift[1].dup() : biases.mul(scaleAndShift[0]).addi(scaleAndShift[1]);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.io.Serializable;
+
+import org.ml4j.nn.neurons.Neurons3D;
+
+/**
+ * The geometry of a 2D convolution or pooling operation between two sets of
+ * Neurons3D.
+ *
+ * The filter size is derived from the input and output sizes, the strides and
+ * the padding, so it need not be configured separately.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JConvolutionGeometry implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private Neurons3D leftNeurons;
+	private Neurons3D rightNeurons;
+	private int strideHeight;
+	private int strideWidth;
+	private int paddingHeight;
+	private int paddingWidth;
+	private int filterHeight;
+	private int filterWidth;
+
+	public DL4JConvolutionGeometry(Neurons3D leftNeurons, Neurons3D rightNeurons, int strideHeight, int strideWidth,
+			int paddingHeight, int paddingWidth) {
+		this.leftNeurons = leftNeurons;
+		this.rightNeurons = rightNeurons;
+		this.strideHeight = strideHeight;
+		this.strideWidth = strideWidth;
+		this.paddingHeight = paddingHeight;
+		this.paddingWidth = paddingWidth;
+		this.filterHeight = leftNeurons.getHeight() + 2 * paddingHeight
+				- (rightNeurons.getHeight() - 1) * strideHeight;
+		this.filterWidth = leftNeurons.getWidth() + 2 * paddingWidth - (rightNeurons.getWidth() - 1) * strideWidth;
+		if (filterHeight <= 0 || filterWidth <= 0) {
+			throw new IllegalArgumentException("Invalid geometry - left neurons:" + leftNeurons + ", right neurons:"
+					+ rightNeurons + " are not compatible with the strides and padding");
+		}
+	}
+
+	public Neurons3D getLeftNeurons() {
+		return leftNeurons;
+	}
+
+	public Neurons3D getRightNeurons() {
+		return rightNeurons;
+	}
+
+	public int getStrideHeight() {
+		return strideHeight;
+	}
+
+	public int getStrideWidth() {
+		return strideWidth;
+	}
+
+	public int getPaddingHeight() {
+		return paddingHeight;
+	}
+
+	public int getPaddingWidth() {
+		return paddingWidth;
+	}
+
+	public int getFilterHeight() {
+		return filterHeight;
+	}
+
+	public int getFilterWidth() {
+		return filterWidth;
+	}
+
+	/**
+	 * @return The number of input values covered by one filter position across
+	 *         all input channels - the number of columns of the convolutional
+	 *         weights.
+	 */
+	public int getFilterVolume() {
+		return leftNeurons.getDepth() * filterHeight * filterWidth;
+	}
+
+	/**
+	 * @return The number of filter positions within each output channel.
+	 */
+	public int getOutputSpatialSize() {
+		return rightNeurons.getHeight() * rightNeurons.getWidth();
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.axons.AxonsGradientImpl;
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.axons.DirectedAxonsComponentActivation;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Activation of a DL4JConvolutionalAxonsComponentImpl, retaining the im2col
+ * matrix of the input so that the filter gradients can be computed on back
+ * propagation with a single GEMM.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JConvolutionalAxonsComponentActivationImpl implements DirectedAxonsComponentActivation {
+
+	private DL4JConvolutionalAxonsComponentImpl axonsComponent;
+	private MatrixFactory matrixFactory;
+	private INDArray inputColumns;
+	private int examples;
+	private NeuronsActivation outputActivation;
+	private NeuronsActivationFeatureOrientation inputOrientation;
+	private AxonsContext axonsContext;
+	private DL4JComponentWorkspaces workspaces;
+
+	public DL4JConvolutionalAxonsComponentActivationImpl(DL4JConvolutionalAxonsComponentImpl axonsComponent,
+			MatrixFactory matrixFactory, INDArray inputColumns, int examples, NeuronsActivation outputActivation,
+			NeuronsActivationFeatureOrientation inputOrientation, AxonsContext axonsContext,
+			DL4JComponentWorkspaces workspaces) {
+		this.axonsComponent = axonsComponent;
+		this.matrixFactory = matrixFactory;
+		this.inputColumns = inputColumns;
+		DL4JInstrumentation.recordRetained(inputColumns);
+		this.examples = examples;
+		this.outputActivation = outputActivation;
+		this.inputOrientation = inputOrientation;
+		this.axonsContext = axonsContext;
+		this.workspaces = workspaces;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(axonsComponent.getName(), startNanos);
+		return inputGradient;
+	}
+
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+
+		DL4JConvolutionalAxonsImpl axons = axonsComponent.getAxons();
+		DL4JConvolutionGeometry geometry = axons.getGeometry();
+
+		try (MemoryWorkspace workspace = workspaces.activateBackPropagationWorkspace()) {
+
+			// [outputDepth * oH * oW, N] in 'c' order is [outputDepth, oH * oW * N]
+			INDArray outputGradient = DL4JUtil
+					.asNDArray(matrixFactory, gradient.getOutput(),
+							NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET)
+					.reshape('c', axons.getRightNeurons().getDepth(), geometry.getOutputSpatialSize() * examples);
+
+			INDArray inputGradientColumns = axons.getConnectionWeightsNDArray().transpose().mmul(outputGradient);
+
+			// The input gradient is a view of the col2im output, so that is detached
+			INDArray inputGradient;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				INDArray inputGradientNCHW = DL4JImageLayouts.fromConvolutionColumns(inputGradientColumns, geometry,
+						examples);
+				inputGradient = DL4JImageLayouts.fromNCHW(inputGradientNCHW, inputOrientation);
+			}
+
+			List<Supplier<AxonsGradient>> axonsGradients = new ArrayList<>();
+			axonsGradients.addAll(gradient.getTotalTrainableAxonsGradients());
+
+			if (axons.isTrainable(axonsContext)) {
+				if (inputColumns == null) {
+					throw new IllegalStateException(
+							"Activation was not created in a training context, so weight gradients cannot be computed");
+				}
+				AxonsGradient axonsGradient = createAxonsGradient(axons, outputGradient);
+				axonsGradients.add(() -> axonsGradient);
+			}
+
+			NeuronsActivation inputGradientActivation = DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+					inputGradient, inputOrientation, axons.getLeftNeurons(), DimensionScope.INPUT);
+
+			return new DirectedComponentGradientImpl<>(axonsGradients, inputGradientActivation);
+		}
+	}
+
+	private AxonsGradient createAxonsGradient(DL4JConvolutionalAxonsImpl axons, INDArray outputGradient) {
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			INDArray weightsGradient = outputGradient.mmul(inputColumns.transpose());
+
+			float regularisationLambda = axonsContext.getRegularisationLambda();
+			if (regularisationLambda != 0) {
+				weightsGradient.addi(axons.getConnectionWeightsNDArray().mul(regularisationLambda));
+			}
+
+			Matrix biasGradient = null;
+			if (axons.getLeftToRightBiasesNDArray() != null) {
+				biasGradient = DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory,
+						outputGradient.sum(1).reshape(axons.getRightNeurons().getDepth(), 1), false);
+			}
+			return new AxonsGradientImpl(axons, DL4JUtil.fromNDArrayToWeightsMatrix(matrixFactory, weightsGradient, false),
+					biasGradient);
+		}
+	}
+
+	@Override
+	public DL4JConvolutionalAxonsComponentImpl getAxonsComponent() {
+		return axonsComponent;
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		// The retained im2col matrix is only needed for back propagation
+		if (completedLifeCycleStage == DirectedComponentActivationLifecycle.BACK_PROPAGATION
+				|| (completedLifeCycleStage == DirectedComponentActivationLifecycle.FORWARD_PROPAGATION
+						&& !axonsContext.isTrainingContext())) {
+			DL4JInstrumentation.recordReleased(inputColumns);
+			inputColumns = null;
+		}
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.Optional;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.components.factories.DirectedComponentFactory;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Convolutional axons component backed by ND4J's native im2col and BLAS.
+ *
+ * The input is viewed as NCHW without copying, expanded with im2col and
+ * convolved with a single GEMM against the 2D filters. The columns of the
+ * im2col matrix are ordered so that the GEMM output is already in ML4J's image
+ * layout with the rows spanning the feature set, so the output is wrapped
+ * rather than reshaped or copied.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JConvolutionalAxonsComponentImpl
+		extends DL4JDirectedAxonsComponentBase<Neurons3D, Neurons3D, DL4JConvolutionalAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public DL4JConvolutionalAxonsComponentImpl(String name, DL4JConvolutionalAxonsImpl axons,
+			DL4JComponentConfig config) {
+		super(name, axons, config);
+	}
+
+	@Override
+	public DL4JConvolutionalAxonsComponentActivationImpl forwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DL4JConvolutionalAxonsComponentActivationImpl activation = doForwardPropagate(neuronsActivation, axonsContext);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DL4JConvolutionalAxonsComponentActivationImpl doForwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+
+		MatrixFactory matrixFactory = axonsContext.getMatrixFactory();
+		NeuronsActivationFeatureOrientation orientation = neuronsActivation.getFeatureOrientation();
+		DL4JConvolutionGeometry geometry = axons.getGeometry();
+		Neurons3D rightNeurons = axons.getRightNeurons();
+
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+
+			INDArray input = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, orientation);
+			int examples = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET
+					? input.columns()
+					: input.rows();
+
+			INDArray nchw = DL4JImageLayouts.toNCHW(input, orientation, axons.getLeftNeurons());
+
+			// The im2col matrix is retained for the weight gradient when training
+			INDArray columns;
+			try (MemoryWorkspace retained = DL4JComponentWorkspaces
+					.scopeOutOfWorkspacesIfRetained(axonsContext.isTrainingContext())) {
+				columns = DL4JImageLayouts.toConvolutionColumns(nchw, geometry);
+			}
+
+			INDArray biases = axons.getLeftToRightBiasesNDArray();
+
+			INDArray output;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				output = axons.getConnectionWeightsNDArray().mmul(columns);
+				if (biases != null) {
+					output.addiColumnVector(biases);
+				}
+			}
+
+			// [outputDepth, oH * oW * N] in 'c' order is [outputDepth * oH * oW, N]
+			NeuronsActivation outputActivation = DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+					output.reshape('c', rightNeurons.getNeuronCountExcludingBias(), examples),
+					NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET, rightNeurons, DimensionScope.OUTPUT);
+
+			return new DL4JConvolutionalAxonsComponentActivationImpl(this, matrixFactory,
+					axonsContext.isTrainingContext() ? columns : null, examples, outputActivation, orientation,
+					axonsContext, workspaces);
+		}
+	}
+
+	@Override
+	public DL4JConvolutionalAxonsComponentImpl dup(DirectedComponentFactory directedComponentFactory) {
+		return new DL4JConvolutionalAxonsComponentImpl(name, axons.dup(), config);
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return true;
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return Optional.of(flatFormat(NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET));
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Convolutional axons whose filters and biases are held resident as ND4J
+ * INDArrays.
+ *
+ * The connection weights have shape [outputDepth, inputDepth * filterHeight *
+ * filterWidth], with the columns ordered by input channel, then filter row,
+ * then filter column - the same ordering as ML4J's convolutional weights - and
+ * the biases have shape [outputDepth, 1].
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JConvolutionalAxonsImpl
+		extends DL4JTrainableAxonsBase<Neurons3D, Neurons3D, DL4JConvolutionalAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private DL4JConvolutionGeometry geometry;
+
+	public DL4JConvolutionalAxonsImpl(MatrixFactory matrixFactory, DL4JConvolutionGeometry geometry,
+			Matrix connectionWeights, Matrix leftToRightBiases) {
+		this(matrixFactory, geometry, DL4JUtil.asNDArrayForWeights(matrixFactory, connectionWeights, false),
+				leftToRightBiases == null ? null : DL4JUtil.asNDArrayForBias(matrixFactory, leftToRightBiases, false));
+	}
+
+	public DL4JConvolutionalAxonsImpl(MatrixFactory matrixFactory, DL4JConvolutionGeometry geometry,
+			INDArray connectionWeights, INDArray leftToRightBiases) {
+		super(matrixFactory, geometry.getLeftNeurons(), geometry.getRightNeurons(), connectionWeights,
+				leftToRightBiases);
+		validateNoRightToLeftBiases(geometry.getRightNeurons());
+		this.geometry = geometry;
+		if (connectionWeights.rows() != geometry.getRightNeurons().getDepth()
+				|| connectionWeights.columns() != geometry.getFilterVolume()) {
+			throw new IllegalArgumentException("Connection weights of shape [" + connectionWeights.rows() + ","
+					+ connectionWeights.columns() + "] do not match output depth:"
+					+ geometry.getRightNeurons().getDepth() + " and filter volume:" + geometry.getFilterVolume());
+		}
+	}
+
+	public DL4JConvolutionGeometry getGeometry() {
+		return geometry;
+	}
+
+	@Override
+	public DL4JConvolutionalAxonsImpl dup() {
+		return new DL4JConvolutionalAxonsImpl(matrixFactory, geometry, connectionWeights.dup(),
+				leftToRightBiases == null ? null : leftToRightBiases.dup());
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.ml4j.nn.axons.Axons;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.axons.AxonsContextImpl;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.NeuralComponentBaseType;
+import org.ml4j.nn.components.NeuralComponentType;
+import org.ml4j.nn.components.axons.DirectedAxonsComponent;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.Dimension;
+import org.ml4j.nn.neurons.format.features.FlatFeaturesFormat;
+
+/**
+ * Base class for axons components backed by ND4J.
+ *
+ * @author Michael Lavelle
+ *
+ * @param <L> The type of left neurons.
+ * @param <R> The type of right neurons.
+ * @param <A> The type of axons.
+ */
+public abstract class DL4JDirectedAxonsComponentBase<L extends Neurons, R extends Neurons, A extends Axons<L, R, ?>>
+		implements DirectedAxonsComponent<L, R, A> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	protected String name;
+	protected A axons;
+	protected DL4JComponentConfig config;
+	protected DL4JComponentWorkspaces workspaces;
+
+	protected DL4JDirectedAxonsComponentBase(String name, A axons, DL4JComponentConfig config) {
+		this.name = name;
+		this.axons = axons;
+		this.config = config;
+		this.workspaces = new DL4JComponentWorkspaces(name, config.isWorkspacesEnabled());
+	}
+
+	/**
+	 * @param orientation The feature orientation.
+	 * @return The flat activation format with the given feature orientation.
+	 */
+	protected static NeuronsActivationFormat<?> flatFormat(NeuronsActivationFeatureOrientation orientation) {
+		return new NeuronsActivationFormat<>(orientation, new FlatFeaturesFormat(), Arrays.asList(Dimension.EXAMPLE));
+	}
+
+	@Override
+	public A getAxons() {
+		return axons;
+	}
+
+	@Override
+	public AxonsContext getContext(DirectedComponentsContext directedComponentsContext) {
+		return new AxonsContextImpl(directedComponentsContext.getMatrixFactory(),
+				directedComponentsContext.isTrainingContext(), false);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public L getInputNeurons() {
+		return axons.getLeftNeurons();
+	}
+
+	@Override
+	public R getOutputNeurons() {
+		return axons.getRightNeurons();
+	}
+
+	@Override
+	public NeuralComponentType getComponentType() {
+		return NeuralComponentType.getBaseType(NeuralComponentBaseType.AXONS);
+	}
+
+	@Override
+	public List<DefaultChainableDirectedComponent<?, ?>> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public Set<DefaultChainableDirectedComponent<?, ?>> flatten() {
+		Set<DefaultChainableDirectedComponent<?, ?>> allComponentsIncludingThis = new HashSet<>(Arrays.asList(this));
+		return allComponentsIncludingThis;
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return Optional.empty();
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.axons.AxonsGradientImpl;
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.axons.DirectedAxonsComponentActivation;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Activation of a DL4JFullyConnectedAxonsComponentImpl, retaining the input
+ * INDArray so that the weight gradients can be computed on back propagation.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JFullyConnectedAxonsComponentActivationImpl implements DirectedAxonsComponentActivation {
+
+	private DL4JFullyConnectedAxonsComponentImpl axonsComponent;
+	private MatrixFactory matrixFactory;
+	private NeuronsActivation inputActivation;
+	private INDArray inputNDArray;
+	private INDArray dropoutMask;
+	private NeuronsActivation outputActivation;
+	private NeuronsActivationFeatureOrientation orientation;
+	private AxonsContext axonsContext;
+	private DL4JComponentWorkspaces workspaces;
+
+	public DL4JFullyConnectedAxonsComponentActivationImpl(DL4JFullyConnectedAxonsComponentImpl axonsComponent,
+			MatrixFactory matrixFactory, NeuronsActivation inputActivation, INDArray inputNDArray,
+			INDArray dropoutMask, NeuronsActivation outputActivation, NeuronsActivationFeatureOrientation orientation,
+			AxonsContext axonsContext, DL4JComponentWorkspaces workspaces) {
+		this.axonsComponent = axonsComponent;
+		this.matrixFactory = matrixFactory;
+		this.inputActivation = inputActivation;
+		this.inputNDArray = inputNDArray;
+		this.dropoutMask = dropoutMask;
+		DL4JInstrumentation.recordRetained(inputNDArray);
+		DL4JInstrumentation.recordRetained(dropoutMask);
+		this.outputActivation = outputActivation;
+		this.orientation = orientation;
+		this.axonsContext = axonsContext;
+		this.workspaces = workspaces;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(axonsComponent.getName(), startNanos);
+		return inputGradient;
+	}
+
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+
+		boolean rowsSpanFeatureSet = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+		DL4JFullyConnectedAxonsImpl axons = axonsComponent.getAxons();
+		INDArray weights = axons.getConnectionWeightsNDArray();
+
+		try (MemoryWorkspace workspace = workspaces.activateBackPropagationWorkspace()) {
+
+			INDArray outputGradient = DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), orientation);
+
+			INDArray inputGradient;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				inputGradient = rowsSpanFeatureSet ? weights.transpose().mmul(outputGradient)
+						: outputGradient.mmul(weights);
+				if (dropoutMask != null) {
+					inputGradient.muli(dropoutMask);
+				}
+			}
+
+			List<Supplier<AxonsGradient>> axonsGradients = new ArrayList<>();
+			axonsGradients.addAll(gradient.getTotalTrainableAxonsGradients());
+
+			if (axons.isTrainable(axonsContext)) {
+				if (inputNDArray == null) {
+					throw new IllegalStateException(
+							"Activation was not created in a training context, so weight gradients cannot be computed");
+				}
+				AxonsGradient axonsGradient = createAxonsGradient(axons, outputGradient, rowsSpanFeatureSet);
+				axonsGradients.add(() -> axonsGradient);
+			}
+
+			NeuronsActivation inputGradientActivation = DL4JUtil.fromNDArray(matrixFactory, inputGradient,
+					orientation, inputActivation.getFormat(), axons.getLeftNeurons());
+
+			return new DirectedComponentGradientImpl<>(axonsGradients, inputGradientActivation);
+		}
+	}
+
+	private AxonsGradient createAxonsGradient(DL4JFullyConnectedAxonsImpl axons, INDArray outputGradient,
+			boolean rowsSpanFeatureSet) {
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			INDArray weightsGradient = rowsSpanFeatureSet ? outputGradient.mmul(inputNDArray.transpose())
+					: outputGradient.transpose().mmul(inputNDArray);
+
+			float regularisationLambda = axonsContext.getRegularisationLambda();
+			if (regularisationLambda != 0) {
+				weightsGradient.addi(axons.getConnectionWeightsNDArray().mul(regularisationLambda));
+			}
+
+			Matrix biasGradient = null;
+			if (axons.getLeftToRightBiasesNDArray() != null) {
+				INDArray biasGradientNDArray = rowsSpanFeatureSet ? outputGradient.sum(1)
+						: outputGradient.sum(0).transpose();
+				biasGradient = DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory,
+						biasGradientNDArray.reshape(axons.getRightNeurons().getNeuronCountExcludingBias(), 1), false);
+			}
+			return new AxonsGradientImpl(axons, DL4JUtil.fromNDArrayToWeightsMatrix(matrixFactory, weightsGradient, false),
+					biasGradient);
+		}
+	}
+
+	@Override
+	public DL4JFullyConnectedAxonsComponentImpl getAxonsComponent() {
+		return axonsComponent;
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		// The retained input and dropout mask are only needed for back propagation
+		if (completedLifeCycleStage == DirectedComponentActivationLifecycle.BACK_PROPAGATION
+				|| (completedLifeCycleStage == DirectedComponentActivationLifecycle.FORWARD_PROPAGATION
+						&& !axonsContext.isTrainingContext())) {
+			DL4JInstrumentation.recordReleased(inputNDArray);
+			DL4JInstrumentation.recordReleased(dropoutMask);
+			inputNDArray = null;
+			dropoutMask = null;
+		}
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.components.factories.DirectedComponentFactory;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.FlatFeaturesFormat;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Fully connected axons component backed by ND4J, so that the matrix
+ * multiplications for forward propagation, back propagation and the weight
+ * gradient are performed by ND4J's native BLAS.
+ *
+ * The computation is performed in the feature orientation of the incoming
+ * activation, so no transposes are materialised - for activations where the
+ * rows span the feature set the output is W.X + b, while for activations where
+ * the columns span the feature set the output is X.W' + b'.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JFullyConnectedAxonsComponentImpl
+		extends DL4JDirectedAxonsComponentBase<Neurons, Neurons, DL4JFullyConnectedAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public DL4JFullyConnectedAxonsComponentImpl(String name, DL4JFullyConnectedAxonsImpl axons,
+			DL4JComponentConfig config) {
+		super(name, axons, config);
+	}
+
+	@Override
+	public DL4JFullyConnectedAxonsComponentActivationImpl forwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DL4JFullyConnectedAxonsComponentActivationImpl activation = doForwardPropagate(neuronsActivation, axonsContext);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DL4JFullyConnectedAxonsComponentActivationImpl doForwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+
+		MatrixFactory matrixFactory = axonsContext.getMatrixFactory();
+		NeuronsActivationFeatureOrientation orientation = neuronsActivation.getFeatureOrientation();
+		boolean rowsSpanFeatureSet = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+
+			// The input and dropout mask are retained for back propagation when
+			// training, so must not be allocated in the cyclic workspace
+			INDArray input;
+			INDArray dropoutMask = null;
+			try (MemoryWorkspace retained = DL4JComponentWorkspaces
+					.scopeOutOfWorkspacesIfRetained(axonsContext.isTrainingContext())) {
+				input = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, orientation);
+				float keepProbability = axonsContext.getLeftHandInputDropoutKeepProbability();
+				if (axonsContext.isTrainingContext() && keepProbability < 1f) {
+					dropoutMask = Nd4j.rand(input.shape()).lti(keepProbability).divi(keepProbability);
+					input = input.mul(dropoutMask);
+				}
+			}
+
+			INDArray weights = axons.getConnectionWeightsNDArray();
+			INDArray biases = axons.getLeftToRightBiasesNDArray();
+
+			// The output is wrapped or copied into ML4J, so is allocated outside of the
+			// workspace
+			INDArray output;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				output = rowsSpanFeatureSet ? weights.mmul(input) : input.mmul(weights.transpose());
+				if (biases != null) {
+					if (rowsSpanFeatureSet) {
+						output.addiColumnVector(biases);
+					} else {
+						output.addiRowVector(biases.transpose());
+					}
+				}
+			}
+
+			NeuronsActivation outputActivation = DL4JUtil.fromNDArray(matrixFactory, output, orientation,
+					flatFormat(orientation), axons.getRightNeurons());
+
+			return new DL4JFullyConnectedAxonsComponentActivationImpl(this, matrixFactory, neuronsActivation,
+					axonsContext.isTrainingContext() ? input : null, dropoutMask, outputActivation, orientation,
+					axonsContext, workspaces);
+		}
+	}
+
+	@Override
+	public DL4JFullyConnectedAxonsComponentImpl dup(DirectedComponentFactory directedComponentFactory) {
+		return new DL4JFullyConnectedAxonsComponentImpl(name, axons.dup(), config);
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return format.getFeaturesFormat() instanceof FlatFeaturesFormat;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.Neurons;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Fully connected axons whose connection weights and left to right biases are
+ * held resident as ND4J INDArrays.
+ *
+ * The connection weights have shape [rightNeurons, leftNeurons], and the biases
+ * have shape [rightNeurons, 1].
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JFullyConnectedAxonsImpl extends DL4JTrainableAxonsBase<Neurons, Neurons, DL4JFullyConnectedAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public DL4JFullyConnectedAxonsImpl(MatrixFactory matrixFactory, Neurons leftNeurons, Neurons rightNeurons,
+			Matrix connectionWeights, Matrix leftToRightBiases) {
+		this(matrixFactory, leftNeurons, rightNeurons,
+				DL4JUtil.asNDArrayForWeights(matrixFactory, connectionWeights, false),
+				leftToRightBiases == null ? null : DL4JUtil.asNDArrayForBias(matrixFactory, leftToRightBiases, false));
+	}
+
+	public DL4JFullyConnectedAxonsImpl(MatrixFactory matrixFactory, Neurons leftNeurons, Neurons rightNeurons,
+			INDArray connectionWeights, INDArray leftToRightBiases) {
+		super(matrixFactory, leftNeurons, rightNeurons, connectionWeights, leftToRightBiases);
+		validateNoRightToLeftBiases(rightNeurons);
+		if (connectionWeights.rows() != rightNeurons.getNeuronCountExcludingBias()
+				|| connectionWeights.columns() != leftNeurons.getNeuronCountExcludingBias()) {
+			throw new IllegalArgumentException("Connection weights of shape [" + connectionWeights.rows() + ","
+					+ connectionWeights.columns() + "] do not match neuron counts of left:"
+					+ leftNeurons.getNeuronCountExcludingBias() + " and right:"
+					+ rightNeurons.getNeuronCountExcludingBias());
+		}
+	}
+
+	@Override
+	public DL4JFullyConnectedAxonsImpl dup() {
+		return new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, rightNeurons, connectionWeights.dup(),
+				leftToRightBiases == null ? null : leftToRightBiases.dup());
+	}
+}
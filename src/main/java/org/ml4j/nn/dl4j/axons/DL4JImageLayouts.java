@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.convolution.Convolution;
+
+/**
+ * Utilities for mapping between the flat 2D layout of ML4J image activations
+ * and the 4D NCHW layout used by ND4J's convolution operations.
+ *
+ * ML4J image features are ordered by channel, then row, then column, so a
+ * contiguous activation where the rows span the feature set has the memory
+ * layout [C, H, W, N], and one where the columns span the feature set has the
+ * layout [N, C, H, W]. Both are exposed as NCHW through reshape and permute
+ * views, and a contiguous NCHW array is mapped back to either orientation as a
+ * view, so no per-call copy is needed.
+ *
+ * The im2col matrices produced here have their columns ordered so that a
+ * single GEMM against the 2D convolutional weights yields the output in ML4J's
+ * default layout directly.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JImageLayouts {
+
+	private DL4JImageLayouts() {
+	}
+
+	/**
+	 * @param flat        The 2D activation.
+	 * @param orientation The feature orientation of the activation.
+	 * @param neurons     The image neurons.
+	 * @return An NCHW view of the activation.
+	 */
+	public static INDArray toNCHW(INDArray flat, NeuronsActivationFeatureOrientation orientation, Neurons3D neurons) {
+		int channels = neurons.getDepth();
+		int height = neurons.getHeight();
+		int width = neurons.getWidth();
+		if (orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET) {
+			return flat.reshape('c', channels, height, width, flat.columns()).permute(3, 0, 1, 2);
+		} else {
+			return flat.reshape('c', flat.rows(), channels, height, width);
+		}
+	}
+
+	/**
+	 * Where the NCHW array is contiguous, or is a view created by toNCHW, the
+	 * result is a view sharing its memory - where the rows span the feature set
+	 * the view is strided rather than contiguous. Otherwise the reshape copies.
+	 *
+	 * @param nchw        The NCHW array.
+	 * @param orientation The required feature orientation.
+	 * @return The 2D activation in the required orientation.
+	 */
+	public static INDArray fromNCHW(INDArray nchw, NeuronsActivationFeatureOrientation orientation) {
+		int examples = nchw.size(0);
+		int features = nchw.size(1) * nchw.size(2) * nchw.size(3);
+		if (orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET) {
+			// The C, H and W dimensions of a contiguous NCHW array are adjacent in
+			// memory, so they collapse into a single feature dimension without a copy
+			return nchw.permute(1, 2, 3, 0).reshape('c', features, examples);
+		} else {
+			return nchw.reshape('c', examples, features);
+		}
+	}
+
+	/**
+	 * @param nchw     The NCHW input.
+	 * @param geometry The convolution geometry.
+	 * @return The im2col matrix of shape [C * kH * kW, oH * oW * N].
+	 */
+	public static INDArray toConvolutionColumns(INDArray nchw, DL4JConvolutionGeometry geometry) {
+		INDArray columns = im2col(nchw, geometry);
+		return columns.permute(1, 2, 3, 4, 5, 0).dup('c').reshape('c', geometry.getFilterVolume(),
+				geometry.getOutputSpatialSize() * nchw.size(0));
+	}
+
+	/**
+	 * @param convolutionColumns A matrix of shape [C * kH * kW, oH * oW * N].
+	 * @param geometry           The convolution geometry.
+	 * @param examples           The number of examples.
+	 * @return The NCHW input gradient.
+	 */
+	public static INDArray fromConvolutionColumns(INDArray convolutionColumns, DL4JConvolutionGeometry geometry,
+			int examples) {
+		Neurons3D left = geometry.getLeftNeurons();
+		Neurons3D right = geometry.getRightNeurons();
+		INDArray columns = convolutionColumns.reshape('c', left.getDepth(), geometry.getFilterHeight(),
+				geometry.getFilterWidth(), right.getHeight(), right.getWidth(), examples).permute(5, 0, 1, 2, 3, 4);
+		return col2im(columns, geometry);
+	}
+
+	/**
+	 * @param nchw     The NCHW input.
+	 * @param geometry The pooling geometry.
+	 * @return The im2col matrix of shape [C * oH * oW * N, kH * kW], with one row
+	 *         per pooling window.
+	 */
+	public static INDArray toPoolingColumns(INDArray nchw, DL4JConvolutionGeometry geometry) {
+		INDArray columns = im2col(nchw, geometry);
+		return columns.permute(1, 4, 5, 0, 2, 3).dup('c').reshape('c',
+				geometry.getLeftNeurons().getDepth() * geometry.getOutputSpatialSize() * nchw.size(0),
+				geometry.getFilterHeight() * geometry.getFilterWidth());
+	}
+
+	/**
+	 * @param poolingColumns A matrix of shape [C * oH * oW * N, kH * kW].
+	 * @param geometry       The pooling geometry.
+	 * @param examples       The number of examples.
+	 * @return The NCHW input gradient.
+	 */
+	public static INDArray fromPoolingColumns(INDArray poolingColumns, DL4JConvolutionGeometry geometry,
+			int examples) {
+		Neurons3D left = geometry.getLeftNeurons();
+		Neurons3D right = geometry.getRightNeurons();
+		INDArray columns = poolingColumns.reshape('c', left.getDepth(), right.getHeight(), right.getWidth(), examples,
+				geometry.getFilterHeight(), geometry.getFilterWidth()).permute(3, 0, 4, 5, 1, 2);
+		return col2im(columns, geometry);
+	}
+
+	private static INDArray im2col(INDArray nchw, DL4JConvolutionGeometry geometry) {
+		return Convolution.im2col(nchw, geometry.getFilterHeight(), geometry.getFilterWidth(),
+				geometry.getStrideHeight(), geometry.getStrideWidth(), geometry.getPaddingHeight(),
+				geometry.getPaddingWidth(), false);
+	}
+
+	private static INDArray col2im(INDArray columns, DL4JConvolutionGeometry geometry) {
+		return Convolution.col2im(columns, geometry.getStrideHeight(), geometry.getStrideWidth(),
+				geometry.getPaddingHeight(), geometry.getPaddingWidth(), geometry.getLeftNeurons().getHeight(),
+				geometry.getLeftNeurons().getWidth());
+	}
+}
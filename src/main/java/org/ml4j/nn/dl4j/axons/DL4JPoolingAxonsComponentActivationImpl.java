@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.axons.DirectedAxonsComponentActivation;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsImpl.PoolingType;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.transforms.IsMax;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Activation of a DL4JPoolingAxonsComponentImpl.
+ *
+ * The output gradient is routed back to each pooling window - to the position
+ * of the maximum for max pooling, or spread evenly for average pooling - and
+ * the windows are accumulated back into the input with col2im. For max
+ * pooling, the positions of the maxima are recomputed from the retained input
+ * in this activation's back propagation workspace.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JPoolingAxonsComponentActivationImpl implements DirectedAxonsComponentActivation {
+
+	private DL4JPoolingAxonsComponentImpl axonsComponent;
+	private MatrixFactory matrixFactory;
+	private INDArray maxPoolingInput;
+	private int examples;
+	private NeuronsActivation outputActivation;
+	private NeuronsActivationFeatureOrientation inputOrientation;
+	private AxonsContext axonsContext;
+	private DL4JComponentWorkspaces workspaces;
+
+	public DL4JPoolingAxonsComponentActivationImpl(DL4JPoolingAxonsComponentImpl axonsComponent,
+			MatrixFactory matrixFactory, INDArray maxPoolingInput, int examples, NeuronsActivation outputActivation,
+			NeuronsActivationFeatureOrientation inputOrientation, AxonsContext axonsContext,
+			DL4JComponentWorkspaces workspaces) {
+		this.axonsComponent = axonsComponent;
+		this.matrixFactory = matrixFactory;
+		this.maxPoolingInput = maxPoolingInput;
+		DL4JInstrumentation.recordRetained(maxPoolingInput);
+		this.examples = examples;
+		this.outputActivation = outputActivation;
+		this.inputOrientation = inputOrientation;
+		this.axonsContext = axonsContext;
+		this.workspaces = workspaces;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(axonsComponent.getName(), startNanos);
+		return inputGradient;
+	}
+
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+
+		DL4JPoolingAxonsImpl axons = axonsComponent.getAxons();
+		DL4JConvolutionGeometry geometry = axons.getGeometry();
+		int windowSize = geometry.getFilterHeight() * geometry.getFilterWidth();
+
+		try (MemoryWorkspace workspace = workspaces.activateBackPropagationWorkspace()) {
+
+			// [C * oH * oW, N] in 'c' order is [C * oH * oW * N, 1]
+			INDArray outputGradient = DL4JUtil
+					.asNDArray(matrixFactory, gradient.getOutput(),
+							NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET)
+					.reshape('c', axons.getRightNeurons().getNeuronCountExcludingBias() * examples, 1);
+
+			INDArray windowGradients;
+			if (axons.getPoolingType() == PoolingType.MAX) {
+				if (maxPoolingInput == null) {
+					throw new IllegalStateException(
+							"Activation was not created in a training context, so cannot be back propagated");
+				}
+				// The pooling columns are a new array, so are masked in-place
+				windowGradients = Nd4j.getExecutioner()
+						.execAndReturn(new IsMax(DL4JImageLayouts.toPoolingColumns(maxPoolingInput, geometry), 1))
+						.muliColumnVector(outputGradient);
+			} else {
+				windowGradients = Nd4j.zeros(outputGradient.rows(), windowSize)
+						.addiColumnVector(outputGradient.div(windowSize));
+			}
+
+			// The input gradient is a view of the col2im output, so that is detached
+			INDArray inputGradient;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				INDArray inputGradientNCHW = DL4JImageLayouts.fromPoolingColumns(windowGradients, geometry,
+						examples);
+				inputGradient = DL4JImageLayouts.fromNCHW(inputGradientNCHW, inputOrientation);
+			}
+
+			List<Supplier<AxonsGradient>> axonsGradients = new ArrayList<>();
+			axonsGradients.addAll(gradient.getTotalTrainableAxonsGradients());
+
+			NeuronsActivation inputGradientActivation = DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+					inputGradient, inputOrientation, axons.getLeftNeurons(), DimensionScope.INPUT);
+
+			return new DirectedComponentGradientImpl<>(axonsGradients, inputGradientActivation);
+		}
+	}
+
+	@Override
+	public DL4JPoolingAxonsComponentImpl getAxonsComponent() {
+		return axonsComponent;
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		// The retained input is only needed for back propagation
+		if (completedLifeCycleStage == DirectedComponentActivationLifecycle.BACK_PROPAGATION
+				|| (completedLifeCycleStage == DirectedComponentActivationLifecycle.FORWARD_PROPAGATION
+						&& !axonsContext.isTrainingContext())) {
+			DL4JInstrumentation.recordReleased(maxPoolingInput);
+			maxPoolingInput = null;
+		}
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.Optional;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.components.factories.DirectedComponentFactory;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsImpl.PoolingType;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.transforms.convolution.Pooling2D;
+import org.nd4j.linalg.convolution.Convolution;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Max or average pooling component backed by ND4J's native pooling2d op.
+ *
+ * The input is viewed as NCHW without copying and pooled natively into a
+ * scratch NCHW array, which is then laid out in ML4J's image layout with the
+ * rows spanning the feature set. For max pooling, the input is retained for
+ * back propagation when training, and the position of each maximum is
+ * recomputed from it during back propagation, as DL4J's SubsamplingLayer
+ * does, rather than retaining a mask the size of every pooling window.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JPoolingAxonsComponentImpl
+		extends DL4JDirectedAxonsComponentBase<Neurons3D, Neurons3D, DL4JPoolingAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public DL4JPoolingAxonsComponentImpl(String name, DL4JPoolingAxonsImpl axons, DL4JComponentConfig config) {
+		super(name, axons, config);
+	}
+
+	@Override
+	public DL4JPoolingAxonsComponentActivationImpl forwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DL4JPoolingAxonsComponentActivationImpl activation = doForwardPropagate(neuronsActivation, axonsContext);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DL4JPoolingAxonsComponentActivationImpl doForwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+
+		MatrixFactory matrixFactory = axonsContext.getMatrixFactory();
+		NeuronsActivationFeatureOrientation orientation = neuronsActivation.getFeatureOrientation();
+		DL4JConvolutionGeometry geometry = axons.getGeometry();
+		Neurons3D rightNeurons = axons.getRightNeurons();
+		boolean maxPooling = axons.getPoolingType() == PoolingType.MAX;
+
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+
+			// The input of max pooling is retained for back propagation when training,
+			// so must not be allocated in the cyclic workspace
+			INDArray input;
+			try (MemoryWorkspace retained = DL4JComponentWorkspaces
+					.scopeOutOfWorkspacesIfRetained(maxPooling && axonsContext.isTrainingContext())) {
+				input = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, orientation);
+			}
+			int examples = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET
+					? input.columns()
+					: input.rows();
+
+			INDArray nchw = DL4JImageLayouts.toNCHW(input, orientation, axons.getLeftNeurons());
+
+			// The native op reads a strided input, but must write a contiguous NCHW
+			// output, so pools into scratch memory
+			INDArray pooled = Nd4j.createUninitialized(
+					new int[] { examples, rightNeurons.getDepth(), rightNeurons.getHeight(), rightNeurons.getWidth() },
+					'c');
+			Convolution.pooling2D(nchw, geometry.getFilterHeight(), geometry.getFilterWidth(),
+					geometry.getStrideHeight(), geometry.getStrideWidth(), geometry.getPaddingHeight(),
+					geometry.getPaddingWidth(), false,
+					maxPooling ? Pooling2D.Pooling2DType.MAX : Pooling2D.Pooling2DType.AVG, 0.0,
+					rightNeurons.getHeight(), rightNeurons.getWidth(), pooled);
+
+			// [C, oH, oW, N] in 'c' order is [C * oH * oW, N]
+			INDArray output;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				output = Nd4j.createUninitialized(new int[] { rightNeurons.getDepth(), rightNeurons.getHeight(),
+						rightNeurons.getWidth(), examples }, 'c');
+				output.permute(3, 0, 1, 2).assign(pooled);
+			}
+
+			NeuronsActivation outputActivation = DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+					output.reshape('c', rightNeurons.getNeuronCountExcludingBias(), examples),
+					NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET, rightNeurons, DimensionScope.OUTPUT);
+
+			return new DL4JPoolingAxonsComponentActivationImpl(this, matrixFactory,
+					maxPooling && axonsContext.isTrainingContext() ? nchw : null, examples, outputActivation,
+					orientation, axonsContext, workspaces);
+		}
+	}
+
+	@Override
+	public DL4JPoolingAxonsComponentImpl dup(DirectedComponentFactory directedComponentFactory) {
+		return new DL4JPoolingAxonsComponentImpl(name, axons.dup(), config);
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return true;
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return Optional.of(flatFormat(NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET));
+	}
+}
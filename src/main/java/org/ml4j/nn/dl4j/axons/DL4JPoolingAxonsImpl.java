@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import org.ml4j.nn.axons.Axons;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.neurons.Neurons3D;
+
+/**
+ * Non-trainable pooling axons, pooling each input channel independently over
+ * the windows described by a DL4JConvolutionGeometry.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JPoolingAxonsImpl implements Axons<Neurons3D, Neurons3D, DL4JPoolingAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The pooling operation applied over each window.
+	 */
+	public enum PoolingType {
+		MAX, AVERAGE
+	}
+
+	private DL4JConvolutionGeometry geometry;
+	private PoolingType poolingType;
+
+	public DL4JPoolingAxonsImpl(DL4JConvolutionGeometry geometry, PoolingType poolingType) {
+		if (geometry.getLeftNeurons().getDepth() != geometry.getRightNeurons().getDepth()) {
+			throw new IllegalArgumentException("Pooling requires the same input and output depth, but was left:"
+					+ geometry.getLeftNeurons().getDepth() + ", right:" + geometry.getRightNeurons().getDepth());
+		}
+		this.geometry = geometry;
+		this.poolingType = poolingType;
+	}
+
+	public DL4JConvolutionGeometry getGeometry() {
+		return geometry;
+	}
+
+	public PoolingType getPoolingType() {
+		return poolingType;
+	}
+
+	@Override
+	public Neurons3D getLeftNeurons() {
+		return geometry.getLeftNeurons();
+	}
+
+	@Override
+	public Neurons3D getRightNeurons() {
+		return geometry.getRightNeurons();
+	}
+
+	@Override
+	public boolean isTrainable(AxonsContext axonsContext) {
+		return false;
+	}
+
+	@Override
+	public DL4JPoolingAxonsImpl dup() {
+		return new DL4JPoolingAxonsImpl(geometry, poolingType);
+	}
+}
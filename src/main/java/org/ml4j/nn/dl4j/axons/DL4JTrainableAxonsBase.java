@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.axons;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.axons.ConnectionWeightsAdjustmentDirection;
+import org.ml4j.nn.axons.TrainableAxons;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.Neurons;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Base class for trainable axons whose connection weights and left to right
+ * biases are held resident as ND4J INDArrays.
+ *
+ * The connection weights are a 2D INDArray with one row per right neuron (or
+ * per output channel), and the biases have shape [rows, 1]. ML4J Matrix
+ * instances are only created or consumed at the boundaries - when the axons
+ * are created, when weight adjustments are applied by ML4J trainers, and when
+ * detached copies of the weights are requested.
+ *
+ * Right to left biases are not supported - axons with such biases are rejected
+ * when they are constructed, so these axons never report having them.
+ *
+ * Axons whose parameters must not be written to, such as those backed by a
+ * read-only memory mapping, can be marked read-only, after which they are not
+ * trainable and adjustments to them are rejected.
+ *
+ * @author Michael Lavelle
+ *
+ * @param <L> The type of left neurons.
+ * @param <R> The type of right neurons.
+ * @param <A> The type of these axons.
+ */
+public abstract class DL4JTrainableAxonsBase<L extends Neurons, R extends Neurons, A extends DL4JTrainableAxonsBase<L, R, A>>
+		implements TrainableAxons<L, R, A> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	protected L leftNeurons;
+	protected R rightNeurons;
+	protected MatrixFactory matrixFactory;
+	protected INDArray connectionWeights;
+	protected INDArray leftToRightBiases;
+	private boolean readOnly;
+
+	protected DL4JTrainableAxonsBase(MatrixFactory matrixFactory, L leftNeurons, R rightNeurons,
+			INDArray connectionWeights, INDArray leftToRightBiases) {
+		this.matrixFactory = matrixFactory;
+		this.leftNeurons = leftNeurons;
+		this.rightNeurons = rightNeurons;
+		this.connectionWeights = connectionWeights;
+		this.leftToRightBiases = leftToRightBiases;
+	}
+
+	/**
+	 * @param rightNeurons The right neurons of the axons being constructed.
+	 * @throws IllegalArgumentException If the right neurons have a bias unit, as
+	 *                                  right to left biases are not supported.
+	 */
+	protected static void validateNoRightToLeftBiases(Neurons rightNeurons) {
+		if (rightNeurons.hasBiasUnit()) {
+			throw new IllegalArgumentException(
+					"Right neurons with a bias unit are not supported, as DL4J axons have no right to left biases");
+		}
+	}
+
+	/**
+	 * Marks the parameters of these axons as read-only, so that these axons are
+	 * no longer trainable and adjustments to them are rejected.
+	 */
+	public void markReadOnly() {
+		this.readOnly = true;
+	}
+
+	/**
+	 * @return Whether the parameters of these axons are read-only.
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * @return The resident connection weights - no copy is made.
+	 */
+	public INDArray getConnectionWeightsNDArray() {
+		return connectionWeights;
+	}
+
+	/**
+	 * @return The resident left to right biases, or null if there are no biases
+	 *         - no copy is made.
+	 */
+	public INDArray getLeftToRightBiasesNDArray() {
+		return leftToRightBiases;
+	}
+
+	@Override
+	public L getLeftNeurons() {
+		return leftNeurons;
+	}
+
+	@Override
+	public R getRightNeurons() {
+		return rightNeurons;
+	}
+
+	@Override
+	public boolean isTrainable(AxonsContext axonsContext) {
+		return !readOnly && !axonsContext.isWithFreezeOut();
+	}
+
+	@Override
+	public void adjustConnectionWeights(Matrix adjustment, ConnectionWeightsAdjustmentDirection adjustmentDirection,
+			boolean permitInPlace) {
+		adjust(connectionWeights, DL4JUtil.asNDArrayForWeights(matrixFactory, adjustment, false),
+				adjustmentDirection);
+	}
+
+	@Override
+	public void adjustLeftToRightBiases(Matrix adjustment, ConnectionWeightsAdjustmentDirection adjustmentDirection,
+			boolean permitInPlace) {
+		if (leftToRightBiases == null) {
+			throw new IllegalStateException("Axons do not have left to right biases");
+		}
+		adjust(leftToRightBiases, DL4JUtil.asNDArrayForBias(matrixFactory, adjustment, false), adjustmentDirection);
+	}
+
+	@Override
+	public void adjustRightToLeftBiases(Matrix adjustment, ConnectionWeightsAdjustmentDirection adjustmentDirection,
+			boolean permitInPlace) {
+		throw new IllegalStateException("Axons do not have right to left biases");
+	}
+
+	private void adjust(INDArray target, INDArray adjustment, ConnectionWeightsAdjustmentDirection direction) {
+		if (readOnly) {
+			throw new IllegalStateException("The parameters of read-only axons cannot be adjusted");
+		}
+		// Weights are resident, so adjustments are always applied in place
+		if (direction == ConnectionWeightsAdjustmentDirection.ADDITION) {
+			target.addi(adjustment);
+		} else {
+			target.subi(adjustment);
+		}
+	}
+
+	@Override
+	public Matrix getDetachedConnectionWeights() {
+		return DL4JUtil.fromNDArrayToWeightsMatrix(matrixFactory, connectionWeights.dup(), false);
+	}
+
+	@Override
+	public Matrix getDetachedLeftToRightBiases() {
+		return leftToRightBiases == null ? null
+				: DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory, leftToRightBiases.dup(), false);
+	}
+
+	@Override
+	public Matrix getDetachedRightToLeftBiases() {
+		return null;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.costfunctions;
+
+import java.io.Serializable;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionBaseType;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+import org.nd4j.linalg.lossfunctions.impl.LossBinaryXENT;
+import org.nd4j.linalg.lossfunctions.impl.LossMCXENT;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * A cost function backed by a DL4J ILossFunction, which computes costs and
+ * gradients directly over the INDArrays carried by DL4J neurons activations.
+ *
+ * A cost function is paired with the base type of the final activation
+ * function of a network. Where an unweighted binary cross-entropy loss is
+ * paired with sigmoid outputs, or an unweighted multi-class cross-entropy loss
+ * with softmax outputs, the gradient of the cost with respect to the input of
+ * the final activation function is the difference between the actual and
+ * desired outputs - this fused gradient is computed in one pass over the
+ * outputs, without back propagating through the activation function, and
+ * without the vanishing derivative of a saturated output.
+ *
+ * For any other pairing, the gradient of the loss with respect to the outputs
+ * is back propagated through sigmoid or softmax outputs using derivatives
+ * computed from the outputs themselves. Outputs of any other type of final
+ * activation function are taken to be linear.
+ *
+ * The outputs are clipped away from 0 and 1 when computing cross-entropy
+ * costs, so that saturated outputs give a large but finite cost.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JCostFunction implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Clipping applied to outputs when computing cross-entropy costs, matching
+	 * the default clipping of DL4J's multi-class cross-entropy loss.
+	 */
+	private static final double CROSS_ENTROPY_CLIP_EPSILON = 1e-10;
+
+	/**
+	 * DL4J loss functions expect the columns to span the feature set, with one
+	 * example per row.
+	 */
+	private static final NeuronsActivationFeatureOrientation LOSS_FUNCTION_ORIENTATION = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private ILossFunction lossFunction;
+	private ActivationFunctionBaseType finalActivationFunctionBaseType;
+
+	/**
+	 * @param lossFunction                    The DL4J loss function.
+	 * @param finalActivationFunctionBaseType The base type of the final
+	 *                                        activation function the loss
+	 *                                        function is paired with.
+	 */
+	public DL4JCostFunction(ILossFunction lossFunction, ActivationFunctionBaseType finalActivationFunctionBaseType) {
+		this.lossFunction = lossFunction;
+		this.finalActivationFunctionBaseType = finalActivationFunctionBaseType;
+	}
+
+	/**
+	 * @return A binary cross-entropy cost function, paired with sigmoid outputs.
+	 */
+	public static DL4JCostFunction createCrossEntropyCostFunction() {
+		return new DL4JCostFunction(new LossBinaryXENT(), ActivationFunctionBaseType.SIGMOID);
+	}
+
+	/**
+	 * @return A multi-class cross-entropy cost function, paired with softmax
+	 *         outputs.
+	 */
+	public static DL4JCostFunction createMultiClassCrossEntropyCostFunction() {
+		return new DL4JCostFunction(new LossMCXENT(), ActivationFunctionBaseType.SOFTMAX);
+	}
+
+	public ILossFunction getLossFunction() {
+		return lossFunction;
+	}
+
+	public ActivationFunctionBaseType getFinalActivationFunctionBaseType() {
+		return finalActivationFunctionBaseType;
+	}
+
+	/**
+	 * @param finalActivationFunctionType The type of the final activation
+	 *                                    function of a network.
+	 * @return Whether the gradient of this cost function can be back propagated
+	 *         through the final activation function.
+	 */
+	public boolean isPairedWith(ActivationFunctionType finalActivationFunctionType) {
+		return finalActivationFunctionType.getBaseType() == finalActivationFunctionBaseType;
+	}
+
+	private boolean isCrossEntropy() {
+		return lossFunction instanceof LossBinaryXENT || lossFunction instanceof LossMCXENT;
+	}
+
+	/**
+	 * @return Whether the gradient with respect to the input of the final
+	 *         activation function is the difference between the actual and
+	 *         desired outputs.
+	 */
+	boolean isFusedGradient() {
+		if (lossFunction instanceof LossBinaryXENT) {
+			return finalActivationFunctionBaseType == ActivationFunctionBaseType.SIGMOID
+					&& ((LossBinaryXENT) lossFunction).getWeights() == null;
+		} else if (lossFunction instanceof LossMCXENT) {
+			return finalActivationFunctionBaseType == ActivationFunctionBaseType.SOFTMAX
+					&& ((LossMCXENT) lossFunction).getWeights() == null;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * @param matrixFactory  The matrix factory.
+	 * @param desiredOutputs The desired outputs.
+	 * @param actualOutputs  The actual outputs.
+	 * @return The total cost over all examples.
+	 */
+	public float getTotalCost(MatrixFactory matrixFactory, NeuronsActivation desiredOutputs,
+			NeuronsActivation actualOutputs) {
+		return (float) computeScore(DL4JUtil.asNDArray(matrixFactory, desiredOutputs, LOSS_FUNCTION_ORIENTATION),
+				DL4JUtil.asNDArray(matrixFactory, actualOutputs, LOSS_FUNCTION_ORIENTATION), false);
+	}
+
+	/**
+	 * @param matrixFactory  The matrix factory.
+	 * @param desiredOutputs The desired outputs.
+	 * @param actualOutputs  The actual outputs.
+	 * @return The average cost per example.
+	 */
+	public float getAverageCost(MatrixFactory matrixFactory, NeuronsActivation desiredOutputs,
+			NeuronsActivation actualOutputs) {
+		return (float) computeScore(DL4JUtil.asNDArray(matrixFactory, desiredOutputs, LOSS_FUNCTION_ORIENTATION),
+				DL4JUtil.asNDArray(matrixFactory, actualOutputs, LOSS_FUNCTION_ORIENTATION), true);
+	}
+
+	/**
+	 * @param matrixFactory  The matrix factory.
+	 * @param desiredOutputs The desired outputs.
+	 * @param actualOutputs  The actual outputs.
+	 * @return The gradient of this cost function, to be back propagated through
+	 *         the final activation function.
+	 */
+	public DL4JCostFunctionGradient createGradient(MatrixFactory matrixFactory, NeuronsActivation desiredOutputs,
+			NeuronsActivation actualOutputs) {
+		return new DL4JCostFunctionGradient(this, matrixFactory, desiredOutputs, actualOutputs);
+	}
+
+	/**
+	 * @param labels  The desired outputs, with one example per row.
+	 * @param outputs The actual outputs, with one example per row.
+	 * @param average Whether to average the cost over the examples.
+	 * @return The cost.
+	 */
+	public double computeScore(INDArray labels, INDArray outputs, boolean average) {
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			INDArray preOutput = isCrossEntropy()
+					? Transforms.min(Transforms.max(outputs, CROSS_ENTROPY_CLIP_EPSILON, true),
+							1 - CROSS_ENTROPY_CLIP_EPSILON, false)
+					: outputs.dup();
+			// The outputs have already been activated, so are passed to the loss function
+			// through the identity
+			return lossFunction.computeScore(labels, preOutput, new ActivationIdentity(), null, average);
+		}
+	}
+
+	/**
+	 * @param labels  The desired outputs, with one example per row.
+	 * @param outputs The actual outputs, with one example per row.
+	 * @return The gradient of the cost with respect to the input of the paired
+	 *         final activation function, allocated outside of any workspace.
+	 */
+	public INDArray computeGradient(INDArray labels, INDArray outputs) {
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			if (isFusedGradient()) {
+				return outputs.sub(labels);
+			}
+			INDArray outputGradient = lossFunction.computeGradient(labels, outputs.dup(), new ActivationIdentity(),
+					null);
+			if (finalActivationFunctionBaseType == ActivationFunctionBaseType.SIGMOID) {
+				// y * (1 - y)
+				return outputGradient.muli(outputs.rsub(1).muli(outputs));
+			} else if (finalActivationFunctionBaseType == ActivationFunctionBaseType.SOFTMAX) {
+				// y * (g - sum(g * y)) for each example
+				INDArray exampleSums = outputGradient.mul(outputs).sum(1);
+				return outputGradient.subiColumnVector(exampleSums).muli(outputs);
+			} else {
+				return outputGradient;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DL4JCostFunction [lossFunction=" + lossFunction + ", finalActivationFunctionBaseType="
+				+ finalActivationFunctionBaseType + "]";
+	}
+}
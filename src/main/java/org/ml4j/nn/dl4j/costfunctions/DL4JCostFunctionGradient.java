@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.costfunctions;
+
+import java.util.ArrayList;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.costfunctions.CostFunctionGradient;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * The gradient of a DL4JCostFunction, which is back propagated through the
+ * final activation function of a network in a single pass over the INDArrays
+ * carried by the desired and actual outputs.
+ *
+ * Where the actual outputs were produced by a DL4J activation function
+ * component, they are carried natively as an INDArray, so no conversion is
+ * made, and the resulting gradient is itself carried natively.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JCostFunctionGradient implements CostFunctionGradient {
+
+	private static final NeuronsActivationFeatureOrientation LOSS_FUNCTION_ORIENTATION = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private DL4JCostFunction costFunction;
+	private MatrixFactory matrixFactory;
+	private NeuronsActivation desiredOutputs;
+	private NeuronsActivation actualOutputs;
+
+	/**
+	 * @param costFunction   The cost function.
+	 * @param matrixFactory  The matrix factory.
+	 * @param desiredOutputs The desired outputs.
+	 * @param actualOutputs  The actual outputs.
+	 */
+	public DL4JCostFunctionGradient(DL4JCostFunction costFunction, MatrixFactory matrixFactory,
+			NeuronsActivation desiredOutputs, NeuronsActivation actualOutputs) {
+		this.costFunction = costFunction;
+		this.matrixFactory = matrixFactory;
+		this.desiredOutputs = desiredOutputs;
+		this.actualOutputs = actualOutputs;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagateThroughFinalActivationFunction(
+			ActivationFunctionType activationFunctionType) {
+		return backPropagateThroughFinalActivationFunction(activationFunctionType, actualOutputs);
+	}
+
+	/**
+	 * @param activationFunctionType The type of the final activation function.
+	 * @param finalActivationOutput  The output of the final activation function.
+	 * @return The gradient with respect to the input of the final activation
+	 *         function, in the format of its output.
+	 */
+	public DirectedComponentGradient<NeuronsActivation> backPropagateThroughFinalActivationFunction(
+			ActivationFunctionType activationFunctionType, NeuronsActivation finalActivationOutput) {
+		if (!costFunction.isPairedWith(activationFunctionType)) {
+			throw new UnsupportedOperationException("Cost function:" + costFunction
+					+ " cannot be back propagated through final activation function of type:" + activationFunctionType);
+		}
+		INDArray labels = DL4JUtil.asNDArray(matrixFactory, desiredOutputs, LOSS_FUNCTION_ORIENTATION);
+		INDArray outputs = DL4JUtil.asNDArray(matrixFactory, finalActivationOutput, LOSS_FUNCTION_ORIENTATION);
+		INDArray gradient = costFunction.computeGradient(labels, outputs);
+		return new DirectedComponentGradientImpl<>(new ArrayList<>(),
+				DL4JUtil.fromNDArray(matrixFactory, gradient, LOSS_FUNCTION_ORIENTATION,
+						finalActivationOutput.getFormat(), finalActivationOutput.getNeurons()));
+	}
+
+	public DL4JCostFunction getCostFunction() {
+		return costFunction;
+	}
+}
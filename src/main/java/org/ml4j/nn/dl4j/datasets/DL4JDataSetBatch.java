@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.datasets;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ml4j.nn.neurons.NeuronsActivation;
+
+/**
+ * A batch of features and labels converted from a DL4J DataSet.
+ *
+ * Closing a batch returns any buffers backing its activations to the adapter
+ * which created it, to be reused for later batches, so a batch must not be
+ * used once it has been closed. Batches which are not closed are simply
+ * garbage collected.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JDataSetBatch implements AutoCloseable {
+
+	private NeuronsActivation features;
+	private NeuronsActivation labels;
+	private int exampleCount;
+	private Runnable release;
+	private AtomicBoolean closed;
+
+	DL4JDataSetBatch(NeuronsActivation features, NeuronsActivation labels, int exampleCount, Runnable release) {
+		this.features = features;
+		this.labels = labels;
+		this.exampleCount = exampleCount;
+		this.release = release;
+		this.closed = new AtomicBoolean();
+	}
+
+	public NeuronsActivation getFeatures() {
+		return features;
+	}
+
+	public NeuronsActivation getLabels() {
+		return labels;
+	}
+
+	public int getExampleCount() {
+		return exampleCount;
+	}
+
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			release.run();
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.datasets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.Dimension;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.ml4j.nn.neurons.format.features.FlatFeaturesFormat;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Streams the DataSet batches of a DL4J DataSetIterator as ML4J features and
+ * labels activations, in the feature orientation expected by the first
+ * component of a network.
+ *
+ * Batches are read from the iterator and converted on a background thread,
+ * up to a bounded number ahead of the consumer, so that data loading and
+ * conversion overlap with training. Where the activations are backed by
+ * INDArrays and the requested orientation requires a transpose of the DataSet
+ * arrays, the transposed arrays are written into buffers which are recycled
+ * when batches are closed. Otherwise the DataSet arrays are wrapped where
+ * possible, or copied into ML4J matrices on the background thread.
+ *
+ * Image features of shape [examples, channels, height, width] are flattened in
+ * ML4J's channel, row, column feature order.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JDataSetStreamAdapter implements Iterator<DL4JDataSetBatch>, AutoCloseable {
+
+	private static final Prefetched END = new Prefetched(null, null);
+
+	private DataSetIterator dataSetIterator;
+	private MatrixFactory matrixFactory;
+	private Neurons featureNeurons;
+	private NeuronsActivationFeatureOrientation featuresOrientation;
+	private Neurons labelNeurons;
+	private NeuronsActivationFeatureOrientation labelsOrientation;
+	private BlockingQueue<Prefetched> prefetched;
+	private BlockingQueue<INDArray> featureBuffers;
+	private BlockingQueue<INDArray> labelBuffers;
+	private Thread prefetchThread;
+	private Prefetched next;
+	private volatile boolean closed;
+
+	/**
+	 * @param dataSetIterator     The DL4J iterator, which is only accessed from
+	 *                            the background thread once the adapter is
+	 *                            created.
+	 * @param matrixFactory       The matrix factory.
+	 * @param featureNeurons      The feature neurons.
+	 * @param featuresOrientation The orientation of the features activations.
+	 * @param labelNeurons        The label neurons.
+	 * @param labelsOrientation   The orientation of the labels activations.
+	 * @param prefetchSize        The maximum number of converted batches held
+	 *                            ahead of the consumer.
+	 */
+	public DL4JDataSetStreamAdapter(DataSetIterator dataSetIterator, MatrixFactory matrixFactory,
+			Neurons featureNeurons, NeuronsActivationFeatureOrientation featuresOrientation, Neurons labelNeurons,
+			NeuronsActivationFeatureOrientation labelsOrientation, int prefetchSize) {
+		if (prefetchSize < 1) {
+			throw new IllegalArgumentException("Prefetch size:" + prefetchSize + " must be at least 1");
+		}
+		this.dataSetIterator = dataSetIterator;
+		this.matrixFactory = matrixFactory;
+		this.featureNeurons = featureNeurons;
+		this.featuresOrientation = featuresOrientation;
+		this.labelNeurons = labelNeurons;
+		this.labelsOrientation = labelsOrientation;
+		this.prefetched = new ArrayBlockingQueue<>(prefetchSize);
+		// Enough buffers for every prefetched batch, the batch being converted and
+		// the batch held by the consumer
+		this.featureBuffers = new ArrayBlockingQueue<>(prefetchSize + 2);
+		this.labelBuffers = new ArrayBlockingQueue<>(prefetchSize + 2);
+		this.prefetchThread = new Thread(this::prefetch, "dl4j-dataset-prefetch");
+		this.prefetchThread.setDaemon(true);
+		this.prefetchThread.start();
+	}
+
+	/**
+	 * @param dataSetIterator The DL4J iterator.
+	 * @param matrixFactory   The matrix factory.
+	 * @param firstComponent  The first component of the network, whose
+	 *                        optimised format determines the orientation of both
+	 *                        features and labels.
+	 * @param labelNeurons    The label neurons.
+	 * @param prefetchSize    The maximum number of converted batches held ahead
+	 *                        of the consumer.
+	 * @return An adapter producing activations in the orientation expected by
+	 *         the first component, or with the rows spanning the feature set if
+	 *         it has no preference.
+	 */
+	public static DL4JDataSetStreamAdapter forComponent(DataSetIterator dataSetIterator,
+			MatrixFactory matrixFactory, DefaultChainableDirectedComponent<?, ?> firstComponent,
+			Neurons labelNeurons, int prefetchSize) {
+		NeuronsActivationFeatureOrientation orientation = firstComponent.optimisedFor()
+				.map(NeuronsActivationFormat::getFeatureOrientation)
+				.orElse(NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET);
+		return new DL4JDataSetStreamAdapter(dataSetIterator, matrixFactory, firstComponent.getInputNeurons(),
+				orientation, labelNeurons, orientation, prefetchSize);
+	}
+
+	/**
+	 * @return A sequential stream of the remaining batches, which closes this
+	 *         adapter when closed.
+	 */
+	public Stream<DL4JDataSetBatch> stream() {
+		return StreamSupport
+				.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(this::close);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			if (closed) {
+				return false;
+			}
+			try {
+				next = prefetched.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next batch", e);
+			}
+		}
+		return next != END;
+	}
+
+	@Override
+	public DL4JDataSetBatch next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Prefetched current = next;
+		next = null;
+		if (current.failure != null) {
+			// Leave the adapter at its end, as the iterator has failed
+			next = END;
+			throw new IllegalStateException("Unable to read or convert DataSet", current.failure);
+		}
+		return current.batch;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		prefetchThread.interrupt();
+		next = null;
+		prefetched.clear();
+	}
+
+	private void prefetch() {
+		Prefetched last = END;
+		try {
+			while (!closed && dataSetIterator.hasNext()) {
+				prefetched.put(new Prefetched(convert(dataSetIterator.next()), null));
+			}
+		} catch (InterruptedException e) {
+			// Closed by the consumer
+			return;
+		} catch (Throwable e) {
+			// Errors as well as exceptions are handed to the consumer, which would
+			// otherwise wait for the next batch forever
+			last = new Prefetched(null, e);
+		}
+		try {
+			prefetched.put(last);
+		} catch (InterruptedException e) {
+			// Closed by the consumer
+		}
+	}
+
+	private DL4JDataSetBatch convert(DataSet dataSet) {
+		List<Runnable> releases = new ArrayList<>();
+		NeuronsActivation features = convert(dataSet.getFeatures(), featureNeurons, featuresOrientation,
+				featureBuffers, releases);
+		NeuronsActivation labels = convert(dataSet.getLabels(), labelNeurons, labelsOrientation, labelBuffers,
+				releases);
+		return new DL4JDataSetBatch(features, labels, dataSet.numExamples(), () -> releases.forEach(Runnable::run));
+	}
+
+	private NeuronsActivation convert(INDArray array, Neurons neurons,
+			NeuronsActivationFeatureOrientation orientation, BlockingQueue<INDArray> buffers,
+			List<Runnable> releases) {
+		int examples = array.size(0);
+		// DataSet arrays have one row per example, which is the layout of an
+		// activation where the columns span the feature set
+		INDArray columnsSpanFeatureSet = array.rank() == 2 ? array
+				: array.reshape('c', examples, array.length() / examples);
+		if (columnsSpanFeatureSet.columns() != neurons.getNeuronCountExcludingBias()) {
+			throw new IllegalArgumentException("DataSet array of shape " + Arrays.toString(array.shape())
+					+ " does not match the " + neurons.getNeuronCountExcludingBias() + " neurons expected");
+		}
+		INDArray ndArray = columnsSpanFeatureSet;
+		NeuronsActivationFeatureOrientation ndArrayOrientation =
+				NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+		if (orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET
+				&& DL4JUtil.isNDArrayBacked(matrixFactory)) {
+			// The activation will wrap the array, so the transpose is materialised here,
+			// off the training thread, into a recycled buffer
+			ndArray = acquireBuffer(buffers, columnsSpanFeatureSet.columns(), examples);
+			ndArray.assign(columnsSpanFeatureSet.transpose());
+			DL4JInstrumentation.recordCopy("prefetchTranspose", ndArray.length(), true);
+			ndArrayOrientation = orientation;
+			INDArray buffer = ndArray;
+			releases.add(() -> buffers.offer(buffer));
+		}
+		if (neurons instanceof Neurons3D) {
+			return DL4JUtil.fromNDArrayToImageActivation(matrixFactory, ndArray, ndArrayOrientation,
+					(Neurons3D) neurons, DimensionScope.INPUT);
+		}
+		NeuronsActivationFormat<?> format = new NeuronsActivationFormat<>(orientation, new FlatFeaturesFormat(),
+				Arrays.asList(Dimension.EXAMPLE));
+		if (DL4JUtil.isNDArrayBacked(matrixFactory)) {
+			return DL4JUtil.fromNDArray(matrixFactory, ndArray, ndArrayOrientation, format, neurons);
+		}
+		// Other matrix factories copy, so the ML4J matrix is created eagerly here
+		return new NeuronsActivationImpl(neurons, DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, ndArray,
+				ndArrayOrientation, orientation), format);
+	}
+
+	private INDArray acquireBuffer(BlockingQueue<INDArray> buffers, int rows, int columns) {
+		INDArray buffer;
+		while ((buffer = buffers.poll()) != null) {
+			// Buffers of other shapes, such as those of a smaller final batch, are
+			// discarded
+			if (buffer.rows() == rows && buffer.columns() == columns) {
+				return buffer;
+			}
+		}
+		return Nd4j.createUninitialized(new int[] { rows, columns }, 'c');
+	}
+
+	/**
+	 * A converted batch, or the failure which ended the prefetch.
+	 */
+	private static class Prefetched {
+
+		private DL4JDataSetBatch batch;
+		private Throwable failure;
+
+		private Prefetched(DL4JDataSetBatch batch, Throwable failure) {
+			this.batch = batch;
+			this.failure = failure;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.factories;
+
+import java.util.Optional;
+
+import org.ml4j.nn.activationfunctions.ActivationFunctionBaseType;
+import org.ml4j.nn.activationfunctions.ActivationFunctionProperties;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.provider.Provider;
+import org.ml4j.provider.enums.activationfunctions.ActivationFunctionTypeEnum;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+
+/**
+ * Mappings from DL4J activation functions, and from provider-agnostic
+ * qualified ids, back to the ML4J activation function types and properties
+ * accepted by HybridML4JDL4JDefaultDirectedComponentFactory - the inverse of
+ * the mapping performed by the factory when creating DL4J activation function
+ * components.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JActivationFunctionTypes {
+
+	private DL4JActivationFunctionTypes() {
+	}
+
+	/**
+	 * @param activation The DL4J activation function.
+	 * @return The equivalent ML4J activation function type, if there is one.
+	 */
+	public static Optional<ActivationFunctionType> fromDL4JActivationFunction(IActivation activation) {
+		for (Activation dl4jActivationFunctionType : Activation.values()) {
+			if (dl4jActivationFunctionType.getActivationFunction().getClass() == activation.getClass()) {
+				for (ActivationFunctionTypeEnum activationFunctionTypeEnum : ActivationFunctionTypeEnum.values()) {
+					if (activationFunctionTypeEnum.providedBy(Provider.DL4J)
+							.getEnumAsType(Activation.class) == dl4jActivationFunctionType) {
+						return Optional.of(toActivationFunctionType(activationFunctionTypeEnum));
+					}
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @param qualifiedId The qualified id of an ML4J activation function type.
+	 * @return The ML4J activation function type, if the id is known.
+	 */
+	public static Optional<ActivationFunctionType> fromQualifiedId(String qualifiedId) {
+		return ActivationFunctionTypeEnum.findByQualifiedEnumName(qualifiedId)
+				.map(DL4JActivationFunctionTypes::toActivationFunctionType);
+	}
+
+	/**
+	 * @param activation The DL4J activation function.
+	 * @return The ML4J activation function properties which recreate the DL4J
+	 *         activation function through the factory.
+	 */
+	public static ActivationFunctionProperties getActivationFunctionProperties(IActivation activation) {
+		ActivationFunctionProperties activationFunctionProperties = new ActivationFunctionProperties();
+		if (activation instanceof ActivationLReLU) {
+			return activationFunctionProperties.withAlpha((float) ((ActivationLReLU) activation).getAlpha());
+		}
+		return activationFunctionProperties;
+	}
+
+	private static ActivationFunctionType toActivationFunctionType(
+			ActivationFunctionTypeEnum activationFunctionTypeEnum) {
+		return ActivationFunctionType.getBaseType(activationFunctionTypeEnum.providedBy(Provider.ML4J)
+				.getEnumAsType(ActivationFunctionBaseType.class));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.factories;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ml4j.provider.Provider;
+import org.ml4j.provider.enums.activationfunctions.ActivationFunctionTypeEnum;
+
+/**
+ * A decision table recording, for each activation function type and shape
+ * bucket, whether the ML4J or the DL4J implementation of an activation
+ * function component is faster.
+ *
+ * Shapes are bucketed by the number of features, rounded up to a power of
+ * two. The table can be saved to and loaded from a properties file, so that a
+ * profile tuned once can be reused at production startup without re-tuning.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JActivationProviderProfile implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private static final String KEY_SEPARATOR = ".";
+
+	private ConcurrentMap<String, Provider> providers;
+
+	public DL4JActivationProviderProfile() {
+		this.providers = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param featureCount The number of features.
+	 * @return The shape bucket of the feature count - the smallest power of two
+	 *         which is not less than the feature count.
+	 */
+	public static int getShapeBucket(int featureCount) {
+		return featureCount <= 1 ? 1 : Integer.highestOneBit(featureCount - 1) << 1;
+	}
+
+	private static String getKey(ActivationFunctionTypeEnum activationFunctionType, int featureCount) {
+		return activationFunctionType.name() + KEY_SEPARATOR + getShapeBucket(featureCount);
+	}
+
+	/**
+	 * @param activationFunctionType The activation function type.
+	 * @param featureCount           The number of features.
+	 * @return The faster provider for the activation function type and shape
+	 *         bucket, if it has been determined.
+	 */
+	public Optional<Provider> getProvider(ActivationFunctionTypeEnum activationFunctionType, int featureCount) {
+		return Optional.ofNullable(providers.get(getKey(activationFunctionType, featureCount)));
+	}
+
+	/**
+	 * @param activationFunctionType The activation function type.
+	 * @param featureCount           The number of features.
+	 * @param provider               The faster provider for the activation
+	 *                               function type and shape bucket - ML4J or
+	 *                               DL4J.
+	 */
+	public void setProvider(ActivationFunctionTypeEnum activationFunctionType, int featureCount, Provider provider) {
+		if (provider != Provider.ML4J && provider != Provider.DL4J) {
+			throw new IllegalArgumentException("Unsupported activation function provider:" + provider);
+		}
+		providers.put(getKey(activationFunctionType, featureCount), provider);
+	}
+
+	/**
+	 * @return The number of decisions in the table.
+	 */
+	public int size() {
+		return providers.size();
+	}
+
+	/**
+	 * @param path The path of the properties file to save the table to.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void save(Path path) throws IOException {
+		Properties properties = new Properties();
+		for (Map.Entry<String, Provider> entry : providers.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().name());
+		}
+		try (OutputStream outputStream = Files.newOutputStream(path)) {
+			properties.store(outputStream, "ML4J/DL4J activation function provider profile");
+		}
+	}
+
+	/**
+	 * @param path The path of a properties file previously saved by a profile.
+	 * @return The loaded profile.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static DL4JActivationProviderProfile load(Path path) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream inputStream = Files.newInputStream(path)) {
+			properties.load(inputStream);
+		}
+		DL4JActivationProviderProfile profile = new DL4JActivationProviderProfile();
+		for (String key : properties.stringPropertyNames()) {
+			profile.providers.put(key, Provider.valueOf(properties.getProperty(key)));
+		}
+		return profile;
+	}
+
+	@Override
+	public String toString() {
+		return "DL4JActivationProviderProfile [providers=" + providers + "]";
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.factories;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.provider.Provider;
+
+/**
+ * Micro-benchmarks the ML4J and DL4J implementations of an activation function
+ * component on a representative mini-batch, to select the faster provider.
+ *
+ * Each candidate is warmed up until its timings stabilise, so that both are
+ * JIT-compiled and their workspaces are initialised before they are compared.
+ * After a minimum number of warm-up iterations, the candidate is timed over
+ * successive windows of the measured iteration count, until the fastest
+ * iteration of a window is within a tolerance of the fastest iteration of the
+ * previous window, or until a maximum warm-up time has elapsed. The candidate
+ * is then timed over one further window. The output activations are read
+ * through the matrix factory, so the conversion overhead of the DL4J
+ * implementation is included. The fastest measured iteration of each candidate
+ * is compared, as the minimum is the least sensitive to interference.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JActivationProviderTuner implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private static final long DEFAULT_MAX_WARM_UP_MILLIS = 2000;
+
+	private static final double DEFAULT_STABILITY_TOLERANCE = 0.05;
+
+	private int exampleCount;
+	private int warmUpIterations;
+	private int measuredIterations;
+	private long maxWarmUpMillis;
+	private double stabilityTolerance;
+
+	/**
+	 * Creates a tuner which benchmarks mini-batches of 32 examples, over windows
+	 * of 20 measured iterations, after at least 20 warm-up iterations and until
+	 * timings are stable to within 5%, for at most 2 seconds per candidate.
+	 */
+	public DL4JActivationProviderTuner() {
+		this(32, 20, 20);
+	}
+
+	/**
+	 * Creates a tuner which warms up until timings are stable to within 5%, for
+	 * at most 2 seconds per candidate.
+	 *
+	 * @param exampleCount       The number of examples in the benchmarked
+	 *                           mini-batch.
+	 * @param warmUpIterations   The minimum number of warm-up iterations per
+	 *                           candidate.
+	 * @param measuredIterations The number of iterations in each measured
+	 *                           window.
+	 */
+	public DL4JActivationProviderTuner(int exampleCount, int warmUpIterations, int measuredIterations) {
+		this(exampleCount, warmUpIterations, measuredIterations, DEFAULT_MAX_WARM_UP_MILLIS,
+				DEFAULT_STABILITY_TOLERANCE);
+	}
+
+	/**
+	 * @param exampleCount       The number of examples in the benchmarked
+	 *                           mini-batch.
+	 * @param warmUpIterations   The minimum number of warm-up iterations per
+	 *                           candidate.
+	 * @param measuredIterations The number of iterations in each measured
+	 *                           window.
+	 * @param maxWarmUpMillis    The maximum warm-up time per candidate, after
+	 *                           which the candidate is measured even if its
+	 *                           timings have not stabilised.
+	 * @param stabilityTolerance The relative difference between the fastest
+	 *                           iterations of successive windows below which
+	 *                           timings are considered stable.
+	 */
+	public DL4JActivationProviderTuner(int exampleCount, int warmUpIterations, int measuredIterations,
+			long maxWarmUpMillis, double stabilityTolerance) {
+		if (exampleCount <= 0 || warmUpIterations < 0 || measuredIterations <= 0 || maxWarmUpMillis < 0
+				|| stabilityTolerance < 0) {
+			throw new IllegalArgumentException("Invalid tuner configuration - exampleCount:" + exampleCount
+					+ ", warmUpIterations:" + warmUpIterations + ", measuredIterations:" + measuredIterations
+					+ ", maxWarmUpMillis:" + maxWarmUpMillis + ", stabilityTolerance:" + stabilityTolerance);
+		}
+		this.exampleCount = exampleCount;
+		this.warmUpIterations = warmUpIterations;
+		this.measuredIterations = measuredIterations;
+		this.maxWarmUpMillis = maxWarmUpMillis;
+		this.stabilityTolerance = stabilityTolerance;
+	}
+
+	/**
+	 * @param matrixFactory The matrix factory.
+	 * @param neurons       The neurons of the activation function component.
+	 * @param ml4jComponent Supplies the ML4J implementation.
+	 * @param dl4jComponent Supplies the DL4J implementation.
+	 * @return The faster provider - ML4J or DL4J.
+	 */
+	public Provider selectProvider(MatrixFactory matrixFactory, Neurons neurons,
+			Supplier<DifferentiableActivationFunctionComponent> ml4jComponent,
+			Supplier<DifferentiableActivationFunctionComponent> dl4jComponent) {
+		NeuronsActivation input = new NeuronsActivationImpl(neurons,
+				matrixFactory.createRandn(neurons.getNeuronCountExcludingBias(), exampleCount),
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET);
+		NeuronsActivationContext context = new NeuronsActivationContextImpl(matrixFactory, false);
+		long ml4jNanos = benchmark(ml4jComponent.get(), input, context);
+		long dl4jNanos = benchmark(dl4jComponent.get(), input, context);
+		return dl4jNanos < ml4jNanos ? Provider.DL4J : Provider.ML4J;
+	}
+
+	private long benchmark(DifferentiableActivationFunctionComponent component, NeuronsActivation input,
+			NeuronsActivationContext context) {
+		warmUp(component, input, context);
+		return measureFastest(component, input, context);
+	}
+
+	private void warmUp(DifferentiableActivationFunctionComponent component, NeuronsActivation input,
+			NeuronsActivationContext context) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWarmUpMillis);
+		for (int i = 0; i < warmUpIterations; i++) {
+			forwardPropagate(component, input, context);
+		}
+		long previousFastestNanos = measureFastest(component, input, context);
+		while (System.nanoTime() < deadline) {
+			long fastestNanos = measureFastest(component, input, context);
+			if (Math.abs(fastestNanos - previousFastestNanos) <= stabilityTolerance * previousFastestNanos) {
+				return;
+			}
+			previousFastestNanos = fastestNanos;
+		}
+	}
+
+	private long measureFastest(DifferentiableActivationFunctionComponent component, NeuronsActivation input,
+			NeuronsActivationContext context) {
+		long fastestNanos = Long.MAX_VALUE;
+		for (int i = 0; i < measuredIterations; i++) {
+			long start = System.nanoTime();
+			forwardPropagate(component, input, context);
+			fastestNanos = Math.min(fastestNanos, System.nanoTime() - start);
+		}
+		return fastestNanos;
+	}
+
+	private void forwardPropagate(DifferentiableActivationFunctionComponent component, NeuronsActivation input,
+			NeuronsActivationContext context) {
+		Matrix output = component.forwardPropagate(input, context).getOutput()
+				.getActivations(context.getMatrixFactory());
+		if (output.getRows() == 0) {
+			throw new IllegalStateException("Benchmarked component produced an empty output");
+		}
+	}
+
+	public int getExampleCount() {
+		return exampleCount;
+	}
+
+	public int getWarmUpIterations() {
+		return warmUpIterations;
+	}
+
+	public int getMeasuredIterations() {
+		return measuredIterations;
+	}
+
+	public long getMaxWarmUpMillis() {
+		return maxWarmUpMillis;
+	}
+
+	public double getStabilityTolerance() {
+		return stabilityTolerance;
+	}
+}
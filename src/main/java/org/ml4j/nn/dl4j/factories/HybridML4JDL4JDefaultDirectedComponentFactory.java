@@ -13,44 +13,152 @@
  */
 package org.ml4j.nn.dl4j.factories;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+import org.ml4j.Matrix;
 import org.ml4j.MatrixFactory;
 import org.ml4j.nn.activationfunctions.ActivationFunctionBaseType;
 import org.ml4j.nn.activationfunctions.ActivationFunctionProperties;
 import org.ml4j.nn.activationfunctions.ActivationFunctionType;
 import org.ml4j.nn.activationfunctions.DifferentiableActivationFunction;
+import org.ml4j.nn.activationfunctions.factories.DifferentiableActivationFunctionFactory;
+import org.ml4j.nn.axons.Axons3DConfig;
+import org.ml4j.nn.axons.TrainableAxons;
 import org.ml4j.nn.axons.factories.AxonsFactory;
 import org.ml4j.nn.components.DirectedComponentsContext;
 import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.components.axons.DirectedAxonsComponent;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.components.onetone.DefaultDirectedComponentChain;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
 import org.ml4j.nn.dl4j.activationfunctions.DL4JDifferentiableActivationFunctionComponentImpl;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JFusedActivationChainComponentImpl;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.axons.DL4JBatchNormAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JBatchNormAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JBatchNormFolding;
+import org.ml4j.nn.dl4j.axons.DL4JConvolutionGeometry;
+import org.ml4j.nn.dl4j.axons.DL4JConvolutionalAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JConvolutionalAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsImpl.PoolingType;
+import org.ml4j.nn.dl4j.costfunctions.DL4JCostFunction;
+import org.ml4j.nn.dl4j.graphs.DL4JBranchCombination;
+import org.ml4j.nn.dl4j.graphs.DL4JParallelBranchesComponentImpl;
+import org.ml4j.nn.dl4j.recurrent.DL4JRecurrentAxonsComponentImpl;
+import org.ml4j.nn.dl4j.recurrent.DL4JRecurrentAxonsImpl;
+import org.ml4j.nn.dl4j.recurrent.DL4JRecurrentCellType;
 import org.ml4j.nn.factories.DefaultDirectedComponentFactoryImpl;
 import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
 import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
 import org.ml4j.provider.Provider;
 import org.ml4j.provider.enums.activationfunctions.ActivationFunctionTypeEnum;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.activations.IActivation;
 import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Extension of the default DefaultDirectedComponentFactoryImpl from ML4J which
  * uses DL4J components equivalents for some functionality.
  * 
- * Currently implemented so that activation functions from DL4J are used, while
- * other components are loaded from ML4J
+ * Currently implemented so that activation functions from DL4J are used, and
+ * optionally fully connected, convolutional, pooling and batch normalisation
+ * axons backed by ND4J, while other components are loaded from ML4J.
+ * Optionally, runs of consecutive element-wise DL4J activation function
+ * components are fused when component chains are created, and batch
+ * normalisation is folded into preceding axons for inference-only chains.
+ * Cross-entropy cost functions backed by DL4J loss functions can be created
+ * for sigmoid and softmax output activations.
+ * 
+ * When created with a DL4JActivationProviderProfile, activation function
+ * components are routed to the ML4J or DL4J implementation recorded as faster
+ * for their activation function type and shape bucket. Where the profile has
+ * no decision and a DL4JActivationProviderTuner is supplied, both candidates
+ * are micro-benchmarked when the component is first created, and the decision
+ * is recorded in the profile, which can then be saved for reuse.
+ * 
+ * Axons components can also be created around existing ND4J parameter arrays,
+ * such as views of the parameters of a trained DL4J model, without copying.
+ * 
+ * LSTM and GRU recurrent axons components, which have no ML4J equivalent, are
+ * always backed by ND4J. Independent parallel branches can be combined into a
+ * single component which runs the branches concurrently.
  * 
  * @author Michael Lavelle
  */
 public class HybridML4JDL4JDefaultDirectedComponentFactory extends DefaultDirectedComponentFactoryImpl {
 
-	
-	
+	private static final Logger LOGGER = LoggerFactory.getLogger(HybridML4JDL4JDefaultDirectedComponentFactory.class);
+
 	/**
 	 * Default serialization id.
 	 */
 	private static final long serialVersionUID = 1L;
 
+	private MatrixFactory matrixFactory;
+	private AxonsFactory axonsFactory;
+	private DL4JComponentConfig dl4jComponentConfig;
+	private DL4JActivationProviderProfile activationProviderProfile;
+	private DL4JActivationProviderTuner activationProviderTuner;
+
 	public HybridML4JDL4JDefaultDirectedComponentFactory(MatrixFactory matrixFactory, AxonsFactory axonsFactory, DirectedComponentsContext directedComponentsContext) {
-		super(matrixFactory, axonsFactory, null, directedComponentsContext);
+		this(matrixFactory, axonsFactory, directedComponentsContext, new DL4JComponentConfig());
+	}
+
+	public HybridML4JDL4JDefaultDirectedComponentFactory(MatrixFactory matrixFactory, AxonsFactory axonsFactory,
+			DirectedComponentsContext directedComponentsContext, DL4JComponentConfig dl4jComponentConfig) {
+		this(matrixFactory, axonsFactory, null, directedComponentsContext, dl4jComponentConfig, null, null);
+	}
+
+	/**
+	 * @param matrixFactory             The matrix factory.
+	 * @param axonsFactory              The axons factory, used to initialise
+	 *                                  the parameters of axons created without
+	 *                                  connection weights, or null to use He
+	 *                                  initialisation.
+	 * @param activationFunctionFactory The factory of ML4J activation
+	 *                                  functions, used for activation function
+	 *                                  components routed to ML4J.
+	 * @param directedComponentsContext The directed components context.
+	 * @param dl4jComponentConfig       The configuration of DL4J components.
+	 * @param activationProviderProfile The profile used to route activation
+	 *                                  function components to the faster
+	 *                                  provider, or null to always use DL4J.
+	 * @param activationProviderTuner   The tuner used to fill in decisions
+	 *                                  missing from the profile, or null to use
+	 *                                  DL4J where the profile has no decision.
+	 */
+	public HybridML4JDL4JDefaultDirectedComponentFactory(MatrixFactory matrixFactory, AxonsFactory axonsFactory,
+			DifferentiableActivationFunctionFactory activationFunctionFactory,
+			DirectedComponentsContext directedComponentsContext, DL4JComponentConfig dl4jComponentConfig,
+			DL4JActivationProviderProfile activationProviderProfile,
+			DL4JActivationProviderTuner activationProviderTuner) {
+		super(matrixFactory, axonsFactory, activationFunctionFactory, directedComponentsContext);
+		this.matrixFactory = matrixFactory;
+		this.axonsFactory = axonsFactory;
+		this.dl4jComponentConfig = dl4jComponentConfig;
+		this.activationProviderProfile = activationProviderProfile;
+		this.activationProviderTuner = activationProviderTuner;
+	}
+
+	/**
+	 * @return The profile used to route activation function components, including
+	 *         any decisions made by tuning, or null if none is used.
+	 */
+	public DL4JActivationProviderProfile getActivationProviderProfile() {
+		return activationProviderProfile;
 	}
 
 	@Override
@@ -70,6 +178,41 @@ public class HybridML4JDL4JDefaultDirectedComponentFactory extends DefaultDirect
 				.findByQualifiedEnumName(activationFunctionType.getQualifiedId()).orElseThrow(() -> new IllegalArgumentException(
 						"Cannot find provider-agnostic activation function type for:" + activationFunctionType));		
 		
+		if (activationProviderProfile != null && selectActivationProvider(name, neurons, activationFunctionType,
+				activationFunctionProperties, activationFunctionTypeEnum) == Provider.ML4J) {
+			return super.createDifferentiableActivationFunctionComponent(name, neurons, activationFunctionType,
+					activationFunctionProperties);
+		}
+		return createDL4JActivationFunctionComponent(name, neurons, activationFunctionType,
+				activationFunctionProperties, activationFunctionTypeEnum);
+	}
+
+	private Provider selectActivationProvider(String name, Neurons neurons,
+			ActivationFunctionType activationFunctionType, ActivationFunctionProperties activationFunctionProperties,
+			ActivationFunctionTypeEnum activationFunctionTypeEnum) {
+		int featureCount = neurons.getNeuronCountExcludingBias();
+		return activationProviderProfile.getProvider(activationFunctionTypeEnum, featureCount).orElseGet(() -> {
+			if (activationProviderTuner == null) {
+				return Provider.DL4J;
+			}
+			Provider provider = activationProviderTuner.selectProvider(matrixFactory, neurons,
+					() -> super.createDifferentiableActivationFunctionComponent(name, neurons, activationFunctionType,
+							activationFunctionProperties),
+					() -> createDL4JActivationFunctionComponent(name, neurons, activationFunctionType,
+							activationFunctionProperties, activationFunctionTypeEnum));
+			LOGGER.info("Selected provider:" + provider + " for activation function type:"
+					+ activationFunctionTypeEnum + " and feature count bucket:"
+					+ DL4JActivationProviderProfile.getShapeBucket(featureCount));
+			activationProviderProfile.setProvider(activationFunctionTypeEnum, featureCount, provider);
+			return provider;
+		});
+	}
+
+	private DifferentiableActivationFunctionComponent createDL4JActivationFunctionComponent(String name,
+			Neurons neurons, ActivationFunctionType activationFunctionType,
+			ActivationFunctionProperties activationFunctionProperties,
+			ActivationFunctionTypeEnum activationFunctionTypeEnum) {
+
 		// Get the dl4j equivalent enum
 		Activation dl4jActivationFunctionType = activationFunctionTypeEnum.providedBy(Provider.DL4J)
 				.getEnumAsType(Activation.class);
@@ -80,10 +223,376 @@ public class HybridML4JDL4JDefaultDirectedComponentFactory extends DefaultDirect
 						: null;
 		IActivation activationFunction = createActivationFunction(dl4jActivationFunctionType, activationFunctionProperties);
 		return new DL4JDifferentiableActivationFunctionComponentImpl(name, neurons,
-				activationFunction, activationFunctionType, requiredOrientation);
+				activationFunction, activationFunctionType, requiredOrientation, dl4jComponentConfig);
 
 	}
 	
+	@Override
+	public DirectedAxonsComponent<Neurons, Neurons, ?> createFullyConnectedAxonsComponent(String name,
+			Neurons leftNeurons, Neurons rightNeurons, Matrix connectionWeights, Matrix biases) {
+		if (!dl4jComponentConfig.isFullyConnectedAxonsEnabled()) {
+			return super.createFullyConnectedAxonsComponent(name, leftNeurons, rightNeurons, connectionWeights,
+					biases);
+		}
+		DL4JFullyConnectedAxonsImpl axons = connectionWeights == null
+				? createInitialisedFullyConnectedAxons(leftNeurons, rightNeurons)
+				: new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, rightNeurons, connectionWeights, biases);
+		return new DL4JFullyConnectedAxonsComponentImpl(name, axons, dl4jComponentConfig);
+	}
+
+	/**
+	 * @param name              The name of the component.
+	 * @param leftNeurons       The left neurons.
+	 * @param rightNeurons      The right neurons.
+	 * @param connectionWeights The [rightNeurons, leftNeurons] connection weights.
+	 * @param biases            The [rightNeurons, 1] biases, or null.
+	 * @return A fully connected axons component which uses the given arrays as its
+	 *         resident parameters, so that their memory is shared rather than
+	 *         copied. Where ND4J backed axons are disabled, the parameters are
+	 *         copied into ML4J axons, and a warning is logged.
+	 */
+	public DirectedAxonsComponent<Neurons, Neurons, ?> createSharedFullyConnectedAxonsComponent(String name,
+			Neurons leftNeurons, Neurons rightNeurons, INDArray connectionWeights, INDArray biases) {
+		if (!dl4jComponentConfig.isFullyConnectedAxonsEnabled()) {
+			logParametersCopied(name);
+			return super.createFullyConnectedAxonsComponent(name, leftNeurons, rightNeurons,
+					DL4JUtil.fromNDArrayToWeightsMatrix(matrixFactory, connectionWeights, false),
+					biases == null ? null : DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory, biases, false));
+		}
+		return new DL4JFullyConnectedAxonsComponentImpl(name,
+				new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, rightNeurons, connectionWeights, biases),
+				dl4jComponentConfig);
+	}
+
+	private void logParametersCopied(String name) {
+		LOGGER.warn("Parameters of component:" + name
+				+ " are copied rather than shared, as the ND4J backed implementation is disabled");
+	}
+
+	private DL4JFullyConnectedAxonsImpl createInitialisedFullyConnectedAxons(Neurons leftNeurons,
+			Neurons rightNeurons) {
+		if (axonsFactory != null) {
+			// Parameters are initialised by the configured axons factory, then held resident
+			TrainableAxons<?, ?, ?> initialised = axonsFactory.createFullyConnectedAxons(leftNeurons, rightNeurons,
+					null, null);
+			return new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, rightNeurons,
+					initialised.getDetachedConnectionWeights(), initialised.getDetachedLeftToRightBiases());
+		}
+		int leftNeuronCount = leftNeurons.getNeuronCountExcludingBias();
+		int rightNeuronCount = rightNeurons.getNeuronCountExcludingBias();
+		// He initialisation, with zero biases
+		INDArray connectionWeights = Nd4j.randn(rightNeuronCount, leftNeuronCount)
+				.muli(Math.sqrt(2d / leftNeuronCount));
+		INDArray biases = leftNeurons.hasBiasUnit() ? Nd4j.zeros(rightNeuronCount, 1) : null;
+		return new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, rightNeurons, connectionWeights, biases);
+	}
+
+	@Override
+	public DirectedAxonsComponent<Neurons3D, Neurons3D, ?> createConvolutionalAxonsComponent(String name,
+			Neurons3D leftNeurons, Neurons3D rightNeurons, Axons3DConfig config, Matrix connectionWeights,
+			Matrix biases) {
+		if (!dl4jComponentConfig.isConvolutionalAxonsEnabled()) {
+			return super.createConvolutionalAxonsComponent(name, leftNeurons, rightNeurons, config,
+					connectionWeights, biases);
+		}
+		DL4JConvolutionGeometry geometry = createGeometry(leftNeurons, rightNeurons, config);
+		DL4JConvolutionalAxonsImpl axons = connectionWeights == null
+				? createInitialisedConvolutionalAxons(geometry, config)
+				: new DL4JConvolutionalAxonsImpl(matrixFactory, geometry, connectionWeights, biases);
+		return new DL4JConvolutionalAxonsComponentImpl(name, axons, dl4jComponentConfig);
+	}
+
+	/**
+	 * @param name              The name of the component.
+	 * @param leftNeurons       The left neurons.
+	 * @param rightNeurons      The right neurons.
+	 * @param config            The strides and padding.
+	 * @param connectionWeights The [outputDepth, filterVolume] connection weights.
+	 * @param biases            The [outputDepth, 1] biases, or null.
+	 * @return A convolutional axons component which uses the given arrays as its
+	 *         resident parameters, so that their memory is shared rather than
+	 *         copied. Where ND4J backed axons are disabled, the parameters are
+	 *         copied into ML4J axons, and a warning is logged.
+	 */
+	public DirectedAxonsComponent<Neurons3D, Neurons3D, ?> createSharedConvolutionalAxonsComponent(String name,
+			Neurons3D leftNeurons, Neurons3D rightNeurons, Axons3DConfig config, INDArray connectionWeights,
+			INDArray biases) {
+		if (!dl4jComponentConfig.isConvolutionalAxonsEnabled()) {
+			logParametersCopied(name);
+			return super.createConvolutionalAxonsComponent(name, leftNeurons, rightNeurons, config,
+					DL4JUtil.fromNDArrayToWeightsMatrix(matrixFactory, connectionWeights, false),
+					biases == null ? null : DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory, biases, false));
+		}
+		return new DL4JConvolutionalAxonsComponentImpl(name, new DL4JConvolutionalAxonsImpl(matrixFactory,
+				createGeometry(leftNeurons, rightNeurons, config), connectionWeights, biases), dl4jComponentConfig);
+	}
+
+	@Override
+	public DirectedAxonsComponent<Neurons3D, Neurons3D, ?> createMaxPoolingAxonsComponent(String name,
+			Neurons3D leftNeurons, Neurons3D rightNeurons, Axons3DConfig config, boolean scaleOutputs) {
+		// Scaled outputs are specific to ML4J's max pooling, so are left to ML4J
+		if (!dl4jComponentConfig.isConvolutionalAxonsEnabled() || scaleOutputs) {
+			return super.createMaxPoolingAxonsComponent(name, leftNeurons, rightNeurons, config, scaleOutputs);
+		}
+		return new DL4JPoolingAxonsComponentImpl(name,
+				new DL4JPoolingAxonsImpl(createGeometry(leftNeurons, rightNeurons, config), PoolingType.MAX),
+				dl4jComponentConfig);
+	}
+
+	@Override
+	public DirectedAxonsComponent<Neurons3D, Neurons3D, ?> createAveragePoolingAxonsComponent(String name,
+			Neurons3D leftNeurons, Neurons3D rightNeurons, Axons3DConfig config) {
+		if (!dl4jComponentConfig.isConvolutionalAxonsEnabled()) {
+			return super.createAveragePoolingAxonsComponent(name, leftNeurons, rightNeurons, config);
+		}
+		return new DL4JPoolingAxonsComponentImpl(name,
+				new DL4JPoolingAxonsImpl(createGeometry(leftNeurons, rightNeurons, config), PoolingType.AVERAGE),
+				dl4jComponentConfig);
+	}
+
+	private DL4JConvolutionGeometry createGeometry(Neurons3D leftNeurons, Neurons3D rightNeurons,
+			Axons3DConfig config) {
+		return new DL4JConvolutionGeometry(leftNeurons, rightNeurons, config.getStrideHeight(),
+				config.getStrideWidth(), config.getPaddingHeight(), config.getPaddingWidth());
+	}
+
+	private DL4JConvolutionalAxonsImpl createInitialisedConvolutionalAxons(DL4JConvolutionGeometry geometry,
+			Axons3DConfig config) {
+		if (axonsFactory != null) {
+			// Parameters are initialised by the configured axons factory, then held resident
+			TrainableAxons<?, ?, ?> initialised = axonsFactory.createConvolutionalAxons(geometry.getLeftNeurons(),
+					geometry.getRightNeurons(), config, null, null);
+			return new DL4JConvolutionalAxonsImpl(matrixFactory, geometry,
+					initialised.getDetachedConnectionWeights(), initialised.getDetachedLeftToRightBiases());
+		}
+		int outputDepth = geometry.getRightNeurons().getDepth();
+		// He initialisation over the filter fan-in, with zero biases
+		INDArray connectionWeights = Nd4j.randn(outputDepth, geometry.getFilterVolume())
+				.muli(Math.sqrt(2d / geometry.getFilterVolume()));
+		INDArray biases = geometry.getLeftNeurons().hasBiasUnit() ? Nd4j.zeros(outputDepth, 1) : null;
+		return new DL4JConvolutionalAxonsImpl(matrixFactory, geometry, connectionWeights, biases);
+	}
+
+	@Override
+	public DefaultChainableDirectedComponent<?, ?> createBatchNormAxonsComponent(String name, Neurons leftNeurons,
+			Neurons rightNeurons, Matrix gamma, Matrix beta, Matrix mean, Matrix variance) {
+		if (!dl4jComponentConfig.isBatchNormEnabled()) {
+			return super.createBatchNormAxonsComponent(name, leftNeurons, rightNeurons, gamma, beta, mean, variance);
+		}
+		return new DL4JBatchNormAxonsComponentImpl(name,
+				new DL4JBatchNormAxonsImpl(matrixFactory, leftNeurons, gamma, beta, mean, variance),
+				dl4jComponentConfig);
+	}
+
+	@Override
+	public DefaultChainableDirectedComponent<?, ?> createConvolutionalBatchNormAxonsComponent(String name,
+			Neurons3D leftNeurons, Neurons3D rightNeurons, Matrix gamma, Matrix beta, Matrix mean,
+			Matrix variance) {
+		if (!dl4jComponentConfig.isBatchNormEnabled()) {
+			return super.createConvolutionalBatchNormAxonsComponent(name, leftNeurons, rightNeurons, gamma, beta,
+					mean, variance);
+		}
+		return new DL4JBatchNormAxonsComponentImpl(name,
+				new DL4JBatchNormAxonsImpl(matrixFactory, leftNeurons, gamma, beta, mean, variance),
+				dl4jComponentConfig);
+	}
+
+	@Override
+	public DefaultDirectedComponentChain createDirectedComponentChain(
+			List<DefaultChainableDirectedComponent<?, ?>> sequentialComponents) {
+		return super.createDirectedComponentChain(dl4jComponentConfig.isActivationFusionEnabled()
+				? fuseActivationFunctionComponents(sequentialComponents)
+				: sequentialComponents);
+	}
+
+	/**
+	 * @param name            The name of the component.
+	 * @param neurons         The neurons, which are image neurons for
+	 *                        convolutional batch normalisation.
+	 * @param gamma           The [channels, 1] scale.
+	 * @param beta            The [channels, 1] shift.
+	 * @param runningMean     The [channels, 1] running mean.
+	 * @param runningVariance The [channels, 1] running variance.
+	 * @param decay           The decay of the running statistics.
+	 * @param epsilon         The epsilon added to variances.
+	 * @return A batch normalisation axons component which uses the given arrays
+	 *         as its resident parameters and statistics, so that their memory is
+	 *         shared rather than copied. Where ND4J backed batch normalisation is
+	 *         disabled, the parameters are copied into ML4J axons, and a warning
+	 *         is logged.
+	 */
+	public DefaultChainableDirectedComponent<?, ?> createSharedBatchNormAxonsComponent(String name, Neurons neurons,
+			INDArray gamma, INDArray beta, INDArray runningMean, INDArray runningVariance, double decay,
+			double epsilon) {
+		if (!dl4jComponentConfig.isBatchNormEnabled()) {
+			logParametersCopied(name);
+			Matrix[] parameters = new Matrix[4];
+			INDArray[] arrays = new INDArray[] { gamma, beta, runningMean, runningVariance };
+			for (int i = 0; i < arrays.length; i++) {
+				parameters[i] = DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory, arrays[i], false);
+			}
+			return neurons instanceof Neurons3D
+					? super.createConvolutionalBatchNormAxonsComponent(name, (Neurons3D) neurons, (Neurons3D) neurons,
+							parameters[0], parameters[1], parameters[2], parameters[3])
+					: super.createBatchNormAxonsComponent(name, neurons, neurons, parameters[0], parameters[1],
+							parameters[2], parameters[3]);
+		}
+		return new DL4JBatchNormAxonsComponentImpl(name, new DL4JBatchNormAxonsImpl(matrixFactory, neurons, gamma,
+				beta, runningMean, runningVariance, decay, epsilon), dl4jComponentConfig);
+	}
+
+	/**
+	 * @param sequentialComponents The sequential components.
+	 * @return A component chain for inference only, in which ND4J backed batch
+	 *         normalisation components are folded into the fully connected or
+	 *         convolutional axons preceding them.
+	 */
+	public DefaultDirectedComponentChain createInferenceDirectedComponentChain(
+			List<DefaultChainableDirectedComponent<?, ?>> sequentialComponents) {
+		return createDirectedComponentChain(DL4JBatchNormFolding.foldForInference(sequentialComponents));
+	}
+
+	/**
+	 * @param name         The name of the component.
+	 * @param cellType     The type of recurrent cell.
+	 * @param leftNeurons  The left neurons, spanning inputSize * timeSteps
+	 *                     features ordered by timestep.
+	 * @param rightNeurons The right neurons, spanning hiddenSize * timeSteps
+	 *                     features to output the hidden state of every
+	 *                     timestep, or hiddenSize features to output that of
+	 *                     the final timestep.
+	 * @param timeSteps    The number of timesteps.
+	 * @param hiddenSize   The size of the hidden state.
+	 * @param stateful     Whether the state after the final timestep of each
+	 *                     forward propagation is carried to the next.
+	 * @return An ND4J backed recurrent axons component, with initialised weights.
+	 *         There is no ML4J equivalent, so recurrent components are always
+	 *         backed by ND4J.
+	 */
+	public DL4JRecurrentAxonsComponentImpl createRecurrentAxonsComponent(String name,
+			DL4JRecurrentCellType cellType, Neurons leftNeurons, Neurons rightNeurons, int timeSteps,
+			int hiddenSize, boolean stateful) {
+		int gateRows = cellType.getGateCount() * hiddenSize;
+		int fanIn = leftNeurons.getNeuronCountExcludingBias() / timeSteps + hiddenSize;
+		// Xavier initialisation over the input and hidden fan-in, with zero biases
+		// other than an LSTM forget gate bias of 1, as for DL4J
+		INDArray connectionWeights = Nd4j.randn(gateRows, fanIn).muli(Math.sqrt(1d / fanIn));
+		INDArray biases = Nd4j.zeros(gateRows, 1);
+		if (cellType == DL4JRecurrentCellType.LSTM) {
+			biases.get(NDArrayIndex.interval(hiddenSize, 2 * hiddenSize), NDArrayIndex.all()).assign(1);
+		}
+		return createSharedRecurrentAxonsComponent(name, cellType, leftNeurons, rightNeurons, timeSteps,
+				connectionWeights, biases, stateful);
+	}
+
+	/**
+	 * @param name              The name of the component.
+	 * @param cellType          The type of recurrent cell.
+	 * @param leftNeurons       The left neurons.
+	 * @param rightNeurons      The right neurons.
+	 * @param timeSteps         The number of timesteps.
+	 * @param connectionWeights The [gates * hiddenSize, inputSize + hiddenSize]
+	 *                          fused gate weights.
+	 * @param biases            The [gates * hiddenSize, 1] biases, or null.
+	 * @param stateful          Whether the state after the final timestep of
+	 *                          each forward propagation is carried to the next.
+	 * @return A recurrent axons component which uses the given arrays as its
+	 *         resident parameters, so that their memory is shared rather than
+	 *         copied.
+	 */
+	public DL4JRecurrentAxonsComponentImpl createSharedRecurrentAxonsComponent(String name,
+			DL4JRecurrentCellType cellType, Neurons leftNeurons, Neurons rightNeurons, int timeSteps,
+			INDArray connectionWeights, INDArray biases, boolean stateful) {
+		return new DL4JRecurrentAxonsComponentImpl(name, new DL4JRecurrentAxonsImpl(matrixFactory, cellType,
+				leftNeurons, rightNeurons, timeSteps, connectionWeights, biases), stateful, dl4jComponentConfig);
+	}
+
+	/**
+	 * @param name         The name of the component.
+	 * @param leftNeurons  The input neurons of every branch.
+	 * @param rightNeurons The output neurons of the combined branches.
+	 * @param branches     The independent branches, in order.
+	 * @param combination  How the outputs of the branches are combined.
+	 * @return A component which runs the branches concurrently on a fork-join
+	 *         pool with the branch parallelism of the DL4JComponentConfig, or
+	 *         sequentially if the branch parallelism is 0.
+	 */
+	public DL4JParallelBranchesComponentImpl createParallelBranchesComponent(String name, Neurons leftNeurons,
+			Neurons rightNeurons, List<DefaultChainableDirectedComponent<?, ?>> branches,
+			DL4JBranchCombination combination) {
+		return createParallelBranchesComponent(name, leftNeurons, rightNeurons, branches, combination,
+				DL4JParallelBranchesComponentImpl.getExecutor(dl4jComponentConfig.getBranchParallelism()));
+	}
+
+	/**
+	 * @param name         The name of the component.
+	 * @param leftNeurons  The input neurons of every branch.
+	 * @param rightNeurons The output neurons of the combined branches.
+	 * @param branches     The independent branches, in order.
+	 * @param combination  How the outputs of the branches are combined.
+	 * @param executor     The executor on which branches are run, or null to
+	 *                     run branches sequentially.
+	 * @return A component which runs the branches concurrently on the executor.
+	 */
+	public DL4JParallelBranchesComponentImpl createParallelBranchesComponent(String name, Neurons leftNeurons,
+			Neurons rightNeurons, List<DefaultChainableDirectedComponent<?, ?>> branches,
+			DL4JBranchCombination combination, Executor executor) {
+		return new DL4JParallelBranchesComponentImpl(name, leftNeurons, rightNeurons, branches, combination,
+				dl4jComponentConfig, executor);
+	}
+
+	private List<DefaultChainableDirectedComponent<?, ?>> fuseActivationFunctionComponents(
+			List<DefaultChainableDirectedComponent<?, ?>> sequentialComponents) {
+		List<DefaultChainableDirectedComponent<?, ?>> components = new ArrayList<>();
+		List<DL4JDifferentiableActivationFunctionComponentImpl> run = new ArrayList<>();
+		for (int i = 0; i < sequentialComponents.size(); i++) {
+			DefaultChainableDirectedComponent<?, ?> component = sequentialComponents.get(i);
+			// The final component of a chain may be back propagated directly from a
+			// cost function gradient, so is never fused
+			if (i < sequentialComponents.size() - 1 && DL4JFusedActivationChainComponentImpl.isFusable(component)) {
+				run.add((DL4JDifferentiableActivationFunctionComponentImpl) component);
+			} else {
+				addActivationFunctionComponentRun(components, run);
+				components.add(component);
+			}
+		}
+		addActivationFunctionComponentRun(components, run);
+		return components;
+	}
+
+	private void addActivationFunctionComponentRun(List<DefaultChainableDirectedComponent<?, ?>> components,
+			List<DL4JDifferentiableActivationFunctionComponentImpl> run) {
+		if (run.size() > 1) {
+			String name = run.stream().map(DL4JDifferentiableActivationFunctionComponentImpl::getName)
+					.collect(Collectors.joining("+"));
+			components.add(new DL4JFusedActivationChainComponentImpl(name, run.get(0).getInputNeurons(), run,
+					dl4jComponentConfig));
+		} else {
+			components.addAll(run);
+		}
+		run.clear();
+	}
+
+	/**
+	 * @param outputActivationFunctionType The type of the final activation
+	 *                                     function of a network - sigmoid or
+	 *                                     softmax.
+	 * @return The cross-entropy cost function paired with the final activation
+	 *         function, whose gradient is back propagated through the final
+	 *         activation function in a single fused pass.
+	 */
+	public DL4JCostFunction createCrossEntropyCostFunction(ActivationFunctionType outputActivationFunctionType) {
+		if (outputActivationFunctionType.getBaseType() == ActivationFunctionBaseType.SOFTMAX) {
+			return DL4JCostFunction.createMultiClassCrossEntropyCostFunction();
+		} else if (outputActivationFunctionType.getBaseType() == ActivationFunctionBaseType.SIGMOID) {
+			return DL4JCostFunction.createCrossEntropyCostFunction();
+		} else {
+			throw new IllegalArgumentException(
+					"No cross-entropy cost function is paired with activation function type:"
+							+ outputActivationFunctionType);
+		}
+	}
+
 	private IActivation createActivationFunction(Activation dl4jActivationFunctionType, ActivationFunctionProperties activationFunctionProperties) {
 		if (dl4jActivationFunctionType == Activation.LEAKYRELU && activationFunctionProperties.getAlpha().isPresent()) {
 			return new ActivationLReLU(activationFunctionProperties.getAlpha().get().floatValue());
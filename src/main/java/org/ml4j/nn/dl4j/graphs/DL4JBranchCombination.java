@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.graphs;
+
+/**
+ * How the outputs of the branches of a DL4JParallelBranchesComponentImpl are
+ * combined at the point where the branches merge.
+ *
+ * @author Michael Lavelle
+ */
+public enum DL4JBranchCombination {
+
+	/**
+	 * The outputs of the branches, which have the same features, are added.
+	 */
+	ADDITION,
+
+	/**
+	 * The features of the outputs of the branches are concatenated, in branch
+	 * order.
+	 */
+	CONCATENATION
+}
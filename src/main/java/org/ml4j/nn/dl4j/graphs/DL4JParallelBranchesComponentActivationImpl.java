@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.graphs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Activation of a DL4JParallelBranchesComponentImpl, retaining the activation
+ * of each branch.
+ *
+ * On back propagation the output gradient is routed to each branch - whole for
+ * added outputs, or the rows of its features for concatenated outputs - and
+ * the branches are back propagated concurrently where the component has an
+ * executor. The input gradients of the branches are then added, and their
+ * axons gradients appended, in branch order.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JParallelBranchesComponentActivationImpl implements DefaultChainableDirectedComponentActivation {
+
+	private DL4JParallelBranchesComponentImpl component;
+	private MatrixFactory matrixFactory;
+	private NeuronsActivation inputActivation;
+	private List<DefaultChainableDirectedComponentActivation> branchActivations;
+	private NeuronsActivation outputActivation;
+
+	public DL4JParallelBranchesComponentActivationImpl(DL4JParallelBranchesComponentImpl component,
+			MatrixFactory matrixFactory, NeuronsActivation inputActivation,
+			List<DefaultChainableDirectedComponentActivation> branchActivations, NeuronsActivation outputActivation) {
+		this.component = component;
+		this.matrixFactory = matrixFactory;
+		this.inputActivation = inputActivation;
+		this.branchActivations = branchActivations;
+		this.outputActivation = outputActivation;
+	}
+
+	public DL4JParallelBranchesComponentImpl getComponent() {
+		return component;
+	}
+
+	/**
+	 * @return The activations of the branches, in branch order.
+	 */
+	public List<DefaultChainableDirectedComponentActivation> getBranchActivations() {
+		return branchActivations;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(component.getName(), startNanos);
+		return inputGradient;
+	}
+
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+
+		NeuronsActivationFeatureOrientation orientation = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+		List<DefaultChainableDirectedComponent<?, ?>> branches = component.getBranches();
+
+		List<NeuronsActivation> branchOutputGradients = new ArrayList<>();
+		if (component.getCombination() == DL4JBranchCombination.ADDITION) {
+			for (int i = 0; i < branches.size(); i++) {
+				branchOutputGradients.add(gradient.getOutput());
+			}
+		} else {
+			INDArray outputGradient = DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), orientation);
+			int offset = 0;
+			for (DefaultChainableDirectedComponent<?, ?> branch : branches) {
+				int features = branch.getOutputNeurons().getNeuronCountExcludingBias();
+				INDArray branchOutputGradient;
+				try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+					branchOutputGradient = outputGradient
+							.get(NDArrayIndex.interval(offset, offset + features), NDArrayIndex.all()).dup('c');
+				}
+				branchOutputGradients.add(DL4JParallelBranchesComponentImpl.toActivation(matrixFactory,
+						branchOutputGradient, branch.getOutputNeurons(), outputActivation.getFormat(),
+						DimensionScope.OUTPUT));
+				offset += features;
+			}
+		}
+
+		List<DirectedComponentGradient<NeuronsActivation>> branchGradients = component
+				.invokeAll(i -> branchActivations.get(i).backPropagate(
+						new DirectedComponentGradientImpl<>(new ArrayList<>(), branchOutputGradients.get(i))));
+
+		List<Supplier<AxonsGradient>> axonsGradients = new ArrayList<>();
+		axonsGradients.addAll(gradient.getTotalTrainableAxonsGradients());
+
+		INDArray inputGradient = null;
+		for (DirectedComponentGradient<NeuronsActivation> branchGradient : branchGradients) {
+			axonsGradients.addAll(branchGradient.getTotalTrainableAxonsGradients());
+			INDArray branchInputGradient = DL4JUtil.asNDArray(matrixFactory, branchGradient.getOutput(),
+					orientation);
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				inputGradient = inputGradient == null ? branchInputGradient.dup('c')
+						: inputGradient.addi(branchInputGradient);
+			}
+		}
+
+		NeuronsActivation inputGradientActivation = DL4JParallelBranchesComponentImpl.toActivation(matrixFactory,
+				inputGradient, component.getInputNeurons(), inputActivation.getFormat(), DimensionScope.INPUT);
+
+		return new DirectedComponentGradientImpl<>(axonsGradients, inputGradientActivation);
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		for (DefaultChainableDirectedComponentActivation branchActivation : branchActivations) {
+			branchActivation.close(completedLifeCycleStage);
+		}
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
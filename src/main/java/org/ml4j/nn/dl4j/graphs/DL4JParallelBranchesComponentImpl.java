@@ -0,0 +1,332 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.graphs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.NeuralComponentBaseType;
+import org.ml4j.nn.components.NeuralComponentType;
+import org.ml4j.nn.components.factories.DirectedComponentFactory;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * A component which forward propagates the same input through independent
+ * parallel branches, and combines their outputs where the branches merge.
+ *
+ * Where an executor is supplied, the branches are forward and back propagated
+ * concurrently - the first branch on the calling thread and the others on the
+ * executor - as ND4J's native operations release the calling thread for most
+ * of the time spent in each branch. The outputs, input gradients and axons
+ * gradients of the branches are always combined in branch order on the
+ * calling thread, so results are identical to sequential execution however
+ * the branches are scheduled.
+ *
+ * Branches must not share mutable state, such as stateful recurrent
+ * components, and where in-place inference is enabled each branch after the
+ * first is given its own copy of the input, however the branches are
+ * scheduled.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JParallelBranchesComponentImpl
+		implements DefaultChainableDirectedComponent<DL4JParallelBranchesComponentActivationImpl, DirectedComponentsContext> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The sub type id of the component type of parallel branches.
+	 */
+	public static final String PARALLEL_BRANCHES_TYPE_ID = "DL4J_PARALLEL_BRANCHES";
+
+	private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+	private String name;
+	private Neurons inputNeurons;
+	private Neurons outputNeurons;
+	private List<DefaultChainableDirectedComponent<?, ?>> branches;
+	private DL4JBranchCombination combination;
+	private DL4JComponentConfig config;
+	private transient Executor executor;
+
+	/**
+	 * @param name          The name of the component.
+	 * @param inputNeurons  The input neurons of every branch.
+	 * @param outputNeurons The output neurons of the combined branches.
+	 * @param branches      The branches, in order.
+	 * @param combination   How the outputs of the branches are combined.
+	 * @param config        The configuration.
+	 * @param executor      The executor on which branches other than the first
+	 *                      are run, or null to run all branches sequentially on
+	 *                      the calling thread.
+	 */
+	public DL4JParallelBranchesComponentImpl(String name, Neurons inputNeurons, Neurons outputNeurons,
+			List<DefaultChainableDirectedComponent<?, ?>> branches, DL4JBranchCombination combination,
+			DL4JComponentConfig config, Executor executor) {
+		this.name = name;
+		this.inputNeurons = inputNeurons;
+		this.outputNeurons = outputNeurons;
+		this.branches = new ArrayList<>(branches);
+		this.combination = combination;
+		this.config = config;
+		this.executor = executor;
+		if (branches.isEmpty()) {
+			throw new IllegalArgumentException("Parallel branches component:" + name + " has no branches");
+		}
+		int outputFeatures = 0;
+		for (DefaultChainableDirectedComponent<?, ?> branch : branches) {
+			int branchOutputFeatures = branch.getOutputNeurons().getNeuronCountExcludingBias();
+			if (combination == DL4JBranchCombination.ADDITION
+					&& branchOutputFeatures != outputNeurons.getNeuronCountExcludingBias()) {
+				throw new IllegalArgumentException("Branch:" + branch.getName() + " output neuron count:"
+						+ branchOutputFeatures + " does not match:" + outputNeurons.getNeuronCountExcludingBias());
+			}
+			outputFeatures += branchOutputFeatures;
+		}
+		if (combination == DL4JBranchCombination.CONCATENATION
+				&& outputFeatures != outputNeurons.getNeuronCountExcludingBias()) {
+			throw new IllegalArgumentException("Concatenated branch output neuron count:" + outputFeatures
+					+ " does not match:" + outputNeurons.getNeuronCountExcludingBias());
+		}
+	}
+
+	/**
+	 * @param parallelism The number of threads, or 0.
+	 * @return A fork-join pool with the given parallelism, shared by all
+	 *         components with the same parallelism, or null for a parallelism of
+	 *         0, so that branches are run sequentially.
+	 */
+	public static Executor getExecutor(int parallelism) {
+		return parallelism == 0 ? null : POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+	}
+
+	public List<DefaultChainableDirectedComponent<?, ?>> getBranches() {
+		return branches;
+	}
+
+	public DL4JBranchCombination getCombination() {
+		return combination;
+	}
+
+	/**
+	 * @return Whether branches are run concurrently.
+	 */
+	public boolean isParallel() {
+		return executor != null && branches.size() > 1;
+	}
+
+	@Override
+	public DL4JParallelBranchesComponentActivationImpl forwardPropagate(NeuronsActivation neuronsActivation,
+			DirectedComponentsContext context) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DL4JParallelBranchesComponentActivationImpl activation = doForwardPropagate(neuronsActivation, context);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DL4JParallelBranchesComponentActivationImpl doForwardPropagate(NeuronsActivation neuronsActivation,
+			DirectedComponentsContext context) {
+
+		MatrixFactory matrixFactory = context.getMatrixFactory();
+
+		// An in-place branch would overwrite the input read by the other branches,
+		// whether they run before, after or alongside it, so the copies are made
+		// before any branch runs
+		List<NeuronsActivation> branchInputs = new ArrayList<>();
+		boolean copyInput = config.isInPlaceInferenceEnabled() && !context.isTrainingContext();
+		for (int i = 0; i < branches.size(); i++) {
+			branchInputs.add(copyInput && i > 0 ? copy(matrixFactory, neuronsActivation) : neuronsActivation);
+		}
+
+		List<DefaultChainableDirectedComponentActivation> branchActivations = invokeAll(
+				i -> forwardPropagate(branches.get(i), branchInputs.get(i), context));
+
+		INDArray output;
+		List<INDArray> branchOutputs = branchActivations.stream()
+				.map(activation -> DL4JUtil.asNDArray(matrixFactory, activation.getOutput(),
+						NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET))
+				.collect(Collectors.toList());
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			if (combination == DL4JBranchCombination.ADDITION) {
+				output = branchOutputs.get(0).dup('c');
+				for (int i = 1; i < branchOutputs.size(); i++) {
+					output.addi(branchOutputs.get(i));
+				}
+			} else {
+				output = Nd4j.vstack(branchOutputs);
+			}
+		}
+
+		NeuronsActivation outputActivation = toActivation(matrixFactory, output, outputNeurons,
+				neuronsActivation.getFormat(), DimensionScope.OUTPUT);
+
+		return new DL4JParallelBranchesComponentActivationImpl(this, matrixFactory, neuronsActivation,
+				branchActivations, outputActivation);
+	}
+
+	private static <C> DefaultChainableDirectedComponentActivation forwardPropagate(
+			DefaultChainableDirectedComponent<?, C> branch, NeuronsActivation neuronsActivation,
+			DirectedComponentsContext context) {
+		return branch.forwardPropagate(neuronsActivation, branch.getContext(context));
+	}
+
+	private NeuronsActivation copy(MatrixFactory matrixFactory, NeuronsActivation neuronsActivation) {
+		INDArray input = DL4JUtil.asNDArray(matrixFactory, neuronsActivation,
+				NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET);
+		return toActivation(matrixFactory, DL4JComponentWorkspaces.dupOutOfWorkspaces(input), inputNeurons,
+				neuronsActivation.getFormat(), DimensionScope.INPUT);
+	}
+
+	/**
+	 * @param matrixFactory    The matrix factory.
+	 * @param rowsSpanFeatures The [features, examples] activations.
+	 * @param neurons          The neurons.
+	 * @param format           The format of flat activations.
+	 * @param dimensionScope   The dimension scope of image activations.
+	 * @return The activation, as an image activation for image neurons.
+	 */
+	static NeuronsActivation toActivation(MatrixFactory matrixFactory, INDArray rowsSpanFeatures, Neurons neurons,
+			NeuronsActivationFormat<?> format, DimensionScope dimensionScope) {
+		if (neurons instanceof Neurons3D) {
+			return DL4JUtil.fromNDArrayToImageActivation(matrixFactory, rowsSpanFeatures,
+					NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET, (Neurons3D) neurons, dimensionScope);
+		}
+		return DL4JUtil.fromNDArray(matrixFactory, rowsSpanFeatures,
+				NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET, format, neurons);
+	}
+
+	/**
+	 * Runs a task for each branch, concurrently if an executor is supplied.
+	 *
+	 * @param task The task, given the index of the branch.
+	 * @return The results of the task, in branch order.
+	 */
+	<T> List<T> invokeAll(IntFunction<T> task) {
+		List<T> results = new ArrayList<>(Collections.nCopies(branches.size(), null));
+		if (!isParallel()) {
+			for (int i = 0; i < branches.size(); i++) {
+				results.set(i, task.apply(i));
+			}
+			return results;
+		}
+		List<CompletableFuture<T>> futures = new ArrayList<>();
+		for (int i = 1; i < branches.size(); i++) {
+			int branchIndex = i;
+			futures.add(CompletableFuture.supplyAsync(() -> task.apply(branchIndex), executor));
+		}
+		results.set(0, task.apply(0));
+		for (int i = 1; i < branches.size(); i++) {
+			try {
+				results.set(i, futures.get(i - 1).join());
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public DirectedComponentsContext getContext(DirectedComponentsContext directedComponentsContext) {
+		return directedComponentsContext;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Neurons getInputNeurons() {
+		return inputNeurons;
+	}
+
+	@Override
+	public Neurons getOutputNeurons() {
+		return outputNeurons;
+	}
+
+	@Override
+	public NeuralComponentType getComponentType() {
+		return NeuralComponentType.createSubType(NeuralComponentBaseType.COMPONENT_BIPOLE_GRAPH,
+				PARALLEL_BRANCHES_TYPE_ID);
+	}
+
+	@Override
+	public DL4JParallelBranchesComponentImpl dup(DirectedComponentFactory directedComponentFactory) {
+		List<DefaultChainableDirectedComponent<?, ?>> dupBranches = branches.stream()
+				.<DefaultChainableDirectedComponent<?, ?>>map(branch -> branch.dup(directedComponentFactory))
+				.collect(Collectors.toList());
+		return new DL4JParallelBranchesComponentImpl(name, inputNeurons, outputNeurons, dupBranches, combination,
+				config, executor);
+	}
+
+	@Override
+	public List<DefaultChainableDirectedComponent<?, ?>> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public Set<DefaultChainableDirectedComponent<?, ?>> flatten() {
+		Set<DefaultChainableDirectedComponent<?, ?>> allComponentsIncludingThis = new HashSet<>(Arrays.asList(this));
+		for (DefaultChainableDirectedComponent<?, ?> branch : branches) {
+			allComponentsIncludingThis.addAll(branch.flatten());
+		}
+		return allComponentsIncludingThis;
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return branches.stream().allMatch(branch -> branch.isSupported(format));
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return Optional.empty();
+	}
+}
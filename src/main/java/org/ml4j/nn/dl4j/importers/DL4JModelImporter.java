@@ -0,0 +1,380 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.importers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.layers.ActivationLayer;
+import org.deeplearning4j.nn.conf.layers.BaseLayer;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.DropoutLayer;
+import org.deeplearning4j.nn.conf.layers.FeedForwardLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.vertex.GraphVertex;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.params.BatchNormalizationParamInitializer;
+import org.deeplearning4j.nn.params.ConvolutionParamInitializer;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.ml4j.nn.axons.Axons3DConfig;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.components.onetone.DefaultDirectedComponentChain;
+import org.ml4j.nn.dl4j.axons.DL4JBatchNormAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JConvolutionGeometry;
+import org.ml4j.nn.dl4j.factories.DL4JActivationFunctionTypes;
+import org.ml4j.nn.dl4j.factories.HybridML4JDL4JDefaultDirectedComponentFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports trained DL4J MultiLayerNetworks, and sequential ComputationGraphs,
+ * as equivalent ML4J component chains created through the hybrid factory.
+ *
+ * The parameters of dense, output and convolutional layers are views of the
+ * DL4J model's flattened parameters - dense weights are viewed transposed, and
+ * convolutional filters are viewed as [outputDepth, filterVolume] matrices - so
+ * that importing a model does not copy its weights, and adjustments made by
+ * ML4J training are visible to the DL4J model and vice versa. Where a
+ * parameter array cannot be viewed in the required layout, or where sharing is
+ * disabled so that the imported chain is detached from the model, the
+ * parameters are copied a block of rows at a time.
+ *
+ * Dense, output, convolutional, max and average pooling, batch normalisation,
+ * activation and dropout layers are supported. Dropout is an identity at inference, and the
+ * loss functions of output layers are not imported.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JModelImporter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DL4JModelImporter.class);
+
+	private HybridML4JDL4JDefaultDirectedComponentFactory directedComponentFactory;
+	private boolean parameterSharingEnabled;
+	private long copyChunkElements;
+
+	/**
+	 * Creates an importer which shares parameter memory with the imported models
+	 * where possible.
+	 *
+	 * @param directedComponentFactory The factory used to create the components.
+	 */
+	public DL4JModelImporter(HybridML4JDL4JDefaultDirectedComponentFactory directedComponentFactory) {
+		this(directedComponentFactory, true, DL4JParameterImport.DEFAULT_COPY_CHUNK_ELEMENTS);
+	}
+
+	/**
+	 * @param directedComponentFactory The factory used to create the components.
+	 * @param parameterSharingEnabled  Whether parameter memory is shared with the
+	 *                                 imported models where possible.
+	 * @param copyChunkElements        The maximum number of elements copied per
+	 *                                 block where parameters are copied.
+	 */
+	public DL4JModelImporter(HybridML4JDL4JDefaultDirectedComponentFactory directedComponentFactory,
+			boolean parameterSharingEnabled, long copyChunkElements) {
+		if (copyChunkElements <= 0) {
+			throw new IllegalArgumentException("Copy chunk elements:" + copyChunkElements + " must be positive");
+		}
+		this.directedComponentFactory = directedComponentFactory;
+		this.parameterSharingEnabled = parameterSharingEnabled;
+		this.copyChunkElements = copyChunkElements;
+	}
+
+	public boolean isParameterSharingEnabled() {
+		return parameterSharingEnabled;
+	}
+
+	public long getCopyChunkElements() {
+		return copyChunkElements;
+	}
+
+	/**
+	 * @param parameterSharingEnabled Whether parameter memory is shared with the
+	 *                                imported models where possible.
+	 * @return A copy of this importer with the given setting.
+	 */
+	public DL4JModelImporter withParameterSharingEnabled(boolean parameterSharingEnabled) {
+		return new DL4JModelImporter(directedComponentFactory, parameterSharingEnabled, copyChunkElements);
+	}
+
+	/**
+	 * @param copyChunkElements The maximum number of elements copied per block
+	 *                          where parameters are copied.
+	 * @return A copy of this importer with the given setting.
+	 */
+	public DL4JModelImporter withCopyChunkElements(long copyChunkElements) {
+		return new DL4JModelImporter(directedComponentFactory, parameterSharingEnabled, copyChunkElements);
+	}
+
+	/**
+	 * @param network      The trained network.
+	 * @param inputNeurons The input neurons of the network - Neurons3D where the
+	 *                     first layer is convolutional or pooling.
+	 * @return The equivalent component chain.
+	 */
+	public DefaultDirectedComponentChain importModel(MultiLayerNetwork network, Neurons inputNeurons) {
+		List<Layer> layers = new ArrayList<>();
+		for (Layer layer : network.getLayers()) {
+			layers.add(layer);
+		}
+		return importLayers(layers, inputNeurons);
+	}
+
+	/**
+	 * @param graph        The trained graph, whose layers must form a single
+	 *                     chain from its input to its output.
+	 * @param inputNeurons The input neurons of the graph - Neurons3D where the
+	 *                     first layer is convolutional or pooling.
+	 * @return The equivalent component chain.
+	 */
+	public DefaultDirectedComponentChain importModel(ComputationGraph graph, Neurons inputNeurons) {
+		if (graph.getNumInputArrays() != 1 || graph.getNumOutputArrays() != 1) {
+			throw new IllegalArgumentException("Only graphs with a single input and output can be imported");
+		}
+		GraphVertex[] vertices = graph.getVertices();
+		List<Layer> layers = new ArrayList<>();
+		int previousVertexIndex = -1;
+		for (int vertexIndex : graph.topologicalSortOrder()) {
+			GraphVertex vertex = vertices[vertexIndex];
+			if (!vertex.isInputVertex()) {
+				// Each layer must consume the output of the layer before it
+				if (!vertex.hasLayer() || vertex.getInputVertices() == null || vertex.getInputVertices().length != 1
+						|| vertex.getInputVertices()[0].getVertexIndex() != previousVertexIndex) {
+					throw new IllegalArgumentException("Vertex:" + vertex.getVertexName()
+							+ " does not follow on from the previous layer - only sequential graphs can be imported");
+				}
+				layers.add(vertex.getLayer());
+			}
+			previousVertexIndex = vertexIndex;
+		}
+		return importLayers(layers, inputNeurons);
+	}
+
+	private DefaultDirectedComponentChain importLayers(List<Layer> layers, Neurons inputNeurons) {
+		List<DefaultChainableDirectedComponent<?, ?>> components = new ArrayList<>();
+		Neurons neurons = inputNeurons;
+		for (int i = 0; i < layers.size(); i++) {
+			neurons = importLayer("layer" + i, layers.get(i), neurons, components);
+		}
+		return directedComponentFactory.createDirectedComponentChain(components);
+	}
+
+	private Neurons importLayer(String name, Layer layer, Neurons inputNeurons,
+			List<DefaultChainableDirectedComponent<?, ?>> components) {
+		org.deeplearning4j.nn.conf.layers.Layer layerConfig = layer.conf().getLayer();
+		Neurons outputNeurons;
+		if (layerConfig instanceof DenseLayer || layerConfig.getClass() == OutputLayer.class) {
+			outputNeurons = importFullyConnectedLayer(name, layer, (FeedForwardLayer) layerConfig, inputNeurons,
+					components);
+		} else if (layerConfig.getClass() == ConvolutionLayer.class) {
+			outputNeurons = importConvolutionalLayer(name, layer, (ConvolutionLayer) layerConfig,
+					asNeurons3D(name, inputNeurons), components);
+		} else if (layerConfig.getClass() == SubsamplingLayer.class) {
+			return importSubsamplingLayer(name, (SubsamplingLayer) layerConfig, asNeurons3D(name, inputNeurons),
+					components);
+		} else if (layerConfig instanceof BatchNormalization) {
+			// DL4J batch normalisation layers do not apply their activation function,
+			// which defaults to the network's
+			return importBatchNormalizationLayer(name, layer, (BatchNormalization) layerConfig, inputNeurons,
+					components);
+		} else if (layerConfig instanceof ActivationLayer) {
+			outputNeurons = inputNeurons;
+		} else if (layerConfig instanceof DropoutLayer) {
+			return inputNeurons;
+		} else {
+			throw new IllegalArgumentException(
+					"Layer:" + name + " of type:" + layerConfig.getClass().getSimpleName() + " cannot be imported");
+		}
+		IActivation activation = ((BaseLayer) layerConfig).getActivationFn();
+		if (activation != null && !(activation instanceof ActivationIdentity)) {
+			components.add(directedComponentFactory.createDifferentiableActivationFunctionComponent(
+					name + "-activation", outputNeurons,
+					DL4JActivationFunctionTypes.fromDL4JActivationFunction(activation)
+							.orElseThrow(() -> new IllegalArgumentException(
+									"Layer:" + name + " has unsupported activation function:" + activation)),
+					DL4JActivationFunctionTypes.getActivationFunctionProperties(activation)));
+		}
+		return outputNeurons;
+	}
+
+	private Neurons importFullyConnectedLayer(String name, Layer layer, FeedForwardLayer layerConfig,
+			Neurons inputNeurons, List<DefaultChainableDirectedComponent<?, ?>> components) {
+		int inputCount = layerConfig.getNIn();
+		int outputCount = layerConfig.getNOut();
+		if (inputNeurons.getNeuronCountExcludingBias() != inputCount) {
+			throw new IllegalArgumentException("Layer:" + name + " expects " + inputCount + " inputs but has "
+					+ inputNeurons.getNeuronCountExcludingBias());
+		}
+		// DL4J dense weights are [nIn, nOut] and biases [1, nOut], so are viewed
+		// transposed to obtain the [nOut, nIn] weights and [nOut, 1] biases of
+		// ML4J's orientation
+		INDArray weights = importParameters(name, layer.getParam(DefaultParamInitializer.WEIGHT_KEY).transpose(),
+				outputCount, inputCount);
+		INDArray biasParameters = layer.getParam(DefaultParamInitializer.BIAS_KEY);
+		INDArray biases = biasParameters == null ? null
+				: importParameters(name, biasParameters.transpose(), outputCount, 1);
+		Neurons leftNeurons = new Neurons(inputCount, biases != null);
+		Neurons rightNeurons = new Neurons(outputCount, false);
+		components.add(directedComponentFactory.createSharedFullyConnectedAxonsComponent(name, leftNeurons,
+				rightNeurons, weights, biases));
+		return rightNeurons;
+	}
+
+	private Neurons importConvolutionalLayer(String name, Layer layer, ConvolutionLayer layerConfig,
+			Neurons3D inputNeurons, List<DefaultChainableDirectedComponent<?, ?>> components) {
+		if (inputNeurons.getDepth() != layerConfig.getNIn()) {
+			throw new IllegalArgumentException("Layer:" + name + " expects " + layerConfig.getNIn()
+					+ " input channels but has " + inputNeurons.getDepth());
+		}
+		Axons3DConfig config = createAxons3DConfig(name, layerConfig.getKernelSize(), layerConfig.getStride(),
+				layerConfig.getPadding(), layerConfig.getConvolutionMode(), inputNeurons);
+		INDArray biasParameters = layer.getParam(ConvolutionParamInitializer.BIAS_KEY);
+		Neurons3D leftNeurons = new Neurons3D(inputNeurons.getWidth(), inputNeurons.getHeight(),
+				inputNeurons.getDepth(), biasParameters != null);
+		Neurons3D rightNeurons = createOutputNeurons(name, leftNeurons, layerConfig.getNOut(),
+				layerConfig.getKernelSize(), config);
+		int filterVolume = leftNeurons.getDepth() * layerConfig.getKernelSize()[0] * layerConfig.getKernelSize()[1];
+
+		// DL4J filters are [nOut, nIn, kH, kW] in 'c' order, so can be viewed as the
+		// [nOut, nIn * kH * kW] matrix used by ML4J
+		INDArray weights = importParameters(name, layer.getParam(ConvolutionParamInitializer.WEIGHT_KEY),
+				rightNeurons.getDepth(), filterVolume);
+		INDArray biases = biasParameters == null ? null
+				: importParameters(name, biasParameters.transpose(), rightNeurons.getDepth(), 1);
+		components.add(directedComponentFactory.createSharedConvolutionalAxonsComponent(name, leftNeurons,
+				rightNeurons, config, weights, biases));
+		return rightNeurons;
+	}
+
+	private Neurons importSubsamplingLayer(String name, SubsamplingLayer layerConfig, Neurons3D inputNeurons,
+			List<DefaultChainableDirectedComponent<?, ?>> components) {
+		Axons3DConfig config = createAxons3DConfig(name, layerConfig.getKernelSize(), layerConfig.getStride(),
+				layerConfig.getPadding(), layerConfig.getConvolutionMode(), inputNeurons);
+		Neurons3D leftNeurons = new Neurons3D(inputNeurons.getWidth(), inputNeurons.getHeight(),
+				inputNeurons.getDepth(), false);
+		Neurons3D rightNeurons = createOutputNeurons(name, leftNeurons, leftNeurons.getDepth(),
+				layerConfig.getKernelSize(), config);
+		String poolingType = layerConfig.getPoolingType().name();
+		if ("MAX".equals(poolingType)) {
+			components.add(directedComponentFactory.createMaxPoolingAxonsComponent(name, leftNeurons, rightNeurons,
+					config, false));
+		} else if ("AVG".equals(poolingType)) {
+			components.add(directedComponentFactory.createAveragePoolingAxonsComponent(name, leftNeurons,
+					rightNeurons, config));
+		} else {
+			throw new IllegalArgumentException("Layer:" + name + " has unsupported pooling type:" + poolingType);
+		}
+		return rightNeurons;
+	}
+
+	private Neurons importBatchNormalizationLayer(String name, Layer layer, BatchNormalization layerConfig,
+			Neurons inputNeurons, List<DefaultChainableDirectedComponent<?, ?>> components) {
+		Neurons neurons = inputNeurons instanceof Neurons3D
+				? new Neurons3D(((Neurons3D) inputNeurons).getWidth(), ((Neurons3D) inputNeurons).getHeight(),
+						((Neurons3D) inputNeurons).getDepth(), false)
+				: new Neurons(inputNeurons.getNeuronCountExcludingBias(), false);
+		int channels = DL4JBatchNormAxonsImpl.getChannelCount(neurons);
+		if (channels != layerConfig.getNOut()) {
+			throw new IllegalArgumentException("Layer:" + name + " expects " + layerConfig.getNOut()
+					+ " channels but has " + channels);
+		}
+		// DL4J batch normalisation parameters are [1, nOut], so are viewed transposed.
+		// Where gamma and beta are locked they are not parameters of the layer
+		INDArray gamma = layerConfig.isLockGammaBeta() ? Nd4j.valueArrayOf(channels, 1, layerConfig.getGamma())
+				: importParameters(name, layer.getParam(BatchNormalizationParamInitializer.GAMMA).transpose(),
+						channels, 1);
+		INDArray beta = layerConfig.isLockGammaBeta() ? Nd4j.valueArrayOf(channels, 1, layerConfig.getBeta())
+				: importParameters(name, layer.getParam(BatchNormalizationParamInitializer.BETA).transpose(),
+						channels, 1);
+		INDArray mean = importParameters(name,
+				layer.getParam(BatchNormalizationParamInitializer.GLOBAL_MEAN).transpose(), channels, 1);
+		INDArray variance = importParameters(name,
+				layer.getParam(BatchNormalizationParamInitializer.GLOBAL_VAR).transpose(), channels, 1);
+		components.add(directedComponentFactory.createSharedBatchNormAxonsComponent(name, neurons, gamma, beta,
+				mean, variance, layerConfig.getDecay(), layerConfig.getEps()));
+		return neurons;
+	}
+
+	private INDArray importParameters(String name, INDArray parameters, int rows, int columns) {
+		INDArray view = parameterSharingEnabled ? DL4JParameterImport.asMatrixView(parameters, rows, columns)
+				: null;
+		if (view != null) {
+			return view;
+		}
+		if (parameterSharingEnabled) {
+			LOGGER.info("Parameters of layer:" + name + " cannot be shared, so are copied in blocks");
+		}
+		return DL4JParameterImport.copyInChunks(parameters, rows, columns, copyChunkElements);
+	}
+
+	private Axons3DConfig createAxons3DConfig(String name, int[] kernelSize, int[] stride, int[] padding,
+			ConvolutionMode convolutionMode, Neurons3D inputNeurons) {
+		int paddingHeight = padding[0];
+		int paddingWidth = padding[1];
+		if (convolutionMode == ConvolutionMode.Same) {
+			paddingHeight = getSamePadding(name, inputNeurons.getHeight(), kernelSize[0], stride[0]);
+			paddingWidth = getSamePadding(name, inputNeurons.getWidth(), kernelSize[1], stride[1]);
+		}
+		return new Axons3DConfig().withStrideHeight(stride[0]).withStrideWidth(stride[1])
+				.withPaddingHeight(paddingHeight).withPaddingWidth(paddingWidth);
+	}
+
+	private int getSamePadding(String name, int inputSize, int kernelSize, int stride) {
+		int outputSize = (inputSize + stride - 1) / stride;
+		int totalPadding = Math.max(0, (outputSize - 1) * stride + kernelSize - inputSize);
+		if (totalPadding % 2 != 0) {
+			throw new IllegalArgumentException(
+					"Layer:" + name + " uses asymmetric same-mode padding, which cannot be imported");
+		}
+		return totalPadding / 2;
+	}
+
+	private Neurons3D createOutputNeurons(String name, Neurons3D leftNeurons, int outputDepth, int[] kernelSize,
+			Axons3DConfig config) {
+		int outputHeight = (leftNeurons.getHeight() + 2 * config.getPaddingHeight() - kernelSize[0])
+				/ config.getStrideHeight() + 1;
+		int outputWidth = (leftNeurons.getWidth() + 2 * config.getPaddingWidth() - kernelSize[1])
+				/ config.getStrideWidth() + 1;
+		Neurons3D rightNeurons = new Neurons3D(outputWidth, outputHeight, outputDepth, false);
+		// The geometry derives the filter size from the neuron sizes, which only
+		// matches DL4J's kernel when no trailing input is truncated
+		DL4JConvolutionGeometry geometry = new DL4JConvolutionGeometry(leftNeurons, rightNeurons,
+				config.getStrideHeight(), config.getStrideWidth(), config.getPaddingHeight(),
+				config.getPaddingWidth());
+		if (geometry.getFilterHeight() != kernelSize[0] || geometry.getFilterWidth() != kernelSize[1]) {
+			throw new IllegalArgumentException("Layer:" + name
+					+ " truncates its input, as its strides do not divide the padded input size, so cannot be imported");
+		}
+		return rightNeurons;
+	}
+
+	private Neurons3D asNeurons3D(String name, Neurons neurons) {
+		if (!(neurons instanceof Neurons3D)) {
+			throw new IllegalArgumentException("Layer:" + name + " requires Neurons3D input neurons");
+		}
+		return (Neurons3D) neurons;
+	}
+}
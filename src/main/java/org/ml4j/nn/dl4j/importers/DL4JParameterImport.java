@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.importers;
+
+import java.util.Arrays;
+
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.shape.Shape;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Utilities for bringing parameter arrays of a trained DL4J model into the 2D
+ * layouts used by DL4J axons.
+ *
+ * Where the parameter array can be viewed in the required layout, the view is
+ * returned so that the memory of the model's flattened parameters is shared.
+ * Otherwise the parameters are copied into a new array a block of rows at a
+ * time, so that no more than one block of temporary memory is needed on top of
+ * the destination array, however large the parameters.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JParameterImport {
+
+	/**
+	 * The default maximum number of elements copied per block - 4MB of floats.
+	 */
+	public static final long DEFAULT_COPY_CHUNK_ELEMENTS = 1L << 20;
+
+	private DL4JParameterImport() {
+	}
+
+	/**
+	 * @param parameters The parameter array.
+	 * @param rows       The required number of rows.
+	 * @param columns    The required number of columns.
+	 * @return A [rows, columns] view of the parameter array which shares its
+	 *         memory, or null if the parameters cannot be viewed in that shape
+	 *         without a copy.
+	 */
+	public static INDArray asMatrixView(INDArray parameters, int rows, int columns) {
+		if (parameters.length() != (long) rows * columns) {
+			throw new IllegalArgumentException("Parameters of shape " + shapeString(parameters)
+					+ " cannot be viewed with shape [" + rows + "," + columns + "]");
+		}
+		if (parameters.rank() == 2 && parameters.rows() == rows && parameters.columns() == columns) {
+			return parameters;
+		}
+		return Shape.newShapeNoCopy(parameters, new int[] { rows, columns }, false);
+	}
+
+	/**
+	 * @param parameters    The parameter array, whose first dimension is mapped to
+	 *                      the rows of the copy.
+	 * @param rows          The required number of rows.
+	 * @param columns       The required number of columns.
+	 * @param chunkElements The maximum number of elements to copy per block.
+	 * @return A new [rows, columns] array containing a copy of the parameters.
+	 */
+	public static INDArray copyInChunks(INDArray parameters, int rows, int columns, long chunkElements) {
+		if (parameters.size(0) != rows || parameters.length() != (long) rows * columns) {
+			throw new IllegalArgumentException("Parameters of shape " + shapeString(parameters)
+					+ " cannot be copied with shape [" + rows + "," + columns + "]");
+		}
+		int chunkRows = (int) Math.max(1, Math.min(rows, chunkElements / Math.max(1, columns)));
+		INDArray copy;
+		// The copy outlives any workspace that is open when the model is imported
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			copy = Nd4j.createUninitialized(new int[] { rows, columns }, 'c');
+			INDArrayIndex[] sourceIndexes = new INDArrayIndex[parameters.rank()];
+			for (int i = 1; i < sourceIndexes.length; i++) {
+				sourceIndexes[i] = NDArrayIndex.all();
+			}
+			for (int start = 0; start < rows; start += chunkRows) {
+				int end = Math.min(rows, start + chunkRows);
+				sourceIndexes[0] = NDArrayIndex.interval(start, end);
+				INDArray chunk = parameters.get(sourceIndexes).reshape('c', end - start, columns);
+				copy.get(NDArrayIndex.interval(start, end), NDArrayIndex.all()).assign(chunk);
+			}
+		}
+		DL4JInstrumentation.recordCopy("copyInChunks", copy.length(), false);
+		return copy;
+	}
+
+	private static String shapeString(INDArray array) {
+		return Arrays.toString(array.shape());
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.components.onetone.DefaultDirectedComponentChain;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.Dimension;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.ml4j.nn.neurons.format.features.FlatFeaturesFormat;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Inference engine which coalesces concurrent single-example requests into
+ * mini-batches, so that the per-call overhead of forward propagating a hybrid
+ * component chain is paid once per mini-batch rather than once per example.
+ *
+ * A dispatcher thread waits for a request, then gathers further requests until
+ * either the maximum batch size is reached or the latency deadline of the
+ * first request passes, whichever is sooner. Requests arriving while a
+ * mini-batch is being propagated form the next mini-batch, so batches grow
+ * with load. Each mini-batch is assembled in the feature orientation the first
+ * component of the chain is optimised for, and the outputs are scattered back
+ * to the callers as detached row vectors.
+ *
+ * Requests can be made asynchronously through CompletableFutures, or by
+ * blocking - which is cheap from virtual threads.
+ *
+ * An exception thrown while propagating a mini-batch fails only the requests
+ * in that mini-batch, whereas an error also closes the engine.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JMicroBatchingInferenceEngine implements AutoCloseable {
+
+	private DefaultDirectedComponentChain componentChain;
+	private DirectedComponentsContext directedComponentsContext;
+	private MatrixFactory matrixFactory;
+	private Neurons inputNeurons;
+	private NeuronsActivationFeatureOrientation orientation;
+	private int maxBatchSize;
+	private long maxLatencyNanos;
+	private BlockingQueue<InferenceRequest> requests;
+	private Thread dispatcherThread;
+	private LongAdder batchCount;
+	private LongAdder requestCount;
+	private volatile boolean closed;
+
+	/**
+	 * @param componentChain            The component chain, which is only
+	 *                                  propagated from the dispatcher thread.
+	 * @param directedComponentsContext A non-training context for the chain.
+	 * @param maxBatchSize              The maximum number of examples per
+	 *                                  mini-batch.
+	 * @param maxLatency                The maximum time a request waits for
+	 *                                  further requests to join its mini-batch.
+	 * @param maxLatencyUnit            The unit of the maximum latency.
+	 */
+	public DL4JMicroBatchingInferenceEngine(DefaultDirectedComponentChain componentChain,
+			DirectedComponentsContext directedComponentsContext, int maxBatchSize, long maxLatency,
+			TimeUnit maxLatencyUnit) {
+		if (directedComponentsContext.isTrainingContext()) {
+			throw new IllegalArgumentException("Inference requires a non-training context");
+		}
+		if (maxBatchSize < 1 || maxLatency < 0) {
+			throw new IllegalArgumentException(
+					"Invalid max batch size:" + maxBatchSize + " or max latency:" + maxLatency);
+		}
+		this.componentChain = componentChain;
+		this.directedComponentsContext = directedComponentsContext;
+		this.matrixFactory = directedComponentsContext.getMatrixFactory();
+		this.inputNeurons = componentChain.getInputNeurons();
+		this.orientation = getOptimisedOrientation(componentChain);
+		this.maxBatchSize = maxBatchSize;
+		this.maxLatencyNanos = maxLatencyUnit.toNanos(maxLatency);
+		this.requests = new LinkedBlockingQueue<>();
+		this.batchCount = new LongAdder();
+		this.requestCount = new LongAdder();
+		this.dispatcherThread = new Thread(this::dispatch, "dl4j-micro-batching-dispatcher");
+		this.dispatcherThread.setDaemon(true);
+		this.dispatcherThread.start();
+	}
+
+	/**
+	 * @param features The features of a single example, of any shape with one
+	 *                 element per input neuron, which must not be modified until
+	 *                 the result is complete.
+	 * @return The output of the chain for the example, as a [1, outputNeurons]
+	 *         row vector.
+	 */
+	public CompletableFuture<INDArray> submit(INDArray features) {
+		if (features.length() != inputNeurons.getNeuronCountExcludingBias()) {
+			throw new IllegalArgumentException("Features of shape " + Arrays.toString(features.shape())
+					+ " do not match the " + inputNeurons.getNeuronCountExcludingBias() + " input neurons");
+		}
+		if (closed) {
+			throw new IllegalStateException("Inference engine is closed");
+		}
+		InferenceRequest request = new InferenceRequest(features, System.nanoTime());
+		requests.add(request);
+		// A request added while the engine was closing may have missed the final
+		// drain of the queue
+		if (closed && requests.remove(request)) {
+			request.future.completeExceptionally(new IllegalStateException("Inference engine is closed"));
+		}
+		return request.future;
+	}
+
+	/**
+	 * @param features The features of a single example.
+	 * @return The output of the chain for the example, blocking until the
+	 *         mini-batch containing it has been propagated.
+	 */
+	public INDArray infer(INDArray features) {
+		return submit(features).join();
+	}
+
+	/**
+	 * @return The number of mini-batches propagated.
+	 */
+	public long getBatchCount() {
+		return batchCount.sum();
+	}
+
+	/**
+	 * @return The number of requests propagated.
+	 */
+	public long getRequestCount() {
+		return requestCount.sum();
+	}
+
+	/**
+	 * @return The feature orientation in which mini-batches are assembled.
+	 */
+	public NeuronsActivationFeatureOrientation getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * Stops the dispatcher, failing any requests which have not yet been
+	 * propagated.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		dispatcherThread.interrupt();
+	}
+
+	private void dispatch() {
+		List<InferenceRequest> batch = new ArrayList<>(maxBatchSize);
+		try {
+			while (!closed) {
+				InferenceRequest first = requests.take();
+				batch.add(first);
+				long deadline = first.submittedNanos + maxLatencyNanos;
+				while (batch.size() < maxBatchSize) {
+					long remainingNanos = deadline - System.nanoTime();
+					// Once the deadline has passed, only requests which are already waiting
+					// join the batch
+					InferenceRequest request = remainingNanos > 0
+							? requests.poll(remainingNanos, TimeUnit.NANOSECONDS)
+							: requests.poll();
+					if (request == null) {
+						break;
+					}
+					batch.add(request);
+				}
+				propagate(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// Closed
+		} finally {
+			requests.drainTo(batch);
+			IllegalStateException closedException = new IllegalStateException("Inference engine is closed");
+			batch.forEach(request -> request.future.completeExceptionally(closedException));
+		}
+	}
+
+	private void propagate(List<InferenceRequest> batch) {
+		try {
+			INDArray outputs = forwardPropagate(batch);
+			batchCount.increment();
+			requestCount.add(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).future.complete(outputs.getRow(i).dup());
+			}
+		} catch (RuntimeException e) {
+			batch.forEach(request -> request.future.completeExceptionally(e));
+		} catch (Throwable e) {
+			// Errors leave the chain in an unknown state, so the engine is closed
+			// before the batch is failed, and later requests fail fast
+			closed = true;
+			batch.forEach(request -> request.future.completeExceptionally(e));
+		}
+	}
+
+	private INDArray forwardPropagate(List<InferenceRequest> batch) {
+		int featureCount = inputNeurons.getNeuronCountExcludingBias();
+		INDArray examples;
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			examples = Nd4j.createUninitialized(new int[] { batch.size(), featureCount }, 'c');
+			for (int i = 0; i < batch.size(); i++) {
+				examples.putRow(i, batch.get(i).features.reshape(1, featureCount));
+			}
+		}
+		// Each example is a row, so where the rows span the feature set the
+		// transposed view is used without copying
+		INDArray ndArray = orientation == NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET
+				? examples.transpose()
+				: examples;
+		NeuronsActivation input;
+		if (inputNeurons instanceof Neurons3D) {
+			input = DL4JUtil.fromNDArrayToImageActivation(matrixFactory, ndArray, orientation,
+					(Neurons3D) inputNeurons, DimensionScope.INPUT);
+		} else {
+			input = DL4JUtil.fromNDArray(matrixFactory, ndArray, orientation, new NeuronsActivationFormat<>(
+					orientation, new FlatFeaturesFormat(), Arrays.asList(Dimension.EXAMPLE)), inputNeurons);
+		}
+		NeuronsActivation output = componentChain.forwardPropagate(input, directedComponentsContext).getOutput();
+		return DL4JUtil.asNDArray(matrixFactory, output, NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET);
+	}
+
+	private static NeuronsActivationFeatureOrientation getOptimisedOrientation(
+			DefaultDirectedComponentChain componentChain) {
+		List<DefaultChainableDirectedComponent<?, ?>> components = componentChain.decompose();
+		return components.isEmpty() ? NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET
+				: components.get(0).optimisedFor().map(NeuronsActivationFormat::getFeatureOrientation)
+						.orElse(NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET);
+	}
+
+	/**
+	 * A pending single-example request.
+	 */
+	private static class InferenceRequest {
+
+		private INDArray features;
+		private long submittedNanos;
+		private CompletableFuture<INDArray> future;
+
+		private InferenceRequest(INDArray features, long submittedNanos) {
+			this.features = features;
+			this.submittedNanos = submittedNanos;
+			this.future = new CompletableFuture<>();
+		}
+	}
+}
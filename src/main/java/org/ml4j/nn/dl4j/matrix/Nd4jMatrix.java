@@ -0,0 +1,466 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.matrix;
+
+import org.ml4j.EditableMatrix;
+import org.ml4j.Matrix;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * ML4J Matrix implementation which wraps a 2D ND4J INDArray directly.
+ *
+ * No data is copied when an Nd4jMatrix is created from an INDArray, or when
+ * the underlying INDArray is retrieved with getNDArray(), so ML4J components
+ * and DL4J components can share the same buffers.
+ *
+ * Operations which ML4J defines as returning new matrices (eg. add, mul,
+ * transpose) delegate to the corresponding ND4J operations. Note that, as with
+ * ND4J, transpose() returns a view onto the same buffer rather than a copy.
+ *
+ * @author Michael Lavelle
+ */
+public class Nd4jMatrix implements Matrix, EditableMatrix {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private INDArray ndArray;
+	private boolean immutable;
+
+	public Nd4jMatrix(INDArray ndArray) {
+		if (ndArray.rank() != 2) {
+			throw new IllegalArgumentException("Only rank 2 INDArrays can be wrapped as a Matrix, but rank was:"
+					+ ndArray.rank());
+		}
+		this.ndArray = ndArray;
+	}
+
+	/**
+	 * @return The underlying INDArray - no copy is made.
+	 */
+	public INDArray getNDArray() {
+		return ndArray;
+	}
+
+	private static INDArray toNDArray(Matrix matrix) {
+		if (matrix instanceof Nd4jMatrix) {
+			return ((Nd4jMatrix) matrix).getNDArray();
+		} else {
+			return Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getRows(), matrix.getColumns() });
+		}
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new IllegalStateException("Matrix is immutable");
+		}
+	}
+
+	@Override
+	public int getRows() {
+		return ndArray.rows();
+	}
+
+	@Override
+	public int getColumns() {
+		return ndArray.columns();
+	}
+
+	@Override
+	public int getLength() {
+		return ndArray.length();
+	}
+
+	@Override
+	public float get(int row, int column) {
+		return ndArray.getFloat(row, column);
+	}
+
+	@Override
+	public float get(int index) {
+		return ndArray.getFloat(index / getColumns(), index % getColumns());
+	}
+
+	@Override
+	public float[] getRowByRowArray() {
+		INDArray rowMajor = ndArray.ordering() == 'c' && !ndArray.isView() ? ndArray : ndArray.dup('c');
+		return rowMajor.data().asFloat();
+	}
+
+	@Override
+	public float[] getColumnByColumnArray() {
+		INDArray columnMajor = ndArray.ordering() == 'f' && !ndArray.isView() ? ndArray : ndArray.dup('f');
+		return columnMajor.data().asFloat();
+	}
+
+	@Override
+	public Matrix getRow(int rowIndex) {
+		return new Nd4jMatrix(ndArray.getRow(rowIndex));
+	}
+
+	@Override
+	public Matrix getColumn(int columnIndex) {
+		return new Nd4jMatrix(ndArray.getColumn(columnIndex));
+	}
+
+	@Override
+	public Matrix getRows(int[] rowIndexes) {
+		return new Nd4jMatrix(ndArray.getRows(rowIndexes));
+	}
+
+	@Override
+	public Matrix getColumns(int[] columnIndexes) {
+		return new Nd4jMatrix(ndArray.getColumns(columnIndexes));
+	}
+
+	@Override
+	public Matrix dup() {
+		return new Nd4jMatrix(ndArray.dup());
+	}
+
+	@Override
+	public Matrix transpose() {
+		return new Nd4jMatrix(ndArray.transpose());
+	}
+
+	@Override
+	public Matrix reshape(int rows, int columns) {
+		return new Nd4jMatrix(ndArray.reshape(rows, columns));
+	}
+
+	@Override
+	public Matrix mmul(Matrix other) {
+		return new Nd4jMatrix(ndArray.mmul(toNDArray(other)));
+	}
+
+	@Override
+	public Matrix mul(Matrix other) {
+		return new Nd4jMatrix(ndArray.mul(toNDArray(other)));
+	}
+
+	@Override
+	public Matrix mul(float value) {
+		return new Nd4jMatrix(ndArray.mul(value));
+	}
+
+	@Override
+	public Matrix add(Matrix other) {
+		return new Nd4jMatrix(ndArray.add(toNDArray(other)));
+	}
+
+	@Override
+	public Matrix add(float value) {
+		return new Nd4jMatrix(ndArray.add(value));
+	}
+
+	@Override
+	public Matrix sub(Matrix other) {
+		return new Nd4jMatrix(ndArray.sub(toNDArray(other)));
+	}
+
+	@Override
+	public Matrix sub(float value) {
+		return new Nd4jMatrix(ndArray.sub(value));
+	}
+
+	@Override
+	public Matrix div(Matrix other) {
+		return new Nd4jMatrix(ndArray.div(toNDArray(other)));
+	}
+
+	@Override
+	public Matrix div(float value) {
+		return new Nd4jMatrix(ndArray.div(value));
+	}
+
+	@Override
+	public Matrix addRowVector(Matrix rowVector) {
+		return new Nd4jMatrix(ndArray.addRowVector(toNDArray(rowVector)));
+	}
+
+	@Override
+	public Matrix addColumnVector(Matrix columnVector) {
+		return new Nd4jMatrix(ndArray.addColumnVector(toNDArray(columnVector)));
+	}
+
+	@Override
+	public Matrix subRowVector(Matrix rowVector) {
+		return new Nd4jMatrix(ndArray.subRowVector(toNDArray(rowVector)));
+	}
+
+	@Override
+	public Matrix subColumnVector(Matrix columnVector) {
+		return new Nd4jMatrix(ndArray.subColumnVector(toNDArray(columnVector)));
+	}
+
+	@Override
+	public Matrix mulRowVector(Matrix rowVector) {
+		return new Nd4jMatrix(ndArray.mulRowVector(toNDArray(rowVector)));
+	}
+
+	@Override
+	public Matrix mulColumnVector(Matrix columnVector) {
+		return new Nd4jMatrix(ndArray.mulColumnVector(toNDArray(columnVector)));
+	}
+
+	@Override
+	public Matrix divRowVector(Matrix rowVector) {
+		return new Nd4jMatrix(ndArray.divRowVector(toNDArray(rowVector)));
+	}
+
+	@Override
+	public Matrix divColumnVector(Matrix columnVector) {
+		return new Nd4jMatrix(ndArray.divColumnVector(toNDArray(columnVector)));
+	}
+
+	@Override
+	public Matrix columnSums() {
+		return new Nd4jMatrix(ndArray.sum(0).reshape(1, getColumns()));
+	}
+
+	@Override
+	public Matrix rowSums() {
+		return new Nd4jMatrix(ndArray.sum(1).reshape(getRows(), 1));
+	}
+
+	@Override
+	public Matrix columnMaxs() {
+		return new Nd4jMatrix(ndArray.max(0).reshape(1, getColumns()));
+	}
+
+	@Override
+	public Matrix rowMaxs() {
+		return new Nd4jMatrix(ndArray.max(1).reshape(getRows(), 1));
+	}
+
+	@Override
+	public Matrix columnArgmaxs() {
+		return new Nd4jMatrix(Nd4j.argMax(ndArray, 0).reshape(1, getColumns()));
+	}
+
+	@Override
+	public Matrix rowArgmaxs() {
+		return new Nd4jMatrix(Nd4j.argMax(ndArray, 1).reshape(getRows(), 1));
+	}
+
+	@Override
+	public float sum() {
+		return ndArray.sumNumber().floatValue();
+	}
+
+	@Override
+	public Matrix sigmoid() {
+		return new Nd4jMatrix(Transforms.sigmoid(ndArray, true));
+	}
+
+	@Override
+	public Matrix log() {
+		return new Nd4jMatrix(Transforms.log(ndArray, true));
+	}
+
+	@Override
+	public Matrix exp() {
+		return new Nd4jMatrix(Transforms.exp(ndArray, true));
+	}
+
+	@Override
+	public EditableMatrix asEditableMatrix() {
+		checkMutable();
+		return this;
+	}
+
+	@Override
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	@Override
+	public void setImmutable(boolean immutable) {
+		this.immutable = immutable;
+	}
+
+	@Override
+	public void close() {
+		// INDArrays are released by ND4J's own memory management, or by workspace scope.
+		this.ndArray = null;
+	}
+
+	// EditableMatrix methods - these mutate the underlying INDArray in place.
+
+	@Override
+	public void put(int row, int column, float value) {
+		checkMutable();
+		ndArray.putScalar(row, column, value);
+	}
+
+	@Override
+	public void put(int index, float value) {
+		checkMutable();
+		ndArray.putScalar(index / getColumns(), index % getColumns(), value);
+	}
+
+	@Override
+	public void putRow(int rowIndex, Matrix row) {
+		checkMutable();
+		ndArray.putRow(rowIndex, toNDArray(row));
+	}
+
+	@Override
+	public void putColumn(int columnIndex, Matrix column) {
+		checkMutable();
+		ndArray.putColumn(columnIndex, toNDArray(column));
+	}
+
+	@Override
+	public EditableMatrix muli(Matrix other) {
+		checkMutable();
+		ndArray.muli(toNDArray(other));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix muli(float value) {
+		checkMutable();
+		ndArray.muli(value);
+		return this;
+	}
+
+	@Override
+	public EditableMatrix addi(Matrix other) {
+		checkMutable();
+		ndArray.addi(toNDArray(other));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix addi(float value) {
+		checkMutable();
+		ndArray.addi(value);
+		return this;
+	}
+
+	@Override
+	public EditableMatrix subi(Matrix other) {
+		checkMutable();
+		ndArray.subi(toNDArray(other));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix subi(float value) {
+		checkMutable();
+		ndArray.subi(value);
+		return this;
+	}
+
+	@Override
+	public EditableMatrix divi(Matrix other) {
+		checkMutable();
+		ndArray.divi(toNDArray(other));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix divi(float value) {
+		checkMutable();
+		ndArray.divi(value);
+		return this;
+	}
+
+	@Override
+	public EditableMatrix addiRowVector(Matrix rowVector) {
+		checkMutable();
+		ndArray.addiRowVector(toNDArray(rowVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix addiColumnVector(Matrix columnVector) {
+		checkMutable();
+		ndArray.addiColumnVector(toNDArray(columnVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix subiRowVector(Matrix rowVector) {
+		checkMutable();
+		ndArray.subiRowVector(toNDArray(rowVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix subiColumnVector(Matrix columnVector) {
+		checkMutable();
+		ndArray.subiColumnVector(toNDArray(columnVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix muliRowVector(Matrix rowVector) {
+		checkMutable();
+		ndArray.muliRowVector(toNDArray(rowVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix muliColumnVector(Matrix columnVector) {
+		checkMutable();
+		ndArray.muliColumnVector(toNDArray(columnVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix diviRowVector(Matrix rowVector) {
+		checkMutable();
+		ndArray.diviRowVector(toNDArray(rowVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix diviColumnVector(Matrix columnVector) {
+		checkMutable();
+		ndArray.diviColumnVector(toNDArray(columnVector));
+		return this;
+	}
+
+	@Override
+	public EditableMatrix expi() {
+		checkMutable();
+		Transforms.exp(ndArray, false);
+		return this;
+	}
+
+	@Override
+	public EditableMatrix logi() {
+		checkMutable();
+		Transforms.log(ndArray, false);
+		return this;
+	}
+
+	@Override
+	public EditableMatrix sigmoidi() {
+		checkMutable();
+		Transforms.sigmoid(ndArray, false);
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return ndArray == null ? "Closed Nd4jMatrix" : ndArray.toString();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.matrix;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * MatrixFactory which creates Nd4jMatrix instances, so that matrices created
+ * by ML4J components live in ND4J memory and can be passed to DL4J components
+ * without copying.
+ *
+ * @author Michael Lavelle
+ */
+public class Nd4jMatrixFactory implements MatrixFactory {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Wrap an existing INDArray as a Matrix - no data is copied.
+	 *
+	 * @param ndArray The rank 2 INDArray to wrap.
+	 * @return An Nd4jMatrix backed by the provided INDArray.
+	 */
+	public Matrix createMatrix(INDArray ndArray) {
+		return new Nd4jMatrix(ndArray);
+	}
+
+	@Override
+	public Matrix createMatrix() {
+		return new Nd4jMatrix(Nd4j.create(0, 0));
+	}
+
+	@Override
+	public Matrix createMatrix(int rows, int columns) {
+		return new Nd4jMatrix(Nd4j.create(rows, columns));
+	}
+
+	@Override
+	public Matrix createMatrixFromRows(float[][] data) {
+		return new Nd4jMatrix(Nd4j.create(data));
+	}
+
+	@Override
+	public Matrix createMatrixFromRowsByRowsArray(int rows, int columns, float[] rowByRowArray) {
+		return new Nd4jMatrix(Nd4j.create(rowByRowArray, new int[] { rows, columns }, 'c'));
+	}
+
+	@Override
+	public Matrix createOnes(int rows, int columns) {
+		return new Nd4jMatrix(Nd4j.ones(rows, columns));
+	}
+
+	@Override
+	public Matrix createOnes(int length) {
+		return new Nd4jMatrix(Nd4j.ones(1, length));
+	}
+
+	@Override
+	public Matrix createZeros(int rows, int columns) {
+		return new Nd4jMatrix(Nd4j.zeros(rows, columns));
+	}
+
+	@Override
+	public Matrix createRand(int rows, int columns) {
+		return new Nd4jMatrix(Nd4j.rand(rows, columns));
+	}
+
+	@Override
+	public Matrix createRandn(int rows, int columns) {
+		return new Nd4jMatrix(Nd4j.randn(rows, columns));
+	}
+
+	@Override
+	public Matrix createHorizontalConcatenation(Matrix first, Matrix second) {
+		return new Nd4jMatrix(Nd4j.hstack(asNDArray(first), asNDArray(second)));
+	}
+
+	@Override
+	public Matrix createVerticalConcatenation(Matrix first, Matrix second) {
+		return new Nd4jMatrix(Nd4j.vstack(asNDArray(first), asNDArray(second)));
+	}
+
+	private INDArray asNDArray(Matrix matrix) {
+		if (matrix instanceof Nd4jMatrix) {
+			return ((Nd4jMatrix) matrix).getNDArray();
+		} else {
+			return Nd4j.create(matrix.getRowByRowArray(), new int[] { matrix.getRows(), matrix.getColumns() }, 'c');
+		}
+	}
+}
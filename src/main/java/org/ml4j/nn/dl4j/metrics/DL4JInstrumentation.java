@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.metrics;
+
+/**
+ * Static access point through which the DL4J bridge records metrics.
+ *
+ * Instrumentation is disabled until a DL4JMetrics implementation is installed.
+ * While disabled, each instrumentation point costs a single read of a volatile
+ * field - no clocks are read, and nothing is allocated or recorded.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JInstrumentation {
+
+	private static volatile DL4JMetrics metrics;
+
+	private DL4JInstrumentation() {
+	}
+
+	/**
+	 * @param metrics The metrics implementation to install, or null to disable
+	 *                instrumentation.
+	 */
+	public static void setMetrics(DL4JMetrics metrics) {
+		DL4JInstrumentation.metrics = metrics;
+	}
+
+	/**
+	 * @return The installed metrics implementation, or null if instrumentation
+	 *         is disabled.
+	 */
+	public static DL4JMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return Whether instrumentation is enabled.
+	 */
+	public static boolean isEnabled() {
+		return metrics != null;
+	}
+
+	/**
+	 * @return The start time of a timed operation, or 0 if instrumentation is
+	 *         disabled.
+	 */
+	public static long startTimer() {
+		return metrics == null ? 0L : System.nanoTime();
+	}
+
+	/**
+	 * @param componentName The name of the component.
+	 * @param startNanos    The value returned by startTimer when the forward
+	 *                      propagation started.
+	 */
+	public static void recordForwardPropagation(String componentName, long startNanos) {
+		DL4JMetrics current = metrics;
+		if (current != null && startNanos != 0L) {
+			current.recordForwardPropagation(componentName, System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * @param componentName The name of the component.
+	 * @param startNanos    The value returned by startTimer when the back
+	 *                      propagation started.
+	 */
+	public static void recordBackPropagation(String componentName, long startNanos) {
+		DL4JMetrics current = metrics;
+		if (current != null && startNanos != 0L) {
+			current.recordBackPropagation(componentName, System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * @param operation  The DL4JUtil operation which copied the data.
+	 * @param elements   The number of float elements copied.
+	 * @param transposed Whether the copy rearranged the data into the
+	 *                   transposed layout.
+	 */
+	public static void recordCopy(String operation, long elements, boolean transposed) {
+		DL4JMetrics current = metrics;
+		if (current != null) {
+			current.recordCopy(operation, elements * Float.BYTES, transposed);
+		}
+	}
+
+	/**
+	 * @param componentName The name of the component.
+	 */
+	public static void recordUnoptimisedInputFormat(String componentName) {
+		DL4JMetrics current = metrics;
+		if (current != null) {
+			current.recordUnoptimisedInputFormat(componentName);
+		}
+	}
+
+	/**
+	 * Records that an array has been retained for back propagation.
+	 *
+	 * @param retained The retained array or state, or null if nothing is
+	 *                 retained, in which case nothing is recorded.
+	 */
+	public static void recordRetained(Object retained) {
+		DL4JMetrics current = metrics;
+		if (current != null && retained != null) {
+			current.recordRetainedArrays(1);
+		}
+	}
+
+	/**
+	 * Records that an array retained for back propagation has been released.
+	 *
+	 * @param retained The released array or state, or null if it was already
+	 *                 released, in which case nothing is recorded.
+	 */
+	public static void recordReleased(Object retained) {
+		DL4JMetrics current = metrics;
+		if (current != null && retained != null) {
+			current.recordRetainedArrays(-1);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with power-of-two nanosecond buckets.
+ *
+ * Recording is a single atomic increment, and percentiles are reported as the
+ * upper bound of the bucket in which they fall, so are accurate to within a
+ * factor of two - sufficient to distinguish conversion from compute time.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JLatencyHistogram {
+
+	private static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+	 * @param nanos The latency to record.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(1L, nanos);
+		buckets.incrementAndGet(BUCKET_COUNT - 1 - Long.numberOfLeadingZeros(value));
+		count.increment();
+		totalNanos.add(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The upper bound of the bucket in which the percentile falls, or 0
+	 *         if nothing has been recorded.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += buckets.get(i);
+		}
+		long rank = (long) Math.ceil(total * percentile / 100d);
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulative += buckets.get(i);
+			if (cumulative >= rank && cumulative > 0) {
+				return i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+			}
+		}
+		return 0L;
+	}
+}
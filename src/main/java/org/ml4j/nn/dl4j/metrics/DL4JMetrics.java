@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.metrics;
+
+/**
+ * Pluggable receiver of the metrics recorded on the hot paths of DL4J-backed
+ * components and of DL4JUtil.
+ *
+ * Implementations are called concurrently from any thread that propagates
+ * through a component, so must be thread-safe, and should be cheap - the
+ * metrics are recorded inline.
+ *
+ * @author Michael Lavelle
+ */
+public interface DL4JMetrics {
+
+	/**
+	 * @param componentName The name of the component.
+	 * @param nanos         The duration of the forward propagation.
+	 */
+	void recordForwardPropagation(String componentName, long nanos);
+
+	/**
+	 * @param componentName The name of the component.
+	 * @param nanos         The duration of the back propagation.
+	 */
+	void recordBackPropagation(String componentName, long nanos);
+
+	/**
+	 * @param operation  The DL4JUtil operation which copied the data.
+	 * @param bytes      The number of bytes copied.
+	 * @param transposed Whether the copy rearranged the data into the
+	 *                   transposed layout.
+	 */
+	void recordCopy(String operation, long bytes, boolean transposed);
+
+	/**
+	 * @param componentName The name of the component which was forward
+	 *                      propagated with an input format other than the one
+	 *                      it is optimised for.
+	 */
+	void recordUnoptimisedInputFormat(String componentName);
+
+	/**
+	 * @param delta The change in the number of arrays retained by component
+	 *              activations for back propagation.
+	 */
+	void recordRetainedArrays(int delta);
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The default DL4JMetrics implementation, which aggregates metrics in memory
+ * and exposes them through JMX.
+ *
+ * Usage:
+ *
+ * <pre>
+ * DL4JMetricsRegistry registry = new DL4JMetricsRegistry();
+ * registry.registerMBean("training");
+ * DL4JInstrumentation.setMetrics(registry);
+ * </pre>
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JMetricsRegistry implements DL4JMetrics, DL4JMetricsRegistryMXBean {
+
+	private final ConcurrentMap<String, DL4JLatencyHistogram> forwardPropagationLatencies = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, DL4JLatencyHistogram> backPropagationLatencies = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> bytesCopied = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> transposes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> unoptimisedInputFormatCounts = new ConcurrentHashMap<>();
+	private final LongAdder liveRetainedArrays = new LongAdder();
+
+	/**
+	 * Registers this registry with the platform MBean server.
+	 *
+	 * @param name The name of the registry, unique within the JVM.
+	 * @return The object name under which the registry was registered.
+	 */
+	public ObjectName registerMBean(String name) {
+		try {
+			ObjectName objectName = new ObjectName("org.ml4j.nn.dl4j:type=DL4JMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to register DL4J metrics MBean:" + name, e);
+		}
+	}
+
+	@Override
+	public void recordForwardPropagation(String componentName, long nanos) {
+		forwardPropagationLatencies.computeIfAbsent(componentName, n -> new DL4JLatencyHistogram()).record(nanos);
+	}
+
+	@Override
+	public void recordBackPropagation(String componentName, long nanos) {
+		backPropagationLatencies.computeIfAbsent(componentName, n -> new DL4JLatencyHistogram()).record(nanos);
+	}
+
+	@Override
+	public void recordCopy(String operation, long bytes, boolean transposed) {
+		bytesCopied.computeIfAbsent(operation, o -> new LongAdder()).add(bytes);
+		if (transposed) {
+			transposes.computeIfAbsent(operation, o -> new LongAdder()).increment();
+		}
+	}
+
+	@Override
+	public void recordUnoptimisedInputFormat(String componentName) {
+		unoptimisedInputFormatCounts.computeIfAbsent(componentName, n -> new LongAdder()).increment();
+	}
+
+	@Override
+	public void recordRetainedArrays(int delta) {
+		liveRetainedArrays.add(delta);
+	}
+
+	/**
+	 * @param componentName The name of the component.
+	 * @return The forward propagation latency histogram of the component, or
+	 *         null if it has not been forward propagated.
+	 */
+	public DL4JLatencyHistogram getForwardPropagationLatencies(String componentName) {
+		return forwardPropagationLatencies.get(componentName);
+	}
+
+	/**
+	 * @param componentName The name of the component.
+	 * @return The back propagation latency histogram of the component, or null
+	 *         if it has not been back propagated.
+	 */
+	public DL4JLatencyHistogram getBackPropagationLatencies(String componentName) {
+		return backPropagationLatencies.get(componentName);
+	}
+
+	private static <T> Map<String, Long> snapshot(Map<String, T> values, ToLongFunction<T> function) {
+		Map<String, Long> snapshot = new TreeMap<>();
+		values.forEach((key, value) -> snapshot.put(key, function.applyAsLong(value)));
+		return snapshot;
+	}
+
+	@Override
+	public Map<String, Long> getForwardPropagationCounts() {
+		return snapshot(forwardPropagationLatencies, DL4JLatencyHistogram::getCount);
+	}
+
+	@Override
+	public Map<String, Long> getForwardPropagationMedianNanos() {
+		return snapshot(forwardPropagationLatencies, h -> h.getPercentileNanos(50));
+	}
+
+	@Override
+	public Map<String, Long> getForwardPropagation99thPercentileNanos() {
+		return snapshot(forwardPropagationLatencies, h -> h.getPercentileNanos(99));
+	}
+
+	@Override
+	public Map<String, Long> getBackPropagationCounts() {
+		return snapshot(backPropagationLatencies, DL4JLatencyHistogram::getCount);
+	}
+
+	@Override
+	public Map<String, Long> getBackPropagationMedianNanos() {
+		return snapshot(backPropagationLatencies, h -> h.getPercentileNanos(50));
+	}
+
+	@Override
+	public Map<String, Long> getBackPropagation99thPercentileNanos() {
+		return snapshot(backPropagationLatencies, h -> h.getPercentileNanos(99));
+	}
+
+	@Override
+	public Map<String, Long> getBytesCopied() {
+		return snapshot(bytesCopied, LongAdder::sum);
+	}
+
+	@Override
+	public Map<String, Long> getTransposes() {
+		return snapshot(transposes, LongAdder::sum);
+	}
+
+	@Override
+	public Map<String, Long> getUnoptimisedInputFormatCounts() {
+		return snapshot(unoptimisedInputFormatCounts, LongAdder::sum);
+	}
+
+	@Override
+	public long getLiveRetainedArrays() {
+		return liveRetainedArrays.sum();
+	}
+
+	@Override
+	public void reset() {
+		forwardPropagationLatencies.clear();
+		backPropagationLatencies.clear();
+		bytesCopied.clear();
+		transposes.clear();
+		unoptimisedInputFormatCounts.clear();
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a DL4JMetricsRegistry.
+ *
+ * @author Michael Lavelle
+ */
+public interface DL4JMetricsRegistryMXBean {
+
+	/**
+	 * @return The number of forward propagations, by component name.
+	 */
+	Map<String, Long> getForwardPropagationCounts();
+
+	/**
+	 * @return The median forward propagation latency in nanoseconds, by
+	 *         component name.
+	 */
+	Map<String, Long> getForwardPropagationMedianNanos();
+
+	/**
+	 * @return The 99th percentile forward propagation latency in nanoseconds,
+	 *         by component name.
+	 */
+	Map<String, Long> getForwardPropagation99thPercentileNanos();
+
+	/**
+	 * @return The number of back propagations, by component name.
+	 */
+	Map<String, Long> getBackPropagationCounts();
+
+	/**
+	 * @return The median back propagation latency in nanoseconds, by component
+	 *         name.
+	 */
+	Map<String, Long> getBackPropagationMedianNanos();
+
+	/**
+	 * @return The 99th percentile back propagation latency in nanoseconds, by
+	 *         component name.
+	 */
+	Map<String, Long> getBackPropagation99thPercentileNanos();
+
+	/**
+	 * @return The number of bytes copied, by DL4JUtil operation.
+	 */
+	Map<String, Long> getBytesCopied();
+
+	/**
+	 * @return The number of transposing copies, by DL4JUtil operation.
+	 */
+	Map<String, Long> getTransposes();
+
+	/**
+	 * @return The number of forward propagations with an input format other
+	 *         than the optimised format, by component name.
+	 */
+	Map<String, Long> getUnoptimisedInputFormatCounts();
+
+	/**
+	 * @return The number of arrays currently retained by component activations
+	 *         for back propagation.
+	 */
+	long getLiveRetainedArrays();
+
+	/**
+	 * Resets all metrics other than the number of live retained arrays, which
+	 * reflects the current state rather than an accumulation.
+	 */
+	void reset();
+}
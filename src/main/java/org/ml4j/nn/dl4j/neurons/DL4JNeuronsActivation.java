@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.neurons;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrix;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * A NeuronsActivation which carries its activations natively as an ND4J
+ * INDArray, so that it can be passed between adjacent DL4J-backed components
+ * without leaving ND4J memory.
+ *
+ * DL4JUtil unwraps the INDArray directly, without copying. An ML4J Matrix is
+ * only created when a consumer asks for the activations from a MatrixFactory
+ * which is not an Nd4jMatrixFactory, and is then cached for that factory. The
+ * INDArray remains the primary representation - the cached Matrix is a copy
+ * for consumers which read the activations through ML4J. Materialisation is
+ * synchronized, so an activation shared by concurrently propagated components
+ * is materialised at most once per factory.
+ *
+ * Components which modify the INDArray in place, such as in-place inference,
+ * discard the cached Matrix through invalidateMaterialisedActivations, so that
+ * consumers which read the activations through ML4J afterwards see the
+ * modified values rather than a stale copy.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JNeuronsActivation extends NeuronsActivationImpl {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private INDArray ndArray;
+	private NeuronsActivationFeatureOrientation ndArrayOrientation;
+	private DL4JBatchShardingConfig batchShardingConfig;
+	private MatrixFactory materialisedMatrixFactory;
+	private Matrix materialisedActivations;
+
+	/**
+	 * @param neurons            The neurons.
+	 * @param ndArray            The activations.
+	 * @param ndArrayOrientation The feature orientation of the INDArray.
+	 * @param format             The format of this activation - if the feature
+	 *                           orientation of the format differs from that of the
+	 *                           INDArray, the INDArray is presented as a
+	 *                           transposed view.
+	 */
+	public DL4JNeuronsActivation(Neurons neurons, INDArray ndArray,
+			NeuronsActivationFeatureOrientation ndArrayOrientation, NeuronsActivationFormat<?> format) {
+		this(neurons, ndArray, ndArrayOrientation, format, null);
+	}
+
+	/**
+	 * @param neurons             The neurons.
+	 * @param ndArray             The activations.
+	 * @param ndArrayOrientation  The feature orientation of the INDArray.
+	 * @param format              The format of this activation.
+	 * @param batchShardingConfig The batch sharding configuration used to
+	 *                            parallelise materialisation as an ML4J Matrix,
+	 *                            or null to materialise on the calling thread.
+	 */
+	public DL4JNeuronsActivation(Neurons neurons, INDArray ndArray,
+			NeuronsActivationFeatureOrientation ndArrayOrientation, NeuronsActivationFormat<?> format,
+			DL4JBatchShardingConfig batchShardingConfig) {
+		super(neurons, new Nd4jMatrix(ndArrayOrientation == format.getFeatureOrientation() ? ndArray
+				: ndArray.transpose()), format);
+		this.ndArray = ndArray;
+		this.ndArrayOrientation = ndArrayOrientation;
+		this.batchShardingConfig = batchShardingConfig;
+	}
+
+	/**
+	 * @param targetOrientation The required feature orientation.
+	 * @return The activations as an INDArray in the required orientation - no
+	 *         copy is made.
+	 */
+	public INDArray getNDArray(NeuronsActivationFeatureOrientation targetOrientation) {
+		if (ndArray == null) {
+			throw new IllegalStateException("Neurons activation has been closed");
+		}
+		return targetOrientation == ndArrayOrientation ? ndArray : ndArray.transpose();
+	}
+
+	/**
+	 * @return Whether an ML4J Matrix copy of the activations has been created.
+	 */
+	public synchronized boolean isMaterialised() {
+		return materialisedActivations != null;
+	}
+
+	@Override
+	public Matrix getActivations(MatrixFactory matrixFactory) {
+		if (DL4JUtil.isNDArrayBacked(matrixFactory)) {
+			return super.getActivations(matrixFactory);
+		}
+		return getMaterialisedActivations(matrixFactory);
+	}
+
+	private synchronized Matrix getMaterialisedActivations(MatrixFactory matrixFactory) {
+		if (materialisedActivations == null || materialisedMatrixFactory != matrixFactory) {
+			materialisedActivations = DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory,
+					getNDArray(ndArrayOrientation), ndArrayOrientation, getFeatureOrientation(), batchShardingConfig);
+			materialisedMatrixFactory = matrixFactory;
+		}
+		return materialisedActivations;
+	}
+
+	/**
+	 * Discards any ML4J Matrix copy of the activations, so that it is recreated
+	 * from the INDArray when next requested - to be called whenever the INDArray
+	 * is modified in place.
+	 */
+	public synchronized void invalidateMaterialisedActivations() {
+		if (materialisedActivations != null) {
+			materialisedActivations.close();
+			materialisedActivations = null;
+			materialisedMatrixFactory = null;
+		}
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		invalidateMaterialisedActivations();
+		ndArray = null;
+	}
+}
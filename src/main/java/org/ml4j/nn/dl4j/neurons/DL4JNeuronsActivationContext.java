@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.neurons;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.dl4j.DL4JDirectedComponentsContext;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+
+/**
+ * A NeuronsActivationContext which additionally carries the configuration of
+ * the parallel mode of DL4J activation function components.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JNeuronsActivationContext extends NeuronsActivationContextImpl {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private DL4JBatchShardingConfig batchShardingConfig;
+
+	/**
+	 * @param matrixFactory       The matrix factory.
+	 * @param isTrainingContext   Whether this is a training context.
+	 * @param batchShardingConfig The batch sharding configuration, or null to
+	 *                            process each batch as a single array.
+	 */
+	public DL4JNeuronsActivationContext(MatrixFactory matrixFactory, boolean isTrainingContext,
+			DL4JBatchShardingConfig batchShardingConfig) {
+		super(matrixFactory, isTrainingContext);
+		this.batchShardingConfig = batchShardingConfig;
+	}
+
+	/**
+	 * @return The batch sharding configuration, or null if batches are processed
+	 *         as a single array.
+	 */
+	public DL4JBatchShardingConfig getBatchShardingConfig() {
+		return batchShardingConfig;
+	}
+
+	/**
+	 * @param directedComponentsContext The directed components context.
+	 * @return A neurons activation context for the directed components context,
+	 *         carrying its batch sharding configuration if it has one.
+	 */
+	public static NeuronsActivationContext fromDirectedComponentsContext(
+			DirectedComponentsContext directedComponentsContext) {
+		DL4JBatchShardingConfig batchShardingConfig = directedComponentsContext instanceof DL4JDirectedComponentsContext
+				? ((DL4JDirectedComponentsContext) directedComponentsContext).getBatchShardingConfig()
+				: null;
+		return new DL4JNeuronsActivationContext(directedComponentsContext.getMatrixFactory(),
+				directedComponentsContext.isTrainingContext(), batchShardingConfig);
+	}
+
+	/**
+	 * @param context The neurons activation context.
+	 * @return The batch sharding configuration carried by the context, or null if
+	 *         the context carries none.
+	 */
+	public static DL4JBatchShardingConfig getBatchShardingConfig(NeuronsActivationContext context) {
+		return context instanceof DL4JNeuronsActivationContext
+				? ((DL4JNeuronsActivationContext) context).getBatchShardingConfig()
+				: null;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * A GRU cell unrolled over a mini-batch of sequences.
+ *
+ * For each timestep the pre-activations of the reset and update gates are
+ * computed by a single matrix multiplication of their fused weights with the
+ * input and previous hidden state, and the candidate by a second with the
+ * input and the reset previous hidden state, and then:
+ *
+ * hidden = update * previousHidden + (1 - update) * candidate
+ *
+ * @author Michael Lavelle
+ */
+class DL4JGRUSequence extends DL4JRecurrentSequence {
+
+	/**
+	 * [timeSteps * (inputSize + hiddenSize), examples] - the input and reset
+	 * previous hidden state of each timestep, which is the operand of the
+	 * candidate weights.
+	 */
+	private INDArray inputsAndResetHidden;
+
+	DL4JGRUSequence(DL4JRecurrentAxonsImpl axons, int examples) {
+		super(axons, examples);
+		this.inputsAndResetHidden = Nd4j.create(new int[] { timeSteps * (inputSize + hiddenSize), examples },
+				'c');
+	}
+
+	@Override
+	protected void initialise(DL4JRecurrentState initialState) {
+		// The only state is the hidden state, which is written to the inputs and
+		// hidden of the first timestep
+	}
+
+	@Override
+	protected void forwardPropagateStep(int t, INDArray stepInputsAndHidden, INDArray stepHidden) {
+		INDArray weights = axons.getConnectionWeightsNDArray();
+		INDArray biases = axons.getLeftToRightBiasesNDArray();
+		INDArray stepGates = getStepGates(t);
+
+		INDArray resetAndUpdate = rows(weights, 0, 2 * hiddenSize).mmul(stepInputsAndHidden);
+		if (biases != null) {
+			resetAndUpdate.addiColumnVector(rows(biases, 0, 2 * hiddenSize));
+		}
+		rows(stepGates, 0, 2 * hiddenSize).assign(Transforms.sigmoid(resetAndUpdate, false));
+		INDArray reset = rows(stepGates, 0, hiddenSize);
+		INDArray update = rows(stepGates, hiddenSize, hiddenSize);
+
+		INDArray previousHidden = rows(stepInputsAndHidden, inputSize, hiddenSize);
+		INDArray stepInputsAndResetHidden = getStepInputsAndResetHidden(t);
+		rows(stepInputsAndResetHidden, 0, inputSize).assign(rows(stepInputsAndHidden, 0, inputSize));
+		rows(stepInputsAndResetHidden, inputSize, hiddenSize).assign(previousHidden.mul(reset));
+
+		INDArray candidate = rows(weights, 2 * hiddenSize, hiddenSize).mmul(stepInputsAndResetHidden);
+		if (biases != null) {
+			candidate.addiColumnVector(rows(biases, 2 * hiddenSize, hiddenSize));
+		}
+		rows(stepGates, 2 * hiddenSize, hiddenSize).assign(Transforms.tanh(candidate, false));
+
+		stepHidden.assign(previousHidden.sub(candidate).muli(update).addi(candidate));
+	}
+
+	@Override
+	protected INDArray backPropagateStep(int t, INDArray stepHiddenGradient, INDArray weightsGradient,
+			INDArray biasGradient) {
+		INDArray weights = axons.getConnectionWeightsNDArray();
+		INDArray stepGates = getStepGates(t);
+		INDArray reset = rows(stepGates, 0, hiddenSize);
+		INDArray update = rows(stepGates, hiddenSize, hiddenSize);
+		INDArray candidate = rows(stepGates, 2 * hiddenSize, hiddenSize);
+		INDArray stepInputsAndHidden = getStepInputsAndHidden(t);
+		INDArray previousHidden = rows(stepInputsAndHidden, inputSize, hiddenSize);
+
+		INDArray candidateGradient = stepHiddenGradient.mul(update.rsub(1)).muli(tanhDerivative(candidate));
+		INDArray inputsAndResetHiddenGradient = backPropagateGates(candidateGradient,
+				getStepInputsAndResetHidden(t), rows(weights, 2 * hiddenSize, hiddenSize),
+				weightsGradient == null ? null : rows(weightsGradient, 2 * hiddenSize, hiddenSize),
+				biasGradient == null ? null : rows(biasGradient, 2 * hiddenSize, hiddenSize));
+		INDArray resetHiddenGradient = rows(inputsAndResetHiddenGradient, inputSize, hiddenSize);
+
+		INDArray resetAndUpdateGradient = Nd4j.create(new int[] { 2 * hiddenSize, examples }, 'c');
+		rows(resetAndUpdateGradient, 0, hiddenSize)
+				.assign(resetHiddenGradient.mul(previousHidden).muli(sigmoidDerivative(reset)));
+		rows(resetAndUpdateGradient, hiddenSize, hiddenSize).assign(
+				stepHiddenGradient.mul(previousHidden.sub(candidate)).muli(sigmoidDerivative(update)));
+		INDArray inputsAndHiddenGradient = backPropagateGates(resetAndUpdateGradient, stepInputsAndHidden,
+				rows(weights, 0, 2 * hiddenSize),
+				weightsGradient == null ? null : rows(weightsGradient, 0, 2 * hiddenSize),
+				biasGradient == null ? null : rows(biasGradient, 0, 2 * hiddenSize));
+
+		rows(inputsAndHiddenGradient, 0, inputSize).addi(rows(inputsAndResetHiddenGradient, 0, inputSize));
+		rows(inputsAndHiddenGradient, inputSize, hiddenSize).addi(resetHiddenGradient.mul(reset))
+				.addi(stepHiddenGradient.mul(update));
+		return inputsAndHiddenGradient;
+	}
+
+	private INDArray getStepInputsAndResetHidden(int t) {
+		return rows(inputsAndResetHidden, t * (inputSize + hiddenSize), inputSize + hiddenSize);
+	}
+
+	@Override
+	protected void truncate() {
+		// All gradient carried to the previous timestep is through the hidden
+		// state
+	}
+
+	@Override
+	protected DL4JRecurrentState getFinalState() {
+		return new DL4JRecurrentState(rows(hidden, (timeSteps - 1) * hiddenSize, hiddenSize), null);
+	}
+}
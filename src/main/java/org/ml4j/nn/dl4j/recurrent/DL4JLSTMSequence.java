@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * An LSTM cell unrolled over a mini-batch of sequences.
+ *
+ * For each timestep the pre-activations of all four gates are computed by a
+ * single matrix multiplication of the fused weights with the input and
+ * previous hidden state, and then:
+ *
+ * c = forget * previousCell + input * candidate, hidden = output * tanh(c)
+ *
+ * @author Michael Lavelle
+ */
+class DL4JLSTMSequence extends DL4JRecurrentSequence {
+
+	/**
+	 * [(timeSteps + 1) * hiddenSize, examples] - the cell state before the first
+	 * timestep followed by the cell state of each timestep.
+	 */
+	private INDArray cells;
+
+	/**
+	 * The gradient with respect to the cell state of the timestep being back
+	 * propagated, carried from the following timestep.
+	 */
+	private INDArray cellGradient;
+
+	DL4JLSTMSequence(DL4JRecurrentAxonsImpl axons, int examples) {
+		super(axons, examples);
+		this.cells = Nd4j.zeros(new int[] { (timeSteps + 1) * hiddenSize, examples }, 'c');
+	}
+
+	@Override
+	protected void initialise(DL4JRecurrentState initialState) {
+		if (initialState != null && initialState.getCell() != null) {
+			rows(cells, 0, hiddenSize).assign(initialState.getCell());
+		}
+	}
+
+	@Override
+	protected void forwardPropagateStep(int t, INDArray stepInputsAndHidden, INDArray stepHidden) {
+		INDArray preActivations = axons.getConnectionWeightsNDArray().mmul(stepInputsAndHidden);
+		if (axons.getLeftToRightBiasesNDArray() != null) {
+			preActivations.addiColumnVector(axons.getLeftToRightBiasesNDArray());
+		}
+		Transforms.sigmoid(rows(preActivations, 0, 3 * hiddenSize), false);
+		Transforms.tanh(rows(preActivations, 3 * hiddenSize, hiddenSize), false);
+		INDArray stepGates = getStepGates(t).assign(preActivations);
+
+		INDArray cell = rows(cells, (t + 1) * hiddenSize, hiddenSize);
+		cell.assign(rows(stepGates, hiddenSize, hiddenSize).mul(rows(cells, t * hiddenSize, hiddenSize)))
+				.addi(rows(stepGates, 0, hiddenSize).mul(rows(stepGates, 3 * hiddenSize, hiddenSize)));
+		stepHidden.assign(Transforms.tanh(cell, true).muli(rows(stepGates, 2 * hiddenSize, hiddenSize)));
+	}
+
+	@Override
+	protected INDArray backPropagateStep(int t, INDArray stepHiddenGradient, INDArray weightsGradient,
+			INDArray biasGradient) {
+		INDArray stepGates = getStepGates(t);
+		INDArray input = rows(stepGates, 0, hiddenSize);
+		INDArray forget = rows(stepGates, hiddenSize, hiddenSize);
+		INDArray output = rows(stepGates, 2 * hiddenSize, hiddenSize);
+		INDArray candidate = rows(stepGates, 3 * hiddenSize, hiddenSize);
+		INDArray cellTanh = Transforms.tanh(rows(cells, (t + 1) * hiddenSize, hiddenSize), true);
+
+		INDArray stepCellGradient = stepHiddenGradient.mul(output).muli(tanhDerivative(cellTanh));
+		if (cellGradient != null) {
+			stepCellGradient.addi(cellGradient);
+		}
+
+		INDArray preActivationGradient = Nd4j.create(new int[] { 4 * hiddenSize, examples }, 'c');
+		rows(preActivationGradient, 0, hiddenSize)
+				.assign(stepCellGradient.mul(candidate).muli(sigmoidDerivative(input)));
+		rows(preActivationGradient, hiddenSize, hiddenSize).assign(stepCellGradient
+				.mul(rows(cells, t * hiddenSize, hiddenSize)).muli(sigmoidDerivative(forget)));
+		rows(preActivationGradient, 2 * hiddenSize, hiddenSize)
+				.assign(stepHiddenGradient.mul(cellTanh).muli(sigmoidDerivative(output)));
+		rows(preActivationGradient, 3 * hiddenSize, hiddenSize)
+				.assign(stepCellGradient.mul(input).muli(tanhDerivative(candidate)));
+
+		cellGradient = stepCellGradient.muli(forget);
+		return backPropagateGates(preActivationGradient, getStepInputsAndHidden(t),
+				axons.getConnectionWeightsNDArray(), weightsGradient, biasGradient);
+	}
+
+	@Override
+	protected void truncate() {
+		cellGradient = null;
+	}
+
+	@Override
+	protected DL4JRecurrentState getFinalState() {
+		return new DL4JRecurrentState(rows(hidden, (timeSteps - 1) * hiddenSize, hiddenSize),
+				rows(cells, timeSteps * hiddenSize, hiddenSize));
+	}
+}
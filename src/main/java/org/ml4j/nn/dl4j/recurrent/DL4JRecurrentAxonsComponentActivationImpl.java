@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.axons.AxonsGradientImpl;
+import org.ml4j.nn.components.DirectedComponentActivationLifecycle;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.axons.DirectedAxonsComponentActivation;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponentActivation;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Activation of a DL4JRecurrentAxonsComponentImpl, retaining the resident
+ * state of the sequence so that the input and weight gradients can be
+ * computed by back propagation through time.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JRecurrentAxonsComponentActivationImpl implements DirectedAxonsComponentActivation {
+
+	private DL4JRecurrentAxonsComponentImpl axonsComponent;
+	private MatrixFactory matrixFactory;
+	private NeuronsActivationFormat<?> inputFormat;
+	private DL4JRecurrentSequence sequence;
+	private NeuronsActivation outputActivation;
+	private AxonsContext axonsContext;
+	private DL4JComponentWorkspaces workspaces;
+
+	DL4JRecurrentAxonsComponentActivationImpl(DL4JRecurrentAxonsComponentImpl axonsComponent,
+			MatrixFactory matrixFactory, NeuronsActivationFormat<?> inputFormat, DL4JRecurrentSequence sequence,
+			NeuronsActivation outputActivation, AxonsContext axonsContext, DL4JComponentWorkspaces workspaces) {
+		this.axonsComponent = axonsComponent;
+		this.matrixFactory = matrixFactory;
+		this.inputFormat = inputFormat;
+		this.sequence = sequence;
+		DL4JInstrumentation.recordRetained(sequence);
+		this.outputActivation = outputActivation;
+		this.axonsContext = axonsContext;
+		this.workspaces = workspaces;
+	}
+
+	@Override
+	public DirectedComponentGradient<NeuronsActivation> backPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DirectedComponentGradient<NeuronsActivation> inputGradient = doBackPropagate(gradient);
+		DL4JInstrumentation.recordBackPropagation(axonsComponent.getName(), startNanos);
+		return inputGradient;
+	}
+
+	private DirectedComponentGradient<NeuronsActivation> doBackPropagate(
+			DirectedComponentGradient<NeuronsActivation> gradient) {
+
+		if (sequence == null) {
+			throw new IllegalStateException(
+					"Activation has been closed, or was not created in a training context, so cannot be back propagated");
+		}
+
+		NeuronsActivationFeatureOrientation orientation = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+		DL4JRecurrentAxonsImpl axons = axonsComponent.getAxons();
+		int timeSteps = axons.getTimeSteps();
+		int hiddenSize = axons.getHiddenSize();
+		boolean trainable = axons.isTrainable(axonsContext);
+
+		try (MemoryWorkspace workspace = workspaces.activateBackPropagationWorkspace()) {
+
+			INDArray outputGradient = DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), orientation);
+			int examples = outputGradient.columns();
+
+			INDArray hiddenGradient = outputGradient;
+			if (!axons.isReturnSequences()) {
+				// Only the final timestep is output, so no gradient flows into the hidden
+				// state of earlier timesteps other than through the recurrence
+				hiddenGradient = Nd4j.zeros(timeSteps * hiddenSize, examples);
+				DL4JRecurrentSequence.rows(hiddenGradient, (timeSteps - 1) * hiddenSize, hiddenSize)
+						.assign(outputGradient);
+			}
+
+			// The gradients are wrapped or copied into ML4J, so are allocated outside of
+			// the workspace
+			INDArray inputGradient;
+			INDArray weightsGradient = null;
+			INDArray biasGradient = null;
+			try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+				inputGradient = Nd4j.create(new int[] { timeSteps * axons.getInputSize(), examples }, 'c');
+				if (trainable) {
+					weightsGradient = Nd4j.zeros(axons.getConnectionWeightsNDArray().shape(), 'c');
+					if (axons.getLeftToRightBiasesNDArray() != null) {
+						biasGradient = Nd4j.zeros(axons.getLeftToRightBiasesNDArray().shape(), 'c');
+					}
+				}
+			}
+
+			sequence.backPropagate(hiddenGradient, axonsComponent.getTruncatedBpttLength(), inputGradient,
+					weightsGradient, biasGradient);
+
+			List<Supplier<AxonsGradient>> axonsGradients = new ArrayList<>();
+			axonsGradients.addAll(gradient.getTotalTrainableAxonsGradients());
+
+			if (trainable) {
+				float regularisationLambda = axonsContext.getRegularisationLambda();
+				if (regularisationLambda != 0) {
+					weightsGradient.addi(axons.getConnectionWeightsNDArray().mul(regularisationLambda));
+				}
+				AxonsGradient axonsGradient = new AxonsGradientImpl(axons,
+						DL4JUtil.fromNDArrayToWeightsMatrix(matrixFactory, weightsGradient, false),
+						biasGradient == null ? null
+								: DL4JUtil.fromNDArrayToBiasMatrix(matrixFactory, biasGradient, false));
+				axonsGradients.add(() -> axonsGradient);
+			}
+
+			NeuronsActivation inputGradientActivation = DL4JUtil.fromNDArray(matrixFactory, inputGradient,
+					orientation, inputFormat, axons.getLeftNeurons());
+
+			return new DirectedComponentGradientImpl<>(axonsGradients, inputGradientActivation);
+		}
+	}
+
+	@Override
+	public DL4JRecurrentAxonsComponentImpl getAxonsComponent() {
+		return axonsComponent;
+	}
+
+	@Override
+	public List<? extends DefaultChainableDirectedComponentActivation> decompose() {
+		return Arrays.asList(this);
+	}
+
+	@Override
+	public void close(DirectedComponentActivationLifecycle completedLifeCycleStage) {
+		// The resident state of the sequence is only needed for back propagation
+		if (completedLifeCycleStage == DirectedComponentActivationLifecycle.BACK_PROPAGATION) {
+			DL4JInstrumentation.recordReleased(sequence);
+			sequence = null;
+		}
+	}
+
+	@Override
+	public NeuronsActivation getOutput() {
+		return outputActivation;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+import java.util.Optional;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContext;
+import org.ml4j.nn.components.factories.DirectedComponentFactory;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.axons.DL4JDirectedAxonsComponentBase;
+import org.ml4j.nn.dl4j.metrics.DL4JInstrumentation;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.FlatFeaturesFormat;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Recurrent axons component backed by ND4J, which runs an LSTM or GRU cell
+ * over the timesteps of a mini-batch of sequences within a single forward
+ * propagation.
+ *
+ * The hidden and cell state are held resident in ND4J across timesteps, and
+ * the gate pre-activations of each timestep are computed by ND4J's native BLAS
+ * from the fused weights of all gates, so activations are only converted at
+ * the boundaries of the component.
+ *
+ * In a training context, back propagation through time is truncated to
+ * segments of the length configured by the DL4JComponentConfig, if any. A
+ * stateful component carries the state after the final timestep of each
+ * forward propagation to the next forward propagation of the same number of
+ * examples, so that long sequences can be propagated as consecutive segments -
+ * stateful components must therefore only be used by one thread, and the
+ * state should be cleared between unrelated sequences.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DL4JRecurrentAxonsComponentImpl
+		extends DL4JDirectedAxonsComponentBase<Neurons, Neurons, DL4JRecurrentAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private boolean stateful;
+	private transient volatile DL4JRecurrentState previousState;
+
+	public DL4JRecurrentAxonsComponentImpl(String name, DL4JRecurrentAxonsImpl axons, boolean stateful,
+			DL4JComponentConfig config) {
+		super(name, axons, config);
+		this.stateful = stateful;
+	}
+
+	@Override
+	public DL4JRecurrentAxonsComponentActivationImpl forwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+		long startNanos = DL4JInstrumentation.startTimer();
+		DL4JRecurrentAxonsComponentActivationImpl activation = doForwardPropagate(neuronsActivation, axonsContext);
+		DL4JInstrumentation.recordForwardPropagation(name, startNanos);
+		return activation;
+	}
+
+	private DL4JRecurrentAxonsComponentActivationImpl doForwardPropagate(NeuronsActivation neuronsActivation,
+			AxonsContext axonsContext) {
+
+		MatrixFactory matrixFactory = axonsContext.getMatrixFactory();
+		NeuronsActivationFeatureOrientation orientation = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+
+			INDArray input = DL4JUtil.asNDArray(matrixFactory, neuronsActivation, orientation);
+			int examples = input.columns();
+
+			// The resident state of the sequence is retained for back propagation
+			// when training, so must not be allocated in the cyclic workspace
+			DL4JRecurrentSequence sequence;
+			try (MemoryWorkspace retained = DL4JComponentWorkspaces
+					.scopeOutOfWorkspacesIfRetained(axonsContext.isTrainingContext())) {
+				sequence = DL4JRecurrentSequence.create(axons, examples);
+			}
+
+			DL4JRecurrentState initialState = previousState;
+			DL4JRecurrentState finalState = sequence.forwardPropagate(input,
+					initialState != null && initialState.getExamples() == examples ? initialState : null);
+			if (stateful) {
+				previousState = finalState.dupOutOfWorkspaces();
+			}
+
+			// The hidden state of the sequence is allocated outside of the workspace,
+			// so is wrapped into ML4J without copying when every timestep is output
+			INDArray output = axons.isReturnSequences() ? sequence.getHidden()
+					: DL4JComponentWorkspaces.dupOutOfWorkspaces(finalState.getHidden());
+
+			NeuronsActivation outputActivation = DL4JUtil.fromNDArray(matrixFactory, output, orientation,
+					flatFormat(orientation), axons.getRightNeurons());
+
+			return new DL4JRecurrentAxonsComponentActivationImpl(this, matrixFactory, neuronsActivation.getFormat(),
+					axonsContext.isTrainingContext() ? sequence : null, outputActivation, axonsContext, workspaces);
+		}
+	}
+
+	/**
+	 * @return Whether the state after the final timestep of each forward
+	 *         propagation is carried to the next.
+	 */
+	public boolean isStateful() {
+		return stateful;
+	}
+
+	/**
+	 * @return The state carried from the previous forward propagation of a
+	 *         stateful component, or null if there is none.
+	 */
+	public DL4JRecurrentState getPreviousState() {
+		return previousState;
+	}
+
+	/**
+	 * Clears the state carried from the previous forward propagation, so that
+	 * the next forward propagation starts from a zero state.
+	 */
+	public void clearPreviousState() {
+		previousState = null;
+	}
+
+	/**
+	 * @return The number of timesteps in each segment of truncated back
+	 *         propagation through time, or 0 if not truncated.
+	 */
+	int getTruncatedBpttLength() {
+		return config.getTruncatedBpttLength();
+	}
+
+	@Override
+	public DL4JRecurrentAxonsComponentImpl dup(DirectedComponentFactory directedComponentFactory) {
+		return new DL4JRecurrentAxonsComponentImpl(name, axons.dup(), stateful, config);
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return format.getFeaturesFormat() instanceof FlatFeaturesFormat;
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return Optional.of(flatFormat(NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET));
+	}
+}
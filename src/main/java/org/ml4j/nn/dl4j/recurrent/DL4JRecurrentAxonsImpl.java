@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.axons.DL4JTrainableAxonsBase;
+import org.ml4j.nn.neurons.Neurons;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Recurrent axons whose connection weights and left to right biases are held
+ * resident as ND4J INDArrays.
+ *
+ * The weights of all gates are fused into a single [gates * hiddenSize,
+ * inputSize + hiddenSize] array, whose columns apply to the input of a
+ * timestep followed by the previous hidden state, so that each gate
+ * pre-activation is a single matrix multiplication. The biases have shape
+ * [gates * hiddenSize, 1].
+ *
+ * The left neurons span inputSize * timeSteps features and the right neurons
+ * either hiddenSize * timeSteps features, where the hidden state of every
+ * timestep is output, or hiddenSize features, where only the hidden state of
+ * the final timestep is output. Features are ordered by timestep, so that the
+ * features of each timestep are a contiguous block of rows of an activation
+ * whose rows span the feature set.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JRecurrentAxonsImpl extends DL4JTrainableAxonsBase<Neurons, Neurons, DL4JRecurrentAxonsImpl> {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private DL4JRecurrentCellType cellType;
+	private int timeSteps;
+	private int inputSize;
+	private int hiddenSize;
+	private boolean returnSequences;
+
+	public DL4JRecurrentAxonsImpl(MatrixFactory matrixFactory, DL4JRecurrentCellType cellType, Neurons leftNeurons,
+			Neurons rightNeurons, int timeSteps, INDArray connectionWeights, INDArray leftToRightBiases) {
+		super(matrixFactory, leftNeurons, rightNeurons, connectionWeights, leftToRightBiases);
+		validateNoRightToLeftBiases(rightNeurons);
+		this.cellType = cellType;
+		this.timeSteps = timeSteps;
+		int leftNeuronCount = leftNeurons.getNeuronCountExcludingBias();
+		if (timeSteps <= 0 || leftNeuronCount % timeSteps != 0) {
+			throw new IllegalArgumentException(
+					"Left neuron count:" + leftNeuronCount + " is not a multiple of time steps:" + timeSteps);
+		}
+		this.inputSize = leftNeuronCount / timeSteps;
+		this.hiddenSize = connectionWeights.rows() / cellType.getGateCount();
+		if (connectionWeights.rows() != cellType.getGateCount() * hiddenSize
+				|| connectionWeights.columns() != inputSize + hiddenSize) {
+			throw new IllegalArgumentException("Connection weights of shape [" + connectionWeights.rows() + ","
+					+ connectionWeights.columns() + "] do not match " + cellType + " gates with input size:"
+					+ inputSize);
+		}
+		if (leftToRightBiases != null
+				&& (leftToRightBiases.rows() != connectionWeights.rows() || leftToRightBiases.columns() != 1)) {
+			throw new IllegalArgumentException("Biases of shape [" + leftToRightBiases.rows() + ","
+					+ leftToRightBiases.columns() + "] do not match connection weights rows:"
+					+ connectionWeights.rows());
+		}
+		int rightNeuronCount = rightNeurons.getNeuronCountExcludingBias();
+		this.returnSequences = rightNeuronCount == hiddenSize * timeSteps;
+		if (!returnSequences && rightNeuronCount != hiddenSize) {
+			throw new IllegalArgumentException("Right neuron count:" + rightNeuronCount
+					+ " is neither the hidden size:" + hiddenSize + " nor hidden size * time steps");
+		}
+	}
+
+	public DL4JRecurrentCellType getCellType() {
+		return cellType;
+	}
+
+	public int getTimeSteps() {
+		return timeSteps;
+	}
+
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	public int getHiddenSize() {
+		return hiddenSize;
+	}
+
+	/**
+	 * @return Whether the hidden state of every timestep is output, rather than
+	 *         only that of the final timestep.
+	 */
+	public boolean isReturnSequences() {
+		return returnSequences;
+	}
+
+	@Override
+	public DL4JRecurrentAxonsImpl dup() {
+		return new DL4JRecurrentAxonsImpl(matrixFactory, cellType, leftNeurons, rightNeurons, timeSteps,
+				connectionWeights.dup(), leftToRightBiases == null ? null : leftToRightBiases.dup());
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+/**
+ * The recurrent cells supported by DL4JRecurrentAxonsImpl.
+ *
+ * @author Michael Lavelle
+ */
+public enum DL4JRecurrentCellType {
+
+	/**
+	 * Long short-term memory, with input, forget and output gates and a cell
+	 * candidate, whose rows are stacked in that order in the connection weights
+	 * and biases.
+	 */
+	LSTM(4),
+
+	/**
+	 * Gated recurrent unit, with reset and update gates and a candidate, whose
+	 * rows are stacked in that order in the connection weights and biases. The
+	 * reset gate is applied to the previous hidden state before the recurrent
+	 * weights of the candidate.
+	 */
+	GRU(3);
+
+	private int gateCount;
+
+	private DL4JRecurrentCellType(int gateCount) {
+		this.gateCount = gateCount;
+	}
+
+	/**
+	 * @return The number of gates, each with one row of connection weights per
+	 *         hidden unit.
+	 */
+	public int getGateCount() {
+		return gateCount;
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * The resident state of a recurrent cell unrolled over the timesteps of a
+ * mini-batch of sequences.
+ *
+ * All state is held in 2D INDArrays allocated once per sequence, with one
+ * contiguous block of rows per timestep, so that each timestep reads and
+ * writes views of these arrays rather than converting through ML4J. The block
+ * of each timestep in the inputs and hidden array holds the input of the
+ * timestep followed by the previous hidden state, which is the operand of the
+ * fused gate weights, and is retained for back propagation.
+ *
+ * @author Michael Lavelle
+ */
+abstract class DL4JRecurrentSequence {
+
+	protected DL4JRecurrentAxonsImpl axons;
+	protected int timeSteps;
+	protected int inputSize;
+	protected int hiddenSize;
+	protected int examples;
+
+	/**
+	 * [timeSteps * (inputSize + hiddenSize), examples] - the input and previous
+	 * hidden state of each timestep.
+	 */
+	protected INDArray inputsAndHidden;
+
+	/**
+	 * [timeSteps * gates * hiddenSize, examples] - the gate activations of each
+	 * timestep.
+	 */
+	protected INDArray gates;
+
+	/**
+	 * [timeSteps * hiddenSize, examples] - the hidden state output by each
+	 * timestep, allocated outside of any workspace.
+	 */
+	protected INDArray hidden;
+
+	protected DL4JRecurrentSequence(DL4JRecurrentAxonsImpl axons, int examples) {
+		this.axons = axons;
+		this.timeSteps = axons.getTimeSteps();
+		this.inputSize = axons.getInputSize();
+		this.hiddenSize = axons.getHiddenSize();
+		this.examples = examples;
+		this.inputsAndHidden = Nd4j.create(new int[] { timeSteps * (inputSize + hiddenSize), examples }, 'c');
+		this.gates = Nd4j.create(
+				new int[] { timeSteps * axons.getCellType().getGateCount() * hiddenSize, examples }, 'c');
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			this.hidden = Nd4j.create(new int[] { timeSteps * hiddenSize, examples }, 'c');
+		}
+	}
+
+	/**
+	 * @param axons    The recurrent axons.
+	 * @param examples The number of examples.
+	 * @return A sequence for the cell type of the axons, whose arrays are
+	 *         allocated in the current workspace scope.
+	 */
+	static DL4JRecurrentSequence create(DL4JRecurrentAxonsImpl axons, int examples) {
+		if (axons.getCellType() == DL4JRecurrentCellType.LSTM) {
+			return new DL4JLSTMSequence(axons, examples);
+		} else {
+			return new DL4JGRUSequence(axons, examples);
+		}
+	}
+
+	/**
+	 * @param array  A 2D array.
+	 * @param offset The first row.
+	 * @param count  The number of rows.
+	 * @return A view of the rows.
+	 */
+	static INDArray rows(INDArray array, int offset, int count) {
+		return array.get(NDArrayIndex.interval(offset, offset + count), NDArrayIndex.all());
+	}
+
+	/**
+	 * @param sigmoid Sigmoid activations.
+	 * @return The derivative of the sigmoid at the activations.
+	 */
+	static INDArray sigmoidDerivative(INDArray sigmoid) {
+		return sigmoid.rsub(1).muli(sigmoid);
+	}
+
+	/**
+	 * @param tanh Tanh activations.
+	 * @return The derivative of tanh at the activations.
+	 */
+	static INDArray tanhDerivative(INDArray tanh) {
+		return tanh.mul(tanh).rsubi(1);
+	}
+
+	/**
+	 * Runs the cell over every timestep.
+	 *
+	 * @param input        The [timeSteps * inputSize, examples] input.
+	 * @param initialState The state before the first timestep, or null for a
+	 *                     zero state.
+	 * @return The state after the final timestep, as views of the resident
+	 *         arrays.
+	 */
+	DL4JRecurrentState forwardPropagate(INDArray input, DL4JRecurrentState initialState) {
+		INDArray previousHidden = initialState == null ? Nd4j.zeros(hiddenSize, examples)
+				: initialState.getHidden();
+		initialise(initialState);
+		for (int t = 0; t < timeSteps; t++) {
+			INDArray stepInputsAndHidden = getStepInputsAndHidden(t);
+			rows(stepInputsAndHidden, 0, inputSize).assign(rows(input, t * inputSize, inputSize));
+			rows(stepInputsAndHidden, inputSize, hiddenSize).assign(previousHidden);
+			previousHidden = rows(hidden, t * hiddenSize, hiddenSize);
+			forwardPropagateStep(t, stepInputsAndHidden, previousHidden);
+		}
+		return getFinalState();
+	}
+
+	/**
+	 * Back propagates through every timestep, accumulating the gradients of the
+	 * fused weights and biases.
+	 *
+	 * @param hiddenGradient      The [timeSteps * hiddenSize, examples] gradient
+	 *                            with respect to the hidden state output by each
+	 *                            timestep.
+	 * @param truncatedBpttLength The number of timesteps in each segment of
+	 *                            truncated back propagation through time, or 0
+	 *                            to back propagate through the whole sequence.
+	 * @param inputGradient       The [timeSteps * inputSize, examples] array to
+	 *                            which the input gradient is written.
+	 * @param weightsGradient     The array to which the weights gradient is
+	 *                            added, or null if not required.
+	 * @param biasGradient        The array to which the bias gradient is added,
+	 *                            or null if not required.
+	 */
+	void backPropagate(INDArray hiddenGradient, int truncatedBpttLength, INDArray inputGradient,
+			INDArray weightsGradient, INDArray biasGradient) {
+		INDArray recurrentGradient = null;
+		for (int t = timeSteps - 1; t >= 0; t--) {
+			INDArray stepHiddenGradient = rows(hiddenGradient, t * hiddenSize, hiddenSize);
+			if (recurrentGradient != null) {
+				stepHiddenGradient = stepHiddenGradient.add(recurrentGradient);
+			}
+			INDArray stepInputsAndHiddenGradient = backPropagateStep(t, stepHiddenGradient, weightsGradient,
+					biasGradient);
+			rows(inputGradient, t * inputSize, inputSize).assign(rows(stepInputsAndHiddenGradient, 0, inputSize));
+			if (truncatedBpttLength > 0 && t % truncatedBpttLength == 0) {
+				// The state entering a segment is treated as a constant
+				recurrentGradient = null;
+				truncate();
+			} else {
+				recurrentGradient = rows(stepInputsAndHiddenGradient, inputSize, hiddenSize);
+			}
+		}
+	}
+
+	/**
+	 * Back propagates a gradient through the fused weights applied to an
+	 * operand.
+	 *
+	 * @param preActivationGradient The gradient with respect to the gate
+	 *                              pre-activations.
+	 * @param operand               The operand of the weights.
+	 * @param weights               The weights.
+	 * @param weightsGradient       The array to which the weights gradient is
+	 *                              added, or null if not required.
+	 * @param biasGradient          The array to which the bias gradient is added,
+	 *                              or null if not required.
+	 * @return The gradient with respect to the operand.
+	 */
+	protected INDArray backPropagateGates(INDArray preActivationGradient, INDArray operand, INDArray weights,
+			INDArray weightsGradient, INDArray biasGradient) {
+		if (weightsGradient != null) {
+			weightsGradient.addi(preActivationGradient.mmul(operand.transpose()));
+		}
+		if (biasGradient != null) {
+			biasGradient.addi(preActivationGradient.sum(1).reshape(preActivationGradient.rows(), 1));
+		}
+		return weights.transpose().mmul(preActivationGradient);
+	}
+
+	protected INDArray getStepInputsAndHidden(int t) {
+		return rows(inputsAndHidden, t * (inputSize + hiddenSize), inputSize + hiddenSize);
+	}
+
+	protected INDArray getStepGates(int t) {
+		int gateRows = axons.getCellType().getGateCount() * hiddenSize;
+		return rows(gates, t * gateRows, gateRows);
+	}
+
+	/**
+	 * @return The [timeSteps * hiddenSize, examples] hidden state output by each
+	 *         timestep, which is not attached to any workspace.
+	 */
+	INDArray getHidden() {
+		return hidden;
+	}
+
+	/**
+	 * @param initialState The state before the first timestep, or null for a
+	 *                     zero state.
+	 */
+	protected abstract void initialise(DL4JRecurrentState initialState);
+
+	/**
+	 * @param t                   The timestep.
+	 * @param stepInputsAndHidden The input and previous hidden state of the
+	 *                            timestep.
+	 * @param stepHidden          The view to which the hidden state of the
+	 *                            timestep is written.
+	 */
+	protected abstract void forwardPropagateStep(int t, INDArray stepInputsAndHidden, INDArray stepHidden);
+
+	/**
+	 * @param t                  The timestep.
+	 * @param stepHiddenGradient The gradient with respect to the hidden state of
+	 *                           the timestep.
+	 * @param weightsGradient    The array to which the weights gradient is added,
+	 *                           or null if not required.
+	 * @param biasGradient       The array to which the bias gradient is added, or
+	 *                           null if not required.
+	 * @return The gradient with respect to the input and previous hidden state of
+	 *         the timestep.
+	 */
+	protected abstract INDArray backPropagateStep(int t, INDArray stepHiddenGradient, INDArray weightsGradient,
+			INDArray biasGradient);
+
+	/**
+	 * Discards any gradient carried to the previous timestep other than through
+	 * the hidden state.
+	 */
+	protected abstract void truncate();
+
+	/**
+	 * @return The state after the final timestep.
+	 */
+	protected abstract DL4JRecurrentState getFinalState();
+}
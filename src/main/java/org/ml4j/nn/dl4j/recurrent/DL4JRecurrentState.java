@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.recurrent;
+
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * The state carried by a recurrent cell from one timestep to the next - the
+ * hidden state, and for LSTM cells the cell state - each of shape
+ * [hiddenSize, examples].
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JRecurrentState {
+
+	private INDArray hidden;
+	private INDArray cell;
+
+	public DL4JRecurrentState(INDArray hidden, INDArray cell) {
+		this.hidden = hidden;
+		this.cell = cell;
+	}
+
+	/**
+	 * @return The [hiddenSize, examples] hidden state.
+	 */
+	public INDArray getHidden() {
+		return hidden;
+	}
+
+	/**
+	 * @return The [hiddenSize, examples] cell state, or null for cells without
+	 *         a cell state.
+	 */
+	public INDArray getCell() {
+		return cell;
+	}
+
+	/**
+	 * @return The number of examples.
+	 */
+	public int getExamples() {
+		return hidden.columns();
+	}
+
+	/**
+	 * @return A copy of this state which is not attached to any workspace, and
+	 *         so can be carried across forward propagations.
+	 */
+	public DL4JRecurrentState dupOutOfWorkspaces() {
+		return new DL4JRecurrentState(DL4JComponentWorkspaces.dupOutOfWorkspaces(hidden),
+				cell == null ? null : DL4JComponentWorkspaces.dupOutOfWorkspaces(cell));
+	}
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.snapshots;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ml4j.nn.activationfunctions.ActivationFunctionProperties;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.axons.Axons3DConfig;
+import org.ml4j.nn.components.axons.DirectedAxonsComponent;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.components.onetone.DefaultDirectedComponentChain;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JDifferentiableActivationFunctionComponentImpl;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JFusedActivationChainComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JConvolutionGeometry;
+import org.ml4j.nn.dl4j.axons.DL4JConvolutionalAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JConvolutionalAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsImpl;
+import org.ml4j.nn.dl4j.axons.DL4JTrainableAxonsBase;
+import org.ml4j.nn.dl4j.factories.DL4JActivationFunctionTypes;
+import org.ml4j.nn.dl4j.factories.HybridML4JDL4JDefaultDirectedComponentFactory;
+import org.ml4j.nn.dl4j.snapshots.DL4JSnapshotEntry.Blob;
+import org.ml4j.nn.dl4j.snapshots.DL4JSnapshotEntry.ComponentKind;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * A binary snapshot of a component chain built by
+ * HybridML4JDL4JDefaultDirectedComponentFactory, whose weights can be memory
+ * mapped straight into off-heap INDArrays when the snapshot is loaded.
+ *
+ * A snapshot file consists of a magic number and version, a compact header
+ * describing the topology of the chain - one DL4JSnapshotEntry per component -
+ * and a data section of 'c' ordered weight blobs in the byte order of the host
+ * that wrote them, each aligned to 64 bytes. Loading reads only the header;
+ * the weight pages are faulted in as they are first used, and the pages of a
+ * read-only mapping are shared by every process on a host that loads the same
+ * snapshot.
+ *
+ * Read-only mappings must not be written to, so are for inference only - axons
+ * whose parameters are mapped read-only are marked read-only, so are not
+ * trainable and reject adjustments. Components loaded with a private mapping
+ * can be trained - pages are copied as they are first written, and changes are
+ * not written back to the file.
+ * The mappings are held by the loaded snapshot, which must remain reachable
+ * while its components are in use.
+ *
+ * Snapshots can hold DL4J activation function components, including fused
+ * chains, and ND4J backed fully connected, convolutional and pooling axons.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JSnapshot {
+
+	/**
+	 * The version of the snapshot format.
+	 */
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = "ML4JSNAP".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int ALIGNMENT = 64;
+
+	private static final int STAGING_BYTES = 1 << 20;
+
+	private List<DL4JSnapshotEntry> entries;
+	private DefaultDirectedComponentChain componentChain;
+	private List<ByteBuffer> mappings;
+
+	private DL4JSnapshot(List<DL4JSnapshotEntry> entries, DefaultDirectedComponentChain componentChain,
+			List<ByteBuffer> mappings) {
+		this.entries = entries;
+		this.componentChain = componentChain;
+		this.mappings = mappings;
+	}
+
+	/**
+	 * @return The header entries of the snapshot.
+	 */
+	public List<DL4JSnapshotEntry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return The component chain loaded from the snapshot.
+	 */
+	public DefaultDirectedComponentChain getComponentChain() {
+		return componentChain;
+	}
+
+	/**
+	 * @return The number of weight blobs which are memory mapped rather than
+	 *         copied onto the heap.
+	 */
+	public int getMappedBlobCount() {
+		return mappings.size();
+	}
+
+	/**
+	 * @return The memory mappings backing the weight blobs.
+	 */
+	List<ByteBuffer> getMappings() {
+		return mappings;
+	}
+
+	/**
+	 * @param component The component chain, or single component, to snapshot.
+	 * @param path      The path of the snapshot file to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void write(DefaultChainableDirectedComponent<?, ?> component, Path path) throws IOException {
+		DataBuffer.Type dataType = Nd4j.dataType();
+		SnapshotLayout layout = new SnapshotLayout(getElementSize(dataType));
+		for (DefaultChainableDirectedComponent<?, ?> decomposed : component.decompose()) {
+			layout.add(decomposed);
+		}
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+			header.writeUTF(ByteOrder.nativeOrder().toString());
+			header.writeUTF(dataType.name());
+			header.writeInt(layout.entries.size());
+			for (DL4JSnapshotEntry entry : layout.entries) {
+				entry.writeTo(header);
+			}
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer preamble = ByteBuffer.allocate(MAGIC.length + 8);
+			preamble.put(MAGIC).putInt(VERSION).putInt(headerBytes.size()).flip();
+			writeFully(channel, preamble);
+			writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()));
+			long dataStart = align(MAGIC.length + 8L + headerBytes.size());
+			ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_BYTES).order(ByteOrder.nativeOrder());
+			for (int i = 0; i < layout.blobs.size(); i++) {
+				channel.position(dataStart + layout.blobs.get(i).getOffset());
+				writeBlob(channel, layout.arrays.get(i), dataType, staging);
+			}
+		}
+	}
+
+	/**
+	 * @param path The path of the snapshot file.
+	 * @return The header entries of the snapshot, read without mapping any
+	 *         weights.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static List<DL4JSnapshotEntry> readEntries(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return readHeader(channel).entries;
+		}
+	}
+
+	/**
+	 * @param path                     The path of the snapshot file.
+	 * @param directedComponentFactory The factory used to create the components.
+	 * @return The snapshot, with its weights mapped read-only for inference.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static DL4JSnapshot load(Path path, HybridML4JDL4JDefaultDirectedComponentFactory directedComponentFactory)
+			throws IOException {
+		return load(path, directedComponentFactory, MapMode.READ_ONLY);
+	}
+
+	/**
+	 * @param path                     The path of the snapshot file.
+	 * @param directedComponentFactory The factory used to create the components.
+	 * @param mapMode                  READ_ONLY to share weight pages for
+	 *                                 inference, or PRIVATE to allow the weights
+	 *                                 to be adjusted, which requires the file to
+	 *                                 be writable.
+	 * @return The snapshot.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static DL4JSnapshot load(Path path, HybridML4JDL4JDefaultDirectedComponentFactory directedComponentFactory,
+			MapMode mapMode) throws IOException {
+		if (mapMode != MapMode.READ_ONLY && mapMode != MapMode.PRIVATE) {
+			throw new IllegalArgumentException("Snapshots can only be mapped READ_ONLY or PRIVATE");
+		}
+		try (FileChannel channel = mapMode == MapMode.READ_ONLY ? FileChannel.open(path, StandardOpenOption.READ)
+				: FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			SnapshotHeader header = readHeader(channel);
+			List<ByteBuffer> mappings = new ArrayList<>();
+			List<DefaultChainableDirectedComponent<?, ?>> components = new ArrayList<>();
+			for (DL4JSnapshotEntry entry : header.entries) {
+				int previousMappingCount = mappings.size();
+				INDArray weights = entry.getWeights() == null ? null
+						: map(channel, header, entry.getWeights(), mapMode, mappings);
+				INDArray biases = entry.getBiases() == null ? null
+						: map(channel, header, entry.getBiases(), mapMode, mappings);
+				DefaultChainableDirectedComponent<?, ?> component = createComponent(directedComponentFactory, entry,
+						weights, biases);
+				if (mapMode == MapMode.READ_ONLY && mappings.size() > previousMappingCount
+						&& component instanceof DirectedAxonsComponent) {
+					Object axons = ((DirectedAxonsComponent<?, ?, ?>) component).getAxons();
+					if (axons instanceof DL4JTrainableAxonsBase) {
+						((DL4JTrainableAxonsBase<?, ?, ?>) axons).markReadOnly();
+					}
+				}
+				components.add(component);
+			}
+			return new DL4JSnapshot(header.entries,
+					directedComponentFactory.createDirectedComponentChain(components), mappings);
+		}
+	}
+
+	private static DefaultChainableDirectedComponent<?, ?> createComponent(
+			HybridML4JDL4JDefaultDirectedComponentFactory directedComponentFactory, DL4JSnapshotEntry entry,
+			INDArray weights, INDArray biases) {
+		switch (entry.getKind()) {
+		case FULLY_CONNECTED_AXONS:
+			return directedComponentFactory.createSharedFullyConnectedAxonsComponent(entry.getName(),
+					entry.getLeftNeurons(), entry.getRightNeurons(), weights, biases);
+		case CONVOLUTIONAL_AXONS:
+			return directedComponentFactory.createSharedConvolutionalAxonsComponent(entry.getName(),
+					(Neurons3D) entry.getLeftNeurons(), (Neurons3D) entry.getRightNeurons(),
+					createAxons3DConfig(entry), weights, biases);
+		case MAX_POOLING_AXONS:
+			return directedComponentFactory.createMaxPoolingAxonsComponent(entry.getName(),
+					(Neurons3D) entry.getLeftNeurons(), (Neurons3D) entry.getRightNeurons(),
+					createAxons3DConfig(entry), false);
+		case AVERAGE_POOLING_AXONS:
+			return directedComponentFactory.createAveragePoolingAxonsComponent(entry.getName(),
+					(Neurons3D) entry.getLeftNeurons(), (Neurons3D) entry.getRightNeurons(),
+					createAxons3DConfig(entry));
+		case ACTIVATION_FUNCTION:
+			ActivationFunctionType activationFunctionType = DL4JActivationFunctionTypes
+					.fromQualifiedId(entry.getActivationFunctionTypeId())
+					.orElseThrow(() -> new IllegalStateException(
+							"Unknown activation function type:" + entry.getActivationFunctionTypeId()));
+			ActivationFunctionProperties activationFunctionProperties = new ActivationFunctionProperties();
+			if (entry.getAlpha() != null) {
+				activationFunctionProperties = activationFunctionProperties.withAlpha(entry.getAlpha());
+			}
+			return directedComponentFactory.createDifferentiableActivationFunctionComponent(entry.getName(),
+					entry.getLeftNeurons(), activationFunctionType, activationFunctionProperties);
+		default:
+			throw new IllegalStateException("Unsupported component kind:" + entry.getKind());
+		}
+	}
+
+	private static Axons3DConfig createAxons3DConfig(DL4JSnapshotEntry entry) {
+		int[] stridesAndPadding = entry.getStridesAndPadding();
+		return new Axons3DConfig().withStrideHeight(stridesAndPadding[0]).withStrideWidth(stridesAndPadding[1])
+				.withPaddingHeight(stridesAndPadding[2]).withPaddingWidth(stridesAndPadding[3]);
+	}
+
+	private static INDArray map(FileChannel channel, SnapshotHeader header, Blob blob, MapMode mapMode,
+			List<ByteBuffer> mappings) throws IOException {
+		int elementSize = getElementSize(header.dataType);
+		MappedByteBuffer mapped = channel.map(mapMode, header.dataStart + blob.getOffset(),
+				blob.getLength() * elementSize);
+		int[] shape = new int[] { blob.getRows(), blob.getColumns() };
+		// The arrays are backed by the mapping, so must not be attached to any open
+		// workspace
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			if (header.byteOrder.equals(ByteOrder.nativeOrder())) {
+				mappings.add(mapped);
+				DataBuffer buffer = Nd4j.createBuffer(mapped.order(ByteOrder.nativeOrder()), header.dataType,
+						(int) blob.getLength());
+				return Nd4j.create(buffer, shape);
+			}
+			// Snapshots written on a host with the other byte order are copied onto the
+			// heap
+			mapped.order(header.byteOrder);
+			if (header.dataType == DataBuffer.Type.DOUBLE) {
+				double[] values = new double[(int) blob.getLength()];
+				mapped.asDoubleBuffer().get(values);
+				return Nd4j.create(values, shape, 'c');
+			} else {
+				float[] values = new float[(int) blob.getLength()];
+				mapped.asFloatBuffer().get(values);
+				return Nd4j.create(values, shape, 'c');
+			}
+		}
+	}
+
+	private static SnapshotHeader readHeader(FileChannel channel) throws IOException {
+		ByteBuffer preamble = ByteBuffer.allocate(MAGIC.length + 8);
+		readFully(channel, preamble);
+		byte[] magic = new byte[MAGIC.length];
+		preamble.get(magic);
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new IOException("Not a snapshot file - unexpected magic number");
+		}
+		int version = preamble.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported snapshot version:" + version);
+		}
+		int headerLength = preamble.getInt();
+		ByteBuffer headerBytes = ByteBuffer.allocate(headerLength);
+		readFully(channel, headerBytes);
+
+		SnapshotHeader header = new SnapshotHeader();
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(headerBytes.array()))) {
+			header.byteOrder = ByteOrder.BIG_ENDIAN.toString().equals(input.readUTF()) ? ByteOrder.BIG_ENDIAN
+					: ByteOrder.LITTLE_ENDIAN;
+			header.dataType = DataBuffer.Type.valueOf(input.readUTF());
+			int entryCount = input.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				header.entries.add(DL4JSnapshotEntry.readFrom(input));
+			}
+		}
+		if (header.dataType != Nd4j.dataType()) {
+			throw new IllegalStateException("Snapshot data type:" + header.dataType
+					+ " does not match the ND4J data type:" + Nd4j.dataType());
+		}
+		header.dataStart = align(MAGIC.length + 8L + headerLength);
+		return header;
+	}
+
+	private static void writeBlob(FileChannel channel, INDArray array, DataBuffer.Type dataType, ByteBuffer staging)
+			throws IOException {
+		int elementSize = getElementSize(dataType);
+		int chunkRows = Math.max(1, STAGING_BYTES / (elementSize * Math.max(1, array.columns())));
+		for (int start = 0; start < array.rows(); start += chunkRows) {
+			int end = Math.min(array.rows(), start + chunkRows);
+			INDArray chunk = array.get(NDArrayIndex.interval(start, end), NDArrayIndex.all()).dup('c');
+			if (dataType == DataBuffer.Type.DOUBLE) {
+				double[] values = chunk.data().asDouble();
+				for (int i = 0; i < values.length; i++) {
+					if (!staging.hasRemaining()) {
+						flush(channel, staging);
+					}
+					staging.putDouble(values[i]);
+				}
+			} else {
+				float[] values = chunk.data().asFloat();
+				for (int i = 0; i < values.length; i++) {
+					if (!staging.hasRemaining()) {
+						flush(channel, staging);
+					}
+					staging.putFloat(values[i]);
+				}
+			}
+		}
+		flush(channel, staging);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer staging) throws IOException {
+		staging.flip();
+		writeFully(channel, staging);
+		staging.clear();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of snapshot file");
+			}
+		}
+		buffer.flip();
+	}
+
+	private static long align(long position) {
+		return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static int getElementSize(DataBuffer.Type dataType) {
+		if (dataType == DataBuffer.Type.FLOAT) {
+			return Float.BYTES;
+		} else if (dataType == DataBuffer.Type.DOUBLE) {
+			return Double.BYTES;
+		} else {
+			throw new IllegalStateException("Snapshots do not support data type:" + dataType);
+		}
+	}
+
+	/**
+	 * The parsed header of a snapshot file.
+	 */
+	private static class SnapshotHeader {
+
+		private ByteOrder byteOrder;
+		private DataBuffer.Type dataType;
+		private List<DL4JSnapshotEntry> entries = new ArrayList<>();
+		private long dataStart;
+	}
+
+	/**
+	 * Accumulates the header entries of a snapshot being written, and lays out
+	 * their weight blobs within the data section.
+	 */
+	private static class SnapshotLayout {
+
+		private int elementSize;
+		private List<DL4JSnapshotEntry> entries = new ArrayList<>();
+		private List<Blob> blobs = new ArrayList<>();
+		private List<INDArray> arrays = new ArrayList<>();
+		private long dataLength;
+
+		private SnapshotLayout(int elementSize) {
+			this.elementSize = elementSize;
+		}
+
+		private void add(DefaultChainableDirectedComponent<?, ?> component) {
+			if (component instanceof DL4JFusedActivationChainComponentImpl) {
+				((DL4JFusedActivationChainComponentImpl) component).getFusedComponents().forEach(this::add);
+			} else if (component instanceof DL4JDifferentiableActivationFunctionComponentImpl) {
+				DL4JDifferentiableActivationFunctionComponentImpl activationComponent =
+						(DL4JDifferentiableActivationFunctionComponentImpl) component;
+				IActivation activation = activationComponent.getDL4JActivationFunction();
+				entries.add(DL4JSnapshotEntry.forActivationFunction(activationComponent.getName(),
+						activationComponent.getInputNeurons(),
+						activationComponent.getActivationFunctionType().getQualifiedId(),
+						activation instanceof ActivationLReLU ? (float) ((ActivationLReLU) activation).getAlpha()
+								: null,
+						activationComponent.getDL4JRequiredActivationOrientation()));
+			} else if (component instanceof DL4JFullyConnectedAxonsComponentImpl) {
+				DL4JFullyConnectedAxonsImpl axons = ((DL4JFullyConnectedAxonsComponentImpl) component).getAxons();
+				entries.add(DL4JSnapshotEntry.forFullyConnectedAxons(component.getName(), axons.getLeftNeurons(),
+						axons.getRightNeurons(), addBlob(axons.getConnectionWeightsNDArray()),
+						addBlob(axons.getLeftToRightBiasesNDArray())));
+			} else if (component instanceof DL4JConvolutionalAxonsComponentImpl) {
+				DL4JConvolutionalAxonsImpl axons = ((DL4JConvolutionalAxonsComponentImpl) component).getAxons();
+				entries.add(DL4JSnapshotEntry.forAxons3D(ComponentKind.CONVOLUTIONAL_AXONS, component.getName(),
+						axons.getLeftNeurons(), axons.getRightNeurons(), getStridesAndPadding(axons.getGeometry()),
+						addBlob(axons.getConnectionWeightsNDArray()), addBlob(axons.getLeftToRightBiasesNDArray())));
+			} else if (component instanceof DL4JPoolingAxonsComponentImpl) {
+				DL4JPoolingAxonsImpl axons = ((DL4JPoolingAxonsComponentImpl) component).getAxons();
+				ComponentKind kind = axons.getPoolingType() == DL4JPoolingAxonsImpl.PoolingType.MAX
+						? ComponentKind.MAX_POOLING_AXONS
+						: ComponentKind.AVERAGE_POOLING_AXONS;
+				entries.add(DL4JSnapshotEntry.forAxons3D(kind, component.getName(), axons.getLeftNeurons(),
+						axons.getRightNeurons(), getStridesAndPadding(axons.getGeometry()), null, null));
+			} else {
+				throw new IllegalArgumentException("Component:" + component.getName() + " of type:"
+						+ component.getClass().getSimpleName() + " cannot be held in a snapshot");
+			}
+		}
+
+		private Blob addBlob(INDArray array) {
+			if (array == null) {
+				return null;
+			}
+			if (array.length() * elementSize > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException(
+						"Weight arrays of more than " + Integer.MAX_VALUE + " bytes cannot be memory mapped");
+			}
+			Blob blob = new Blob(dataLength, array.rows(), array.columns());
+			dataLength = align(dataLength + array.length() * elementSize);
+			blobs.add(blob);
+			arrays.add(array);
+			return blob;
+		}
+
+		private static int[] getStridesAndPadding(DL4JConvolutionGeometry geometry) {
+			return new int[] { geometry.getStrideHeight(), geometry.getStrideWidth(), geometry.getPaddingHeight(),
+					geometry.getPaddingWidth() };
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.snapshots;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+
+/**
+ * Header entry describing one component of a snapshot - its kind, name and
+ * neurons, the geometry of convolutional and pooling axons, the activation
+ * function type, properties and required orientation of activation function
+ * components, and the location of any weight blobs within the snapshot's data
+ * section.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JSnapshotEntry {
+
+	/**
+	 * The kinds of component that can be held in a snapshot.
+	 */
+	public enum ComponentKind {
+		FULLY_CONNECTED_AXONS, CONVOLUTIONAL_AXONS, MAX_POOLING_AXONS, AVERAGE_POOLING_AXONS, ACTIVATION_FUNCTION
+	}
+
+	/**
+	 * The location of a [rows, columns] 'c' ordered weight blob, relative to the
+	 * start of the snapshot's data section.
+	 */
+	public static class Blob {
+
+		private long offset;
+		private int rows;
+		private int columns;
+
+		public Blob(long offset, int rows, int columns) {
+			this.offset = offset;
+			this.rows = rows;
+			this.columns = columns;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		public int getColumns() {
+			return columns;
+		}
+
+		public long getLength() {
+			return (long) rows * columns;
+		}
+	}
+
+	private static final int FLAT_NEURONS = 0;
+	private static final int IMAGE_NEURONS = 1;
+
+	private ComponentKind kind;
+	private String name;
+	private Neurons leftNeurons;
+	private Neurons rightNeurons;
+	private int[] stridesAndPadding;
+	private String activationFunctionTypeId;
+	private Float alpha;
+	private NeuronsActivationFeatureOrientation requiredOrientation;
+	private Blob weights;
+	private Blob biases;
+
+	private DL4JSnapshotEntry(ComponentKind kind, String name, Neurons leftNeurons, Neurons rightNeurons,
+			int[] stridesAndPadding, String activationFunctionTypeId, Float alpha,
+			NeuronsActivationFeatureOrientation requiredOrientation, Blob weights, Blob biases) {
+		this.kind = kind;
+		this.name = name;
+		this.leftNeurons = leftNeurons;
+		this.rightNeurons = rightNeurons;
+		this.stridesAndPadding = stridesAndPadding;
+		this.activationFunctionTypeId = activationFunctionTypeId;
+		this.alpha = alpha;
+		this.requiredOrientation = requiredOrientation;
+		this.weights = weights;
+		this.biases = biases;
+	}
+
+	/**
+	 * @param name         The component name.
+	 * @param leftNeurons  The left neurons.
+	 * @param rightNeurons The right neurons.
+	 * @param weights      The location of the connection weights.
+	 * @param biases       The location of the biases, or null.
+	 * @return An entry for fully connected axons.
+	 */
+	public static DL4JSnapshotEntry forFullyConnectedAxons(String name, Neurons leftNeurons, Neurons rightNeurons,
+			Blob weights, Blob biases) {
+		return new DL4JSnapshotEntry(ComponentKind.FULLY_CONNECTED_AXONS, name, leftNeurons, rightNeurons, null,
+				null, null, null, weights, biases);
+	}
+
+	/**
+	 * @param kind              The kind of convolutional or pooling axons.
+	 * @param name              The component name.
+	 * @param leftNeurons       The left neurons.
+	 * @param rightNeurons      The right neurons.
+	 * @param stridesAndPadding The stride height and width, then the padding
+	 *                          height and width.
+	 * @param weights           The location of the connection weights, or null
+	 *                          for pooling axons.
+	 * @param biases            The location of the biases, or null.
+	 * @return An entry for convolutional or pooling axons.
+	 */
+	public static DL4JSnapshotEntry forAxons3D(ComponentKind kind, String name, Neurons3D leftNeurons,
+			Neurons3D rightNeurons, int[] stridesAndPadding, Blob weights, Blob biases) {
+		return new DL4JSnapshotEntry(kind, name, leftNeurons, rightNeurons, stridesAndPadding, null, null, null,
+				weights, biases);
+	}
+
+	/**
+	 * @param name                     The component name.
+	 * @param neurons                  The neurons.
+	 * @param activationFunctionTypeId The qualified id of the activation function
+	 *                                 type.
+	 * @param alpha                    The alpha of the activation function, or
+	 *                                 null if it has none.
+	 * @param requiredOrientation      The feature orientation required by the
+	 *                                 activation function, or null.
+	 * @return An entry for an activation function component.
+	 */
+	public static DL4JSnapshotEntry forActivationFunction(String name, Neurons neurons,
+			String activationFunctionTypeId, Float alpha, NeuronsActivationFeatureOrientation requiredOrientation) {
+		return new DL4JSnapshotEntry(ComponentKind.ACTIVATION_FUNCTION, name, neurons, neurons, null,
+				activationFunctionTypeId, alpha, requiredOrientation, null, null);
+	}
+
+	public ComponentKind getKind() {
+		return kind;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Neurons getLeftNeurons() {
+		return leftNeurons;
+	}
+
+	public Neurons getRightNeurons() {
+		return rightNeurons;
+	}
+
+	/**
+	 * @return The stride height and width, then the padding height and width, of
+	 *         convolutional and pooling axons, otherwise null.
+	 */
+	public int[] getStridesAndPadding() {
+		return stridesAndPadding;
+	}
+
+	public String getActivationFunctionTypeId() {
+		return activationFunctionTypeId;
+	}
+
+	public Float getAlpha() {
+		return alpha;
+	}
+
+	public NeuronsActivationFeatureOrientation getRequiredOrientation() {
+		return requiredOrientation;
+	}
+
+	public Blob getWeights() {
+		return weights;
+	}
+
+	public Blob getBiases() {
+		return biases;
+	}
+
+	void writeTo(DataOutput output) throws IOException {
+		output.writeUTF(kind.name());
+		output.writeUTF(name);
+		writeNeurons(output, leftNeurons);
+		writeNeurons(output, rightNeurons);
+		output.writeBoolean(stridesAndPadding != null);
+		if (stridesAndPadding != null) {
+			for (int value : stridesAndPadding) {
+				output.writeInt(value);
+			}
+		}
+		output.writeBoolean(activationFunctionTypeId != null);
+		if (activationFunctionTypeId != null) {
+			output.writeUTF(activationFunctionTypeId);
+			output.writeBoolean(alpha != null);
+			if (alpha != null) {
+				output.writeFloat(alpha);
+			}
+			output.writeUTF(requiredOrientation == null ? "" : requiredOrientation.name());
+		}
+		writeBlob(output, weights);
+		writeBlob(output, biases);
+	}
+
+	static DL4JSnapshotEntry readFrom(DataInput input) throws IOException {
+		ComponentKind kind = ComponentKind.valueOf(input.readUTF());
+		String name = input.readUTF();
+		Neurons leftNeurons = readNeurons(input);
+		Neurons rightNeurons = readNeurons(input);
+		int[] stridesAndPadding = null;
+		if (input.readBoolean()) {
+			stridesAndPadding = new int[4];
+			for (int i = 0; i < stridesAndPadding.length; i++) {
+				stridesAndPadding[i] = input.readInt();
+			}
+		}
+		String activationFunctionTypeId = null;
+		Float alpha = null;
+		NeuronsActivationFeatureOrientation requiredOrientation = null;
+		if (input.readBoolean()) {
+			activationFunctionTypeId = input.readUTF();
+			alpha = input.readBoolean() ? input.readFloat() : null;
+			String orientation = input.readUTF();
+			requiredOrientation = orientation.isEmpty() ? null
+					: NeuronsActivationFeatureOrientation.valueOf(orientation);
+		}
+		Blob weights = readBlob(input);
+		Blob biases = readBlob(input);
+		return new DL4JSnapshotEntry(kind, name, leftNeurons, rightNeurons, stridesAndPadding,
+				activationFunctionTypeId, alpha, requiredOrientation, weights, biases);
+	}
+
+	private static void writeNeurons(DataOutput output, Neurons neurons) throws IOException {
+		if (neurons instanceof Neurons3D) {
+			Neurons3D neurons3D = (Neurons3D) neurons;
+			output.writeByte(IMAGE_NEURONS);
+			output.writeInt(neurons3D.getWidth());
+			output.writeInt(neurons3D.getHeight());
+			output.writeInt(neurons3D.getDepth());
+		} else {
+			output.writeByte(FLAT_NEURONS);
+			output.writeInt(neurons.getNeuronCountExcludingBias());
+		}
+		output.writeBoolean(neurons.hasBiasUnit());
+	}
+
+	private static Neurons readNeurons(DataInput input) throws IOException {
+		if (input.readByte() == IMAGE_NEURONS) {
+			int width = input.readInt();
+			int height = input.readInt();
+			int depth = input.readInt();
+			return new Neurons3D(width, height, depth, input.readBoolean());
+		} else {
+			int count = input.readInt();
+			return new Neurons(count, input.readBoolean());
+		}
+	}
+
+	private static void writeBlob(DataOutput output, Blob blob) throws IOException {
+		output.writeBoolean(blob != null);
+		if (blob != null) {
+			output.writeLong(blob.getOffset());
+			output.writeInt(blob.getRows());
+			output.writeInt(blob.getColumns());
+		}
+	}
+
+	private static Blob readBlob(DataInput input) throws IOException {
+		if (!input.readBoolean()) {
+			return null;
+		}
+		long offset = input.readLong();
+		int rows = input.readInt();
+		return new Blob(offset, rows, input.readInt());
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.dl4j.workspaces;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.MirroringPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * The ND4J workspaces owned by a single DL4J-backed component - one for
+ * forward propagation and one for back propagation.
+ *
+ * Workspaces are cyclic: memory allocated within a workspace scope is recycled
+ * when the same workspace is next activated on the same thread, so after the
+ * first few iterations, steady-state training allocates no new array memory
+ * for arrays that are scoped to the workspace.
+ *
+ * ND4J keeps workspaces per thread, so a component propagated by several
+ * threads concurrently has a separate pair of workspaces on each thread, and
+ * the threads never share scratch memory.
+ *
+ * When workspaces are disabled the activate methods return null, which
+ * try-with-resources blocks accept, so callers need not branch.
+ *
+ * @author Michael Lavelle
+ */
+public class DL4JComponentWorkspaces implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private static final WorkspaceConfiguration WORKSPACE_CONFIGURATION = WorkspaceConfiguration.builder()
+			.initialSize(0).overallocationLimit(0.2).policyAllocation(AllocationPolicy.OVERALLOCATE)
+			.policyReset(ResetPolicy.BLOCK_LEFT).cyclesBeforeInitialization(2).policyMirroring(MirroringPolicy.FULL)
+			.policySpill(SpillPolicy.REALLOCATE).policyLearning(LearningPolicy.OVER_TIME).build();
+
+	private String componentName;
+	private String forwardPropagationWorkspaceId;
+	private String backPropagationWorkspaceId;
+	private boolean enabled;
+
+	public DL4JComponentWorkspaces(String componentName, boolean enabled) {
+		this.componentName = componentName;
+		String componentWorkspaceId = "ML4J_DL4J_" + componentName + "_" + UUID.randomUUID();
+		this.forwardPropagationWorkspaceId = componentWorkspaceId + "_FF";
+		this.backPropagationWorkspaceId = componentWorkspaceId + "_BP";
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return The name of the component owning these workspaces.
+	 */
+	public String getComponentName() {
+		return componentName;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return The activated forward propagation workspace, or null if
+	 *         workspaces are disabled.
+	 */
+	public MemoryWorkspace activateForwardPropagationWorkspace() {
+		return enabled
+				? Nd4j.getWorkspaceManager().getAndActivateWorkspace(WORKSPACE_CONFIGURATION,
+						forwardPropagationWorkspaceId)
+				: null;
+	}
+
+	/**
+	 * @return The activated back propagation workspace, or null if workspaces
+	 *         are disabled.
+	 */
+	public MemoryWorkspace activateBackPropagationWorkspace() {
+		return enabled
+				? Nd4j.getWorkspaceManager().getAndActivateWorkspace(WORKSPACE_CONFIGURATION,
+						backPropagationWorkspaceId)
+				: null;
+	}
+
+	/**
+	 * @return The size in bytes of the forward propagation workspace of the
+	 *         calling thread, or 0 if it has not been created.
+	 */
+	public long getForwardPropagationWorkspaceSize() {
+		return getWorkspaceSize(forwardPropagationWorkspaceId);
+	}
+
+	/**
+	 * @return The size in bytes of the back propagation workspace of the
+	 *         calling thread, or 0 if it has not been created.
+	 */
+	public long getBackPropagationWorkspaceSize() {
+		return getWorkspaceSize(backPropagationWorkspaceId);
+	}
+
+	private static long getWorkspaceSize(String workspaceId) {
+		return Nd4j.getWorkspaceManager().checkIfWorkspaceExists(workspaceId)
+				? Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(workspaceId).getCurrentSize()
+				: 0;
+	}
+
+	/**
+	 * Scopes allocations out of any workspace when the allocated arrays must
+	 * outlive the current workspace cycle - for example arrays retained by an
+	 * activation for back propagation.
+	 *
+	 * @param retained Whether the arrays allocated within the scope are retained.
+	 * @return A scope out of workspaces if retained, otherwise null.
+	 */
+	public static MemoryWorkspace scopeOutOfWorkspacesIfRetained(boolean retained) {
+		return retained ? Nd4j.getMemoryManager().scopeOutOfWorkspaces() : null;
+	}
+
+	/**
+	 * Duplicates an array into memory outside of any workspace, for arrays which
+	 * must outlive the current workspace cycle.
+	 *
+	 * @param ndArray The array to duplicate.
+	 * @return A duplicate of the array, with the same ordering, which is not
+	 *         attached to any workspace.
+	 */
+	public static INDArray dupOutOfWorkspaces(INDArray ndArray) {
+		try (MemoryWorkspace outOfWorkspaces = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+			return ndArray.dup(ndArray.ordering());
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class ActivationML4JReLUTest {
+
+	@Test
+	public void testMatchesDL4JReLUAndWritesIntoInput() {
+		ActivationML4JReLU activationFunction = new ActivationML4JReLU("relu");
+		ActivationReLU dl4jActivationFunction = new ActivationReLU();
+
+		for (int iteration = 0; iteration < 3; iteration++) {
+			INDArray input = Nd4j.randn(4, 6);
+			INDArray epsilon = Nd4j.randn(4, 6);
+
+			INDArray activationInput = input.dup();
+			INDArray output = activationFunction.getActivation(activationInput, true);
+			Assert.assertSame(activationInput, output);
+			Assert.assertEquals(dl4jActivationFunction.getActivation(input.dup(), true), output);
+
+			INDArray backPropInput = input.dup();
+			INDArray gradient = activationFunction.backprop(backPropInput, epsilon).getFirst();
+			Assert.assertSame(backPropInput, gradient);
+			Assert.assertEquals(dl4jActivationFunction.backprop(input.dup(), epsilon.dup()).getFirst(), gradient);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import org.bytedeco.javacpp.Pointer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.dl4j.DL4JBackPropRetention;
+import org.ml4j.nn.dl4j.DL4JReducedPrecision;
+import org.ml4j.nn.dl4j.workspaces.DL4JComponentWorkspaces;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.activations.impl.ActivationTanH;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+public class DL4JActivationBackPropStateTest {
+
+	private static final double DELTA = 0.00001;
+
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private final MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+
+	private final DL4JComponentWorkspaces workspaces = new DL4JComponentWorkspaces("test", false);
+
+	private void assertMatchesDL4J(DL4JBackPropRetention retention, IActivation activationFunction) {
+		Nd4j.getRandom().setSeed(1234);
+		// 65 examples of 3 features spans more than one word of a sign mask
+		INDArray input = Nd4j.randn(65, 3);
+		INDArray outputGradient = Nd4j.randn(65, 3);
+		INDArray expected = activationFunction.backprop(input.dup(), outputGradient.dup()).getFirst();
+
+		NeuronsActivation inputActivation = DL4JUtil.fromNDArray(matrixFactory, input, COLUMNS,
+				NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, new Neurons(3, false));
+		INDArray output = activationFunction.getActivation(input.dup(), true);
+
+		DL4JActivationBackPropState state = DL4JActivationBackPropState.create(retention, activationFunction,
+				matrixFactory, inputActivation, input, true, output, COLUMNS, workspaces, null);
+		INDArray actual = state.backPropagate(outputGradient);
+
+		Assert.assertTrue(expected.equalsWithEps(actual, DELTA));
+		// The caller's input is not modified
+		Assert.assertEquals(DL4JUtil.asNDArray(matrixFactory, inputActivation, COLUMNS), input);
+	}
+
+	@Test
+	public void testMinimalRetentionMatchesDL4JBackProp() {
+		assertMatchesDL4J(DL4JBackPropRetention.MINIMAL, new ActivationReLU());
+		assertMatchesDL4J(DL4JBackPropRetention.MINIMAL, new ActivationLReLU(0.1));
+		assertMatchesDL4J(DL4JBackPropRetention.MINIMAL, new ActivationSigmoid());
+		assertMatchesDL4J(DL4JBackPropRetention.MINIMAL, new ActivationTanH());
+		// Falls back to retaining the input
+		assertMatchesDL4J(DL4JBackPropRetention.MINIMAL, new ActivationSoftmax());
+	}
+
+	private void assertUnaffectedByModifyingOutput(IActivation activationFunction, INDArray input,
+			boolean viewOutput) {
+		INDArray outputGradient = Nd4j.randn(input.rows(), input.columns());
+		INDArray expected = activationFunction.backprop(input.dup(), outputGradient.dup()).getFirst();
+
+		NeuronsActivation inputActivation = DL4JUtil.fromNDArray(matrixFactory, input, COLUMNS,
+				NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, new Neurons(input.columns(), false));
+		INDArray output = activationFunction.getActivation(input.dup(), true);
+		if (viewOutput) {
+			INDArray padded = Nd4j.zeros(input.rows() + 2, input.columns());
+			output = padded.get(NDArrayIndex.interval(1, input.rows() + 1), NDArrayIndex.all()).assign(output);
+		}
+
+		DL4JActivationBackPropState state = DL4JActivationBackPropState.create(DL4JBackPropRetention.MINIMAL,
+				activationFunction, matrixFactory, inputActivation, input, true, output, COLUMNS, workspaces, null);
+		// The output is handed downstream, where it may be overwritten in-place
+		output.assign(0);
+
+		Assert.assertTrue(expected.equalsWithEps(state.backPropagate(outputGradient), DELTA));
+	}
+
+	@Test
+	public void testSignMaskRetentionIsUnaffectedByModifyingOutput() {
+		Nd4j.getRandom().setSeed(1234);
+		// 100 x 100 elements span more than one chunk of a sign mask
+		for (IActivation activationFunction : new IActivation[] { new ActivationReLU(), new ActivationLReLU(0.1) }) {
+			assertUnaffectedByModifyingOutput(activationFunction, Nd4j.randn(100, 100), false);
+			assertUnaffectedByModifyingOutput(activationFunction, Nd4j.randn(7, 5).transpose(), false);
+			assertUnaffectedByModifyingOutput(activationFunction, Nd4j.randn(7, 5), true);
+		}
+	}
+
+	@Test
+	public void testMinimalOutputRetentionAllocatesNothingBeforeBackPropagation() {
+		Nd4j.getRandom().setSeed(1234);
+		for (IActivation activationFunction : new IActivation[] { new ActivationSigmoid(), new ActivationTanH() }) {
+			INDArray input = Nd4j.randn(100, 100);
+			INDArray outputGradient = Nd4j.randn(100, 100);
+			INDArray expected = activationFunction.backprop(input.dup(), outputGradient.dup()).getFirst();
+			NeuronsActivation inputActivation = DL4JUtil.fromNDArray(matrixFactory, input, COLUMNS,
+					NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, new Neurons(100, false));
+			INDArray output = activationFunction.getActivation(input.dup(), true);
+
+			long startNativeBytes = Pointer.totalBytes();
+			DL4JActivationBackPropState state = DL4JActivationBackPropState.create(DL4JBackPropRetention.MINIMAL,
+					activationFunction, matrixFactory, inputActivation, input, true, output, COLUMNS, workspaces,
+					null);
+			Assert.assertEquals(0, Pointer.totalBytes() - startNativeBytes);
+
+			Assert.assertTrue(expected.equalsWithEps(state.backPropagate(outputGradient), DELTA));
+		}
+	}
+
+	@Test
+	public void testInputAndRecomputeRetentionMatchDL4JBackProp() {
+		assertMatchesDL4J(DL4JBackPropRetention.INPUT, new ActivationSigmoid());
+		assertMatchesDL4J(DL4JBackPropRetention.RECOMPUTE, new ActivationSigmoid());
+		assertMatchesDL4J(DL4JBackPropRetention.RECOMPUTE, new ActivationSoftmax());
+	}
+
+	@Test
+	public void testOnlyElementwiseSignOrOutputActivationsAreMinimal() {
+		Assert.assertTrue(DL4JActivationBackPropState.isMinimal(DL4JBackPropRetention.MINIMAL, new ActivationReLU()));
+		Assert.assertFalse(
+				DL4JActivationBackPropState.isMinimal(DL4JBackPropRetention.MINIMAL, new ActivationSoftmax()));
+		Assert.assertFalse(DL4JActivationBackPropState.isMinimal(DL4JBackPropRetention.INPUT, new ActivationReLU()));
+	}
+
+	private void assertWithinToleranceOfFP32(DL4JReducedPrecision precision, IActivation activationFunction,
+			double tolerance) {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(65, 3);
+		INDArray outputGradient = Nd4j.randn(65, 3);
+		INDArray expected = activationFunction.backprop(input.dup(), outputGradient.dup()).getFirst();
+
+		DL4JActivationBackPropState state = DL4JActivationBackPropState.createReducedPrecisionInput(
+				activationFunction, input, precision, COLUMNS, null);
+		// The activation function may now be applied in-place on the input
+		input.assign(0);
+		INDArray actual = state.backPropagate(outputGradient);
+
+		Assert.assertTrue(expected.equalsWithEps(actual, tolerance));
+		Assert.assertFalse(expected.equalsWithEps(actual, DELTA / 100));
+	}
+
+	@Test
+	public void testReducedPrecisionInputIsWithinToleranceOfFP32BackProp() {
+		assertWithinToleranceOfFP32(DL4JReducedPrecision.FP16, new ActivationSigmoid(), 0.002);
+		assertWithinToleranceOfFP32(DL4JReducedPrecision.FP16, new ActivationSoftmax(), 0.002);
+		assertWithinToleranceOfFP32(DL4JReducedPrecision.BF16, new ActivationSigmoid(), 0.02);
+		assertWithinToleranceOfFP32(DL4JReducedPrecision.BF16, new ActivationSoftmax(), 0.02);
+	}
+
+	@Test
+	public void testReducedPrecisionsRoundToNearestEven() {
+		for (DL4JReducedPrecision precision : new DL4JReducedPrecision[] { DL4JReducedPrecision.FP16,
+				DL4JReducedPrecision.BF16 }) {
+			Assert.assertEquals(1.5f, precision.decode(precision.encode(1.5f)), 0);
+			Assert.assertEquals(-0.375f, precision.decode(precision.encode(-0.375f)), 0);
+			Assert.assertTrue(Float.isNaN(precision.decode(precision.encode(Float.NaN))));
+		}
+		// Halfway between 1 and the next FP16 value of 1 + 2^-10 rounds to even
+		Assert.assertEquals(1f, DL4JReducedPrecision.FP16.decode(DL4JReducedPrecision.FP16.encode(1 + 0x1p-11f)), 0);
+		Assert.assertEquals(65504f, DL4JReducedPrecision.FP16.decode(DL4JReducedPrecision.FP16.encode(65519f)), 0);
+		Assert.assertEquals(Float.POSITIVE_INFINITY,
+				DL4JReducedPrecision.FP16.decode(DL4JReducedPrecision.FP16.encode(65520f)), 0);
+		Assert.assertEquals(0x1p-24f, DL4JReducedPrecision.FP16.decode(DL4JReducedPrecision.FP16.encode(0x1p-24f)), 0);
+		Assert.assertEquals(1e30f, DL4JReducedPrecision.BF16.decode(DL4JReducedPrecision.BF16.encode(1e30f)), 1e28f);
+	}
+
+	@Test
+	public void testReducedPrecisionArraysRoundTripViewsAndOrderings() {
+		Nd4j.getRandom().setSeed(1234);
+		// More elements than a single chunk of the bulk transfers
+		INDArray padded = Nd4j.randn(150, 120);
+		INDArray[] arrays = new INDArray[] { padded.dup('f'),
+				padded.get(NDArrayIndex.interval(5, 145), NDArrayIndex.interval(3, 117)) };
+		for (INDArray array : arrays) {
+			DL4JReducedPrecisionArray encoded = DL4JReducedPrecisionArray.encode(array, DL4JReducedPrecision.FP16);
+			INDArray decoded = encoded.decode();
+			Assert.assertEquals(array.length() * 2, encoded.getSizeInBytes());
+			Assert.assertArrayEquals(array.shape(), decoded.shape());
+			Assert.assertTrue(array.equalsWithEps(decoded, 0.005));
+			for (int i = 0; i < 10; i++) {
+				int row = i * 13;
+				int column = i * 11;
+				Assert.assertEquals(DL4JReducedPrecision.FP16.decode(
+						DL4JReducedPrecision.FP16.encode(array.getFloat(row, column))),
+						decoded.getFloat(row, column), 0);
+			}
+		}
+	}
+}
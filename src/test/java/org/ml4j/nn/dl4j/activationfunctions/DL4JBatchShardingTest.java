@@ -0,0 +1,72 @@
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.dl4j.DL4JBatchShardingConfig;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JBatchShardingTest {
+
+	private static final double DELTA = 0.00001;
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	// 7 examples per shard, so the final shard of 100 examples is partial
+	private final DL4JBatchShardingConfig config = new DL4JBatchShardingConfig(7, 4);
+
+	@Test
+	public void testShardedSoftmaxNormalisesPerExample() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(100, 10);
+		INDArray copy = input.dup();
+		IActivation softmax = new ActivationSoftmax();
+
+		Assert.assertTrue(DL4JBatchSharding.isSharded(input, COLUMNS, config));
+		INDArray sharded = DL4JBatchSharding.map(input, COLUMNS, config, shard -> softmax.getActivation(shard, false));
+
+		Assert.assertTrue(softmax.getActivation(input.dup(), false).equalsWithEps(sharded, DELTA));
+		// The input is not modified
+		Assert.assertEquals(copy, input);
+	}
+
+	@Test
+	public void testShardedBackPropMatchesUnsharded() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(10, 100);
+		INDArray outputGradient = Nd4j.randn(10, 100);
+		IActivation sigmoid = new ActivationSigmoid();
+
+		INDArray expected = sigmoid.backprop(input.dup(), outputGradient.dup()).getFirst();
+		INDArray sharded = DL4JBatchSharding.map(input, outputGradient, ROWS, config,
+				(inputShard, outputGradientShard) -> sigmoid.backprop(inputShard, outputGradientShard).getFirst());
+
+		Assert.assertTrue(expected.equalsWithEps(sharded, DELTA));
+	}
+
+	@Test
+	public void testSmallBatchesAreNotSharded() {
+		Assert.assertFalse(DL4JBatchSharding.isSharded(Nd4j.ones(7, 10), COLUMNS, config));
+		Assert.assertFalse(DL4JBatchSharding.isSharded(Nd4j.ones(100, 10), COLUMNS, null));
+	}
+
+	@Test
+	public void testParallelTransposeMatchesSequentialTranspose() {
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		INDArray ndArray = Nd4j.rand(new int[] { 300, 130 }, 'c');
+
+		Matrix sequential = DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, ndArray, COLUMNS, ROWS);
+		Matrix parallel = DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, ndArray, COLUMNS, ROWS, config);
+
+		Assert.assertArrayEquals(sequential.getRowByRowArray(), parallel.getRowByRowArray(), 0f);
+	}
+}
@@ -0,0 +1,355 @@
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.DL4JStoragePrecision;
+import org.ml4j.nn.dl4j.neurons.DL4JNeuronsActivation;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.mockito.Mockito;
+import org.nd4j.linalg.activations.BaseActivationFunction;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationRReLU;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.primitives.Pair;
+
+public class DL4JDifferentiableActivationFunctionComponentImplTest {
+
+	private static final double DELTA = 0.00001;
+
+	private static final int THREADS = 8;
+
+	private static final int ITERATIONS = 200;
+
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private final MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+
+	private final Neurons neurons = new Neurons(10, false);
+
+	private DL4JDifferentiableActivationFunctionComponentImpl createSoftmaxComponent(DL4JComponentConfig config) {
+		return new DL4JDifferentiableActivationFunctionComponentImpl("softmax", neurons, new ActivationSoftmax(),
+				Mockito.mock(ActivationFunctionType.class), COLUMNS, config);
+	}
+
+	@Test
+	public void testInPlaceInferenceAppliesActivationOnInputBuffer() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(20, 10);
+		INDArray expected = new ActivationSoftmax().getActivation(input.dup(), false);
+		NeuronsActivation inputActivation = DL4JUtil.fromNDArray(matrixFactory, input, COLUMNS,
+				NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons);
+
+		DifferentiableActivationFunctionComponentActivation activation = createSoftmaxComponent(
+				new DL4JComponentConfig().withInPlaceInferenceEnabled(true)).forwardPropagate(inputActivation,
+						new NeuronsActivationContextImpl(matrixFactory, false));
+
+		INDArray output = DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), COLUMNS);
+		Assert.assertTrue(expected.equalsWithEps(output, DELTA));
+		Assert.assertSame(input, output);
+		Assert.assertTrue(activation instanceof DL4JInferenceActivationFunctionComponentActivationImpl);
+	}
+
+	@Test
+	public void testInPlaceInferenceInvalidatesMaterialisedInput() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(20, 10);
+		INDArray expected = new ActivationSoftmax().getActivation(input.dup(), false);
+		NeuronsActivation inputActivation = DL4JUtil.fromNDArray(matrixFactory, input, COLUMNS,
+				NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons);
+		Matrix staleActivations = inputActivation.getActivations(matrixFactory);
+		Assert.assertTrue(((DL4JNeuronsActivation) inputActivation).isMaterialised());
+
+		createSoftmaxComponent(new DL4JComponentConfig().withInPlaceInferenceEnabled(true))
+				.forwardPropagate(inputActivation, new NeuronsActivationContextImpl(matrixFactory, false));
+
+		// The Matrix copy made before the input was overwritten is not served again
+		Assert.assertFalse(((DL4JNeuronsActivation) inputActivation).isMaterialised());
+		Matrix activations = inputActivation.getActivations(matrixFactory);
+		Assert.assertNotSame(staleActivations, activations);
+		Assert.assertArrayEquals(expected.dup('c').data().asFloat(), activations.getRowByRowArray(), (float) DELTA);
+	}
+
+	@Test
+	public void testInferenceDoesNotModifyInputByDefault() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(20, 10);
+		INDArray copy = input.dup();
+		NeuronsActivation inputActivation = DL4JUtil.fromNDArray(matrixFactory, input, COLUMNS,
+				NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons);
+
+		createSoftmaxComponent(new DL4JComponentConfig()).forwardPropagate(inputActivation,
+				new NeuronsActivationContextImpl(matrixFactory, false));
+
+		Assert.assertEquals(copy, input);
+	}
+
+	private NeuronsActivation createMatrixActivation(INDArray input) {
+		return new NeuronsActivationImpl(neurons,
+				matrixFactory.createMatrixFromRowsByRowsArray(input.rows(), input.columns(),
+						input.dup('c').data().asFloat()),
+				NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET);
+	}
+
+	@Test
+	public void testOutputsAndRetainedStateSurviveWorkspaceReuse() {
+		assertOutputsAndRetainedStateSurviveWorkspaceReuse(input -> DL4JUtil.fromNDArray(matrixFactory, input.dup(),
+				COLUMNS, NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons));
+	}
+
+	@Test
+	public void testRetainedMatrixInputSurvivesWorkspaceReuse() {
+		// An input which is not carried natively by ND4J is converted by the
+		// component itself, so must be converted outside of the cyclic workspace
+		assertOutputsAndRetainedStateSurviveWorkspaceReuse(this::createMatrixActivation);
+	}
+
+	private void assertOutputsAndRetainedStateSurviveWorkspaceReuse(
+			Function<INDArray, NeuronsActivation> createActivation) {
+		Nd4j.getRandom().setSeed(1234);
+		DL4JDifferentiableActivationFunctionComponentImpl component = createSoftmaxComponent(
+				new DL4JComponentConfig().withWorkspacesEnabled(true));
+		List<INDArray> inputs = new ArrayList<>();
+		List<DifferentiableActivationFunctionComponentActivation> activations = new ArrayList<>();
+		for (int iteration = 0; iteration < 5; iteration++) {
+			INDArray input = Nd4j.randn(20, 10);
+			inputs.add(input);
+			activations.add(component.forwardPropagate(createActivation.apply(input),
+					new NeuronsActivationContextImpl(matrixFactory, true)));
+		}
+
+		// Each activation is read, and back propagated, after the workspaces have
+		// been reused by the later iterations
+		INDArray outputGradient = Nd4j.randn(20, 10);
+		for (int iteration = 0; iteration < 5; iteration++) {
+			INDArray input = inputs.get(iteration);
+			DifferentiableActivationFunctionComponentActivation activation = activations.get(iteration);
+			Assert.assertTrue(new ActivationSoftmax().getActivation(input.dup(), true).equalsWithEps(
+					DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), COLUMNS), DELTA));
+			NeuronsActivation inputGradient = activation.backPropagate(new DirectedComponentGradientImpl<>(
+					DL4JUtil.fromNDArray(matrixFactory, outputGradient, COLUMNS,
+							NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons)))
+					.getOutput();
+			Assert.assertTrue(new ActivationSoftmax().backprop(input.dup(), outputGradient.dup()).getFirst()
+					.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, inputGradient, COLUMNS), DELTA));
+		}
+	}
+
+	@Test
+	public void testSteadyStateTrainingDoesNotGrowWorkspaces() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(20, 10);
+		INDArray outputGradient = Nd4j.randn(20, 10);
+		DL4JDifferentiableActivationFunctionComponentImpl component = createSoftmaxComponent(
+				new DL4JComponentConfig().withWorkspacesEnabled(true));
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			propagate(component, input, outputGradient);
+		}
+		long forwardPropagationWorkspaceSize = component.getWorkspaces().getForwardPropagationWorkspaceSize();
+		long backPropagationWorkspaceSize = component.getWorkspaces().getBackPropagationWorkspaceSize();
+
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			propagate(component, input, outputGradient);
+		}
+		Assert.assertEquals(forwardPropagationWorkspaceSize,
+				component.getWorkspaces().getForwardPropagationWorkspaceSize());
+		Assert.assertEquals(backPropagationWorkspaceSize, component.getWorkspaces().getBackPropagationWorkspaceSize());
+	}
+
+	@Test
+	public void testReducedStoragePrecisionOnlyAffectsTheInputGradient() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(20, 10);
+		INDArray outputGradient = Nd4j.randn(20, 10);
+		INDArray[] expected = propagate(createSoftmaxComponent(new DL4JComponentConfig()), input.dup(),
+				outputGradient.dup());
+
+		for (DL4JStoragePrecision precision : new DL4JStoragePrecision[] { DL4JStoragePrecision.FP16,
+				DL4JStoragePrecision.BF16 }) {
+			INDArray[] actual = propagate(createSoftmaxComponent(new DL4JComponentConfig()
+					.withStoragePrecision(precision)), input.dup(), outputGradient.dup());
+			Assert.assertTrue(expected[0].equalsWithEps(actual[0], DELTA));
+			Assert.assertTrue(expected[1].equalsWithEps(actual[1], 0.02));
+			Assert.assertFalse(expected[1].equalsWithEps(actual[1], DELTA / 100));
+		}
+	}
+
+	@Test
+	public void testSharedComponentPropagatesConcurrently() throws Exception {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(20, 10);
+		INDArray outputGradient = Nd4j.randn(20, 10);
+		DL4JDifferentiableActivationFunctionComponentImpl component = createSoftmaxComponent(
+				new DL4JComponentConfig().withWorkspacesEnabled(true));
+		INDArray[] expected = propagate(component, input, outputGradient);
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int thread = 0; thread < THREADS; thread++) {
+				tasks.add(() -> {
+					for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+						INDArray[] actual = propagate(component, input.dup(), outputGradient.dup());
+						Assert.assertTrue(expected[0].equalsWithEps(actual[0], DELTA));
+						Assert.assertTrue(expected[1].equalsWithEps(actual[1], DELTA));
+					}
+					return null;
+				});
+			}
+			for (Future<Void> result : executor.invokeAll(tasks)) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testStatefulComponentPropagatesConcurrentlyWithActivationsInFlight() throws Exception {
+		assertPropagatesConcurrentlyWithActivationsInFlight(input -> DL4JUtil.fromNDArray(matrixFactory, input,
+				COLUMNS, NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons));
+	}
+
+	@Test
+	public void testStatefulComponentPropagatesConcurrentlyWithMatrixActivationsInFlight() throws Exception {
+		assertPropagatesConcurrentlyWithActivationsInFlight(this::createMatrixActivation);
+	}
+
+	private void assertPropagatesConcurrentlyWithActivationsInFlight(
+			Function<INDArray, NeuronsActivation> createActivation) throws Exception {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray firstInput = Nd4j.randn(20, 10);
+		INDArray secondInput = Nd4j.randn(20, 10);
+		INDArray outputGradient = Nd4j.randn(20, 10);
+		DL4JDifferentiableActivationFunctionComponentImpl component =
+				new DL4JDifferentiableActivationFunctionComponentImpl("sampledSlope", neurons,
+						new SampledSlopeActivation(), Mockito.mock(ActivationFunctionType.class), COLUMNS,
+						new DL4JComponentConfig().withWorkspacesEnabled(true));
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int thread = 0; thread < THREADS; thread++) {
+				tasks.add(() -> {
+					for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+						// Both activations are in flight on this thread before either is back
+						// propagated, so each must back propagate with the slope it sampled
+						DifferentiableActivationFunctionComponentActivation first = forwardPropagate(component,
+								createActivation.apply(firstInput.dup()));
+						DifferentiableActivationFunctionComponentActivation second = forwardPropagate(component,
+								createActivation.apply(secondInput.dup()));
+						assertBackPropagatesWithSampledSlope(first, firstInput, outputGradient);
+						assertBackPropagatesWithSampledSlope(second, secondInput, outputGradient);
+					}
+					return null;
+				});
+			}
+			for (Future<Void> result : executor.invokeAll(tasks)) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testStatefulActivationFunctionIsCopiedPerTrainingActivationAndPerThread() throws Exception {
+		DL4JPerThreadActivation statelessActivation = new DL4JPerThreadActivation(new ActivationSoftmax());
+		DL4JPerThreadActivation statefulActivation = new DL4JPerThreadActivation(new ActivationRReLU());
+
+		Assert.assertSame(statelessActivation.getShared(), statelessActivation.get(true));
+		Assert.assertSame(statelessActivation.getShared(), statelessActivation.get(false));
+		Assert.assertFalse(statelessActivation.isStateful());
+		Assert.assertTrue(statefulActivation.isStateful());
+		IActivation trainingActivation = statefulActivation.get(true);
+		Assert.assertTrue(trainingActivation instanceof ActivationRReLU);
+		Assert.assertNotSame(statefulActivation.getShared(), trainingActivation);
+		Assert.assertNotSame(trainingActivation, statefulActivation.get(true));
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			IActivation otherThreadActivation = executor.submit(() -> statefulActivation.get(false)).get();
+			Assert.assertSame(otherThreadActivation, executor.submit(() -> statefulActivation.get(false)).get());
+			Assert.assertNotSame(otherThreadActivation, statefulActivation.get(false));
+			Assert.assertTrue(otherThreadActivation instanceof ActivationRReLU);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void assertBackPropagatesWithSampledSlope(DifferentiableActivationFunctionComponentActivation activation,
+			INDArray input, INDArray outputGradient) {
+		INDArray output = DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), COLUMNS);
+		INDArray inputGradient = backPropagate(activation, outputGradient.dup());
+		// Both the output and the input gradient scale negative inputs by the same
+		// slope, so their products with the input gradient and input must agree
+		Assert.assertTrue(outputGradient.mul(output).equalsWithEps(inputGradient.mul(input), DELTA));
+	}
+
+	private DifferentiableActivationFunctionComponentActivation forwardPropagate(
+			DL4JDifferentiableActivationFunctionComponentImpl component, NeuronsActivation input) {
+		return component.forwardPropagate(input, new NeuronsActivationContextImpl(matrixFactory, true));
+	}
+
+	private INDArray backPropagate(DifferentiableActivationFunctionComponentActivation activation,
+			INDArray outputGradient) {
+		NeuronsActivation inputGradient = activation.backPropagate(new DirectedComponentGradientImpl<>(
+				DL4JUtil.fromNDArray(matrixFactory, outputGradient, COLUMNS,
+						NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons)))
+				.getOutput();
+		return DL4JUtil.asNDArray(matrixFactory, inputGradient, COLUMNS);
+	}
+
+	private INDArray[] propagate(DL4JDifferentiableActivationFunctionComponentImpl component, INDArray input,
+			INDArray outputGradient) {
+		DifferentiableActivationFunctionComponentActivation activation = forwardPropagate(component,
+				DL4JUtil.fromNDArray(matrixFactory, input, COLUMNS, NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET,
+						neurons));
+		return new INDArray[] { DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), COLUMNS),
+				backPropagate(activation, outputGradient) };
+	}
+
+	// A leaky rectifier which, like ActivationRReLU, samples the slope of its
+	// negative inputs in a training context and retains it for back propagation.
+	// ActivationRReLU itself cannot be checked this way, as its backprop ignores
+	// the slopes it sampled
+	private static class SampledSlopeActivation extends BaseActivationFunction {
+
+		private static final long serialVersionUID = 1L;
+
+		private double slope;
+
+		@Override
+		public INDArray getActivation(INDArray in, boolean training) {
+			slope = training ? ThreadLocalRandom.current().nextDouble(0.1, 0.9) : 0.5;
+			return in.muli(in.lt(0).muli(slope - 1).addi(1));
+		}
+
+		@Override
+		public Pair<INDArray, INDArray> backprop(INDArray in, INDArray epsilon) {
+			return new Pair<>(in.lt(0).muli(slope - 1).addi(1).muli(epsilon), null);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.dl4j.DL4JBackPropRetention;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.DL4JStoragePrecision;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.mockito.Mockito;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.activations.impl.ActivationTanH;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JFusedActivationChainComponentImplTest {
+
+	private static final float DELTA = 0.00001f;
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+	private final Neurons neurons = new Neurons(3, false);
+
+	private DL4JDifferentiableActivationFunctionComponentImpl createComponent(String name,
+			IActivation activation) {
+		return new DL4JDifferentiableActivationFunctionComponentImpl(name, neurons, activation,
+				Mockito.mock(ActivationFunctionType.class), null);
+	}
+
+	private DL4JDifferentiableActivationFunctionComponentImpl createComponent(String name, IActivation activation,
+			DL4JComponentConfig config) {
+		return new DL4JDifferentiableActivationFunctionComponentImpl(name, neurons, activation,
+				Mockito.mock(ActivationFunctionType.class), null, config);
+	}
+
+	private static float sigmoid(float x) {
+		return (float) (1d / (1d + Math.exp(-x)));
+	}
+
+	@Test
+	public void testForwardAndBackPropagateFusedStages() {
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		DL4JFusedActivationChainComponentImpl component = new DL4JFusedActivationChainComponentImpl("relu+sigmoid",
+				neurons, Arrays.asList(createComponent("relu", new ActivationReLU()),
+						createComponent("sigmoid", new ActivationSigmoid())),
+				new DL4JComponentConfig());
+
+		INDArray input = Nd4j.linspace(-3, 2, 6).reshape(3, 2);
+		NeuronsActivation inputActivation = DL4JUtil.fromNDArray(matrixFactory, input, ROWS,
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, neurons);
+
+		DL4JFusedActivationChainComponentActivationImpl activation = component.forwardPropagate(inputActivation,
+				new NeuronsActivationContextImpl(matrixFactory, true));
+		INDArray output = DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS);
+
+		INDArray ones = Nd4j.ones(3, 2);
+		DirectedComponentGradient<NeuronsActivation> inputGradient = activation
+				.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(), DL4JUtil.fromNDArray(
+						matrixFactory, ones, ROWS, NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, neurons)));
+		INDArray gradient = DL4JUtil.asNDArray(matrixFactory, inputGradient.getOutput(), ROWS);
+
+		for (int r = 0; r < 3; r++) {
+			for (int c = 0; c < 2; c++) {
+				float x = input.getFloat(r, c);
+				float y = sigmoid(Math.max(0, x));
+				Assert.assertEquals(y, output.getFloat(r, c), DELTA);
+				Assert.assertEquals(x > 0 ? y * (1 - y) : 0f, gradient.getFloat(r, c), DELTA);
+			}
+		}
+
+		// The input is not modified
+		Assert.assertEquals(Nd4j.linspace(-3, 2, 6).reshape(3, 2), input);
+	}
+
+	private void assertMatchesUnfusedStages(DL4JComponentConfig config, float delta) {
+		Nd4j.getRandom().setSeed(1234);
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		IActivation[] stages = new IActivation[] { new ActivationTanH(), new ActivationLReLU(0.1),
+				new ActivationSigmoid() };
+		DL4JFusedActivationChainComponentImpl component = new DL4JFusedActivationChainComponentImpl(
+				"tanh+lrelu+sigmoid", neurons, Arrays.asList(createComponent("tanh", stages[0], config),
+						createComponent("lrelu", stages[1], config), createComponent("sigmoid", stages[2], config)),
+				config);
+		Assert.assertEquals(config.isWorkspacesEnabled(), component.getWorkspaces().isEnabled());
+
+		for (int iteration = 0; iteration < 3; iteration++) {
+			// A transposed view, so the input is not contiguous in the required layout
+			INDArray input = Nd4j.randn(5, 3).transpose();
+			INDArray inputCopy = input.dup();
+			INDArray outputGradient = Nd4j.randn(3, 5);
+
+			INDArray expectedOutput = input.dup();
+			INDArray[] stageInputs = new INDArray[stages.length];
+			for (int i = 0; i < stages.length; i++) {
+				stageInputs[i] = expectedOutput.dup();
+				expectedOutput = stages[i].getActivation(expectedOutput, true);
+			}
+			INDArray expectedGradient = outputGradient.dup();
+			for (int i = stages.length - 1; i >= 0; i--) {
+				expectedGradient = stages[i].backprop(stageInputs[i].dup(), expectedGradient).getFirst();
+			}
+
+			DL4JFusedActivationChainComponentActivationImpl activation = component.forwardPropagate(
+					DL4JUtil.fromNDArray(matrixFactory, input, ROWS, NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET,
+							neurons),
+					new NeuronsActivationContextImpl(matrixFactory, true));
+			INDArray gradient = DL4JUtil.asNDArray(matrixFactory,
+					activation.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(),
+							DL4JUtil.fromNDArray(matrixFactory, outputGradient, ROWS,
+									NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, neurons)))
+							.getOutput(),
+					ROWS);
+
+			Assert.assertTrue(expectedOutput
+					.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS), DELTA));
+			Assert.assertTrue(expectedGradient.equalsWithEps(gradient, delta));
+			// The input is not modified
+			Assert.assertEquals(inputCopy, input);
+		}
+	}
+
+	@Test
+	public void testMatchesUnfusedStagesWithWorkspacesAndViewInput() {
+		assertMatchesUnfusedStages(new DL4JComponentConfig().withWorkspacesEnabled(true), DELTA);
+	}
+
+	@Test
+	public void testMatchesUnfusedStagesUnderRecomputeRetention() {
+		assertMatchesUnfusedStages(new DL4JComponentConfig().withWorkspacesEnabled(true)
+				.withBackPropRetention(DL4JBackPropRetention.RECOMPUTE), DELTA);
+	}
+
+	@Test
+	public void testMatchesUnfusedStagesWithinToleranceAtReducedStoragePrecision() {
+		assertMatchesUnfusedStages(new DL4JComponentConfig().withStoragePrecision(DL4JStoragePrecision.FP16), 0.002f);
+	}
+
+	@Test
+	public void testInPlaceInferenceAppliesStagesOnInputBufferAndSurvivesDup() {
+		Nd4j.getRandom().setSeed(1234);
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		DL4JComponentConfig config = new DL4JComponentConfig().withInPlaceInferenceEnabled(true);
+		DL4JFusedActivationChainComponentImpl component = new DL4JFusedActivationChainComponentImpl("relu+sigmoid",
+				neurons, Arrays.asList(createComponent("relu", new ActivationReLU(), config),
+						createComponent("sigmoid", new ActivationSigmoid(), config)),
+				config).dup(null);
+
+		INDArray input = Nd4j.randn(3, 4);
+		INDArray expected = new ActivationSigmoid().getActivation(new ActivationReLU().getActivation(input.dup(),
+				false), false);
+		DL4JFusedActivationChainComponentActivationImpl activation = component.forwardPropagate(
+				DL4JUtil.fromNDArray(matrixFactory, input, ROWS, NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET,
+						neurons),
+				new NeuronsActivationContextImpl(matrixFactory, false));
+
+		INDArray output = DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS);
+		Assert.assertTrue(expected.equalsWithEps(output, DELTA));
+		Assert.assertSame(input, output);
+	}
+
+	@Test
+	public void testNonElementwiseActivationsAreNotFusable() {
+		Assert.assertTrue(DL4JFusedActivationChainComponentImpl.isFusable(createComponent("relu", new ActivationReLU())));
+		Assert.assertFalse(
+				DL4JFusedActivationChainComponentImpl.isFusable(createComponent("softmax", new ActivationSoftmax())));
+	}
+}
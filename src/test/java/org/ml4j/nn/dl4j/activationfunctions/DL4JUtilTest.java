@@ -0,0 +1,143 @@
+package org.ml4j.nn.dl4j.activationfunctions;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrix;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.dl4j.neurons.DL4JNeuronsActivation;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+public class DL4JUtilTest {
+
+	private static final float DELTA = 0.000001f;
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private INDArray createNDArray(int rows, int columns) {
+		return Nd4j.linspace(1, rows * columns, rows * columns).reshape(rows, columns);
+	}
+
+	private void assertEquals(INDArray expected, Matrix actual) {
+		Assert.assertEquals(expected.rows(), actual.getRows());
+		Assert.assertEquals(expected.columns(), actual.getColumns());
+		for (int r = 0; r < expected.rows(); r++) {
+			for (int c = 0; c < expected.columns(); c++) {
+				Assert.assertEquals(expected.getFloat(r, c), actual.get(r, c), DELTA);
+			}
+		}
+	}
+
+	@Test
+	public void testNd4jMatrixFactoryWrapsWithoutCopy() {
+		INDArray ndArray = createNDArray(3, 4);
+		Matrix matrix = DL4JUtil.fromNDArrayToActivationMatrix(new Nd4jMatrixFactory(), ndArray, ROWS, ROWS);
+		Assert.assertTrue(matrix instanceof Nd4jMatrix);
+		Assert.assertSame(ndArray, ((Nd4jMatrix) matrix).getNDArray());
+	}
+
+	@Test
+	public void testNd4jBackedActivationConvertsWithoutCopy() {
+		INDArray ndArray = createNDArray(3, 4);
+		MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+		NeuronsActivation activation = new NeuronsActivationImpl(new Neurons(3, false), new Nd4jMatrix(ndArray),
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET);
+		Assert.assertSame(ndArray, DL4JUtil.asNDArray(matrixFactory, activation, ROWS));
+	}
+
+	@Test
+	public void testRoundTripWithNonNd4jMatrixFactory() {
+		INDArray ndArray = createNDArray(3, 4);
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		NeuronsActivation activation = DL4JUtil.fromNDArray(matrixFactory, ndArray, ROWS,
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, new Neurons(3, false));
+		assertEquals(ndArray, activation.getActivations(matrixFactory));
+		Assert.assertEquals(ndArray, DL4JUtil.asNDArray(matrixFactory, activation, ROWS));
+	}
+
+	@Test
+	public void testOrientationChangeTransposes() {
+		INDArray ndArray = createNDArray(3, 4);
+		for (MatrixFactory matrixFactory : new MatrixFactory[] { new JBlasRowMajorMatrixFactory(),
+				new Nd4jMatrixFactory() }) {
+			Matrix matrix = DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, ndArray, COLUMNS, ROWS);
+			assertEquals(ndArray.transpose(), matrix);
+		}
+	}
+
+	@Test
+	public void testViewsAreCopiedFromTheirOffset() {
+		INDArray ndArray = createNDArray(4, 4);
+		INDArray view = ndArray.get(NDArrayIndex.interval(1, 3), NDArrayIndex.all());
+		Matrix matrix = DL4JUtil.fromNDArrayToActivationMatrix(new JBlasRowMajorMatrixFactory(), view, ROWS, ROWS);
+		assertEquals(view, matrix);
+	}
+
+	@Test
+	public void testOrientationChangeFromFOrderedArray() {
+		INDArray ndArray = createNDArray(5, 3).dup('f');
+		Matrix matrix = DL4JUtil.fromNDArrayToActivationMatrix(new JBlasRowMajorMatrixFactory(), ndArray, COLUMNS,
+				ROWS);
+		assertEquals(ndArray.transpose(), matrix);
+	}
+
+	@Test
+	public void testOrientationChangeAcrossTransposeBlocks() {
+		INDArray ndArray = createNDArray(130, 70);
+		Matrix matrix = DL4JUtil.fromNDArrayToActivationMatrix(new JBlasRowMajorMatrixFactory(), ndArray, COLUMNS,
+				ROWS);
+		assertEquals(ndArray.transpose(), matrix);
+	}
+
+	@Test
+	public void testFromNDArrayDefersMatrixCreation() {
+		INDArray ndArray = createNDArray(3, 4);
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		NeuronsActivation activation = DL4JUtil.fromNDArray(matrixFactory, ndArray, ROWS,
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, new Neurons(3, false));
+		Assert.assertTrue(activation instanceof DL4JNeuronsActivation);
+		Assert.assertTrue(DL4JUtil.isNDArrayBacked(matrixFactory, activation));
+
+		// Adjacent DL4J components unwrap the INDArray without creating a Matrix
+		Assert.assertSame(ndArray, DL4JUtil.asNDArray(matrixFactory, activation, ROWS));
+		Assert.assertFalse(((DL4JNeuronsActivation) activation).isMaterialised());
+
+		Matrix matrix = activation.getActivations(matrixFactory);
+		Assert.assertTrue(((DL4JNeuronsActivation) activation).isMaterialised());
+		Assert.assertSame(matrix, activation.getActivations(matrixFactory));
+		assertEquals(ndArray, matrix);
+	}
+
+	@Test
+	public void testFromNDArrayWithOrientationChangeIsATransposedView() {
+		INDArray ndArray = createNDArray(4, 3);
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		NeuronsActivation activation = DL4JUtil.fromNDArray(matrixFactory, ndArray, COLUMNS,
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, new Neurons(3, false));
+		Assert.assertSame(ndArray, DL4JUtil.asNDArray(matrixFactory, activation, COLUMNS));
+		Assert.assertEquals(ndArray.transpose(), DL4JUtil.asNDArray(matrixFactory, activation, ROWS));
+		assertEquals(ndArray.transpose(), activation.getActivations(matrixFactory));
+	}
+
+	@Test
+	public void testAsNDArrayWithOrientationChange() {
+		INDArray ndArray = createNDArray(3, 4);
+		MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+		NeuronsActivation activation = new NeuronsActivationImpl(new Neurons(3, false),
+				DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, ndArray, ROWS, ROWS),
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET);
+		INDArray transposed = DL4JUtil.asNDArray(matrixFactory, activation, COLUMNS);
+		Assert.assertEquals(ndArray.transpose(), transposed);
+		Assert.assertEquals('f', transposed.ordering());
+	}
+}
@@ -0,0 +1,254 @@
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContextImpl;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.primitives.Pair;
+
+public class DL4JBatchNormAxonsComponentImplTest {
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private static final int EXAMPLES = 3;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	private final DL4JComponentConfig config = new DL4JComponentConfig().withBatchNormEnabled(true);
+
+	private final Neurons neurons = new Neurons(3, false);
+
+	// Two channels of 5x4 images, normalised over their rows, columns and examples
+	private final Neurons3D imageNeurons = new Neurons3D(5, 4, 2, false);
+
+	private DL4JBatchNormAxonsComponentImpl createComponent(INDArray gamma, INDArray beta, INDArray mean,
+			INDArray variance) {
+		return new DL4JBatchNormAxonsComponentImpl("bn", new DL4JBatchNormAxonsImpl(matrixFactory, neurons, gamma,
+				beta, mean, variance, DL4JBatchNormAxonsImpl.DEFAULT_DECAY, DL4JBatchNormAxonsImpl.DEFAULT_EPSILON),
+				config);
+	}
+
+	private NeuronsActivation createActivation(INDArray columnsSpanFeatureSet, Neurons neurons) {
+		return DL4JUtil.fromNDArray(matrixFactory, columnsSpanFeatureSet, COLUMNS,
+				NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, neurons);
+	}
+
+	private NeuronsActivation createImageActivation(INDArray nchw, NeuronsActivationFeatureOrientation orientation,
+			Neurons3D neurons, DimensionScope dimensionScope) {
+		return DL4JUtil.fromNDArrayToImageActivation(matrixFactory, DL4JImageLayouts.fromNCHW(nchw, orientation).dup(),
+				orientation, neurons, dimensionScope);
+	}
+
+	private Layer createBatchNormalizationLayer(INDArray gamma, INDArray beta, INDArray mean, INDArray variance) {
+		NeuralNetConfiguration conf = new NeuralNetConfiguration.Builder()
+				.layer(new BatchNormalization.Builder().nIn(2).nOut(2).build()).build();
+		int parameterCount = conf.getLayer().initializer().numParams(conf);
+		Layer layer = conf.getLayer().instantiate(conf, null, 0, Nd4j.create(1, parameterCount), true);
+		layer.setBackpropGradientsViewArray(Nd4j.create(1, parameterCount));
+		// DL4J batch normalisation parameters are [1, channels]
+		layer.setParam("gamma", gamma.transpose());
+		layer.setParam("beta", beta.transpose());
+		layer.setParam("mean", mean.transpose());
+		layer.setParam("var", variance.transpose());
+		return layer;
+	}
+
+	private void assertImageBatchNormMatchesDL4J(NeuronsActivationFeatureOrientation inputOrientation) {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray gamma = Nd4j.rand(2, 1).addi(0.5);
+		INDArray beta = Nd4j.randn(2, 1);
+		INDArray mean = Nd4j.randn(2, 1);
+		INDArray variance = Nd4j.rand(2, 1).addi(0.5);
+		INDArray input = Nd4j.randn(new int[] { EXAMPLES, 2, 4, 5 }).muli(2).addi(1);
+		INDArray outputGradient = Nd4j.randn(new int[] { EXAMPLES, 2, 4, 5 });
+		Layer batchNormalizationLayer = createBatchNormalizationLayer(gamma, beta, mean, variance);
+		DL4JBatchNormAxonsComponentImpl component = new DL4JBatchNormAxonsComponentImpl("bn",
+				new DL4JBatchNormAxonsImpl(matrixFactory, imageNeurons, gamma.dup(), beta.dup(), mean.dup(),
+						variance.dup(), DL4JBatchNormAxonsImpl.DEFAULT_DECAY, DL4JBatchNormAxonsImpl.DEFAULT_EPSILON),
+				config);
+
+		// Inference uses the running statistics, which training then updates
+		INDArray expectedInferenceOutput = batchNormalizationLayer.activate(input.dup(), false);
+		NeuronsActivation inferenceOutput = component.forwardPropagate(createImageActivation(input, inputOrientation,
+				imageNeurons, DimensionScope.INPUT), new AxonsContextImpl(matrixFactory, false, false)).getOutput();
+		INDArray expectedOutput = batchNormalizationLayer.activate(input.dup(), true);
+		Pair<Gradient, INDArray> expectedGradients = batchNormalizationLayer.backpropGradient(outputGradient.dup());
+		DL4JBatchNormAxonsComponentActivationImpl activation = component.forwardPropagate(createImageActivation(
+				input, inputOrientation, imageNeurons, DimensionScope.INPUT),
+				new AxonsContextImpl(matrixFactory, true, false));
+		DirectedComponentGradient<NeuronsActivation> inputGradient = activation.backPropagate(
+				new DirectedComponentGradientImpl<>(new ArrayList<>(), createImageActivation(outputGradient, ROWS,
+						imageNeurons, DimensionScope.OUTPUT)));
+
+		Assert.assertTrue(DL4JImageLayouts.fromNCHW(expectedInferenceOutput, ROWS)
+				.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, inferenceOutput, ROWS), 0.0001));
+		Assert.assertTrue(DL4JImageLayouts.fromNCHW(expectedOutput, ROWS)
+				.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS), 0.0001));
+		Assert.assertTrue(DL4JImageLayouts.fromNCHW(expectedGradients.getSecond(), inputOrientation).equalsWithEps(
+				DL4JUtil.asNDArray(matrixFactory, inputGradient.getOutput(), inputOrientation), 0.001));
+		Assert.assertTrue(batchNormalizationLayer.getParam("mean").transpose()
+				.equalsWithEps(component.getAxons().getRunningMeanNDArray(), 0.0001));
+		Assert.assertTrue(batchNormalizationLayer.getParam("var").transpose()
+				.equalsWithEps(component.getAxons().getRunningVarianceNDArray(), 0.0001));
+
+		AxonsGradient axonsGradient = inputGradient.getTotalTrainableAxonsGradients().get(0).get();
+		Assert.assertTrue(expectedGradients.getFirst().getGradientFor("gamma").transpose().equalsWithEps(
+				DL4JUtil.asNDArrayForWeights(matrixFactory, axonsGradient.getWeightsGradient(), false), 0.001));
+		Assert.assertTrue(expectedGradients.getFirst().getGradientFor("beta").transpose().equalsWithEps(
+				DL4JUtil.asNDArrayForBias(matrixFactory, axonsGradient.getLeftToRightBiasGradient(), false), 0.001));
+	}
+
+	private INDArray forwardPropagate(DL4JBatchNormAxonsComponentImpl component, INDArray input, boolean training) {
+		AxonsContextImpl axonsContext = new AxonsContextImpl(matrixFactory, training, false);
+		return DL4JUtil.asNDArray(matrixFactory,
+				component.forwardPropagate(createActivation(input, neurons), axonsContext).getOutput(), COLUMNS);
+	}
+
+	@Test
+	public void testTrainingNormalisesEachChannelAndUpdatesRunningStatistics() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(16, 3).muli(2).addi(5);
+		INDArray mean = Nd4j.zeros(3, 1);
+		INDArray variance = Nd4j.ones(3, 1);
+		DL4JBatchNormAxonsComponentImpl component = createComponent(Nd4j.ones(3, 1), Nd4j.zeros(3, 1), mean,
+				variance);
+
+		INDArray output = forwardPropagate(component, input, true);
+
+		Assert.assertTrue(Nd4j.zeros(1, 3).equalsWithEps(output.mean(0), 0.0001));
+		Assert.assertTrue(Nd4j.ones(1, 3).equalsWithEps(output.var(false, 0), 0.001));
+		// The resident running statistics are updated in-place
+		Assert.assertTrue(input.mean(0).transpose().muli(0.1).equalsWithEps(mean, 0.0001));
+		Assert.assertTrue(input.var(false, 0).transpose().muli(0.1).addi(0.9).equalsWithEps(variance, 0.001));
+	}
+
+	@Test
+	public void testInputGradientMatchesFiniteDifferences() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(8, 3);
+		INDArray outputGradient = Nd4j.randn(8, 3);
+		INDArray gamma = Nd4j.rand(3, 1).addi(0.5);
+		INDArray beta = Nd4j.randn(3, 1);
+		DL4JBatchNormAxonsComponentImpl component = createComponent(gamma, beta, Nd4j.zeros(3, 1), Nd4j.ones(3, 1));
+
+		NeuronsActivation inputGradient = component
+				.forwardPropagate(createActivation(input, neurons), new AxonsContextImpl(matrixFactory, true, false))
+				.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(),
+						createActivation(outputGradient, neurons)))
+				.getOutput();
+		INDArray actual = DL4JUtil.asNDArray(matrixFactory, inputGradient, COLUMNS);
+
+		float step = 0.01f;
+		for (int[] index : new int[][] { { 0, 0 }, { 3, 1 }, { 7, 2 } }) {
+			INDArray plus = input.dup();
+			plus.putScalar(index, input.getFloat(index) + step);
+			INDArray minus = input.dup();
+			minus.putScalar(index, input.getFloat(index) - step);
+			double loss = forwardPropagate(component, plus, true).mul(outputGradient).sumNumber().doubleValue()
+					- forwardPropagate(component, minus, true).mul(outputGradient).sumNumber().doubleValue();
+			Assert.assertEquals(loss / (2 * step), actual.getFloat(index), 0.01);
+		}
+	}
+
+	@Test
+	public void testImageRowsSpanFeatureSetMatchesDL4JBatchNormalization() {
+		assertImageBatchNormMatchesDL4J(ROWS);
+	}
+
+	@Test
+	public void testImageColumnsSpanFeatureSetMatchesDL4JBatchNormalization() {
+		assertImageBatchNormMatchesDL4J(COLUMNS);
+	}
+
+	@Test
+	public void testInferenceIsFoldedIntoPrecedingConvolutionalAxons() {
+		Nd4j.getRandom().setSeed(1234);
+		// 4x3 filters with stride 2 and padding 1 map a 5x6x2 image to a 3x3x4 image
+		Neurons3D inputNeurons = new Neurons3D(5, 6, 2, true);
+		Neurons3D outputNeurons = new Neurons3D(3, 3, 4, false);
+		DL4JConvolutionGeometry geometry = new DL4JConvolutionGeometry(inputNeurons, outputNeurons, 2, 2, 1, 1);
+		DL4JConvolutionalAxonsComponentImpl convolutional = new DL4JConvolutionalAxonsComponentImpl("conv",
+				new DL4JConvolutionalAxonsImpl(matrixFactory, geometry, Nd4j.randn(4, geometry.getFilterVolume()),
+						Nd4j.randn(4, 1)),
+				config.withConvolutionalAxonsEnabled(true));
+		DL4JBatchNormAxonsComponentImpl batchNorm = new DL4JBatchNormAxonsComponentImpl("bn",
+				new DL4JBatchNormAxonsImpl(matrixFactory, outputNeurons, Nd4j.rand(4, 1).addi(0.5), Nd4j.randn(4, 1),
+						Nd4j.randn(4, 1), Nd4j.rand(4, 1).addi(0.5), DL4JBatchNormAxonsImpl.DEFAULT_DECAY,
+						DL4JBatchNormAxonsImpl.DEFAULT_EPSILON),
+				config);
+		INDArray input = Nd4j.randn(new int[] { EXAMPLES, 2, 6, 5 });
+		AxonsContextImpl axonsContext = new AxonsContextImpl(matrixFactory, false, false);
+
+		NeuronsActivation convolutionalOutput = convolutional
+				.forwardPropagate(createImageActivation(input, ROWS, inputNeurons, DimensionScope.INPUT), axonsContext)
+				.getOutput();
+		INDArray expected = DL4JUtil.asNDArray(matrixFactory,
+				batchNorm.forwardPropagate(convolutionalOutput, axonsContext).getOutput(), ROWS);
+
+		List<DefaultChainableDirectedComponent<?, ?>> folded = DL4JBatchNormFolding
+				.foldForInference(Arrays.asList(convolutional, batchNorm));
+
+		Assert.assertEquals(1, folded.size());
+		DL4JConvolutionalAxonsComponentImpl foldedAxons = (DL4JConvolutionalAxonsComponentImpl) folded.get(0);
+		Assert.assertEquals("conv+bn", foldedAxons.getName());
+		INDArray actual = DL4JUtil.asNDArray(matrixFactory, foldedAxons.forwardPropagate(
+				createImageActivation(input, ROWS, inputNeurons, DimensionScope.INPUT), axonsContext).getOutput(),
+				ROWS);
+		Assert.assertTrue(expected.equalsWithEps(actual, 0.0001));
+	}
+
+	@Test
+	public void testInferenceIsFoldedIntoPrecedingFullyConnectedAxons() {
+		Nd4j.getRandom().setSeed(1234);
+		Neurons inputNeurons = new Neurons(5, true);
+		DL4JFullyConnectedAxonsComponentImpl fullyConnected = new DL4JFullyConnectedAxonsComponentImpl("fc",
+				new DL4JFullyConnectedAxonsImpl(matrixFactory, inputNeurons, neurons, Nd4j.randn(3, 5),
+						Nd4j.randn(3, 1)),
+				config);
+		DL4JBatchNormAxonsComponentImpl batchNorm = createComponent(Nd4j.rand(3, 1).addi(0.5), Nd4j.randn(3, 1),
+				Nd4j.randn(3, 1), Nd4j.rand(3, 1).addi(0.5));
+		INDArray input = Nd4j.randn(4, 5);
+
+		INDArray fullyConnectedOutput = DL4JUtil.asNDArray(matrixFactory,
+				fullyConnected.forwardPropagate(createActivation(input, inputNeurons),
+						new AxonsContextImpl(matrixFactory, false, false)).getOutput(),
+				COLUMNS);
+		INDArray expected = forwardPropagate(batchNorm, fullyConnectedOutput, false);
+
+		List<DefaultChainableDirectedComponent<?, ?>> folded = DL4JBatchNormFolding
+				.foldForInference(Arrays.asList(fullyConnected, batchNorm));
+
+		Assert.assertEquals(1, folded.size());
+		DL4JFullyConnectedAxonsComponentImpl foldedAxons = (DL4JFullyConnectedAxonsComponentImpl) folded.get(0);
+		Assert.assertEquals("fc+bn", foldedAxons.getName());
+		INDArray actual = DL4JUtil.asNDArray(matrixFactory,
+				foldedAxons.forwardPropagate(createActivation(input, inputNeurons),
+						new AxonsContextImpl(matrixFactory, false, false)).getOutput(),
+				COLUMNS);
+		Assert.assertTrue(expected.equalsWithEps(actual, 0.0001));
+	}
+}
@@ -0,0 +1,106 @@
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContextImpl;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.primitives.Pair;
+
+public class DL4JConvolutionalAxonsComponentImplTest {
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private static final int EXAMPLES = 3;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	// 4x3 filters with stride 2 and padding 1 map a 5x6x2 image to a 3x3x4 image
+	private final Neurons3D leftNeurons = new Neurons3D(5, 6, 2, true);
+	private final Neurons3D rightNeurons = new Neurons3D(3, 3, 4, false);
+	private final DL4JConvolutionGeometry geometry = new DL4JConvolutionGeometry(leftNeurons, rightNeurons, 2, 2, 1,
+			1);
+
+	private Layer createConvolutionLayer(INDArray connectionWeights, INDArray biases) {
+		NeuralNetConfiguration conf = new NeuralNetConfiguration.Builder()
+				.layer(new ConvolutionLayer.Builder(geometry.getFilterHeight(), geometry.getFilterWidth()).nIn(2)
+						.nOut(4).stride(2, 2).padding(1, 1).convolutionMode(ConvolutionMode.Truncate)
+						.activation(Activation.IDENTITY).build())
+				.build();
+		int parameterCount = conf.getLayer().initializer().numParams(conf);
+		Layer layer = conf.getLayer().instantiate(conf, null, 0, Nd4j.create(1, parameterCount), true);
+		layer.setBackpropGradientsViewArray(Nd4j.create(1, parameterCount));
+		// DL4J filters are [nOut, nIn, kH, kW], which is the 'c' order of our [nOut, filterVolume] weights
+		layer.setParam("W", connectionWeights.reshape('c', 4, 2, geometry.getFilterHeight(),
+				geometry.getFilterWidth()));
+		layer.setParam("b", biases.transpose());
+		return layer;
+	}
+
+	private void assertMatchesConvolutionLayer(NeuronsActivationFeatureOrientation inputOrientation) {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray connectionWeights = Nd4j.randn(4, geometry.getFilterVolume());
+		INDArray biases = Nd4j.randn(4, 1);
+		INDArray input = Nd4j.randn(new int[] { EXAMPLES, 2, 6, 5 });
+		INDArray outputGradient = Nd4j.randn(new int[] { EXAMPLES, 4, 3, 3 });
+		Layer convolutionLayer = createConvolutionLayer(connectionWeights, biases);
+		INDArray expectedOutput = convolutionLayer.activate(input, true);
+		Pair<Gradient, INDArray> expectedGradients = convolutionLayer.backpropGradient(outputGradient);
+
+		DL4JConvolutionalAxonsComponentImpl component = new DL4JConvolutionalAxonsComponentImpl("conv",
+				new DL4JConvolutionalAxonsImpl(matrixFactory, geometry, connectionWeights, biases),
+				new DL4JComponentConfig().withConvolutionalAxonsEnabled(true));
+		DL4JConvolutionalAxonsComponentActivationImpl activation = component.forwardPropagate(
+				DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+						DL4JImageLayouts.fromNCHW(input, inputOrientation).dup(), inputOrientation, leftNeurons,
+						DimensionScope.INPUT),
+				new AxonsContextImpl(matrixFactory, true, false));
+		DirectedComponentGradient<NeuronsActivation> inputGradient = activation
+				.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(),
+						DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+								DL4JImageLayouts.fromNCHW(outputGradient, ROWS).dup(), ROWS, rightNeurons,
+								DimensionScope.OUTPUT)));
+
+		Assert.assertTrue(DL4JImageLayouts.fromNCHW(expectedOutput, ROWS)
+				.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS), 0.001));
+		Assert.assertTrue(DL4JImageLayouts.fromNCHW(expectedGradients.getSecond(), inputOrientation).equalsWithEps(
+				DL4JUtil.asNDArray(matrixFactory, inputGradient.getOutput(), inputOrientation), 0.001));
+
+		AxonsGradient axonsGradient = inputGradient.getTotalTrainableAxonsGradients().get(0).get();
+		Assert.assertTrue(expectedGradients.getFirst().getGradientFor("W").reshape('c', 4, geometry.getFilterVolume())
+				.equalsWithEps(DL4JUtil.asNDArrayForWeights(matrixFactory, axonsGradient.getWeightsGradient(), false),
+						0.001));
+		Assert.assertTrue(expectedGradients.getFirst().getGradientFor("b").transpose().equalsWithEps(
+				DL4JUtil.asNDArrayForBias(matrixFactory, axonsGradient.getLeftToRightBiasGradient(), false), 0.001));
+	}
+
+	@Test
+	public void testRowsSpanFeatureSetMatchesDL4JConvolutionLayer() {
+		assertMatchesConvolutionLayer(ROWS);
+	}
+
+	@Test
+	public void testColumnsSpanFeatureSetMatchesDL4JConvolutionLayer() {
+		assertMatchesConvolutionLayer(COLUMNS);
+	}
+}
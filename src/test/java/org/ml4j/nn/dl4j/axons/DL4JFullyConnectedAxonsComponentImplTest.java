@@ -0,0 +1,157 @@
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContextImpl;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.axons.ConnectionWeightsAdjustmentDirection;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.primitives.Pair;
+
+public class DL4JFullyConnectedAxonsComponentImplTest {
+
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	private final DL4JComponentConfig config = new DL4JComponentConfig().withFullyConnectedAxonsEnabled(true);
+
+	private final Neurons leftNeurons = new Neurons(5, true);
+	private final Neurons rightNeurons = new Neurons(3, false);
+
+	private DL4JFullyConnectedAxonsComponentImpl createComponent(INDArray connectionWeights, INDArray biases) {
+		return new DL4JFullyConnectedAxonsComponentImpl("fc",
+				new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, rightNeurons, connectionWeights, biases),
+				config);
+	}
+
+	private NeuronsActivation createActivation(INDArray activation, NeuronsActivationFeatureOrientation orientation,
+			Neurons neurons) {
+		return DL4JUtil.fromNDArray(matrixFactory, activation, orientation,
+				orientation == COLUMNS ? NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET
+						: NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET,
+				neurons);
+	}
+
+	private Layer createDenseLayer(INDArray connectionWeights, INDArray biases) {
+		NeuralNetConfiguration conf = new NeuralNetConfiguration.Builder().layer(new DenseLayer.Builder().nIn(5)
+				.nOut(3).activation(Activation.IDENTITY).build()).build();
+		int parameterCount = conf.getLayer().initializer().numParams(conf);
+		Layer layer = conf.getLayer().instantiate(conf, null, 0, Nd4j.create(1, parameterCount), true);
+		layer.setBackpropGradientsViewArray(Nd4j.create(1, parameterCount));
+		// DL4J dense weights are [nIn, nOut], and biases are [1, nOut]
+		layer.setParam("W", connectionWeights.transpose());
+		layer.setParam("b", biases.transpose());
+		return layer;
+	}
+
+	private void assertMatchesDenseLayer(NeuronsActivationFeatureOrientation orientation) {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray connectionWeights = Nd4j.randn(3, 5);
+		INDArray biases = Nd4j.randn(3, 1);
+		INDArray input = Nd4j.randn(4, 5);
+		INDArray outputGradient = Nd4j.randn(4, 3);
+		Layer denseLayer = createDenseLayer(connectionWeights, biases);
+		INDArray expectedOutput = denseLayer.activate(input, true);
+		Pair<Gradient, INDArray> expectedGradients = denseLayer.backpropGradient(outputGradient);
+
+		boolean rows = orientation == ROWS;
+		DL4JFullyConnectedAxonsComponentActivationImpl activation = createComponent(connectionWeights, biases)
+				.forwardPropagate(createActivation(rows ? input.transpose() : input, orientation, leftNeurons),
+						new AxonsContextImpl(matrixFactory, true, false));
+		INDArray output = DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), orientation);
+		DirectedComponentGradient<NeuronsActivation> inputGradient = activation
+				.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(), createActivation(
+						rows ? outputGradient.transpose() : outputGradient, orientation, rightNeurons)));
+		INDArray inputGradientNDArray = DL4JUtil.asNDArray(matrixFactory, inputGradient.getOutput(), orientation);
+
+		Assert.assertTrue(expectedOutput.equalsWithEps(rows ? output.transpose() : output, 0.0001));
+		Assert.assertTrue(expectedGradients.getSecond()
+				.equalsWithEps(rows ? inputGradientNDArray.transpose() : inputGradientNDArray, 0.0001));
+
+		List<Supplier<AxonsGradient>> axonsGradients = inputGradient.getTotalTrainableAxonsGradients();
+		Assert.assertEquals(1, axonsGradients.size());
+		AxonsGradient axonsGradient = axonsGradients.get(0).get();
+		INDArray weightsGradient = DL4JUtil.asNDArrayForWeights(matrixFactory, axonsGradient.getWeightsGradient(),
+				false);
+		INDArray biasGradient = DL4JUtil.asNDArrayForBias(matrixFactory,
+				axonsGradient.getLeftToRightBiasGradient(), false);
+		Assert.assertTrue(expectedGradients.getFirst().getGradientFor("W").transpose().equalsWithEps(weightsGradient,
+				0.0001));
+		Assert.assertTrue(expectedGradients.getFirst().getGradientFor("b").transpose().equalsWithEps(biasGradient,
+				0.0001));
+	}
+
+	@Test
+	public void testColumnsSpanFeatureSetMatchesDL4JDenseLayer() {
+		assertMatchesDenseLayer(COLUMNS);
+	}
+
+	@Test
+	public void testRowsSpanFeatureSetMatchesDL4JDenseLayer() {
+		assertMatchesDenseLayer(ROWS);
+	}
+
+	@Test
+	public void testForwardPropagationAndGradientsWithoutBiases() {
+		Nd4j.getRandom().setSeed(1234);
+		Neurons inputNeurons = new Neurons(5, false);
+		INDArray connectionWeights = Nd4j.randn(3, 5);
+		INDArray input = Nd4j.randn(4, 5);
+		INDArray outputGradient = Nd4j.randn(4, 3);
+		DL4JFullyConnectedAxonsComponentImpl component = new DL4JFullyConnectedAxonsComponentImpl("fc",
+				new DL4JFullyConnectedAxonsImpl(matrixFactory, inputNeurons, rightNeurons, connectionWeights, null),
+				config);
+
+		DL4JFullyConnectedAxonsComponentActivationImpl activation = component.forwardPropagate(
+				createActivation(input, COLUMNS, inputNeurons), new AxonsContextImpl(matrixFactory, true, false));
+		DirectedComponentGradient<NeuronsActivation> inputGradient = activation.backPropagate(
+				new DirectedComponentGradientImpl<>(new ArrayList<>(), createActivation(outputGradient, COLUMNS,
+						rightNeurons)));
+
+		Assert.assertTrue(input.mmul(connectionWeights.transpose())
+				.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), COLUMNS), 0.0001));
+		Assert.assertTrue(outputGradient.mmul(connectionWeights)
+				.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, inputGradient.getOutput(), COLUMNS), 0.0001));
+		AxonsGradient axonsGradient = inputGradient.getTotalTrainableAxonsGradients().get(0).get();
+		Assert.assertTrue(outputGradient.transpose().mmul(input).equalsWithEps(
+				DL4JUtil.asNDArrayForWeights(matrixFactory, axonsGradient.getWeightsGradient(), false), 0.0001));
+		Assert.assertNull(axonsGradient.getLeftToRightBiasGradient());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRightNeuronsWithBiasUnitAreRejected() {
+		new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, new Neurons(3, true), Nd4j.randn(3, 5),
+				Nd4j.randn(3, 1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAdjustingRightToLeftBiasesIsRejected() {
+		DL4JFullyConnectedAxonsImpl axons = new DL4JFullyConnectedAxonsImpl(matrixFactory, leftNeurons, rightNeurons,
+				Nd4j.randn(3, 5), Nd4j.randn(3, 1));
+		Assert.assertNull(axons.getDetachedRightToLeftBiases());
+		axons.adjustRightToLeftBiases(matrixFactory.createZeros(5, 1), ConnectionWeightsAdjustmentDirection.ADDITION,
+				true);
+	}
+}
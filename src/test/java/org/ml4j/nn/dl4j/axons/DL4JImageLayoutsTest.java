@@ -0,0 +1,102 @@
+package org.ml4j.nn.dl4j.axons;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JImageLayoutsTest {
+
+	private static final float DELTA = 0.00001f;
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	// width 4, height 3, depth 2
+	private static final Neurons3D IMAGE_NEURONS = new Neurons3D(4, 3, 2, false);
+
+	private static final int EXAMPLES = 5;
+
+	private INDArray createNDArray(int rows, int columns) {
+		return Nd4j.linspace(1, rows * columns, rows * columns).reshape(rows, columns);
+	}
+
+	@Test
+	public void testRowsSpanFeatureSetMapsFeaturesToChannelRowColumn() {
+		INDArray flat = createNDArray(24, EXAMPLES);
+		INDArray nchw = DL4JImageLayouts.toNCHW(flat, ROWS, IMAGE_NEURONS);
+		Assert.assertArrayEquals(new int[] { EXAMPLES, 2, 3, 4 }, nchw.shape());
+		for (int n = 0; n < EXAMPLES; n++) {
+			for (int c = 0; c < 2; c++) {
+				for (int h = 0; h < 3; h++) {
+					for (int w = 0; w < 4; w++) {
+						Assert.assertEquals(flat.getFloat(c * 12 + h * 4 + w, n), nchw.getFloat(new int[] { n, c, h, w }), DELTA);
+					}
+				}
+			}
+		}
+		Assert.assertEquals(flat, DL4JImageLayouts.fromNCHW(nchw, ROWS));
+	}
+
+	@Test
+	public void testColumnsSpanFeatureSetRoundTrip() {
+		INDArray flat = createNDArray(EXAMPLES, 24);
+		INDArray nchw = DL4JImageLayouts.toNCHW(flat, COLUMNS, IMAGE_NEURONS);
+		Assert.assertEquals(flat.getFloat(1, 13), nchw.getFloat(new int[] { 1, 1, 0, 1 }), DELTA);
+		Assert.assertEquals(flat, DL4JImageLayouts.fromNCHW(nchw, COLUMNS));
+	}
+
+	@Test
+	public void testConvolutionColumnsProduceRowsSpanFeatureSetOutput() {
+		// 2x2 filters with stride 1 and no padding over a 4x3 image gives a 3x2 output
+		Neurons3D outputNeurons = new Neurons3D(3, 2, 1, false);
+		DL4JConvolutionGeometry geometry = new DL4JConvolutionGeometry(IMAGE_NEURONS, outputNeurons, 1, 1, 0, 0);
+		Assert.assertEquals(2, geometry.getFilterHeight());
+		Assert.assertEquals(2, geometry.getFilterWidth());
+
+		INDArray flat = createNDArray(24, EXAMPLES);
+		INDArray weights = createNDArray(1, geometry.getFilterVolume());
+		INDArray columns = DL4JImageLayouts.toConvolutionColumns(DL4JImageLayouts.toNCHW(flat, ROWS, IMAGE_NEURONS),
+				geometry);
+		INDArray output = weights.mmul(columns).reshape('c', 6, EXAMPLES);
+
+		for (int n = 0; n < EXAMPLES; n++) {
+			for (int oh = 0; oh < 2; oh++) {
+				for (int ow = 0; ow < 3; ow++) {
+					float expected = 0;
+					for (int c = 0; c < 2; c++) {
+						for (int kh = 0; kh < 2; kh++) {
+							for (int kw = 0; kw < 2; kw++) {
+								expected += weights.getFloat(0, c * 4 + kh * 2 + kw)
+										* flat.getFloat(c * 12 + (oh + kh) * 4 + (ow + kw), n);
+							}
+						}
+					}
+					Assert.assertEquals(expected, output.getFloat(oh * 3 + ow, n), DELTA * expected);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPoolingColumnsRoundTripAccumulatesWindows() {
+		// Non-overlapping 2x2 windows over a 4x2 image, so col2im inverts im2col
+		Neurons3D inputNeurons = new Neurons3D(4, 2, 2, false);
+		Neurons3D outputNeurons = new Neurons3D(2, 1, 2, false);
+		DL4JConvolutionGeometry geometry = new DL4JConvolutionGeometry(inputNeurons, outputNeurons, 2, 2, 0, 0);
+
+		INDArray flat = createNDArray(16, EXAMPLES);
+		INDArray nchw = DL4JImageLayouts.toNCHW(flat, ROWS, inputNeurons);
+		INDArray windows = DL4JImageLayouts.toPoolingColumns(nchw, geometry);
+		Assert.assertArrayEquals(new int[] { 2 * 2 * EXAMPLES, 4 }, windows.shape());
+
+		// Row ordering is channel, output row, output column, example
+		Assert.assertEquals(flat.getFloat(8 + 2, 3), windows.getFloat((1 * 2 + 1) * EXAMPLES + 3, 0), DELTA);
+
+		INDArray restored = DL4JImageLayouts
+				.fromNCHW(DL4JImageLayouts.fromPoolingColumns(windows, geometry, EXAMPLES), ROWS);
+		Assert.assertEquals(flat, restored);
+	}
+}
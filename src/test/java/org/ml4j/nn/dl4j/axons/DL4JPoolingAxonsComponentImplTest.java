@@ -0,0 +1,79 @@
+package org.ml4j.nn.dl4j.axons;
+
+import java.util.ArrayList;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContextImpl;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.axons.DL4JPoolingAxonsImpl.PoolingType;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JPoolingAxonsComponentImplTest {
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+	private static final int EXAMPLES = 3;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	// Non-overlapping 2x2 windows map a 6x4x2 image to a 3x2x2 image
+	private final Neurons3D leftNeurons = new Neurons3D(6, 4, 2, false);
+	private final Neurons3D rightNeurons = new Neurons3D(3, 2, 2, false);
+
+	private void assertMatchesSubsamplingLayer(PoolingType poolingType,
+			SubsamplingLayer.PoolingType dl4jPoolingType) {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(new int[] { EXAMPLES, 2, 4, 6 });
+		INDArray outputGradient = Nd4j.randn(new int[] { EXAMPLES, 2, 2, 3 });
+		NeuralNetConfiguration conf = new NeuralNetConfiguration.Builder().layer(new SubsamplingLayer.Builder(
+				dl4jPoolingType).kernelSize(2, 2).stride(2, 2).convolutionMode(ConvolutionMode.Truncate).build())
+				.build();
+		Layer subsamplingLayer = conf.getLayer().instantiate(conf, null, 0, null, true);
+		INDArray expectedOutput = subsamplingLayer.activate(input, true);
+		INDArray expectedInputGradient = subsamplingLayer.backpropGradient(outputGradient).getSecond();
+
+		DL4JPoolingAxonsComponentImpl component = new DL4JPoolingAxonsComponentImpl("pool",
+				new DL4JPoolingAxonsImpl(new DL4JConvolutionGeometry(leftNeurons, rightNeurons, 2, 2, 0, 0),
+						poolingType),
+				new DL4JComponentConfig().withConvolutionalAxonsEnabled(true));
+		DL4JPoolingAxonsComponentActivationImpl activation = component.forwardPropagate(
+				DL4JUtil.fromNDArrayToImageActivation(matrixFactory, DL4JImageLayouts.fromNCHW(input, ROWS).dup(),
+						ROWS, leftNeurons, DimensionScope.INPUT),
+				new AxonsContextImpl(matrixFactory, true, false));
+		NeuronsActivation inputGradient = activation
+				.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(),
+						DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+								DL4JImageLayouts.fromNCHW(outputGradient, ROWS).dup(), ROWS, rightNeurons,
+								DimensionScope.OUTPUT)))
+				.getOutput();
+
+		Assert.assertTrue(DL4JImageLayouts.fromNCHW(expectedOutput, ROWS)
+				.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS), 0.0001));
+		Assert.assertTrue(DL4JImageLayouts.fromNCHW(expectedInputGradient, ROWS)
+				.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, inputGradient, ROWS), 0.0001));
+	}
+
+	@Test
+	public void testMaxPoolingMatchesDL4JSubsamplingLayer() {
+		assertMatchesSubsamplingLayer(PoolingType.MAX, SubsamplingLayer.PoolingType.MAX);
+	}
+
+	@Test
+	public void testAveragePoolingMatchesDL4JSubsamplingLayer() {
+		assertMatchesSubsamplingLayer(PoolingType.AVERAGE, SubsamplingLayer.PoolingType.AVG);
+	}
+}
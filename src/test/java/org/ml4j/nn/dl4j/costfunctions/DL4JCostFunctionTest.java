@@ -0,0 +1,182 @@
+package org.ml4j.nn.dl4j.costfunctions;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionBaseType;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JDifferentiableActivationFunctionComponentImpl;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.mockito.Mockito;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+import org.nd4j.linalg.lossfunctions.impl.LossBinaryXENT;
+import org.nd4j.linalg.lossfunctions.impl.LossMCXENT;
+import org.nd4j.linalg.lossfunctions.impl.LossMSE;
+
+public class DL4JCostFunctionTest {
+
+	private static final double DELTA = 0.0001;
+
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private final MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+
+	private final Neurons neurons = new Neurons(5, false);
+
+	private NeuronsActivation createActivation(INDArray ndArray) {
+		return DL4JUtil.fromNDArray(matrixFactory, ndArray, COLUMNS, NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET,
+				neurons);
+	}
+
+	private ActivationFunctionType createActivationFunctionType(ActivationFunctionBaseType baseType) {
+		ActivationFunctionType activationFunctionType = Mockito.mock(ActivationFunctionType.class);
+		Mockito.when(activationFunctionType.getBaseType()).thenReturn(baseType);
+		return activationFunctionType;
+	}
+
+	private DL4JDifferentiableActivationFunctionComponentImpl createSigmoidComponent() {
+		return new DL4JDifferentiableActivationFunctionComponentImpl("sigmoid", neurons, new ActivationSigmoid(),
+				createActivationFunctionType(ActivationFunctionBaseType.SIGMOID), null, new DL4JComponentConfig());
+	}
+
+	private INDArray createLabels(int examples, boolean oneHot) {
+		if (!oneHot) {
+			return Nd4j.rand(examples, 5).gt(0.5);
+		}
+		INDArray labels = Nd4j.zeros(examples, 5);
+		for (int i = 0; i < examples; i++) {
+			labels.putScalar(i, i % 5, 1);
+		}
+		return labels;
+	}
+
+	private void assertMatchesDL4JLoss(ILossFunction lossFunction, IActivation activationFunction,
+			ActivationFunctionBaseType baseType, boolean fused) {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray logits = Nd4j.randn(8, 5);
+		INDArray labels = createLabels(8, baseType == ActivationFunctionBaseType.SOFTMAX);
+		INDArray outputs = activationFunction.getActivation(logits.dup(), false);
+
+		DL4JCostFunction costFunction = new DL4JCostFunction(lossFunction, baseType);
+		Assert.assertEquals(fused, costFunction.isFusedGradient());
+		Assert.assertEquals(lossFunction.computeScore(labels, logits.dup(), activationFunction, null, true),
+				costFunction.getAverageCost(matrixFactory, createActivation(labels), createActivation(outputs)),
+				DELTA);
+
+		DirectedComponentGradient<NeuronsActivation> gradient = costFunction
+				.createGradient(matrixFactory, createActivation(labels), createActivation(outputs))
+				.backPropagateThroughFinalActivationFunction(createActivationFunctionType(baseType));
+
+		INDArray expected = lossFunction.computeGradient(labels, logits.dup(), activationFunction, null);
+		Assert.assertTrue(expected.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), COLUMNS),
+				DELTA));
+	}
+
+	@Test
+	public void testBinaryCrossEntropyMatchesDL4JSigmoidLoss() {
+		assertMatchesDL4JLoss(new LossBinaryXENT(), new ActivationSigmoid(), ActivationFunctionBaseType.SIGMOID,
+				true);
+	}
+
+	@Test
+	public void testMeanSquaredErrorIsBackPropagatedThroughSigmoidOutputs() {
+		assertMatchesDL4JLoss(new LossMSE(), new ActivationSigmoid(), ActivationFunctionBaseType.SIGMOID, false);
+	}
+
+	@Test
+	public void testMeanSquaredErrorIsBackPropagatedThroughSoftmaxOutputs() {
+		assertMatchesDL4JLoss(new LossMSE(), new ActivationSoftmax(), ActivationFunctionBaseType.SOFTMAX, false);
+	}
+
+	@Test
+	public void testMultiClassCrossEntropyWithSigmoidOutputsIsNotFused() {
+		assertMatchesDL4JLoss(new LossMCXENT(), new ActivationSigmoid(), ActivationFunctionBaseType.SIGMOID, false);
+	}
+
+	@Test
+	public void testWeightedMultiClassCrossEntropyIsNotFused() {
+		INDArray weights = Nd4j.create(new float[] { 1, 2, 3, 4, 5 }, new int[] { 1, 5 });
+		assertMatchesDL4JLoss(new LossMCXENT(weights), new ActivationSoftmax(), ActivationFunctionBaseType.SOFTMAX,
+				false);
+	}
+
+	@Test
+	public void testFusedGradientIsBackPropagatedFromActivationComponentOutput() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray logits = Nd4j.randn(8, 5);
+		INDArray labels = createLabels(8, false);
+		DifferentiableActivationFunctionComponentActivation activation = createSigmoidComponent().forwardPropagate(
+				createActivation(logits.dup()), new NeuronsActivationContextImpl(matrixFactory, true));
+
+		DL4JCostFunction costFunction = DL4JCostFunction.createCrossEntropyCostFunction();
+		DirectedComponentGradient<NeuronsActivation> gradient = activation
+				.backPropagate(costFunction.createGradient(matrixFactory, createActivation(labels),
+						activation.getOutput()));
+
+		INDArray expected = new LossBinaryXENT().computeGradient(labels, logits.dup(), new ActivationSigmoid(), null);
+		Assert.assertTrue(expected.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), COLUMNS),
+				DELTA));
+	}
+
+	@Test
+	public void testMultiClassCrossEntropyMatchesDL4JSoftmaxLoss() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray logits = Nd4j.randn(8, 5);
+		INDArray labels = Nd4j.zeros(8, 5);
+		for (int i = 0; i < 8; i++) {
+			labels.putScalar(i, i % 5, 1);
+		}
+		INDArray outputs = new ActivationSoftmax().getActivation(logits.dup(), false);
+		LossMCXENT loss = new LossMCXENT();
+
+		DL4JCostFunction costFunction = DL4JCostFunction.createMultiClassCrossEntropyCostFunction();
+		Assert.assertEquals(loss.computeScore(labels, logits.dup(), new ActivationSoftmax(), null, true),
+				costFunction.getAverageCost(matrixFactory, createActivation(labels), createActivation(outputs)),
+				DELTA);
+
+		ActivationFunctionType softmaxType = Mockito.mock(ActivationFunctionType.class);
+		Mockito.when(softmaxType.getBaseType()).thenReturn(ActivationFunctionBaseType.SOFTMAX);
+		DirectedComponentGradient<NeuronsActivation> gradient = costFunction
+				.createGradient(matrixFactory, createActivation(labels), createActivation(outputs))
+				.backPropagateThroughFinalActivationFunction(softmaxType);
+
+		INDArray expected = loss.computeGradient(labels, logits.dup(), new ActivationSoftmax(), null);
+		Assert.assertTrue(expected.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, gradient.getOutput(), COLUMNS),
+				DELTA));
+	}
+
+	@Test
+	public void testSaturatedOutputsGiveFiniteCost() {
+		INDArray labels = Nd4j.create(new float[] { 1, 0, 0, 0, 0 }, new int[] { 1, 5 });
+		INDArray outputs = Nd4j.create(new float[] { 0, 1, 0, 0, 0 }, new int[] { 1, 5 });
+
+		float cost = DL4JCostFunction.createMultiClassCrossEntropyCostFunction().getTotalCost(matrixFactory,
+				createActivation(labels), createActivation(outputs));
+
+		Assert.assertFalse(Float.isInfinite(cost) || Float.isNaN(cost));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testUnpairedFinalActivationIsRejected() {
+		ActivationFunctionType reluType = Mockito.mock(ActivationFunctionType.class);
+		Mockito.when(reluType.getBaseType()).thenReturn(ActivationFunctionBaseType.RELU);
+		INDArray ones = Nd4j.ones(2, 5);
+		DL4JCostFunction.createMultiClassCrossEntropyCostFunction()
+				.createGradient(matrixFactory, createActivation(ones), createActivation(ones))
+				.backPropagateThroughFinalActivationFunction(reluType);
+	}
+}
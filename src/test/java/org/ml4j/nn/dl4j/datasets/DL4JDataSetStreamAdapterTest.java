@@ -0,0 +1,137 @@
+package org.ml4j.nn.dl4j.datasets;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.mockito.Mockito;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JDataSetStreamAdapterTest {
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	private List<DataSet> createDataSets() {
+		return createDataSets(5);
+	}
+
+	private List<DataSet> createDataSets(int count) {
+		List<DataSet> dataSets = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			dataSets.add(new DataSet(Nd4j.rand(1, 4), Nd4j.rand(1, 2)));
+		}
+		return dataSets;
+	}
+
+	@Test
+	public void testBatchesAreStreamedInOrderInTheRequestedOrientation() {
+		List<DataSet> dataSets = createDataSets();
+		DL4JDataSetStreamAdapter adapter = new DL4JDataSetStreamAdapter(new ListDataSetIterator<>(dataSets, 2),
+				matrixFactory, new Neurons(4, false), ROWS, new Neurons(2, false), COLUMNS, 1);
+
+		List<DL4JDataSetBatch> batches = adapter.stream().collect(Collectors.toList());
+
+		Assert.assertEquals(3, batches.size());
+		Assert.assertEquals(1, batches.get(2).getExampleCount());
+		DataSet expected = DataSet.merge(dataSets.subList(0, 2));
+		DL4JDataSetBatch first = batches.get(0);
+		Assert.assertEquals(expected.getFeatures().transpose(),
+				DL4JUtil.asNDArray(matrixFactory, first.getFeatures(), ROWS));
+		Assert.assertEquals(expected.getLabels(), DL4JUtil.asNDArray(matrixFactory, first.getLabels(), COLUMNS));
+	}
+
+	@Test
+	public void testTransposeBuffersAreRecycledWhenBatchesAreClosed() {
+		List<DataSet> dataSets = createDataSets(10);
+		DL4JDataSetStreamAdapter adapter = new DL4JDataSetStreamAdapter(new ListDataSetIterator<>(dataSets, 1),
+				matrixFactory, new Neurons(4, false), ROWS, new Neurons(2, false), ROWS, 1);
+
+		Set<Long> featureAddresses = new HashSet<>();
+		long firstAddress = 0;
+		boolean firstReused = false;
+		for (int i = 0; i < dataSets.size(); i++) {
+			try (DL4JDataSetBatch batch = adapter.next()) {
+				INDArray features = DL4JUtil.asNDArray(matrixFactory, batch.getFeatures(), ROWS);
+				Assert.assertEquals(dataSets.get(i).getFeatures().transpose(), features);
+				long address = features.data().address();
+				if (i == 0) {
+					firstAddress = address;
+				} else {
+					firstReused |= address == firstAddress;
+				}
+				featureAddresses.add(address);
+			}
+		}
+		adapter.close();
+
+		// At most one batch is held by the consumer, one is queued and one is
+		// being converted, so no more buffers than these are ever allocated
+		Assert.assertTrue(firstReused);
+		Assert.assertTrue(featureAddresses.size() <= 3);
+	}
+
+	@Test
+	public void testClosingTheAdapterEndsTheStream() {
+		DL4JDataSetStreamAdapter adapter = new DL4JDataSetStreamAdapter(new ListDataSetIterator<>(createDataSets(), 1),
+				matrixFactory, new Neurons(4, false), ROWS, new Neurons(2, false), ROWS, 1);
+
+		try (DL4JDataSetBatch first = adapter.next()) {
+			Assert.assertEquals(1, first.getExampleCount());
+		}
+		adapter.close();
+
+		Assert.assertFalse(adapter.hasNext());
+	}
+
+	@Test
+	public void testIteratorFailuresArePropagatedToTheConsumer() {
+		DataSetIterator failing = Mockito.mock(DataSetIterator.class);
+		Mockito.when(failing.hasNext()).thenReturn(true);
+		Mockito.when(failing.next()).thenThrow(new IllegalArgumentException("Corrupt record"));
+		DL4JDataSetStreamAdapter adapter = new DL4JDataSetStreamAdapter(failing, matrixFactory,
+				new Neurons(4, false), ROWS, new Neurons(2, false), ROWS, 2);
+
+		try {
+			adapter.next();
+			Assert.fail("Expected the failure to be propagated");
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		Assert.assertFalse(adapter.hasNext());
+		adapter.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testIteratorErrorsArePropagatedToTheConsumer() {
+		DataSetIterator failing = Mockito.mock(DataSetIterator.class);
+		Mockito.when(failing.hasNext()).thenReturn(true);
+		Mockito.when(failing.next()).thenThrow(new OutOfMemoryError("Unable to allocate DataSet"));
+		DL4JDataSetStreamAdapter adapter = new DL4JDataSetStreamAdapter(failing, matrixFactory,
+				new Neurons(4, false), ROWS, new Neurons(2, false), ROWS, 2);
+
+		try {
+			adapter.next();
+			Assert.fail("Expected the error to be propagated");
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof OutOfMemoryError);
+		}
+		Assert.assertFalse(adapter.hasNext());
+		adapter.close();
+	}
+}
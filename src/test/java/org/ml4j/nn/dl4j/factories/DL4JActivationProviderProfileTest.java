@@ -0,0 +1,51 @@
+package org.ml4j.nn.dl4j.factories;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ml4j.provider.Provider;
+import org.ml4j.provider.enums.activationfunctions.ActivationFunctionTypeEnum;
+
+public class DL4JActivationProviderProfileTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testShapeBucketsRoundUpToPowersOfTwo() {
+		Assert.assertEquals(1, DL4JActivationProviderProfile.getShapeBucket(1));
+		Assert.assertEquals(64, DL4JActivationProviderProfile.getShapeBucket(64));
+		Assert.assertEquals(128, DL4JActivationProviderProfile.getShapeBucket(65));
+		Assert.assertEquals(1024, DL4JActivationProviderProfile.getShapeBucket(1000));
+	}
+
+	@Test
+	public void testDecisionsApplyToTheWholeShapeBucket() {
+		ActivationFunctionTypeEnum activationFunctionType = ActivationFunctionTypeEnum.values()[0];
+		DL4JActivationProviderProfile profile = new DL4JActivationProviderProfile();
+		profile.setProvider(activationFunctionType, 100, Provider.ML4J);
+
+		Assert.assertEquals(Provider.ML4J, profile.getProvider(activationFunctionType, 128).get());
+		Assert.assertFalse(profile.getProvider(activationFunctionType, 129).isPresent());
+	}
+
+	@Test
+	public void testSavedProfileIsLoadedWithTheSameDecisions() throws IOException {
+		ActivationFunctionTypeEnum activationFunctionType = ActivationFunctionTypeEnum.values()[0];
+		DL4JActivationProviderProfile profile = new DL4JActivationProviderProfile();
+		profile.setProvider(activationFunctionType, 10, Provider.ML4J);
+		profile.setProvider(activationFunctionType, 1000, Provider.DL4J);
+
+		Path path = temporaryFolder.newFile("profile.properties").toPath();
+		profile.save(path);
+		DL4JActivationProviderProfile loaded = DL4JActivationProviderProfile.load(path);
+
+		Assert.assertEquals(2, loaded.size());
+		Assert.assertEquals(Provider.ML4J, loaded.getProvider(activationFunctionType, 10).get());
+		Assert.assertEquals(Provider.DL4J, loaded.getProvider(activationFunctionType, 1000).get());
+	}
+}
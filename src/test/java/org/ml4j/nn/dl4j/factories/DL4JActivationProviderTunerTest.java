@@ -0,0 +1,91 @@
+package org.ml4j.nn.dl4j.factories;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.Matrix;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContext;
+import org.ml4j.provider.Provider;
+import org.mockito.Mockito;
+
+public class DL4JActivationProviderTunerTest {
+
+	private final Neurons neurons = new Neurons(10, false);
+
+	/**
+	 * Creates a component whose forward propagation sleeps for the number of
+	 * milliseconds given by the delay function of the invocation count.
+	 */
+	private DifferentiableActivationFunctionComponent createComponent(AtomicInteger invocations,
+			IntUnaryOperator delayMillis) {
+		Matrix output = Mockito.mock(Matrix.class);
+		Mockito.when(output.getRows()).thenReturn(1);
+		NeuronsActivation outputActivation = Mockito.mock(NeuronsActivation.class);
+		Mockito.when(outputActivation.getActivations(Mockito.any())).thenReturn(output);
+		DifferentiableActivationFunctionComponentActivation activation = Mockito
+				.mock(DifferentiableActivationFunctionComponentActivation.class);
+		Mockito.when(activation.getOutput()).thenReturn(outputActivation);
+		DifferentiableActivationFunctionComponent component = Mockito
+				.mock(DifferentiableActivationFunctionComponent.class);
+		Mockito.when(component.forwardPropagate(Mockito.any(NeuronsActivation.class),
+				Mockito.any(NeuronsActivationContext.class))).thenAnswer(invocation -> {
+					Thread.sleep(delayMillis.applyAsInt(invocations.getAndIncrement()));
+					return activation;
+				});
+		return component;
+	}
+
+	@Test
+	public void testFasterProviderIsSelected() {
+		DL4JActivationProviderTuner tuner = new DL4JActivationProviderTuner(4, 2, 5);
+
+		Assert.assertEquals(Provider.DL4J, tuner.selectProvider(new Nd4jMatrixFactory(), neurons,
+				() -> createComponent(new AtomicInteger(), i -> 3),
+				() -> createComponent(new AtomicInteger(), i -> 1)));
+		Assert.assertEquals(Provider.ML4J, tuner.selectProvider(new Nd4jMatrixFactory(), neurons,
+				() -> createComponent(new AtomicInteger(), i -> 1),
+				() -> createComponent(new AtomicInteger(), i -> 3)));
+	}
+
+	@Test
+	public void testWarmUpContinuesUntilTimingsStabilise() {
+		// The DL4J candidate speeds up by a millisecond every window of 5 iterations
+		// until it overtakes the ML4J candidate after 40 iterations, which a fixed
+		// warm-up of 2 iterations would not observe
+		AtomicInteger dl4jInvocations = new AtomicInteger();
+		DL4JActivationProviderTuner tuner = new DL4JActivationProviderTuner(4, 2, 5, 3000, 0.05);
+
+		Provider provider = tuner.selectProvider(new Nd4jMatrixFactory(), neurons,
+				() -> createComponent(new AtomicInteger(), i -> 2),
+				() -> createComponent(dl4jInvocations, i -> Math.max(0, 8 - i / 5)));
+
+		Assert.assertEquals(Provider.DL4J, provider);
+		Assert.assertTrue(dl4jInvocations.get() > 40);
+	}
+
+	@Test
+	public void testWarmUpIsBoundedByMaximumTime() {
+		// Alternating timings never stabilise
+		AtomicInteger invocations = new AtomicInteger();
+		DL4JActivationProviderTuner tuner = new DL4JActivationProviderTuner(4, 0, 1, 200, 0.05);
+
+		long start = System.currentTimeMillis();
+		tuner.selectProvider(new Nd4jMatrixFactory(), neurons, () -> createComponent(invocations, i -> 1 + 4 * (i % 2)),
+				() -> createComponent(new AtomicInteger(), i -> 1));
+
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertTrue(invocations.get() > 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConfigurationIsRejected() {
+		new DL4JActivationProviderTuner(4, 2, 5, 1000, -0.1);
+	}
+}
@@ -0,0 +1,79 @@
+package org.ml4j.nn.dl4j.factories;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionBaseType;
+import org.ml4j.nn.activationfunctions.ActivationFunctionProperties;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.activationfunctions.factories.DifferentiableActivationFunctionFactory;
+import org.ml4j.nn.axons.factories.AxonsFactory;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponent;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JDifferentiableActivationFunctionComponentImpl;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.provider.Provider;
+import org.ml4j.provider.enums.activationfunctions.ActivationFunctionTypeEnum;
+import org.mockito.Mockito;
+
+public class HybridML4JDL4JDefaultDirectedComponentFactoryTest {
+
+	private final ActivationFunctionType sigmoidType = ActivationFunctionType
+			.getBaseType(ActivationFunctionBaseType.SIGMOID);
+
+	private final ActivationFunctionTypeEnum sigmoidTypeEnum = ActivationFunctionTypeEnum
+			.findByQualifiedEnumName(sigmoidType.getQualifiedId()).get();
+
+	private final DifferentiableActivationFunctionFactory activationFunctionFactory = Mockito
+			.mock(DifferentiableActivationFunctionFactory.class);
+
+	private HybridML4JDL4JDefaultDirectedComponentFactory createFactory(DL4JActivationProviderProfile profile,
+			DL4JActivationProviderTuner tuner) {
+		return new HybridML4JDL4JDefaultDirectedComponentFactory(new Nd4jMatrixFactory(),
+				Mockito.mock(AxonsFactory.class), activationFunctionFactory,
+				Mockito.mock(DirectedComponentsContext.class), new DL4JComponentConfig(), profile, tuner);
+	}
+
+	private boolean isRoutedToDL4J(HybridML4JDL4JDefaultDirectedComponentFactory factory, int featureCount) {
+		DifferentiableActivationFunctionComponent component = factory.createDifferentiableActivationFunctionComponent(
+				"sigmoid", new Neurons(featureCount, false), sigmoidType, new ActivationFunctionProperties());
+		return component instanceof DL4JDifferentiableActivationFunctionComponentImpl;
+	}
+
+	@Test
+	public void testComponentsAreRoutedByTheProfile() {
+		DL4JActivationProviderProfile profile = new DL4JActivationProviderProfile();
+		profile.setProvider(sigmoidTypeEnum, 10, Provider.ML4J);
+		profile.setProvider(sigmoidTypeEnum, 1000, Provider.DL4J);
+		HybridML4JDL4JDefaultDirectedComponentFactory factory = createFactory(profile, null);
+
+		Assert.assertFalse(isRoutedToDL4J(factory, 10));
+		Assert.assertTrue(isRoutedToDL4J(factory, 1000));
+		// Without a decision or a tuner, DL4J is used
+		Assert.assertTrue(isRoutedToDL4J(factory, 100));
+		Assert.assertEquals(2, profile.size());
+	}
+
+	@Test
+	public void testTunedDecisionsAreRecordedForTheShapeBucket() {
+		DL4JActivationProviderProfile profile = new DL4JActivationProviderProfile();
+		DL4JActivationProviderTuner tuner = Mockito.mock(DL4JActivationProviderTuner.class);
+		Mockito.when(tuner.selectProvider(Mockito.any(MatrixFactory.class), Mockito.any(Neurons.class),
+				Mockito.any(), Mockito.any())).thenReturn(Provider.ML4J);
+		HybridML4JDL4JDefaultDirectedComponentFactory factory = createFactory(profile, tuner);
+
+		Assert.assertFalse(isRoutedToDL4J(factory, 100));
+		Assert.assertFalse(isRoutedToDL4J(factory, 128));
+
+		Mockito.verify(tuner, Mockito.times(1)).selectProvider(Mockito.any(MatrixFactory.class),
+				Mockito.any(Neurons.class), Mockito.any(), Mockito.any());
+		Assert.assertEquals(Provider.ML4J, profile.getProvider(sigmoidTypeEnum, 100).get());
+	}
+
+	@Test
+	public void testComponentsAreCreatedWithDL4JWithoutAProfile() {
+		Assert.assertTrue(isRoutedToDL4J(createFactory(null, null), 10));
+	}
+}
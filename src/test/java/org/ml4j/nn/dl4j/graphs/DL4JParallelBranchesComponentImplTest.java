@@ -0,0 +1,176 @@
+package org.ml4j.nn.dl4j.graphs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.components.DirectedComponentGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.DirectedComponentsContextImpl;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JDifferentiableActivationFunctionComponentImpl;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsImpl;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.mockito.Mockito;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+public class DL4JParallelBranchesComponentImplTest {
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	private final DL4JComponentConfig config = new DL4JComponentConfig();
+
+	private final Neurons inputNeurons = new Neurons(5, false);
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(3);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private List<DefaultChainableDirectedComponent<?, ?>> createBranches(INDArray... connectionWeights) {
+		List<DefaultChainableDirectedComponent<?, ?>> branches = new ArrayList<>();
+		for (int i = 0; i < connectionWeights.length; i++) {
+			branches.add(new DL4JFullyConnectedAxonsComponentImpl("branch" + i,
+					new DL4JFullyConnectedAxonsImpl(matrixFactory, inputNeurons,
+							new Neurons(connectionWeights[i].rows(), false), connectionWeights[i], null),
+					config));
+		}
+		return branches;
+	}
+
+	private NeuronsActivation createActivation(INDArray rowsSpanFeatureSet, Neurons neurons) {
+		return DL4JUtil.fromNDArray(matrixFactory, rowsSpanFeatureSet, ROWS,
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, neurons);
+	}
+
+	/**
+	 * @return The output and input gradient of the component.
+	 */
+	private INDArray[] propagate(DL4JParallelBranchesComponentImpl component, INDArray input,
+			INDArray outputGradient) {
+		DL4JParallelBranchesComponentActivationImpl activation = component.forwardPropagate(
+				createActivation(input, inputNeurons), new DirectedComponentsContextImpl(matrixFactory, true));
+		DirectedComponentGradient<NeuronsActivation> inputGradient = activation.backPropagate(
+				new DirectedComponentGradientImpl<>(createActivation(outputGradient, component.getOutputNeurons())));
+		Assert.assertEquals(component.getBranches().size(), inputGradient.getTotalTrainableAxonsGradients().size());
+		return new INDArray[] { DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS),
+				DL4JUtil.asNDArray(matrixFactory, inputGradient.getOutput(), ROWS) };
+	}
+
+	@Test
+	public void testConcurrentExecutionMatchesSequentialExecution() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray[] connectionWeights = new INDArray[] { Nd4j.randn(4, 5), Nd4j.randn(4, 5), Nd4j.randn(4, 5) };
+		INDArray input = Nd4j.randn(5, 8);
+		INDArray outputGradient = Nd4j.randn(4, 8);
+		Neurons outputNeurons = new Neurons(4, false);
+
+		DL4JParallelBranchesComponentImpl sequential = new DL4JParallelBranchesComponentImpl("sequential",
+				inputNeurons, outputNeurons, createBranches(connectionWeights), DL4JBranchCombination.ADDITION,
+				config, null);
+		DL4JParallelBranchesComponentImpl concurrent = new DL4JParallelBranchesComponentImpl("concurrent",
+				inputNeurons, outputNeurons, createBranches(connectionWeights), DL4JBranchCombination.ADDITION,
+				config, executor);
+		Assert.assertFalse(sequential.isParallel());
+		Assert.assertTrue(concurrent.isParallel());
+
+		INDArray[] expected = propagate(sequential, input, outputGradient);
+		for (int i = 0; i < 10; i++) {
+			INDArray[] actual = propagate(concurrent, input, outputGradient);
+			Assert.assertEquals(expected[0], actual[0]);
+			Assert.assertEquals(expected[1], actual[1]);
+		}
+
+		INDArray weightsSum = connectionWeights[0].add(connectionWeights[1]).addi(connectionWeights[2]);
+		Assert.assertTrue(weightsSum.mmul(input).equalsWithEps(expected[0], 0.0001));
+		Assert.assertTrue(weightsSum.transpose().mmul(outputGradient).equalsWithEps(expected[1], 0.0001));
+	}
+
+	@Test
+	public void testConcatenationStacksBranchOutputsAndSplitsOutputGradient() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray first = Nd4j.randn(3, 5);
+		INDArray second = Nd4j.randn(2, 5);
+		INDArray input = Nd4j.randn(5, 4);
+		INDArray outputGradient = Nd4j.randn(5, 4);
+
+		DL4JParallelBranchesComponentImpl component = new DL4JParallelBranchesComponentImpl("concatenation",
+				inputNeurons, new Neurons(5, false), createBranches(first, second),
+				DL4JBranchCombination.CONCATENATION, config, executor);
+
+		INDArray[] actual = propagate(component, input, outputGradient);
+
+		Assert.assertTrue(Nd4j.vstack(first.mmul(input), second.mmul(input)).equalsWithEps(actual[0], 0.0001));
+		INDArray expectedInputGradient = first.transpose()
+				.mmul(outputGradient.get(NDArrayIndex.interval(0, 3), NDArrayIndex.all()))
+				.addi(second.transpose().mmul(outputGradient.get(NDArrayIndex.interval(3, 5), NDArrayIndex.all())));
+		Assert.assertTrue(expectedInputGradient.equalsWithEps(actual[1], 0.0001));
+	}
+
+	@Test
+	public void testSequentialInPlaceInferenceBranchesEachReadTheInput() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray input = Nd4j.randn(5, 8);
+		INDArray expected = new ActivationSigmoid().getActivation(input.dup(), false).muli(2);
+		DL4JComponentConfig inPlaceConfig = config.withInPlaceInferenceEnabled(true);
+		List<DefaultChainableDirectedComponent<?, ?>> branches = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			branches.add(new DL4JDifferentiableActivationFunctionComponentImpl("sigmoid" + i, inputNeurons,
+					new ActivationSigmoid(), Mockito.mock(ActivationFunctionType.class), ROWS, inPlaceConfig));
+		}
+		DL4JParallelBranchesComponentImpl component = new DL4JParallelBranchesComponentImpl("sequential",
+				inputNeurons, inputNeurons, branches, DL4JBranchCombination.ADDITION, inPlaceConfig, null);
+		Assert.assertFalse(component.isParallel());
+
+		DL4JParallelBranchesComponentActivationImpl activation = component.forwardPropagate(
+				createActivation(input, inputNeurons), new DirectedComponentsContextImpl(matrixFactory, false));
+
+		// The first branch activates the input in-place, so the second must read a
+		// copy taken before the first branch ran
+		Assert.assertTrue(expected.equalsWithEps(DL4JUtil.asNDArray(matrixFactory, activation.getOutput(), ROWS),
+				0.0001));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMismatchedConcatenatedOutputNeuronsAreRejected() {
+		new DL4JParallelBranchesComponentImpl("concatenation", inputNeurons, new Neurons(4, false),
+				createBranches(Nd4j.randn(3, 5), Nd4j.randn(2, 5)), DL4JBranchCombination.CONCATENATION, config,
+				null);
+	}
+
+	@Test
+	public void testBranchesAreFlattened() {
+		List<DefaultChainableDirectedComponent<?, ?>> branches = createBranches(Nd4j.randn(2, 5), Nd4j.randn(2, 5));
+		DL4JParallelBranchesComponentImpl component = new DL4JParallelBranchesComponentImpl("addition",
+				inputNeurons, new Neurons(2, false), branches, DL4JBranchCombination.ADDITION, config, null);
+
+		Assert.assertTrue(component.flatten().containsAll(Arrays.asList(component, branches.get(0), branches.get(1))));
+	}
+}
@@ -0,0 +1,157 @@
+package org.ml4j.nn.dl4j.importers;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.components.DirectedComponentsContextImpl;
+import org.ml4j.nn.components.onetone.DefaultDirectedComponentChain;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.axons.DL4JImageLayouts;
+import org.ml4j.nn.dl4j.factories.HybridML4JDL4JDefaultDirectedComponentFactory;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+
+public class DL4JModelImporterTest {
+
+	private static final double DELTA = 0.0001;
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private static final int EXAMPLES = 3;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	private final DL4JModelImporter importer = new DL4JModelImporter(new HybridML4JDL4JDefaultDirectedComponentFactory(
+			matrixFactory, null, new DirectedComponentsContextImpl(matrixFactory, false),
+			new DL4JComponentConfig().withFullyConnectedAxonsEnabled(true).withConvolutionalAxonsEnabled(true)));
+
+	/**
+	 * A convolutional layer over an 8x6x2 image, max pooled to 4x3x3 and
+	 * flattened into a dense layer, followed by a softmax output layer.
+	 */
+	private MultiLayerNetwork createConvolutionalNetwork() {
+		MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(1234).list()
+				.layer(0, new ConvolutionLayer.Builder(3, 3).nOut(3).stride(1, 1).padding(1, 1)
+						.convolutionMode(ConvolutionMode.Truncate).activation(Activation.RELU).build())
+				.layer(1, new SubsamplingLayer.Builder(SubsamplingLayer.PoolingType.MAX).kernelSize(2, 2)
+						.stride(2, 2).build())
+				.layer(2, new DenseLayer.Builder().nOut(5).activation(Activation.TANH).build())
+				.layer(3, new OutputLayer.Builder(LossFunction.MCXENT).nOut(4).activation(Activation.SOFTMAX)
+						.build())
+				.setInputType(InputType.convolutional(8, 6, 2)).build();
+		MultiLayerNetwork network = new MultiLayerNetwork(conf);
+		network.init();
+		return network;
+	}
+
+	private INDArray forwardPropagate(DefaultDirectedComponentChain chain, NeuronsActivation input) {
+		return DL4JUtil.asNDArray(matrixFactory,
+				chain.forwardPropagate(input, new DirectedComponentsContextImpl(matrixFactory, false)).getOutput(),
+				COLUMNS);
+	}
+
+	private INDArray forwardPropagateImage(DefaultDirectedComponentChain chain, INDArray nchw,
+			Neurons3D inputNeurons) {
+		return forwardPropagate(chain, DL4JUtil.fromNDArrayToImageActivation(matrixFactory,
+				DL4JImageLayouts.fromNCHW(nchw, ROWS).dup(), ROWS, inputNeurons, DimensionScope.INPUT));
+	}
+
+	@Test
+	public void testImportedConvolutionalNetworkMatchesDL4JOutput() {
+		MultiLayerNetwork network = createConvolutionalNetwork();
+		INDArray input = Nd4j.randn(new int[] { EXAMPLES, 2, 8, 6 });
+		Neurons3D inputNeurons = new Neurons3D(6, 8, 2, false);
+
+		DefaultDirectedComponentChain chain = importer.importModel(network, inputNeurons);
+
+		Assert.assertTrue(network.output(input).equalsWithEps(forwardPropagateImage(chain, input, inputNeurons),
+				DELTA));
+	}
+
+	@Test
+	public void testImportedParametersAreSharedWithTheNetwork() {
+		MultiLayerNetwork network = createConvolutionalNetwork();
+		INDArray input = Nd4j.randn(new int[] { EXAMPLES, 2, 8, 6 });
+		Neurons3D inputNeurons = new Neurons3D(6, 8, 2, false);
+		DefaultDirectedComponentChain shared = importer.importModel(network, inputNeurons);
+		DefaultDirectedComponentChain copied = importer.withParameterSharingEnabled(false).importModel(network,
+				inputNeurons);
+		INDArray originalOutput = network.output(input);
+
+		network.params().muli(0.5);
+
+		Assert.assertTrue(network.output(input).equalsWithEps(forwardPropagateImage(shared, input, inputNeurons),
+				DELTA));
+		Assert.assertTrue(originalOutput.equalsWithEps(forwardPropagateImage(copied, input, inputNeurons), DELTA));
+	}
+
+	@Test
+	public void testImportedBatchNormalizationMatchesDL4JOutput() {
+		MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(1234).list()
+				.layer(0, new ConvolutionLayer.Builder(3, 3).nOut(3).stride(1, 1).padding(1, 1)
+						.convolutionMode(ConvolutionMode.Truncate).activation(Activation.IDENTITY).build())
+				.layer(1, new BatchNormalization.Builder().nOut(3).build())
+				.layer(2, new OutputLayer.Builder(LossFunction.MCXENT).nOut(4).activation(Activation.SOFTMAX)
+						.build())
+				.setInputType(InputType.convolutional(8, 6, 2)).build();
+		MultiLayerNetwork network = new MultiLayerNetwork(conf);
+		network.init();
+		// Statistics and scales other than the initial ones, so that each has an
+		// effect on the output
+		network.getLayer(1).setParam("gamma", Nd4j.rand(1, 3).addi(0.5));
+		network.getLayer(1).setParam("beta", Nd4j.randn(1, 3));
+		network.getLayer(1).setParam("mean", Nd4j.randn(1, 3));
+		network.getLayer(1).setParam("var", Nd4j.rand(1, 3).addi(0.5));
+		INDArray input = Nd4j.randn(new int[] { EXAMPLES, 2, 8, 6 });
+		Neurons3D inputNeurons = new Neurons3D(6, 8, 2, false);
+
+		DefaultDirectedComponentChain chain = importer.importModel(network, inputNeurons);
+
+		Assert.assertTrue(network.output(input).equalsWithEps(forwardPropagateImage(chain, input, inputNeurons),
+				DELTA));
+	}
+
+	@Test
+	public void testImportedComputationGraphMatchesDL4JOutput() {
+		ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder().seed(1234).graphBuilder()
+				.addInputs("input")
+				.addLayer("dense", new DenseLayer.Builder().nIn(6).nOut(5).activation(Activation.SIGMOID).build(),
+						"input")
+				.addLayer("output", new OutputLayer.Builder(LossFunction.MSE).nIn(5).nOut(3)
+						.activation(Activation.IDENTITY).build(), "dense")
+				.setOutputs("output").build();
+		ComputationGraph graph = new ComputationGraph(conf);
+		graph.init();
+		INDArray input = Nd4j.randn(4, 6);
+		Neurons inputNeurons = new Neurons(6, false);
+
+		DefaultDirectedComponentChain chain = importer.importModel(graph, inputNeurons);
+
+		Assert.assertTrue(graph.outputSingle(input).equalsWithEps(forwardPropagate(chain, DL4JUtil.fromNDArray(
+				matrixFactory, input.dup(), COLUMNS, NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET, inputNeurons)),
+				DELTA));
+	}
+}
@@ -0,0 +1,70 @@
+package org.ml4j.nn.dl4j.importers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+public class DL4JParameterImportTest {
+
+	private static final float DELTA = 0.00001f;
+
+	@Test
+	public void testTransposedDenseWeightsAreShared() {
+		// DL4J holds dense weights as an 'f' ordered [nIn, nOut] view of the
+		// flattened parameters
+		INDArray flattenedParameters = Nd4j.linspace(1, 15, 15);
+		INDArray weights = flattenedParameters.get(NDArrayIndex.interval(0, 12)).reshape('f', 4, 3);
+
+		INDArray imported = DL4JParameterImport.asMatrixView(weights.transpose(), 3, 4);
+
+		Assert.assertNotNull(imported);
+		Assert.assertEquals(weights.transpose(), imported);
+		flattenedParameters.addi(1);
+		Assert.assertEquals(weights.getFloat(1, 2), imported.getFloat(2, 1), DELTA);
+	}
+
+	@Test
+	public void testConvolutionalFiltersAreSharedAsMatrix() {
+		INDArray flattenedParameters = Nd4j.linspace(1, 50, 50);
+		INDArray filters = flattenedParameters.get(NDArrayIndex.interval(2, 50)).reshape('c', 2, 3, 2, 4);
+
+		INDArray imported = DL4JParameterImport.asMatrixView(filters, 2, 24);
+
+		Assert.assertNotNull(imported);
+		Assert.assertEquals(filters.getFloat(new int[] { 1, 2, 1, 3 }), imported.getFloat(1, 2 * 8 + 1 * 4 + 3),
+				DELTA);
+		flattenedParameters.addi(1);
+		Assert.assertEquals(filters.getFloat(new int[] { 1, 2, 1, 3 }), imported.getFloat(1, 2 * 8 + 1 * 4 + 3),
+				DELTA);
+	}
+
+	@Test
+	public void testNonContiguousFiltersCannotBeShared() {
+		INDArray filters = Nd4j.linspace(1, 48, 48).reshape('c', 3, 2, 2, 4).permute(1, 0, 2, 3);
+
+		Assert.assertNull(DL4JParameterImport.asMatrixView(filters, 2, 24));
+	}
+
+	@Test
+	public void testCopyInChunksMatchesSharedView() {
+		INDArray filters = Nd4j.linspace(1, 48, 48).reshape('c', 3, 2, 2, 4).permute(1, 0, 2, 3);
+
+		// A chunk size smaller than a row still copies one row at a time
+		for (long chunkElements : new long[] { 1, 24, 30, 1000 }) {
+			INDArray copy = DL4JParameterImport.copyInChunks(filters, 2, 24, chunkElements);
+			Assert.assertEquals(filters.dup('c').reshape('c', 2, 24), copy);
+		}
+	}
+
+	@Test
+	public void testCopyInChunksIsDetached() {
+		INDArray weights = Nd4j.linspace(1, 12, 12).reshape('f', 4, 3);
+
+		INDArray copy = DL4JParameterImport.copyInChunks(weights.transpose(), 3, 4, 4);
+		weights.addi(1);
+
+		Assert.assertEquals(weights.transpose().sub(1), copy);
+	}
+}
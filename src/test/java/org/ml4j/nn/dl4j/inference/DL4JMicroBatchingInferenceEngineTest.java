@@ -0,0 +1,121 @@
+package org.ml4j.nn.dl4j.inference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.onetone.DefaultDirectedComponentChain;
+import org.ml4j.nn.components.onetone.DefaultDirectedComponentChainActivation;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.mockito.Mockito;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JMicroBatchingInferenceEngineTest {
+
+	private DefaultDirectedComponentChain chain;
+	private DirectedComponentsContext context;
+
+	@Before
+	public void setUp() {
+		chain = Mockito.mock(DefaultDirectedComponentChain.class);
+		Mockito.when(chain.getInputNeurons()).thenReturn(new Neurons(3, false));
+		Mockito.when(chain.decompose()).thenReturn(Collections.emptyList());
+		// An identity chain
+		Mockito.when(chain.forwardPropagate(Mockito.any(NeuronsActivation.class),
+				Mockito.any(DirectedComponentsContext.class))).thenAnswer(invocation -> {
+					DefaultDirectedComponentChainActivation activation = Mockito
+							.mock(DefaultDirectedComponentChainActivation.class);
+					Mockito.when(activation.getOutput()).thenReturn((NeuronsActivation) invocation.getArguments()[0]);
+					return activation;
+				});
+		context = Mockito.mock(DirectedComponentsContext.class);
+		Mockito.when(context.getMatrixFactory()).thenReturn(new Nd4jMatrixFactory());
+	}
+
+	@Test
+	public void testConcurrentRequestsAreBatchedAndScatteredToTheirCallers() {
+		try (DL4JMicroBatchingInferenceEngine engine = new DL4JMicroBatchingInferenceEngine(chain, context, 8, 50,
+				TimeUnit.MILLISECONDS)) {
+			List<INDArray> features = new ArrayList<>();
+			List<CompletableFuture<INDArray>> results = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				INDArray example = Nd4j.rand(1, 3);
+				features.add(example);
+				results.add(engine.submit(example));
+			}
+			for (int i = 0; i < 20; i++) {
+				Assert.assertEquals(features.get(i), results.get(i).join());
+			}
+			Assert.assertEquals(20, engine.getRequestCount());
+			Assert.assertTrue(engine.getBatchCount() >= 3);
+			Assert.assertTrue(engine.getBatchCount() < 20);
+		}
+	}
+
+	@Test
+	public void testBlockingInferenceCompletesAfterTheLatencyDeadline() {
+		try (DL4JMicroBatchingInferenceEngine engine = new DL4JMicroBatchingInferenceEngine(chain, context, 8, 1,
+				TimeUnit.MILLISECONDS)) {
+			INDArray example = Nd4j.rand(3, 1);
+			Assert.assertEquals(example.reshape(1, 3), engine.infer(example));
+			Assert.assertEquals(1, engine.getBatchCount());
+		}
+	}
+
+	@Test
+	public void testFailedBatchFailsEachRequest() {
+		Mockito.when(chain.forwardPropagate(Mockito.any(NeuronsActivation.class),
+				Mockito.any(DirectedComponentsContext.class))).thenThrow(new IllegalStateException("Failed"));
+		try (DL4JMicroBatchingInferenceEngine engine = new DL4JMicroBatchingInferenceEngine(chain, context, 8, 1,
+				TimeUnit.MILLISECONDS)) {
+			CompletableFuture<INDArray> result = engine.submit(Nd4j.rand(1, 3));
+			try {
+				result.join();
+				Assert.fail("Expected the request to fail");
+			} catch (RuntimeException e) {
+				Assert.assertTrue(result.isCompletedExceptionally());
+			}
+		}
+	}
+
+	@Test
+	public void testErrorFailsTheBatchAndClosesTheEngine() {
+		OutOfMemoryError error = new OutOfMemoryError("Unable to allocate");
+		Mockito.when(chain.forwardPropagate(Mockito.any(NeuronsActivation.class),
+				Mockito.any(DirectedComponentsContext.class))).thenThrow(error);
+		try (DL4JMicroBatchingInferenceEngine engine = new DL4JMicroBatchingInferenceEngine(chain, context, 8, 1,
+				TimeUnit.MILLISECONDS)) {
+			CompletableFuture<INDArray> result = engine.submit(Nd4j.rand(1, 3));
+			try {
+				result.join();
+				Assert.fail("Expected the request to fail");
+			} catch (CompletionException e) {
+				Assert.assertSame(error, e.getCause());
+			}
+			try {
+				engine.submit(Nd4j.rand(1, 3));
+				Assert.fail("Expected the engine to be closed");
+			} catch (IllegalStateException e) {
+				Assert.assertEquals("Inference engine is closed", e.getMessage());
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFeaturesMustMatchTheInputNeurons() {
+		try (DL4JMicroBatchingInferenceEngine engine = new DL4JMicroBatchingInferenceEngine(chain, context, 8, 1,
+				TimeUnit.MILLISECONDS)) {
+			engine.submit(Nd4j.rand(1, 4));
+		}
+	}
+}
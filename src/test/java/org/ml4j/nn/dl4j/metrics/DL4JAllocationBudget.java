@@ -0,0 +1,116 @@
+package org.ml4j.nn.dl4j.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import org.bytedeco.javacpp.Pointer;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * The declared allocation and copy budget of a single call across the DL4J
+ * bridge, for a given shape and orientation.
+ *
+ * ND4J buffers are allocated off-heap, so the heap allocated by the calling
+ * thread counts the copies which pass through Java arrays, such as
+ * getRowByRowArray() and asFloat(), plus a fixed allowance for small objects.
+ * The native bytes allocated through JavaCPP count the ND4J buffers, such as
+ * those of dup() and of arrays created from Java arrays, plus a fixed
+ * allowance for shape information. Memory recycled by a warmed-up workspace is
+ * not counted. The copies made by DL4JUtil are counted by a
+ * DL4JMetricsRegistry.
+ *
+ * The budgets have not yet been calibrated against a full test run, so each
+ * measurement is only reported unless the ml4j.allocationBudgets.enforce
+ * system property is true, in which case a call over its budget fails.
+ */
+class DL4JAllocationBudget {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DL4JAllocationBudget.class);
+
+	private static final boolean ENFORCED = Boolean.getBoolean("ml4j.allocationBudgets.enforce");
+
+	private static final int WARMUP_CALLS = 50;
+	private static final int MEASURED_CALLS = 10;
+
+	// Well below the size of a single copy of the activations budgeted by the
+	// tests
+	private static final long FIXED_OVERHEAD_BYTES = 64 * 1024;
+
+	// Room for shape information, but not for any copy of the activations
+	private static final long FIXED_NATIVE_OVERHEAD_BYTES = 16 * 1024;
+
+	private final String call;
+	private final long elements;
+	private final int heapCopies;
+	private final int nativeCopies;
+	private final int copies;
+	private final int transposes;
+
+	DL4JAllocationBudget(String call, long elements, int heapCopies, int nativeCopies, int copies, int transposes) {
+		this.call = call;
+		this.elements = elements;
+		this.heapCopies = heapCopies;
+		this.nativeCopies = nativeCopies;
+		this.copies = copies;
+		this.transposes = transposes;
+	}
+
+	void verify(Runnable runnable) {
+		ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue("Thread allocation counters are not supported",
+				threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+		long threadId = Thread.currentThread().getId();
+
+		for (int i = 0; i < WARMUP_CALLS; i++) {
+			runnable.run();
+		}
+
+		// Every call on the hot path pays for a regression, so the least allocated
+		// by any measured call excludes allocations unrelated to the call. Native
+		// memory is counted net of buffers deallocated during the call, which can
+		// only hide allocations, so the most allocated by any call is taken
+		long allocatedBytes = Long.MAX_VALUE;
+		long allocatedNativeBytes = 0;
+		for (int i = 0; i < MEASURED_CALLS; i++) {
+			long startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+			long startNativeBytes = Pointer.totalBytes();
+			runnable.run();
+			allocatedNativeBytes = Math.max(allocatedNativeBytes, Pointer.totalBytes() - startNativeBytes);
+			allocatedBytes = Math.min(allocatedBytes, threadMXBean.getThreadAllocatedBytes(threadId) - startBytes);
+		}
+
+		DL4JMetricsRegistry registry = new DL4JMetricsRegistry();
+		DL4JInstrumentation.setMetrics(registry);
+		try {
+			runnable.run();
+		} finally {
+			DL4JInstrumentation.setMetrics(null);
+		}
+		long bytesCopied = registry.getBytesCopied().values().stream().mapToLong(Long::longValue).sum();
+		long transposesMade = registry.getTransposes().values().stream().mapToLong(Long::longValue).sum();
+
+		long copyBytes = elements * Float.BYTES;
+		long allocatedBytesBudget = heapCopies * copyBytes + FIXED_OVERHEAD_BYTES;
+		long allocatedNativeBytesBudget = nativeCopies * copyBytes + FIXED_NATIVE_OVERHEAD_BYTES;
+		LOGGER.info("{} allocated {} heap bytes (budget {}), {} native bytes (budget {}), copied {} bytes (budget {})"
+				+ " and made {} transposed copies (budget {})", call, allocatedBytes, allocatedBytesBudget,
+				allocatedNativeBytes, allocatedNativeBytesBudget, bytesCopied, copies * copyBytes, transposesMade,
+				transposes);
+		if (!ENFORCED) {
+			return;
+		}
+		Assert.assertTrue(call + " allocated " + allocatedBytes + " heap bytes, over its budget of "
+				+ allocatedBytesBudget, allocatedBytes <= allocatedBytesBudget);
+		Assert.assertTrue(call + " allocated " + allocatedNativeBytes + " native bytes, over its budget of "
+				+ allocatedNativeBytesBudget, allocatedNativeBytes <= allocatedNativeBytesBudget);
+		Assert.assertTrue(call + " copied " + bytesCopied + " bytes, over its budget of " + copies * copyBytes,
+				bytesCopied <= copies * copyBytes);
+		Assert.assertTrue(call + " made " + transposesMade + " transposed copies, over its budget of " + transposes,
+				transposesMade <= transposes);
+	}
+}
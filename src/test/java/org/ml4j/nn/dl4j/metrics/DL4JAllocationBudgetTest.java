@@ -0,0 +1,158 @@
+package org.ml4j.nn.dl4j.metrics;
+
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.activationfunctions.ActivationFunctionType;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.components.activationfunctions.DifferentiableActivationFunctionComponentActivation;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.ActivationML4JReLU;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JDifferentiableActivationFunctionComponentImpl;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationContextImpl;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.mockito.Mockito;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JAllocationBudgetTest {
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+	private static final NeuronsActivationFeatureOrientation COLUMNS = NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET;
+
+	private static final int FEATURES = 256;
+
+	private static final int EXAMPLES = 512;
+
+	private static final long ELEMENTS = (long) FEATURES * EXAMPLES;
+
+	private final MatrixFactory jblasMatrixFactory = new JBlasRowMajorMatrixFactory();
+
+	private final MatrixFactory nd4jMatrixFactory = new Nd4jMatrixFactory();
+
+	private final Neurons neurons = new Neurons(FEATURES, false);
+
+	private static INDArray create(NeuronsActivationFeatureOrientation orientation, char order) {
+		Nd4j.getRandom().setSeed(1234);
+		return orientation == ROWS ? Nd4j.randn(new int[] { FEATURES, EXAMPLES }, order)
+				: Nd4j.randn(new int[] { EXAMPLES, FEATURES }, order);
+	}
+
+	private static NeuronsActivationFormat<?> format(NeuronsActivationFeatureOrientation orientation) {
+		return orientation == ROWS ? NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET
+				: NeuronsActivationFormat.COLUMNS_SPAN_FEATURE_SET;
+	}
+
+	private NeuronsActivation createActivation(MatrixFactory matrixFactory, INDArray ndArray,
+			NeuronsActivationFeatureOrientation orientation) {
+		return DL4JUtil.fromNDArray(matrixFactory, ndArray, orientation, format(orientation), neurons);
+	}
+
+	private DL4JDifferentiableActivationFunctionComponentImpl createReLUComponent() {
+		return new DL4JDifferentiableActivationFunctionComponentImpl("relu", neurons, new ActivationReLU(),
+				Mockito.mock(ActivationFunctionType.class), null,
+				new DL4JComponentConfig().withWorkspacesEnabled(true));
+	}
+
+	@Test
+	public void testConversionToMatrixCopiesOnceThroughTheHeap() {
+		// A contiguous array in the required layout is copied directly, otherwise
+		// it is transposed block by block - never both
+		INDArray ndArray = create(COLUMNS, 'c');
+		new DL4JAllocationBudget("fromNDArrayToActivationMatrix [512,256] 'c' columns to columns", ELEMENTS, 2, 0, 1, 0)
+				.verify(() -> DL4JUtil.fromNDArrayToActivationMatrix(jblasMatrixFactory, ndArray, COLUMNS, COLUMNS));
+		new DL4JAllocationBudget("fromNDArrayToActivationMatrix [512,256] 'c' columns to rows", ELEMENTS, 2, 0, 1, 1)
+				.verify(() -> DL4JUtil.fromNDArrayToActivationMatrix(jblasMatrixFactory, ndArray, COLUMNS, ROWS));
+		INDArray fortranOrdered = create(COLUMNS, 'f');
+		new DL4JAllocationBudget("fromNDArrayToActivationMatrix [512,256] 'f' columns to rows", ELEMENTS, 2, 0, 1, 0)
+				.verify(() -> DL4JUtil.fromNDArrayToActivationMatrix(jblasMatrixFactory, fortranOrdered, COLUMNS,
+						ROWS));
+	}
+
+	@Test
+	public void testConversionToNDArrayCopiesOnceWithoutTransposing() {
+		// The row-by-row data of a matrix is the column-by-column data of its
+		// transpose, so neither orientation rearranges the data
+		NeuronsActivation activation = new NeuronsActivationImpl(neurons,
+				jblasMatrixFactory.createRandn(FEATURES, EXAMPLES), NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET);
+		for (NeuronsActivationFeatureOrientation orientation : NeuronsActivationFeatureOrientation.values()) {
+			new DL4JAllocationBudget("asNDArray [256,512] rows to " + orientation, ELEMENTS, 1, 1, 1, 0)
+					.verify(() -> DL4JUtil.asNDArray(jblasMatrixFactory, activation, orientation));
+		}
+	}
+
+	@Test
+	public void testNDArrayBackedConversionsDoNotCopy() {
+		for (NeuronsActivationFeatureOrientation orientation : NeuronsActivationFeatureOrientation.values()) {
+			INDArray ndArray = create(orientation, 'c');
+			NeuronsActivation activation = createActivation(nd4jMatrixFactory, ndArray, orientation);
+			for (NeuronsActivationFeatureOrientation targetOrientation : NeuronsActivationFeatureOrientation
+					.values()) {
+				String shape = orientation + " to " + targetOrientation;
+				new DL4JAllocationBudget("fromNDArrayToActivationMatrix " + shape, ELEMENTS, 0, 0, 0, 0)
+						.verify(() -> DL4JUtil.fromNDArrayToActivationMatrix(nd4jMatrixFactory, ndArray, orientation,
+								targetOrientation));
+				new DL4JAllocationBudget("asNDArray " + shape, ELEMENTS, 0, 0, 0, 0)
+						.verify(() -> DL4JUtil.asNDArray(nd4jMatrixFactory, activation, targetOrientation));
+			}
+		}
+	}
+
+	@Test
+	public void testActivationComponentAllocatesOnlyItsResultsForNDArrayBackedActivations() {
+		DL4JDifferentiableActivationFunctionComponentImpl component = createReLUComponent();
+		NeuronsActivationContextImpl trainingContext = new NeuronsActivationContextImpl(nd4jMatrixFactory, true);
+		NeuronsActivationContextImpl inferenceContext = new NeuronsActivationContextImpl(nd4jMatrixFactory, false);
+		for (NeuronsActivationFeatureOrientation orientation : NeuronsActivationFeatureOrientation.values()) {
+			INDArray input = create(orientation, 'c');
+			INDArray outputGradient = create(orientation, 'c');
+			// The input is shared with the caller, so the only native copy is the
+			// buffer the activation function is applied to in-place, which becomes the
+			// output - and in training, the one the input gradient is written into
+			new DL4JAllocationBudget("forwardPropagate inference " + orientation, ELEMENTS, 0, 1, 0, 0)
+					.verify(() -> component.forwardPropagate(createActivation(nd4jMatrixFactory, input, orientation),
+							inferenceContext));
+			new DL4JAllocationBudget("forwardPropagate and backPropagate " + orientation, ELEMENTS, 0, 2, 0, 0)
+					.verify(() -> {
+						DifferentiableActivationFunctionComponentActivation activation = component.forwardPropagate(
+								createActivation(nd4jMatrixFactory, input, orientation), trainingContext);
+						activation.backPropagate(new DirectedComponentGradientImpl<>(
+								createActivation(nd4jMatrixFactory, outputGradient, orientation)));
+					});
+		}
+	}
+
+	@Test
+	public void testActivationComponentCopiesMatrixInputOnce() {
+		DL4JDifferentiableActivationFunctionComponentImpl component = createReLUComponent();
+		NeuronsActivationContextImpl inferenceContext = new NeuronsActivationContextImpl(jblasMatrixFactory, false);
+		NeuronsActivation input = new NeuronsActivationImpl(neurons,
+				jblasMatrixFactory.createRandn(FEATURES, EXAMPLES), NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET);
+		new DL4JAllocationBudget("forwardPropagate inference of a JBlas matrix", ELEMENTS, 1, 1, 1, 0)
+				.verify(() -> component.forwardPropagate(input, inferenceContext));
+	}
+
+	@Test
+	public void testML4JActivationFunctionAdapterDoesNotCopy() {
+		// The wrapped ML4J function allocates its result, which the adapter copies
+		// back into the input, and small wrappers which fall within the fixed
+		// allowance. Neither the input nor the result is copied again.
+		// The native allocation of the ML4J function itself has never been
+		// measured, so this budget in particular is an estimate
+		ActivationML4JReLU activationFunction = new ActivationML4JReLU("relu");
+		INDArray input = create(ROWS, 'c');
+		INDArray epsilon = create(ROWS, 'c');
+		new DL4JAllocationBudget("BaseML4JActivationFunction getActivation [256,512]", ELEMENTS, 0, 1, 0, 0)
+				.verify(() -> activationFunction.getActivation(input, true));
+		new DL4JAllocationBudget("BaseML4JActivationFunction backprop [256,512]", ELEMENTS, 0, 1, 0, 0)
+				.verify(() -> activationFunction.backprop(input, epsilon));
+	}
+}
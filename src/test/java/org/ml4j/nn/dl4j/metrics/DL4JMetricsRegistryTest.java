@@ -0,0 +1,87 @@
+package org.ml4j.nn.dl4j.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactory;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+public class DL4JMetricsRegistryTest {
+
+	private final MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactory();
+
+	@After
+	public void disableInstrumentation() {
+		DL4JInstrumentation.setMetrics(null);
+	}
+
+	@Test
+	public void testCopiesAndTransposesAreRecordedByOperation() {
+		DL4JMetricsRegistry registry = new DL4JMetricsRegistry();
+		DL4JInstrumentation.setMetrics(registry);
+		INDArray ndArray = Nd4j.rand(new int[] { 3, 4 }, 'c');
+
+		DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, ndArray,
+				NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET,
+				NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET);
+
+		Assert.assertEquals(Long.valueOf(12 * Float.BYTES),
+				registry.getBytesCopied().get("fromNDArrayToActivationMatrix"));
+		Assert.assertEquals(Long.valueOf(1), registry.getTransposes().get("fromNDArrayToActivationMatrix"));
+	}
+
+	@Test
+	public void testStridedViewsAreOnlyRecordedAsTransposedWhenTransposed() {
+		DL4JMetricsRegistry registry = new DL4JMetricsRegistry();
+		DL4JInstrumentation.setMetrics(registry);
+		INDArray view = Nd4j.rand(6, 4).get(NDArrayIndex.interval(1, 4), NDArrayIndex.all());
+
+		DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, view,
+				NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET,
+				NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET);
+
+		Assert.assertEquals(Long.valueOf(2 * 12 * Float.BYTES),
+				registry.getBytesCopied().get("fromNDArrayToActivationMatrix"));
+		Assert.assertNull(registry.getTransposes().get("fromNDArrayToActivationMatrix"));
+	}
+
+	@Test
+	public void testNothingIsRecordedOnceDisabled() {
+		DL4JMetricsRegistry registry = new DL4JMetricsRegistry();
+		DL4JInstrumentation.setMetrics(registry);
+		long startNanos = DL4JInstrumentation.startTimer();
+		Assert.assertNotEquals(0L, startNanos);
+
+		DL4JInstrumentation.setMetrics(null);
+		Assert.assertEquals(0L, DL4JInstrumentation.startTimer());
+		DL4JUtil.fromNDArrayToActivationMatrix(matrixFactory, Nd4j.rand(3, 4),
+				NeuronsActivationFeatureOrientation.COLUMNS_SPAN_FEATURE_SET,
+				NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET);
+		DL4JInstrumentation.recordForwardPropagation("component", startNanos);
+		DL4JInstrumentation.recordRetained(new Object());
+
+		Assert.assertTrue(registry.getBytesCopied().isEmpty());
+		Assert.assertTrue(registry.getTransposes().isEmpty());
+		Assert.assertTrue(registry.getForwardPropagationCounts().isEmpty());
+		Assert.assertEquals(0, registry.getLiveRetainedArrays());
+	}
+
+	@Test
+	public void testLatencyPercentilesFallInPowerOfTwoBuckets() {
+		DL4JLatencyHistogram histogram = new DL4JLatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(100);
+		}
+		histogram.record(1000000);
+
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(127, histogram.getPercentileNanos(50));
+		Assert.assertEquals(127, histogram.getPercentileNanos(99));
+		Assert.assertEquals((1L << 20) - 1, histogram.getPercentileNanos(100));
+	}
+}
@@ -0,0 +1,197 @@
+package org.ml4j.nn.dl4j.recurrent;
+
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.axons.AxonsContextImpl;
+import org.ml4j.nn.axons.AxonsGradient;
+import org.ml4j.nn.components.DirectedComponentGradientImpl;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.activationfunctions.DL4JUtil;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+public class DL4JRecurrentAxonsComponentImplTest {
+
+	private static final NeuronsActivationFeatureOrientation ROWS = NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET;
+
+	private static final int INPUT_SIZE = 3;
+
+	private static final int HIDDEN_SIZE = 4;
+
+	private final MatrixFactory matrixFactory = new Nd4jMatrixFactory();
+
+	private DL4JRecurrentAxonsComponentImpl createComponent(DL4JRecurrentCellType cellType, int timeSteps,
+			boolean returnSequences, INDArray connectionWeights, INDArray biases, boolean stateful,
+			DL4JComponentConfig config) {
+		return new DL4JRecurrentAxonsComponentImpl("rnn",
+				new DL4JRecurrentAxonsImpl(matrixFactory, cellType, new Neurons(INPUT_SIZE * timeSteps, false),
+						new Neurons(returnSequences ? HIDDEN_SIZE * timeSteps : HIDDEN_SIZE, false), timeSteps,
+						connectionWeights, biases),
+				stateful, config);
+	}
+
+	private NeuronsActivation createActivation(INDArray rowsSpanFeatureSet, Neurons neurons) {
+		return DL4JUtil.fromNDArray(matrixFactory, rowsSpanFeatureSet, ROWS,
+				NeuronsActivationFormat.ROWS_SPAN_FEATURE_SET, neurons);
+	}
+
+	private INDArray forwardPropagate(DL4JRecurrentAxonsComponentImpl component, INDArray input) {
+		AxonsContextImpl axonsContext = new AxonsContextImpl(matrixFactory, true, false);
+		return DL4JUtil.asNDArray(matrixFactory,
+				component.forwardPropagate(createActivation(input, component.getInputNeurons()), axonsContext)
+						.getOutput(),
+				ROWS);
+	}
+
+	private INDArray backPropagate(DL4JRecurrentAxonsComponentImpl component, INDArray input,
+			INDArray outputGradient) {
+		AxonsContextImpl axonsContext = new AxonsContextImpl(matrixFactory, true, false);
+		NeuronsActivation inputGradient = component
+				.forwardPropagate(createActivation(input, component.getInputNeurons()), axonsContext)
+				.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(),
+						createActivation(outputGradient, component.getOutputNeurons())))
+				.getOutput();
+		return DL4JUtil.asNDArray(matrixFactory, inputGradient, ROWS);
+	}
+
+	private void assertInputGradientMatchesFiniteDifferences(DL4JRecurrentCellType cellType) {
+		Nd4j.getRandom().setSeed(1234);
+		int timeSteps = 3;
+		int gateRows = cellType.getGateCount() * HIDDEN_SIZE;
+		DL4JRecurrentAxonsComponentImpl component = createComponent(cellType, timeSteps, true,
+				Nd4j.randn(gateRows, INPUT_SIZE + HIDDEN_SIZE).muli(0.5), Nd4j.randn(gateRows, 1).muli(0.1), false,
+				new DL4JComponentConfig());
+		INDArray input = Nd4j.randn(INPUT_SIZE * timeSteps, 5);
+		INDArray outputGradient = Nd4j.randn(HIDDEN_SIZE * timeSteps, 5);
+
+		INDArray actual = backPropagate(component, input, outputGradient);
+
+		float step = 0.01f;
+		for (int[] index : new int[][] { { 0, 0 }, { 4, 2 }, { 8, 4 } }) {
+			INDArray plus = input.dup();
+			plus.putScalar(index, input.getFloat(index) + step);
+			INDArray minus = input.dup();
+			minus.putScalar(index, input.getFloat(index) - step);
+			double loss = forwardPropagate(component, plus).mul(outputGradient).sumNumber().doubleValue()
+					- forwardPropagate(component, minus).mul(outputGradient).sumNumber().doubleValue();
+			Assert.assertEquals(loss / (2 * step), actual.getFloat(index), 0.01);
+		}
+	}
+
+	private double perturbedLoss(DL4JRecurrentAxonsComponentImpl component, INDArray input, INDArray outputGradient,
+			INDArray parameters, int[] index, float step) {
+		float value = parameters.getFloat(index);
+		parameters.putScalar(index, value + step);
+		double loss = forwardPropagate(component, input).mul(outputGradient).sumNumber().doubleValue();
+		parameters.putScalar(index, value);
+		return loss;
+	}
+
+	private void assertParameterGradientsMatchFiniteDifferences(DL4JRecurrentCellType cellType) {
+		Nd4j.getRandom().setSeed(1234);
+		int timeSteps = 3;
+		int gateRows = cellType.getGateCount() * HIDDEN_SIZE;
+		INDArray connectionWeights = Nd4j.randn(gateRows, INPUT_SIZE + HIDDEN_SIZE).muli(0.5);
+		INDArray biases = Nd4j.randn(gateRows, 1).muli(0.1);
+		DL4JRecurrentAxonsComponentImpl component = createComponent(cellType, timeSteps, true, connectionWeights,
+				biases, false, new DL4JComponentConfig());
+		INDArray input = Nd4j.randn(INPUT_SIZE * timeSteps, 5);
+		INDArray outputGradient = Nd4j.randn(HIDDEN_SIZE * timeSteps, 5);
+
+		AxonsGradient axonsGradient = component
+				.forwardPropagate(createActivation(input, component.getInputNeurons()),
+						new AxonsContextImpl(matrixFactory, true, false))
+				.backPropagate(new DirectedComponentGradientImpl<>(new ArrayList<>(),
+						createActivation(outputGradient, component.getOutputNeurons())))
+				.getTotalTrainableAxonsGradients().get(0).get();
+		INDArray weightsGradient = DL4JUtil.asNDArrayForWeights(matrixFactory, axonsGradient.getWeightsGradient(),
+				false);
+		INDArray biasGradient = DL4JUtil.asNDArrayForBias(matrixFactory, axonsGradient.getLeftToRightBiasGradient(),
+				false);
+
+		// The weights of every gate, for both the input and the previous hidden
+		// state, and the bias of every gate
+		float step = 0.01f;
+		for (int gate = 0; gate < cellType.getGateCount(); gate++) {
+			int row = gate * HIDDEN_SIZE + gate % HIDDEN_SIZE;
+			for (int[] index : new int[][] { { row, gate % INPUT_SIZE }, { row, INPUT_SIZE + gate % HIDDEN_SIZE } }) {
+				double loss = perturbedLoss(component, input, outputGradient, connectionWeights, index, step)
+						- perturbedLoss(component, input, outputGradient, connectionWeights, index, -step);
+				Assert.assertEquals(loss / (2 * step), weightsGradient.getFloat(index), 0.01);
+			}
+			int[] biasIndex = new int[] { row, 0 };
+			double loss = perturbedLoss(component, input, outputGradient, biases, biasIndex, step)
+					- perturbedLoss(component, input, outputGradient, biases, biasIndex, -step);
+			Assert.assertEquals(loss / (2 * step), biasGradient.getFloat(biasIndex), 0.01);
+		}
+	}
+
+	@Test
+	public void testLSTMInputGradientMatchesFiniteDifferences() {
+		assertInputGradientMatchesFiniteDifferences(DL4JRecurrentCellType.LSTM);
+	}
+
+	@Test
+	public void testGRUInputGradientMatchesFiniteDifferences() {
+		assertInputGradientMatchesFiniteDifferences(DL4JRecurrentCellType.GRU);
+	}
+
+	@Test
+	public void testLSTMParameterGradientsMatchFiniteDifferences() {
+		assertParameterGradientsMatchFiniteDifferences(DL4JRecurrentCellType.LSTM);
+	}
+
+	@Test
+	public void testGRUParameterGradientsMatchFiniteDifferences() {
+		assertParameterGradientsMatchFiniteDifferences(DL4JRecurrentCellType.GRU);
+	}
+
+	@Test
+	public void testStatefulComponentCarriesStateAcrossSegments() {
+		Nd4j.getRandom().setSeed(1234);
+		INDArray connectionWeights = Nd4j.randn(4 * HIDDEN_SIZE, INPUT_SIZE + HIDDEN_SIZE).muli(0.5);
+		INDArray biases = Nd4j.randn(4 * HIDDEN_SIZE, 1).muli(0.1);
+		DL4JRecurrentAxonsComponentImpl whole = createComponent(DL4JRecurrentCellType.LSTM, 4, false,
+				connectionWeights, biases, false, new DL4JComponentConfig());
+		DL4JRecurrentAxonsComponentImpl segmented = createComponent(DL4JRecurrentCellType.LSTM, 2, false,
+				connectionWeights, biases, true, new DL4JComponentConfig());
+		INDArray input = Nd4j.randn(INPUT_SIZE * 4, 2);
+
+		INDArray expected = forwardPropagate(whole, input);
+		forwardPropagate(segmented, input.get(NDArrayIndex.interval(0, 2 * INPUT_SIZE), NDArrayIndex.all()).dup());
+		Assert.assertNotNull(segmented.getPreviousState());
+		INDArray actual = forwardPropagate(segmented,
+				input.get(NDArrayIndex.interval(2 * INPUT_SIZE, 4 * INPUT_SIZE), NDArrayIndex.all()).dup());
+
+		Assert.assertTrue(expected.equalsWithEps(actual, 0.0001));
+
+		segmented.clearPreviousState();
+		Assert.assertNull(segmented.getPreviousState());
+	}
+
+	@Test
+	public void testTruncatedBpttDoesNotPropagateIntoEarlierSegments() {
+		Nd4j.getRandom().setSeed(1234);
+		DL4JRecurrentAxonsComponentImpl component = createComponent(DL4JRecurrentCellType.GRU, 4, false,
+				Nd4j.randn(3 * HIDDEN_SIZE, INPUT_SIZE + HIDDEN_SIZE), Nd4j.zeros(3 * HIDDEN_SIZE, 1), false,
+				new DL4JComponentConfig().withTruncatedBpttLength(2));
+
+		INDArray inputGradient = backPropagate(component, Nd4j.randn(INPUT_SIZE * 4, 2),
+				Nd4j.randn(HIDDEN_SIZE, 2));
+
+		// Only the final segment of two timesteps receives the gradient of the
+		// final hidden state
+		Assert.assertEquals(0, inputGradient.getRow(0).norm2Number().doubleValue(), 0);
+		Assert.assertEquals(0, inputGradient.getRow(2 * INPUT_SIZE - 1).norm2Number().doubleValue(), 0);
+		Assert.assertNotEquals(0, inputGradient.getRow(2 * INPUT_SIZE).norm2Number().doubleValue(), 0);
+	}
+}
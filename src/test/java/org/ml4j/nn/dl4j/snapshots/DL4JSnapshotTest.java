@@ -0,0 +1,137 @@
+package org.ml4j.nn.dl4j.snapshots;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.bytedeco.javacpp.Pointer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ml4j.nn.axons.AxonsContextImpl;
+import org.ml4j.nn.axons.ConnectionWeightsAdjustmentDirection;
+import org.ml4j.nn.axons.factories.AxonsFactory;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.nn.components.onetone.DefaultChainableDirectedComponent;
+import org.ml4j.nn.dl4j.DL4JComponentConfig;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsComponentImpl;
+import org.ml4j.nn.dl4j.axons.DL4JFullyConnectedAxonsImpl;
+import org.ml4j.nn.dl4j.factories.HybridML4JDL4JDefaultDirectedComponentFactory;
+import org.ml4j.nn.dl4j.matrix.Nd4jMatrixFactory;
+import org.ml4j.nn.dl4j.snapshots.DL4JSnapshotEntry.ComponentKind;
+import org.ml4j.nn.neurons.Neurons;
+import org.mockito.Mockito;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JSnapshotTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static final float DELTA = 0.00001f;
+
+	private final DL4JComponentConfig config = new DL4JComponentConfig().withFullyConnectedAxonsEnabled(true);
+
+	private HybridML4JDL4JDefaultDirectedComponentFactory factory;
+
+	@Before
+	public void setUp() {
+		factory = new HybridML4JDL4JDefaultDirectedComponentFactory(new Nd4jMatrixFactory(),
+				Mockito.mock(AxonsFactory.class), Mockito.mock(DirectedComponentsContext.class), config);
+	}
+
+	private DL4JFullyConnectedAxonsComponentImpl createComponent(INDArray weights, INDArray biases) {
+		return new DL4JFullyConnectedAxonsComponentImpl("fc", new DL4JFullyConnectedAxonsImpl(new Nd4jMatrixFactory(),
+				new Neurons(weights.columns(), true), new Neurons(weights.rows(), false), weights, biases), config);
+	}
+
+	@Test
+	public void testHeaderDescribesTopologyAndAlignedBlobs() throws IOException {
+		Path path = temporaryFolder.newFile("snapshot.bin").toPath();
+		DL4JSnapshot.write(createComponent(Nd4j.rand(3, 5), Nd4j.rand(3, 1)), path);
+
+		List<DL4JSnapshotEntry> entries = DL4JSnapshot.readEntries(path);
+
+		Assert.assertEquals(1, entries.size());
+		DL4JSnapshotEntry entry = entries.get(0);
+		Assert.assertEquals(ComponentKind.FULLY_CONNECTED_AXONS, entry.getKind());
+		Assert.assertEquals("fc", entry.getName());
+		Assert.assertEquals(5, entry.getLeftNeurons().getNeuronCountExcludingBias());
+		Assert.assertTrue(entry.getLeftNeurons().hasBiasUnit());
+		Assert.assertEquals(3, entry.getRightNeurons().getNeuronCountExcludingBias());
+		Assert.assertEquals(3, entry.getWeights().getRows());
+		Assert.assertEquals(5, entry.getWeights().getColumns());
+		Assert.assertEquals(0, entry.getWeights().getOffset());
+		Assert.assertEquals(64, entry.getBiases().getOffset());
+	}
+
+	private DL4JFullyConnectedAxonsImpl getAxons(DL4JSnapshot snapshot) {
+		List<DefaultChainableDirectedComponent<?, ?>> components = snapshot.getComponentChain().decompose();
+		Assert.assertEquals(1, components.size());
+		return ((DL4JFullyConnectedAxonsComponentImpl) components.get(0)).getAxons();
+	}
+
+	@Test
+	public void testLoadedWeightsAreMappedFromTheSnapshot() throws IOException {
+		Path path = temporaryFolder.newFile("snapshot.bin").toPath();
+		INDArray weights = Nd4j.rand(4, 6);
+		INDArray biases = Nd4j.rand(4, 1);
+		// A transposed view is written in the 'c' order of its logical layout
+		DL4JSnapshot.write(createComponent(weights.transpose().dup().transpose(), biases), path);
+
+		DL4JSnapshot snapshot = DL4JSnapshot.load(path, factory);
+
+		Assert.assertEquals(2, snapshot.getMappedBlobCount());
+		DL4JFullyConnectedAxonsImpl axons = getAxons(snapshot);
+		Assert.assertEquals(weights, axons.getConnectionWeightsNDArray());
+		Assert.assertEquals(biases, axons.getLeftToRightBiasesNDArray());
+		// The parameters are backed by the mapped memory itself, not by a copy
+		Assert.assertEquals(new Pointer(snapshot.getMappings().get(0)).address(),
+				axons.getConnectionWeightsNDArray().data().address());
+		Assert.assertEquals(new Pointer(snapshot.getMappings().get(1)).address(),
+				axons.getLeftToRightBiasesNDArray().data().address());
+	}
+
+	@Test
+	public void testReadOnlySnapshotsCannotBeTrained() throws IOException {
+		Path path = temporaryFolder.newFile("snapshot.bin").toPath();
+		DL4JSnapshot.write(createComponent(Nd4j.rand(4, 6), Nd4j.rand(4, 1)), path);
+
+		DL4JFullyConnectedAxonsImpl axons = getAxons(DL4JSnapshot.load(path, factory));
+
+		Assert.assertTrue(axons.isReadOnly());
+		Assert.assertFalse(axons.isTrainable(new AxonsContextImpl(new Nd4jMatrixFactory(), true, false)));
+		try {
+			axons.adjustConnectionWeights(new Nd4jMatrixFactory().createOnes(4, 6),
+					ConnectionWeightsAdjustmentDirection.SUBTRACTION, true);
+			Assert.fail("Read-only axons should reject adjustments");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testPrivatelyMappedWeightsCanBeTrainedWithoutChangingTheFile() throws IOException {
+		Path path = temporaryFolder.newFile("snapshot.bin").toPath();
+		INDArray weights = Nd4j.rand(4, 6);
+		DL4JSnapshot.write(createComponent(weights, Nd4j.rand(4, 1)), path);
+
+		DL4JSnapshot snapshot = DL4JSnapshot.load(path, factory, MapMode.PRIVATE);
+		DL4JFullyConnectedAxonsImpl axons = getAxons(snapshot);
+		Assert.assertFalse(axons.isReadOnly());
+		axons.adjustConnectionWeights(new Nd4jMatrixFactory().createOnes(4, 6),
+				ConnectionWeightsAdjustmentDirection.ADDITION, true);
+
+		// The adjustment is made in the private mapping, but not written to the file
+		ByteBuffer mapping = snapshot.getMappings().get(0).order(ByteOrder.nativeOrder());
+		Assert.assertEquals(weights.getFloat(0, 0) + 1, mapping.getFloat(0), DELTA);
+		Assert.assertEquals(weights.add(1), axons.getConnectionWeightsNDArray());
+		Assert.assertEquals(weights, getAxons(DL4JSnapshot.load(path, factory)).getConnectionWeightsNDArray());
+	}
+}
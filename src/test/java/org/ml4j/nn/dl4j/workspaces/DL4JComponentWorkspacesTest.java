@@ -0,0 +1,60 @@
+package org.ml4j.nn.dl4j.workspaces;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class DL4JComponentWorkspacesTest {
+
+	private static final int ITERATIONS = 20;
+
+	private static INDArray propagate(DL4JComponentWorkspaces workspaces, int iteration) {
+		try (MemoryWorkspace workspace = workspaces.activateForwardPropagationWorkspace()) {
+			INDArray scratch = Nd4j.valueArrayOf(64, 32, iteration);
+			Assert.assertTrue(scratch.isAttached());
+			INDArray retained = DL4JComponentWorkspaces.dupOutOfWorkspaces(scratch.addi(1));
+			Assert.assertFalse(retained.isAttached());
+			return retained;
+		}
+	}
+
+	@Test
+	public void testArraysDuplicatedOutOfWorkspacesSurviveReuse() {
+		DL4JComponentWorkspaces workspaces = new DL4JComponentWorkspaces("reuse", true);
+		List<INDArray> retained = new ArrayList<>();
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			retained.add(propagate(workspaces, iteration));
+		}
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			Assert.assertEquals(Nd4j.valueArrayOf(64, 32, iteration + 1), retained.get(iteration));
+		}
+	}
+
+	@Test
+	public void testSteadyStateDoesNotGrowWorkspace() {
+		DL4JComponentWorkspaces workspaces = new DL4JComponentWorkspaces("steadyState", true);
+		Assert.assertEquals(0, workspaces.getForwardPropagationWorkspaceSize());
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			propagate(workspaces, iteration);
+		}
+		long size = workspaces.getForwardPropagationWorkspaceSize();
+		Assert.assertTrue(size > 0);
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			propagate(workspaces, iteration);
+		}
+		Assert.assertEquals(size, workspaces.getForwardPropagationWorkspaceSize());
+	}
+
+	@Test
+	public void testDisabledWorkspacesAreNotActivated() {
+		DL4JComponentWorkspaces workspaces = new DL4JComponentWorkspaces("disabled", false);
+		Assert.assertNull(workspaces.activateForwardPropagationWorkspace());
+		Assert.assertNull(workspaces.activateBackPropagationWorkspace());
+		Assert.assertEquals(0, workspaces.getBackPropagationWorkspaceSize());
+	}
+}